@@ -0,0 +1,353 @@
+package org.nentangso.core.annotation.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.*;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+
+/**
+ * Generates {@code <Dto>_NtsValidator} classes for DTOs annotated with {@code @CompiledValidator}.
+ * <p>
+ * The generated validator checks {@code @NotNull}, {@code @NotBlank}, {@code @Size} and {@code @Min} field constraints
+ * through the getters, so that {@code NtsValidationUtils} does not run Bean Validation for these DTOs.
+ * Messages of violated constraints are interpolated from their message template by {@code NtsValidationUtils#interpolate},
+ * with the configured {@code MessageInterpolator}, as Bean Validation does.
+ * A DTO with any other constraint, {@code @Valid}, validation groups, getter or class level constraints
+ * is skipped with a note and keeps being validated by Bean Validation.
+ */
+@SupportedAnnotationTypes(NtsValidatorProcessor.COMPILED_VALIDATOR)
+public class NtsValidatorProcessor extends AbstractProcessor {
+    static final String COMPILED_VALIDATOR = "org.nentangso.core.annotation.CompiledValidator";
+    static final String CLASS_SUFFIX = "_NtsValidator";
+
+    private static final String CONSTRAINTS_PACKAGE = "javax.validation.constraints.";
+    private static final String CONSTRAINT = "javax.validation.Constraint";
+    private static final String VALID = "javax.validation.Valid";
+    private static final String NOT_NULL = CONSTRAINTS_PACKAGE + "NotNull";
+    private static final String NOT_BLANK = CONSTRAINTS_PACKAGE + "NotBlank";
+    private static final String SIZE = CONSTRAINTS_PACKAGE + "Size";
+    private static final String MIN = CONSTRAINTS_PACKAGE + "Min";
+    private static final Set<String> SUPPORTED = Set.of(NOT_NULL, NOT_BLANK, SIZE, MIN);
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement compiledValidator = processingEnv.getElementUtils().getTypeElement(COMPILED_VALIDATOR);
+        if (compiledValidator == null) return false;
+        for (TypeElement type : ElementFilter.typesIn(roundEnv.getElementsAnnotatedWith(compiledValidator))) {
+            try {
+                generate(type, collectRules(type));
+            } catch (UnsupportedException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+                    "No compiled validator for " + type.getQualifiedName() + ": " + e.getMessage(), type);
+            } catch (IOException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Cannot write compiled validator: " + e.getMessage(), type);
+            }
+        }
+        return true;
+    }
+
+    private List<Rule> collectRules(TypeElement type) throws UnsupportedException {
+        if (type.getNestingKind() != NestingKind.TOP_LEVEL) {
+            throw new UnsupportedException("not a top level class");
+        }
+        if (!type.getTypeParameters().isEmpty()) {
+            throw new UnsupportedException("generic class");
+        }
+        List<Rule> rules = new ArrayList<>();
+        TypeElement current = type;
+        while (current != null && !current.getQualifiedName().contentEquals("java.lang.Object")) {
+            checkNoConstraint(current, current.getAnnotationMirrors());
+            for (ExecutableElement method : ElementFilter.methodsIn(current.getEnclosedElements())) {
+                checkNoConstraint(method, method.getAnnotationMirrors());
+                for (VariableElement parameter : method.getParameters()) {
+                    checkNoConstraint(parameter, parameter.getAnnotationMirrors());
+                }
+            }
+            for (VariableElement field : ElementFilter.fieldsIn(current.getEnclosedElements())) {
+                if (field.getModifiers().contains(Modifier.STATIC)) continue;
+                checkNoTypeArgumentConstraint(field, field.asType());
+                for (AnnotationMirror annotation : field.getAnnotationMirrors()) {
+                    String name = annotationName(annotation);
+                    if (SUPPORTED.contains(name)) {
+                        rules.add(createRule(type, field, annotation, name));
+                    } else if (isConstraint(annotation)) {
+                        throw new UnsupportedException("unsupported " + name + " on " + field.getSimpleName());
+                    }
+                }
+            }
+            current = superclass(current);
+        }
+        return rules;
+    }
+
+    private Rule createRule(TypeElement type, VariableElement field, AnnotationMirror annotation, String name) throws UnsupportedException {
+        Map<String, Object> values = annotationValues(annotation);
+        if (!((List<?>) values.get("groups")).isEmpty() || !((List<?>) values.get("payload")).isEmpty()) {
+            throw new UnsupportedException("groups or payload on " + field.getSimpleName());
+        }
+        TypeMirror fieldType = field.asType();
+        Rule rule = new Rule(field.getSimpleName().toString(), getter(type, field), fieldType, name);
+        switch (name) {
+            case NOT_NULL:
+                break;
+            case NOT_BLANK:
+                if (!isAssignable(fieldType, "java.lang.CharSequence")) {
+                    throw new UnsupportedException("@NotBlank on " + fieldType);
+                }
+                break;
+            case SIZE:
+                rule.kind = sizeKind(fieldType);
+                rule.min = ((Number) values.get("min")).longValue();
+                rule.max = ((Number) values.get("max")).longValue();
+                break;
+            case MIN:
+                rule.kind = minKind(fieldType);
+                rule.min = ((Number) values.get("value")).longValue();
+                break;
+            default:
+                throw new UnsupportedException(name);
+        }
+        return rule;
+    }
+
+    private void generate(TypeElement type, List<Rule> rules) throws IOException {
+        String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+        String typeName = type.getSimpleName().toString();
+        String className = typeName + CLASS_SUFFIX;
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(
+            packageName.isEmpty() ? className : packageName + "." + className, type);
+        StringBuilder source = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+        source.append("import java.util.List;\n")
+            .append("import java.util.Map;\n")
+            .append("import org.nentangso.core.service.utils.NtsObjectValidator;\n\n")
+            .append("@javax.annotation.processing.Generated(\"").append(getClass().getName()).append("\")\n")
+            .append("public final class ").append(className).append(" implements NtsObjectValidator<").append(typeName).append("> {\n")
+            .append("    @Override\n")
+            .append("    public void validate(").append(typeName).append(" object, String prefix, Map<String, List<String>> errors) {\n");
+        String field = null;
+        for (Rule rule : rules) {
+            String condition = condition(rule, "value");
+            if (condition == null) continue;
+            if (!rule.field.equals(field)) {
+                if (field != null) source.append("        }\n");
+                field = rule.field;
+                source.append("        {\n")
+                    .append("            var value = object.").append(rule.getter).append("();\n");
+            }
+            source.append("            if (").append(condition).append(") {\n")
+                .append("                NtsObjectValidator.addError(errors, prefix, ").append(typeName).append(".class, ")
+                .append(literal(rule.field)).append(", ").append(rule.constraint).append(".class, value);\n")
+                .append("            }\n");
+        }
+        if (field != null) source.append("        }\n");
+        source.append("    }\n}\n");
+        try (Writer writer = file.openWriter()) {
+            writer.write(source.toString());
+        }
+    }
+
+    private static String condition(Rule rule, String value) {
+        boolean primitive = rule.type.getKind().isPrimitive();
+        switch (rule.constraint) {
+            case NOT_NULL:
+                return primitive ? null : value + " == null";
+            case NOT_BLANK:
+                return value + " == null || " + value + ".toString().trim().isEmpty()";
+            case SIZE:
+                String size = value + rule.kind;
+                List<String> bounds = new ArrayList<>();
+                if (rule.min > 0) bounds.add(size + " < " + rule.min);
+                if (rule.max < Integer.MAX_VALUE) bounds.add(size + " > " + rule.max);
+                if (bounds.isEmpty()) return null;
+                return value + " != null && (" + String.join(" || ", bounds) + ")";
+            case MIN:
+                String nullCheck = primitive ? "" : value + " != null && ";
+                if (rule.kind.isEmpty()) {
+                    return nullCheck + value + " < " + rule.min + "L";
+                }
+                return nullCheck + value + ".compareTo(" + rule.kind + ".valueOf(" + rule.min + "L)) < 0";
+            default:
+                return null;
+        }
+    }
+
+    private String sizeKind(TypeMirror type) throws UnsupportedException {
+        if (type.getKind() == TypeKind.ARRAY) return ".length";
+        if (isAssignable(type, "java.lang.CharSequence")) return ".length()";
+        if (isAssignable(type, "java.util.Collection") || isAssignable(type, "java.util.Map")) return ".size()";
+        throw new UnsupportedException("@Size on " + type);
+    }
+
+    private String minKind(TypeMirror type) throws UnsupportedException {
+        Types types = processingEnv.getTypeUtils();
+        TypeMirror primitive = type;
+        if (!type.getKind().isPrimitive()) {
+            try {
+                primitive = types.unboxedType(type);
+            } catch (IllegalArgumentException e) {
+                if (isSameType(type, "java.math.BigDecimal")) return "java.math.BigDecimal";
+                if (isSameType(type, "java.math.BigInteger")) return "java.math.BigInteger";
+                throw new UnsupportedException("@Min on " + type);
+            }
+        }
+        switch (primitive.getKind()) {
+            case BYTE:
+            case SHORT:
+            case INT:
+            case LONG:
+                return "";
+            default:
+                throw new UnsupportedException("@Min on " + type);
+        }
+    }
+
+    private String getter(TypeElement type, VariableElement field) throws UnsupportedException {
+        String name = field.getSimpleName().toString();
+        String capitalized = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        List<String> candidates = field.asType().getKind() == TypeKind.BOOLEAN
+            ? List.of("is" + capitalized, "get" + capitalized)
+            : List.of("get" + capitalized);
+        Elements elements = processingEnv.getElementUtils();
+        PackageElement packageElement = elements.getPackageOf(type);
+        for (ExecutableElement method : ElementFilter.methodsIn(elements.getAllMembers(type))) {
+            if (!method.getParameters().isEmpty()
+                || method.getModifiers().contains(Modifier.STATIC)
+                || method.getModifiers().contains(Modifier.PRIVATE)
+                || !candidates.contains(method.getSimpleName().toString())
+                || !processingEnv.getTypeUtils().isSameType(method.getReturnType(), field.asType())) {
+                continue;
+            }
+            if (method.getModifiers().contains(Modifier.PUBLIC) || elements.getPackageOf(method).equals(packageElement)) {
+                return method.getSimpleName().toString();
+            }
+        }
+        throw new UnsupportedException("no getter for " + name);
+    }
+
+    private void checkNoConstraint(Element element, List<? extends AnnotationMirror> annotations) throws UnsupportedException {
+        for (AnnotationMirror annotation : annotations) {
+            if (isConstraint(annotation)) {
+                throw new UnsupportedException(annotationName(annotation) + " on " + element.getSimpleName());
+            }
+        }
+    }
+
+    private void checkNoTypeArgumentConstraint(VariableElement field, TypeMirror type) throws UnsupportedException {
+        if (type.getKind() == TypeKind.ARRAY) {
+            TypeMirror component = ((ArrayType) type).getComponentType();
+            checkNoConstraint(field, component.getAnnotationMirrors());
+            checkNoTypeArgumentConstraint(field, component);
+        } else if (type.getKind() == TypeKind.DECLARED) {
+            for (TypeMirror argument : ((DeclaredType) type).getTypeArguments()) {
+                checkNoConstraint(field, argument.getAnnotationMirrors());
+                checkNoTypeArgumentConstraint(field, argument);
+            }
+        }
+    }
+
+    private static boolean isConstraint(AnnotationMirror annotation) {
+        String name = annotationName(annotation);
+        if (name.equals(VALID) || name.startsWith(CONSTRAINTS_PACKAGE)) return true;
+        for (AnnotationMirror meta : annotation.getAnnotationType().asElement().getAnnotationMirrors()) {
+            if (annotationName(meta).equals(CONSTRAINT)) return true;
+        }
+        return false;
+    }
+
+    private static String annotationName(AnnotationMirror annotation) {
+        return ((TypeElement) annotation.getAnnotationType().asElement()).getQualifiedName().toString();
+    }
+
+    private Map<String, Object> annotationValues(AnnotationMirror annotation) {
+        Map<String, Object> values = new HashMap<>();
+        processingEnv.getElementUtils().getElementValuesWithDefaults(annotation)
+            .forEach((key, value) -> values.put(key.getSimpleName().toString(), value.getValue()));
+        return values;
+    }
+
+    private boolean isAssignable(TypeMirror type, String className) {
+        Types types = processingEnv.getTypeUtils();
+        TypeElement element = processingEnv.getElementUtils().getTypeElement(className);
+        return element != null && types.isAssignable(types.erasure(type), types.erasure(element.asType()));
+    }
+
+    private boolean isSameType(TypeMirror type, String className) {
+        TypeElement element = processingEnv.getElementUtils().getTypeElement(className);
+        return element != null && processingEnv.getTypeUtils().isSameType(type, element.asType());
+    }
+
+    private static TypeElement superclass(TypeElement type) {
+        TypeMirror superclass = type.getSuperclass();
+        return superclass.getKind() == TypeKind.DECLARED ? (TypeElement) ((DeclaredType) superclass).asElement() : null;
+    }
+
+    private static String literal(String value) {
+        StringBuilder literal = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    literal.append("\\\"");
+                    break;
+                case '\\':
+                    literal.append("\\\\");
+                    break;
+                case '\n':
+                    literal.append("\\n");
+                    break;
+                case '\r':
+                    literal.append("\\r");
+                    break;
+                default:
+                    if (c < 0x20 || c > 0x7e) {
+                        literal.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        literal.append(c);
+                    }
+            }
+        }
+        return literal.append('"').toString();
+    }
+
+    private static final class Rule {
+        private final String field;
+        private final String getter;
+        private final TypeMirror type;
+        private final String constraint;
+        private String kind = "";
+        private long min;
+        private long max;
+
+        Rule(String field, String getter, TypeMirror type, String constraint) {
+            this.field = field;
+            this.getter = getter;
+            this.type = type;
+            this.constraint = constraint;
+        }
+    }
+
+    private static final class UnsupportedException extends Exception {
+        UnsupportedException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package org.nentangso.core.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Generate a plain Java validator for this DTO at compile time.
+ * <p>
+ * Processed by {@code nts-saas-annotation-processor}, when it is on the annotation processor path.
+ * Only DTOs constrained with {@code @NotNull}, {@code @NotBlank}, {@code @Size} and {@code @Min} on fields with getters are supported,
+ * other DTOs are left to Bean Validation.
+ */
+@Target({ElementType.TYPE})
+@Retention(RetentionPolicy.CLASS)
+public @interface CompiledValidator {
+}
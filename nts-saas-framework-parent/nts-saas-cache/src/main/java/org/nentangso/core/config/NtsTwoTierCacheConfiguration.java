@@ -0,0 +1,101 @@
+package org.nentangso.core.config;
+
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.nentangso.core.repository.NtsCacheInvalidationJdbcRepository;
+import org.nentangso.core.service.cache.NtsTwoTierCacheManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.concurrent.ConcurrentMapCache;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Primary {@link CacheManager} with a local near tier in front of a shared tier, see {@link NtsTwoTierCacheManager}.
+ * <p>
+ * The shared tier is the {@link CacheManager} bean named {@value #SHARED_CACHE_MANAGER}, Redis, Hazelcast or JCache.
+ * Without it, startup fails unless {@code nts.cache.two-tier.local-shared.enabled} is true, for development and
+ * single-node deployments: a local cache bounded by {@code nts.cache.two-tier.local-shared.maximum-size} per cache and
+ * {@code nts.cache.two-tier.local-shared.ttl} then stands in, and invalidations of the other nodes evict both tiers.
+ * Evictions and clears are published to {@code nts_cache_invalidations} and applied on the other nodes by
+ * {@link org.nentangso.core.service.cache.NtsCacheInvalidationPoller}, scheduled by this configuration.
+ */
+@Configuration
+@EnableCaching
+@EnableScheduling
+@ConditionalOnProperty(
+    prefix = "nts.cache.two-tier",
+    name = "enabled",
+    havingValue = "true"
+)
+public class NtsTwoTierCacheConfiguration {
+    public static final String SHARED_CACHE_MANAGER = "ntsSharedCacheManager";
+
+    private final Logger log = LoggerFactory.getLogger(NtsTwoTierCacheConfiguration.class);
+
+    @Bean
+    @Primary
+    public NtsTwoTierCacheManager ntsTwoTierCacheManager(
+        @Qualifier(SHARED_CACHE_MANAGER) Optional<CacheManager> sharedCacheManager,
+        NtsCacheInvalidationJdbcRepository cacheInvalidationRepository,
+        ObjectProvider<MeterRegistry> meterRegistry,
+        @Value("${nts.cache.two-tier.near.maximum-size:10000}") long nearMaximumSize,
+        @Value("${nts.cache.two-tier.near.ttl:PT1M}") Duration nearTtl,
+        @Value("${nts.cache.two-tier.transaction-aware:true}") boolean transactionAware,
+        @Value("${nts.cache.two-tier.local-shared.enabled:false}") boolean localSharedEnabled,
+        @Value("${nts.cache.two-tier.local-shared.maximum-size:10000}") long localSharedMaximumSize,
+        @Value("${nts.cache.two-tier.local-shared.ttl:PT10M}") Duration localSharedTtl
+    ) {
+        if (sharedCacheManager.isEmpty()) {
+            if (!localSharedEnabled) {
+                throw new IllegalStateException("No " + SHARED_CACHE_MANAGER + " bean for the shared cache tier, " +
+                    "define one or set nts.cache.two-tier.local-shared.enabled=true for a local stand-in");
+            }
+            log.warn("No {} bean, a local cache stands in for the shared tier, for development and single-node deployments only",
+                SHARED_CACHE_MANAGER);
+        }
+        return new NtsTwoTierCacheManager(
+            sharedCacheManager.orElseGet(() -> localSharedCacheManager(localSharedMaximumSize, localSharedTtl)),
+            sharedCacheManager.isEmpty(),
+            nearMaximumSize,
+            nearTtl,
+            transactionAware,
+            cacheInvalidationRepository,
+            meterRegistry.getIfAvailable(SimpleMeterRegistry::new)
+        );
+    }
+
+    /**
+     * @param maximumSize the maximum number of entries per cache
+     * @param ttl         the time an entry is kept after it was written
+     * @return a local {@link CacheManager} of bounded caches
+     */
+    static CacheManager localSharedCacheManager(long maximumSize, Duration ttl) {
+        return new ConcurrentMapCacheManager() {
+            @Override
+            protected Cache createConcurrentMapCache(String name) {
+                ConcurrentMap<Object, Object> store = CacheBuilder.newBuilder()
+                    .maximumSize(maximumSize)
+                    .expireAfterWrite(ttl)
+                    .build()
+                    .asMap();
+                return new ConcurrentMapCache(name, store, isAllowNullValues());
+            }
+        };
+    }
+}
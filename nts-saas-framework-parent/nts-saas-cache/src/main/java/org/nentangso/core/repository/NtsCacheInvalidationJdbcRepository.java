@@ -0,0 +1,142 @@
+package org.nentangso.core.repository;
+
+import org.nentangso.core.service.cache.NtsCacheInvalidationPublisher;
+import org.nentangso.core.service.utils.NtsIdUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Plain JDBC access to the {@code nts_cache_invalidations} change table, one row per write, eviction or clear:
+ * <pre>
+ * id         bigint primary key -- NtsIdUtils.nextId(), time-ordered
+ * cache_name varchar(100) not null
+ * cache_key  varchar(255)        -- null when the whole cache was cleared
+ * origin     varchar(36)  not null
+ * created_at timestamp    not null
+ * </pre>
+ * Rows are written with the origin of this instance, so that it can skip its own invalidations when it reads the table.
+ * They are written in their own transaction, invalidations are published after the commit of the transaction that changed the data.
+ */
+@ConditionalOnProperty(
+    prefix = "nts.cache.two-tier",
+    name = "enabled",
+    havingValue = "true"
+)
+@Repository
+public class NtsCacheInvalidationJdbcRepository implements NtsCacheInvalidationPublisher {
+    private static final Logger log = LoggerFactory.getLogger(NtsCacheInvalidationJdbcRepository.class);
+
+    static final String TABLE = "nts_cache_invalidations";
+    static final int MAX_KEY_LENGTH = 255;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final String origin = UUID.randomUUID().toString();
+
+    public NtsCacheInvalidationJdbcRepository(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * Insert one invalidation. A key longer than the column is published as a clear of the cache.
+     * Failures are logged, the near cache TTL bounds how long other nodes stay stale.
+     *
+     * @param cacheName the cache name
+     * @param key       the key as a string, or null when the whole cache was cleared
+     */
+    @Override
+    public void publish(String cacheName, String key) {
+        String cacheKey = key != null && key.length() > MAX_KEY_LENGTH ? null : key;
+        try {
+            transactionTemplate.executeWithoutResult(status -> jdbcTemplate.update("insert into " + TABLE +
+                    " (id, cache_name, cache_key, origin, created_at) values (?, ?, ?, ?, ?)",
+                NtsIdUtils.nextId(), cacheName, cacheKey, origin, Timestamp.from(Instant.now())));
+        } catch (RuntimeException e) {
+            log.warn("Cannot publish invalidation of cache {} key {}", cacheName, cacheKey, e);
+        }
+    }
+
+    /**
+     * Invalidations of all instances, in id order.
+     *
+     * @param afterId exclusive lower bound of the ids
+     * @param limit   the maximum number of rows
+     * @return the invalidations
+     */
+    public List<Invalidation> findAfter(long afterId, int limit) {
+        List<Invalidation> invalidations = new ArrayList<>();
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement("select id, cache_name, cache_key, origin from " + TABLE +
+                " where id > ? order by id");
+            ps.setMaxRows(limit);
+            ps.setLong(1, afterId);
+            return ps;
+        }, rs -> {
+            invalidations.add(new Invalidation(rs.getLong(1), rs.getString(2), rs.getString(3), origin.equals(rs.getString(4))));
+        });
+        return invalidations;
+    }
+
+    /**
+     * @param beforeId exclusive upper bound of the ids
+     * @return the number of deleted rows
+     */
+    public int deleteBefore(long beforeId) {
+        return jdbcTemplate.update("delete from " + TABLE + " where id < ?", beforeId);
+    }
+
+    public String getOrigin() {
+        return origin;
+    }
+
+    public static final class Invalidation {
+        private final long id;
+        private final String cacheName;
+        private final String cacheKey;
+        private final boolean own;
+
+        Invalidation(long id, String cacheName, String cacheKey, boolean own) {
+            this.id = id;
+            this.cacheName = cacheName;
+            this.cacheKey = cacheKey;
+            this.own = own;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getCacheName() {
+            return cacheName;
+        }
+
+        /**
+         * @return the key as a string, or null when the whole cache was cleared
+         */
+        public String getCacheKey() {
+            return cacheKey;
+        }
+
+        /**
+         * @return true if this instance published the invalidation
+         */
+        public boolean isOwn() {
+            return own;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package org.nentangso.core.service.cache;
+
+import org.nentangso.core.repository.NtsCacheInvalidationJdbcRepository;
+import org.nentangso.core.repository.NtsCacheInvalidationJdbcRepository.Invalidation;
+import org.nentangso.core.service.utils.NtsIdUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Applies the invalidations of the other nodes to the near tier of {@link NtsTwoTierCacheManager}.
+ * <p>
+ * Ids of {@code nts_cache_invalidations} are time-ordered but written by several nodes, so a row can become visible after
+ * rows with greater ids. Each poll reads again the rows of the last {@code nts.cache.two-tier.invalidation.lookback},
+ * which covers clock skew between nodes and insert latency, and skips the rows it already applied.
+ * When no poll succeeded for longer than the lookback, rows may have been missed and every near tier is cleared.
+ * Rows older than {@code nts.cache.two-tier.invalidation.retention} are deleted by {@link #purge()}.
+ */
+@ConditionalOnProperty(
+    prefix = "nts.cache.two-tier",
+    name = "enabled",
+    havingValue = "true"
+)
+@Component
+public class NtsCacheInvalidationPoller {
+    private static final Logger log = LoggerFactory.getLogger(NtsCacheInvalidationPoller.class);
+
+    private final NtsCacheInvalidationJdbcRepository cacheInvalidationRepository;
+    private final NtsTwoTierCacheManager cacheManager;
+    private final Duration lookback;
+    private final Duration retention;
+    private final int batchSize;
+    private final NavigableSet<Long> appliedIds = new ConcurrentSkipListSet<>();
+    private final AtomicBoolean polling = new AtomicBoolean(false);
+    private volatile Instant lastPolledAt = Instant.now();
+
+    public NtsCacheInvalidationPoller(
+        NtsCacheInvalidationJdbcRepository cacheInvalidationRepository,
+        NtsTwoTierCacheManager cacheManager,
+        @Value("${nts.cache.two-tier.invalidation.lookback:PT10S}") Duration lookback,
+        @Value("${nts.cache.two-tier.invalidation.retention:PT1H}") Duration retention,
+        @Value("${nts.cache.two-tier.invalidation.batch-size:1000}") int batchSize
+    ) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize");
+        }
+        if (retention.compareTo(lookback) <= 0) {
+            throw new IllegalArgumentException("retention must be longer than lookback");
+        }
+        this.cacheInvalidationRepository = cacheInvalidationRepository;
+        this.cacheManager = cacheManager;
+        this.lookback = lookback;
+        this.retention = retention;
+        this.batchSize = batchSize;
+    }
+
+    @Scheduled(fixedDelayString = "${nts.cache.two-tier.invalidation.poll-interval:PT1S}")
+    public void scheduledPoll() {
+        try {
+            poll();
+        } catch (DataAccessException e) {
+            log.warn("Cannot poll cache invalidations", e);
+        }
+    }
+
+    /**
+     * Apply the invalidations of the other nodes, unless a poll is already in progress.
+     *
+     * @return the number of invalidations applied
+     */
+    public int poll() {
+        if (!polling.compareAndSet(false, true)) return 0;
+        try {
+            Instant now = Instant.now();
+            boolean missed = lastPolledAt.plus(lookback).isBefore(now);
+            long floor = NtsIdUtils.firstIdAt(now.minus(lookback));
+            int applied = 0;
+            long afterId = floor;
+            List<Invalidation> invalidations;
+            do {
+                invalidations = cacheInvalidationRepository.findAfter(afterId, batchSize);
+                for (Invalidation invalidation : invalidations) {
+                    afterId = invalidation.getId();
+                    if (!appliedIds.add(invalidation.getId()) || invalidation.isOwn() || missed) continue;
+                    cacheManager.evictLocal(invalidation.getCacheName(), invalidation.getCacheKey());
+                    applied++;
+                }
+            } while (invalidations.size() == batchSize);
+            appliedIds.headSet(floor, true).clear();
+            if (missed) {
+                log.warn("Cache invalidations may have been missed since {}, clear near caches", lastPolledAt);
+                cacheManager.clearLocal();
+            }
+            lastPolledAt = now;
+            return applied;
+        } finally {
+            polling.set(false);
+        }
+    }
+
+    /**
+     * Delete the invalidations older than the retention, on any node.
+     *
+     * @return the number of deleted rows
+     */
+    @Scheduled(cron = "${nts.cache.two-tier.invalidation.purge-cron:0 */5 * * * *}")
+    public int purge() {
+        try {
+            return cacheInvalidationRepository.deleteBefore(NtsIdUtils.firstIdAt(Instant.now().minus(retention)));
+        } catch (DataAccessException e) {
+            log.warn("Cannot purge cache invalidations", e);
+            return 0;
+        }
+    }
+}
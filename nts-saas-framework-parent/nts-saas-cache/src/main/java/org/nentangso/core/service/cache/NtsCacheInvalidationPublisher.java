@@ -0,0 +1,14 @@
+package org.nentangso.core.service.cache;
+
+/**
+ * Broadcasts cache invalidations to the other nodes, which evict the entry from their near cache.
+ */
+public interface NtsCacheInvalidationPublisher {
+    /**
+     * Publish one invalidation. Failures must not be thrown, the near cache TTL bounds how long other nodes stay stale.
+     *
+     * @param cacheName the cache name
+     * @param key       the key as a string, or null when the whole cache was cleared
+     */
+    void publish(String cacheName, String key);
+}
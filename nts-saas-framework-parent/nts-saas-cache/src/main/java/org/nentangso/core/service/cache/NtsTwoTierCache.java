@@ -0,0 +1,287 @@
+package org.nentangso.core.service.cache;
+
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.cache.Cache;
+import org.springframework.cache.support.SimpleValueWrapper;
+
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache with a local near tier in front of a shared tier.
+ * <p>
+ * Reads are served by the near tier, then by the shared tier, which fills the near tier. Writes go to both tiers and are
+ * not published: a put is a fill after a miss, e.g. by {@code @Cacheable}, and has nothing to invalidate. Evictions and clears
+ * are published with {@link NtsCacheInvalidationPublisher}, other nodes then evict the entry from their near tier with
+ * {@link #evictLocal(String)} and read the value from the shared tier. A changed value must reach the other nodes as an eviction,
+ * {@code @CacheEvict} rather than {@code @CachePut}. Near entries are keyed by {@link #nearKey(Object) the string form of the key},
+ * the form that is published.
+ * <p>
+ * An invalidation received while a value is read from the shared tier wins: the value is returned, not kept in the near tier.
+ * The near tier is bounded by size and TTL, the TTL is also the longest time a node stays stale when an invalidation is lost.
+ * <p>
+ * Metrics, tagged with the cache name: {@code nts.cache.gets} by {@code tier} and {@code result}, {@code nts.cache.hit.ratio}
+ * of both tiers, {@code nts.cache.near.hit.ratio}, {@code nts.cache.near.size} and {@code nts.cache.invalidations} by {@code source}.
+ */
+public class NtsTwoTierCache implements Cache {
+    private final String name;
+    private final com.google.common.cache.Cache<String, ValueWrapper> near;
+    private final Cache shared;
+    private final boolean sharedLocal;
+    private final NtsCacheInvalidationPublisher invalidationPublisher;
+    /**
+     * Incremented by every eviction, a read from the shared tier fills the near tier only if it did not change meanwhile
+     */
+    private final AtomicLong generation = new AtomicLong();
+    private final Counter nearHits;
+    private final Counter nearMisses;
+    private final Counter sharedHits;
+    private final Counter sharedMisses;
+    private final Counter localInvalidations;
+    private final Counter remoteInvalidations;
+
+    /**
+     * @param shared                the shared tier
+     * @param sharedLocal           true if the shared tier is a local stand-in, remote invalidations then evict it too
+     * @param nearMaximumSize       the maximum number of near entries, 0 disables the near tier
+     * @param nearTtl               the time a near entry is kept after it was written
+     * @param invalidationPublisher the publisher of evictions and clears
+     * @param meterRegistry         the registry of the cache metrics
+     */
+    public NtsTwoTierCache(
+        Cache shared,
+        boolean sharedLocal,
+        long nearMaximumSize,
+        Duration nearTtl,
+        NtsCacheInvalidationPublisher invalidationPublisher,
+        MeterRegistry meterRegistry
+    ) {
+        this.name = shared.getName();
+        this.shared = shared;
+        this.sharedLocal = sharedLocal;
+        this.near = CacheBuilder.newBuilder()
+            .maximumSize(nearMaximumSize)
+            .expireAfterWrite(nearTtl)
+            .build();
+        this.invalidationPublisher = invalidationPublisher;
+        this.nearHits = getsCounter(meterRegistry, "near", "hit");
+        this.nearMisses = getsCounter(meterRegistry, "near", "miss");
+        this.sharedHits = getsCounter(meterRegistry, "shared", "hit");
+        this.sharedMisses = getsCounter(meterRegistry, "shared", "miss");
+        this.localInvalidations = invalidationsCounter(meterRegistry, "local");
+        this.remoteInvalidations = invalidationsCounter(meterRegistry, "remote");
+        Gauge.builder("nts.cache.hit.ratio", this, NtsTwoTierCache::getHitRatio)
+            .tag("cache", name)
+            .register(meterRegistry);
+        Gauge.builder("nts.cache.near.hit.ratio", this, NtsTwoTierCache::getNearHitRatio)
+            .tag("cache", name)
+            .register(meterRegistry);
+        Gauge.builder("nts.cache.near.size", near, com.google.common.cache.Cache::size)
+            .tag("cache", name)
+            .register(meterRegistry);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Object getNativeCache() {
+        return shared.getNativeCache();
+    }
+
+    @Override
+    public ValueWrapper get(Object key) {
+        String nearKey = nearKey(key);
+        ValueWrapper wrapper = near.getIfPresent(nearKey);
+        if (wrapper != null) {
+            nearHits.increment();
+            return wrapper;
+        }
+        nearMisses.increment();
+        long readGeneration = generation.get();
+        wrapper = shared.get(sharedKey(key));
+        if (wrapper == null) {
+            sharedMisses.increment();
+            return null;
+        }
+        sharedHits.increment();
+        putNear(nearKey, wrapper, readGeneration);
+        return wrapper;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Class<T> type) {
+        ValueWrapper wrapper = get(key);
+        Object value = wrapper != null ? wrapper.get() : null;
+        if (value != null && type != null && !type.isInstance(value)) {
+            throw new IllegalStateException("Cached value is not of required type [" + type.getName() + "]: " + value);
+        }
+        return (T) value;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Callable<T> valueLoader) {
+        ValueWrapper wrapper = get(key);
+        if (wrapper != null) {
+            return (T) wrapper.get();
+        }
+        long readGeneration = generation.get();
+        T value = shared.get(sharedKey(key), valueLoader);
+        putNear(nearKey(key), new SimpleValueWrapper(value), readGeneration);
+        return value;
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        String nearKey = nearKey(key);
+        shared.put(sharedKey(key), value);
+        generation.incrementAndGet();
+        near.put(nearKey, new SimpleValueWrapper(value));
+    }
+
+    @Override
+    public ValueWrapper putIfAbsent(Object key, Object value) {
+        String nearKey = nearKey(key);
+        ValueWrapper existing = shared.putIfAbsent(sharedKey(key), value);
+        if (existing != null) {
+            near.put(nearKey, existing);
+            return existing;
+        }
+        generation.incrementAndGet();
+        near.put(nearKey, new SimpleValueWrapper(value));
+        return null;
+    }
+
+    @Override
+    public void evict(Object key) {
+        shared.evict(sharedKey(key));
+        evictNear(nearKey(key));
+    }
+
+    @Override
+    public boolean evictIfPresent(Object key) {
+        boolean present = shared.evictIfPresent(sharedKey(key));
+        return evictNear(nearKey(key)) || present;
+    }
+
+    @Override
+    public void clear() {
+        shared.clear();
+        clearNear();
+    }
+
+    @Override
+    public boolean invalidate() {
+        boolean present = shared.invalidate();
+        return clearNear() || present;
+    }
+
+    /**
+     * Apply an eviction received from another node: evict the near entry, and the shared one if the shared tier is local.
+     *
+     * @param key the key as a string
+     */
+    public void evictLocal(String key) {
+        if (sharedLocal) {
+            shared.evict(key);
+        }
+        generation.incrementAndGet();
+        near.invalidate(key);
+        remoteInvalidations.increment();
+    }
+
+    /**
+     * Apply a clear received from another node, or drop the near entries after invalidations may have been missed.
+     */
+    public void clearLocal() {
+        if (sharedLocal) {
+            shared.clear();
+        }
+        generation.incrementAndGet();
+        near.invalidateAll();
+        remoteInvalidations.increment();
+    }
+
+    /**
+     * @return the hits of both tiers per get, NaN before the first get
+     */
+    public double getHitRatio() {
+        double gets = nearHits.count() + nearMisses.count();
+        return gets == 0 ? Double.NaN : (nearHits.count() + sharedHits.count()) / gets;
+    }
+
+    /**
+     * @return the hits of the near tier per get, NaN before the first get
+     */
+    public double getNearHitRatio() {
+        double gets = nearHits.count() + nearMisses.count();
+        return gets == 0 ? Double.NaN : nearHits.count() / gets;
+    }
+
+    public long getNearSize() {
+        return near.size();
+    }
+
+    /**
+     * @param key the cache key
+     * @return the key of the near tier and of invalidations
+     */
+    public static String nearKey(Object key) {
+        return key instanceof String ? (String) key : String.valueOf(key);
+    }
+
+    private Object sharedKey(Object key) {
+        return sharedLocal ? nearKey(key) : key;
+    }
+
+    private void putNear(String nearKey, ValueWrapper wrapper, long readGeneration) {
+        if (generation.get() != readGeneration) return;
+        near.put(nearKey, wrapper);
+        if (generation.get() != readGeneration) {
+            near.invalidate(nearKey);
+        }
+    }
+
+    private boolean evictNear(String nearKey) {
+        generation.incrementAndGet();
+        boolean present = near.asMap().remove(nearKey) != null;
+        publish(nearKey);
+        return present;
+    }
+
+    private boolean clearNear() {
+        generation.incrementAndGet();
+        boolean present = near.size() > 0;
+        near.invalidateAll();
+        publish(null);
+        return present;
+    }
+
+    private void publish(String nearKey) {
+        localInvalidations.increment();
+        invalidationPublisher.publish(name, nearKey);
+    }
+
+    private Counter getsCounter(MeterRegistry meterRegistry, String tier, String result) {
+        return Counter.builder("nts.cache.gets")
+            .tag("cache", name)
+            .tag("tier", tier)
+            .tag("result", result)
+            .register(meterRegistry);
+    }
+
+    private Counter invalidationsCounter(MeterRegistry meterRegistry, String source) {
+        return Counter.builder("nts.cache.invalidations")
+            .tag("cache", name)
+            .tag("source", source)
+            .register(meterRegistry);
+    }
+}
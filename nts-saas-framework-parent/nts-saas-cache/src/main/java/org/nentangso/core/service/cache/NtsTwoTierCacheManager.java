@@ -0,0 +1,109 @@
+package org.nentangso.core.service.cache;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.transaction.TransactionAwareCacheDecorator;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * {@link CacheManager} of {@link NtsTwoTierCache}s, one per cache of the shared {@link CacheManager}.
+ * <p>
+ * When transaction aware, caches are decorated with {@link TransactionAwareCacheDecorator}: puts and evictions made in
+ * a transaction are applied, and evictions published, after commit, so other nodes do not reload the old value meanwhile.
+ */
+public class NtsTwoTierCacheManager implements CacheManager {
+    private final CacheManager sharedCacheManager;
+    private final boolean sharedLocal;
+    private final long nearMaximumSize;
+    private final Duration nearTtl;
+    private final boolean transactionAware;
+    private final NtsCacheInvalidationPublisher invalidationPublisher;
+    private final MeterRegistry meterRegistry;
+    private final ConcurrentMap<String, NtsTwoTierCache> caches = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Cache> decoratedCaches = new ConcurrentHashMap<>();
+
+    /**
+     * @param sharedCacheManager    the manager of the shared tier
+     * @param sharedLocal           true if the shared tier is a local stand-in, remote invalidations then evict it too
+     * @param nearMaximumSize       the maximum number of near entries per cache
+     * @param nearTtl               the time a near entry is kept after it was written
+     * @param transactionAware      true to apply puts and evictions after the commit of the current transaction
+     * @param invalidationPublisher the publisher of evictions and clears
+     * @param meterRegistry         the registry of the cache metrics
+     */
+    public NtsTwoTierCacheManager(
+        CacheManager sharedCacheManager,
+        boolean sharedLocal,
+        long nearMaximumSize,
+        Duration nearTtl,
+        boolean transactionAware,
+        NtsCacheInvalidationPublisher invalidationPublisher,
+        MeterRegistry meterRegistry
+    ) {
+        this.sharedCacheManager = sharedCacheManager;
+        this.sharedLocal = sharedLocal;
+        this.nearMaximumSize = nearMaximumSize;
+        this.nearTtl = nearTtl;
+        this.transactionAware = transactionAware;
+        this.invalidationPublisher = invalidationPublisher;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public Cache getCache(String name) {
+        NtsTwoTierCache cache = getTwoTierCache(name);
+        if (cache == null || !transactionAware) return cache;
+        return decoratedCaches.computeIfAbsent(name, key -> new TransactionAwareCacheDecorator(cache));
+    }
+
+    @Override
+    public Collection<String> getCacheNames() {
+        return Collections.unmodifiableSet(caches.keySet());
+    }
+
+    /**
+     * @param name the cache name
+     * @return the undecorated cache, null if the shared tier has no such cache
+     */
+    public NtsTwoTierCache getTwoTierCache(String name) {
+        NtsTwoTierCache cache = caches.get(name);
+        if (cache != null) return cache;
+        Cache shared = sharedCacheManager.getCache(name);
+        if (shared == null) return null;
+        return caches.computeIfAbsent(name, key ->
+            new NtsTwoTierCache(shared, sharedLocal, nearMaximumSize, nearTtl, invalidationPublisher, meterRegistry));
+    }
+
+    /**
+     * Apply an invalidation received from another node. Caches not used yet on this node have nothing to evict.
+     *
+     * @param cacheName the cache name
+     * @param key       the key as a string, or null to clear the cache
+     */
+    public void evictLocal(String cacheName, String key) {
+        NtsTwoTierCache cache = caches.get(cacheName);
+        if (cache == null) return;
+        if (key == null) {
+            cache.clearLocal();
+        } else {
+            cache.evictLocal(key);
+        }
+    }
+
+    /**
+     * Clear the near tier of every cache, after invalidations may have been missed.
+     */
+    public void clearLocal() {
+        caches.values().forEach(NtsTwoTierCache::clearLocal);
+    }
+
+    public boolean isSharedLocal() {
+        return sharedLocal;
+    }
+}
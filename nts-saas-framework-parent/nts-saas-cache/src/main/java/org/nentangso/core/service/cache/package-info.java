@@ -0,0 +1,4 @@
+/**
+ * Two-tier cache
+ */
+package org.nentangso.core.service.cache;
@@ -0,0 +1,209 @@
+package org.nentangso.core.service.cache;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.nentangso.core.repository.NtsCacheInvalidationJdbcRepository;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class NtsTwoTierCacheManagerTest {
+    private static final String CACHE = "usersByLogin";
+
+    private DriverManagerDataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        dataSource = new DriverManagerDataSource("jdbc:h2:mem:nts_cache;DB_CLOSE_DELAY=-1");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("create table nts_cache_invalidations (id bigint primary key, cache_name varchar(100) not null, " +
+            "cache_key varchar(255), origin varchar(36) not null, created_at timestamp not null)");
+    }
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.execute("drop table nts_cache_invalidations");
+    }
+
+    @Test
+    void getReadsNearThenSharedTier() {
+        CacheManager shared = new ConcurrentMapCacheManager();
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        Node a = new Node(shared, false, meterRegistry);
+        Node b = new Node(shared, false, new SimpleMeterRegistry());
+
+        b.cache().put("admin", "v1");
+        assertThat(a.cache().get("user")).isNull();
+        assertThat(a.cache().get("admin", String.class)).isEqualTo("v1");
+        assertThat(a.cache().get("admin", String.class)).isEqualTo("v1");
+
+        assertThat(count(meterRegistry, "near", "hit")).isEqualTo(1);
+        assertThat(count(meterRegistry, "near", "miss")).isEqualTo(2);
+        assertThat(count(meterRegistry, "shared", "hit")).isEqualTo(1);
+        assertThat(count(meterRegistry, "shared", "miss")).isEqualTo(1);
+        assertThat(meterRegistry.get("nts.cache.hit.ratio").tag("cache", CACHE).gauge().value()).isEqualTo(2.0 / 3);
+        assertThat(meterRegistry.get("nts.cache.near.hit.ratio").tag("cache", CACHE).gauge().value()).isEqualTo(1.0 / 3);
+        assertThat(meterRegistry.get("nts.cache.near.size").tag("cache", CACHE).gauge().value()).isEqualTo(1);
+    }
+
+    @Test
+    void evictionIsAppliedByOtherNodesOnPoll() {
+        CacheManager shared = new ConcurrentMapCacheManager();
+        Node a = new Node(shared, false, new SimpleMeterRegistry());
+        Node b = new Node(shared, false, new SimpleMeterRegistry());
+        a.cache().put("admin", "v1");
+        assertThat(b.cache().get("admin", String.class)).isEqualTo("v1");
+
+        assertThat(b.poller.poll()).isZero();
+        assertThat(b.cache().get("admin", String.class)).isEqualTo("v1");
+
+        a.cache().evict("admin");
+        shared.getCache(CACHE).put("admin", "v2");
+        assertThat(b.cache().get("admin", String.class)).isEqualTo("v1");
+
+        assertThat(a.poller.poll()).isZero();
+        assertThat(b.poller.poll()).isEqualTo(1);
+        assertThat(b.poller.poll()).isZero();
+        assertThat(b.cache().get("admin", String.class)).isEqualTo("v2");
+        assertThat(a.cache().get("admin", String.class)).isEqualTo("v2");
+
+        a.cache().clear();
+        assertThat(b.poller.poll()).isEqualTo(1);
+        assertThat(b.manager.getTwoTierCache(CACHE).getNearSize()).isZero();
+    }
+
+    @Test
+    void localStandInIsEvictedByOtherNodes() {
+        Node a = new Node(new ConcurrentMapCacheManager(), true, new SimpleMeterRegistry());
+        Node b = new Node(new ConcurrentMapCacheManager(), true, new SimpleMeterRegistry());
+        a.cache().put(42L, "v1");
+        b.cache().put(42L, "v1");
+        assertThat(a.poller.poll()).isZero();
+        assertThat(b.poller.poll()).isZero();
+
+        a.cache().evict(42L);
+        assertThat(b.poller.poll()).isEqualTo(1);
+
+        assertThat(b.cache().get(42L)).isNull();
+        assertThat(b.cache().get(42L, () -> "v2")).isEqualTo("v2");
+        assertThat(b.cache().get(42L, String.class)).isEqualTo("v2");
+    }
+
+    @Test
+    void putIsNotPublished() {
+        CacheManager shared = new ConcurrentMapCacheManager();
+        Node a = new Node(shared, false, new SimpleMeterRegistry());
+        Node b = new Node(shared, false, new SimpleMeterRegistry());
+        a.cache().put("admin", "v1");
+        assertThat(b.cache().get("admin", String.class)).isEqualTo("v1");
+
+        a.cache().put("admin", "v2");
+        assertThat(a.cache().putIfAbsent("admin", "v3").get()).isEqualTo("v2");
+        assertThat(a.cache().putIfAbsent("user", "v1")).isNull();
+        assertThat(a.cache().get("admin", String.class)).isEqualTo("v2");
+        assertThat(b.poller.poll()).isZero();
+        assertThat(countInvalidations()).isZero();
+    }
+
+    @Test
+    void cacheableMissInTransactionWritesNoRow() {
+        Node a = new Node(new ConcurrentMapCacheManager(), false, new SimpleMeterRegistry());
+        TransactionTemplate transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        try (AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext()) {
+            context.registerBean(CacheManager.class, () -> a.manager);
+            context.register(CachingConfiguration.class);
+            context.refresh();
+            UserLoader loader = context.getBean(UserLoader.class);
+
+            assertThat(transactionTemplate.<String>execute(status -> loader.load("admin"))).isEqualTo("admin#1");
+            assertThat(transactionTemplate.<String>execute(status -> loader.load("admin"))).isEqualTo("admin#1");
+            assertThat(loader.getLoads()).isEqualTo(1);
+            assertThat(countInvalidations()).isZero();
+        }
+    }
+
+    @Test
+    void evictionInTransactionIsPublishedAfterCommit() {
+        CacheManager shared = new ConcurrentMapCacheManager();
+        Node a = new Node(shared, false, new SimpleMeterRegistry());
+        TransactionTemplate transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        a.cache().put("admin", "v1");
+        assertThat(countInvalidations()).isZero();
+
+        transactionTemplate.executeWithoutResult(status -> {
+            a.manager.getCache(CACHE).evict("admin");
+            assertThat(a.cache().get("admin", String.class)).isEqualTo("v1");
+            status.setRollbackOnly();
+        });
+        assertThat(a.cache().get("admin", String.class)).isEqualTo("v1");
+        assertThat(countInvalidations()).isZero();
+
+        transactionTemplate.executeWithoutResult(status -> a.manager.getCache(CACHE).evict("admin"));
+        assertThat(a.cache().get("admin")).isNull();
+        assertThat(countInvalidations()).isEqualTo(1);
+    }
+
+    private Integer countInvalidations() {
+        return jdbcTemplate.queryForObject("select count(*) from nts_cache_invalidations", Integer.class);
+    }
+
+    private static double count(MeterRegistry meterRegistry, String tier, String result) {
+        return meterRegistry.get("nts.cache.gets").tag("cache", CACHE).tag("tier", tier).tag("result", result).counter().count();
+    }
+
+    @Configuration
+    @EnableCaching
+    static class CachingConfiguration {
+        @Bean
+        UserLoader userLoader() {
+            return new UserLoader();
+        }
+    }
+
+    static class UserLoader {
+        private int loads;
+
+        @Cacheable(CACHE)
+        public String load(String login) {
+            loads++;
+            return login + "#" + loads;
+        }
+
+        public int getLoads() {
+            return loads;
+        }
+    }
+
+    private class Node {
+        private final NtsTwoTierCacheManager manager;
+        private final NtsCacheInvalidationPoller poller;
+
+        Node(CacheManager shared, boolean sharedLocal, MeterRegistry meterRegistry) {
+            NtsCacheInvalidationJdbcRepository repository =
+                new NtsCacheInvalidationJdbcRepository(jdbcTemplate, new DataSourceTransactionManager(dataSource));
+            this.manager = new NtsTwoTierCacheManager(shared, sharedLocal, 100, Duration.ofMinutes(1), true, repository, meterRegistry);
+            this.poller = new NtsCacheInvalidationPoller(repository, manager, Duration.ofSeconds(10), Duration.ofHours(1), 2);
+        }
+
+        Cache cache() {
+            return manager.getTwoTierCache(CACHE);
+        }
+    }
+}
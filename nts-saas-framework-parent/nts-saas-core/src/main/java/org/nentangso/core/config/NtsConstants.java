@@ -21,6 +21,8 @@ public class NtsConstants {
     public static final String AGGREGATE_WEB_HOOK = "webHook";
     public static final String EXTRA_EMAIL_PATTERN = ".+@.+\\..+$";
     public static final String HEADER_RETRIES = "x_retries";
+    public static final String HEADER_TOPIC = "x_topic";
+    public static final String HEADER_HMAC_SHA256 = "x_hmac_sha256";
 
     public static final int MAX_ITEMS_PER_PAGE = 250;
     public static final int ITEMS_PER_PAGE = 50;
@@ -0,0 +1,28 @@
+package org.nentangso.core.domain;
+
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.IdentifierGenerator;
+import org.nentangso.core.service.utils.NtsIdUtils;
+
+import java.io.Serializable;
+
+/**
+ * Hibernate identifier generator for {@code Long} ids, backed by {@link NtsIdUtils#nextId()}.
+ * <p>
+ * Ids are assigned before the insert, so Hibernate can batch inserts, which it cannot do with identity columns.
+ * <pre>
+ * &#64;Id
+ * &#64;GeneratedValue(generator = NtsTimeOrderedIdGenerator.NAME)
+ * &#64;GenericGenerator(name = NtsTimeOrderedIdGenerator.NAME, strategy = NtsTimeOrderedIdGenerator.STRATEGY)
+ * private Long id;
+ * </pre>
+ */
+public class NtsTimeOrderedIdGenerator implements IdentifierGenerator {
+    public static final String NAME = "nts-time-ordered-id";
+    public static final String STRATEGY = "org.nentangso.core.domain.NtsTimeOrderedIdGenerator";
+
+    @Override
+    public Serializable generate(SharedSessionContractImplementor session, Object object) {
+        return NtsIdUtils.nextId();
+    }
+}
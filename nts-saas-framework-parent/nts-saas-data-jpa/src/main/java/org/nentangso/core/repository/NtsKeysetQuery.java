@@ -0,0 +1,174 @@
+package org.nentangso.core.repository;
+
+import org.nentangso.core.service.utils.NtsKeysetCursor;
+import org.springframework.beans.BeanWrapperImpl;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.springframework.data.jpa.repository.query.QueryUtils.toOrders;
+
+/**
+ * Keyset (seek) pagination for JPA entities.
+ * <p>
+ * Instead of {@code offset}, a slice continues after the sort values of the last row read, so the database seeks
+ * the index of the sort and the cost of a slice does not grow with its position. No count query is executed:
+ * one more row than the slice size is read to know whether there is a next slice.
+ * <p>
+ * For a sort {@code (a asc, b desc, id asc)} and last values {@code (x, y, z)}, the seek predicate is
+ * {@code a > x or (a = x and b < y) or (a = x and b = y and id > z)}.
+ */
+@SuppressWarnings("unused")
+public class NtsKeysetQuery {
+    private NtsKeysetQuery() {
+    }
+
+    /**
+     * Read a slice of entities.
+     *
+     * @param entityManager the entity manager
+     * @param domainClass   the entity class
+     * @param spec          the filter, may be null
+     * @param request       the keyset request
+     * @param <T>           the entity type
+     * @return the slice, with the cursor of the next slice
+     */
+    public static <T> NtsKeysetSlice<T> findSlice(
+        EntityManager entityManager,
+        Class<T> domainClass,
+        Specification<T> spec,
+        NtsKeysetRequest request
+    ) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<T> query = cb.createQuery(domainClass);
+        Root<T> root = query.from(domainClass);
+        Specification<T> where = Specification.where(spec).and(seek(request));
+        Predicate predicate = where.toPredicate(root, query, cb);
+        if (predicate != null) {
+            query.where(predicate);
+        }
+        query.select(root).orderBy(toOrders(request.getSort(), root, cb));
+        TypedQuery<T> typedQuery = entityManager.createQuery(query);
+        typedQuery.setMaxResults(request.getSize() + 1);
+        return toSlice(typedQuery.getResultList(), request);
+    }
+
+    /**
+     * Seek predicate of a keyset request, to combine with the filter of a
+     * {@link org.springframework.data.jpa.repository.JpaSpecificationExecutor} query.
+     *
+     * @param request the keyset request
+     * @param <T>     the entity type
+     * @return the predicate, or null for the first slice
+     */
+    public static <T> Specification<T> seek(NtsKeysetRequest request) {
+        if (request.isFirst()) return null;
+        return seek(request.getSort(), request.getAfter());
+    }
+
+    /**
+     * Seek predicate for rows after the given sort values.
+     *
+     * @param sort  the sort
+     * @param after the sort values of the last row read, in sort order
+     * @param <T>   the entity type
+     * @return the predicate
+     */
+    public static <T> Specification<T> seek(Sort sort, Object[] after) {
+        List<Sort.Order> orders = sort.toList();
+        if (after == null || after.length != orders.size()) {
+            throw new IllegalArgumentException("after");
+        }
+        return (root, query, cb) -> {
+            List<Path<Object>> paths = new ArrayList<>(orders.size());
+            List<Object> values = new ArrayList<>(orders.size());
+            for (int i = 0; i < orders.size(); i++) {
+                Path<Object> path = getPath(root, orders.get(i).getProperty());
+                paths.add(path);
+                values.add(toJavaType(after[i], path.getJavaType()));
+            }
+            List<Predicate> disjunction = new ArrayList<>(orders.size());
+            for (int i = 0; i < orders.size(); i++) {
+                List<Predicate> conjunction = new ArrayList<>(i + 1);
+                for (int j = 0; j < i; j++) {
+                    conjunction.add(cb.equal(paths.get(j), values.get(j)));
+                }
+                conjunction.add(compare(cb, orders.get(i).isAscending(), paths.get(i), values.get(i)));
+                disjunction.add(cb.and(conjunction.toArray(new Predicate[0])));
+            }
+            return cb.or(disjunction.toArray(new Predicate[0]));
+        };
+    }
+
+    /**
+     * Build a slice from rows read with {@code maxResults = size + 1}.
+     *
+     * @param rows    the rows, at most one more than the slice size
+     * @param request the keyset request
+     * @param <T>     the row type
+     * @return the slice, with the cursor of the next slice
+     */
+    public static <T> NtsKeysetSlice<T> toSlice(List<T> rows, NtsKeysetRequest request) {
+        boolean hasNext = rows.size() > request.getSize();
+        List<T> content = hasNext ? new ArrayList<>(rows.subList(0, request.getSize())) : rows;
+        String nextCursor = null;
+        if (hasNext) {
+            nextCursor = NtsKeysetCursor.encode(request.getSort(), getSortValues(content.get(content.size() - 1), request.getSort()));
+        }
+        return new NtsKeysetSlice<>(content, request, hasNext, nextCursor);
+    }
+
+    /**
+     * Read the sort values of a row.
+     *
+     * @param row  the row
+     * @param sort the sort
+     * @return the values, in sort order
+     * @throws IllegalStateException if a sort value is null
+     */
+    public static Object[] getSortValues(Object row, Sort sort) {
+        BeanWrapperImpl wrapper = new BeanWrapperImpl(row);
+        List<Sort.Order> orders = sort.toList();
+        Object[] values = new Object[orders.size()];
+        for (int i = 0; i < values.length; i++) {
+            String property = orders.get(i).getProperty();
+            values[i] = wrapper.getPropertyValue(property);
+            if (values[i] == null) {
+                throw new IllegalStateException("Keyset sort property must not be null: " + property);
+            }
+        }
+        return values;
+    }
+
+    private static Path<Object> getPath(Root<?> root, String property) {
+        Path<Object> path = null;
+        for (String part : property.split("\\.")) {
+            path = path == null ? root.get(part) : path.get(part);
+        }
+        return path;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object toJavaType(Object value, Class<?> javaType) {
+        if (value instanceof String && javaType != null && javaType.isEnum()) {
+            return Enum.valueOf((Class<? extends Enum>) javaType, (String) value);
+        }
+        return value;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Predicate compare(CriteriaBuilder cb, boolean ascending, Path<Object> path, Object value) {
+        Path<Comparable> comparablePath = (Path<Comparable>) (Path<?>) path;
+        Comparable comparable = (Comparable) value;
+        return ascending ? cb.greaterThan(comparablePath, comparable) : cb.lessThan(comparablePath, comparable);
+    }
+}
@@ -0,0 +1,139 @@
+package org.nentangso.core.repository;
+
+import org.apache.commons.lang3.StringUtils;
+import org.nentangso.core.service.utils.NtsKeysetCursor;
+import org.springframework.data.domain.Sort;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Request of a keyset slice: the slice size, the sort and the sort values of the last row already read.
+ * <p>
+ * The sort always ends with a unique property, {@code id} by default, so that rows with equal sort values are neither
+ * skipped nor repeated. Sort properties must not be nullable.
+ * <p>
+ * The cursor holds the values of the sort properties of the last row and is only encoded, not encrypted, so a sort
+ * chosen by the client is checked against the sortable properties: sorting by any other column would leak its values.
+ */
+public final class NtsKeysetRequest {
+    public static final String DEFAULT_UNIQUE_PROPERTY = "id";
+
+    private final int size;
+    private final Sort sort;
+    private final Object[] after;
+
+    private NtsKeysetRequest(int size, Sort sort, Object[] after) {
+        this.size = size;
+        this.sort = sort;
+        this.after = after;
+    }
+
+    /**
+     * First slice.
+     *
+     * @param size               the slice size
+     * @param sort               the sort, {@code id} ascending is appended if missing
+     * @param sortableProperties the properties allowed in the sort, besides {@code id}
+     * @return the request
+     * @throws IllegalArgumentException if the sort has a property outside the sortable properties
+     */
+    public static NtsKeysetRequest of(int size, Sort sort, Set<String> sortableProperties) {
+        return of(null, size, sort, DEFAULT_UNIQUE_PROPERTY, sortableProperties);
+    }
+
+    /**
+     * Slice after a cursor.
+     *
+     * @param cursor             the cursor of the previous slice, or blank for the first slice
+     * @param size               the slice size
+     * @param sort               the sort, {@code id} ascending is appended if missing
+     * @param sortableProperties the properties allowed in the sort, besides {@code id}
+     * @return the request
+     * @throws IllegalArgumentException if the sort has a property outside the sortable properties, or if the cursor is
+     *                                  malformed or was created for another sort
+     */
+    public static NtsKeysetRequest of(String cursor, int size, Sort sort, Set<String> sortableProperties) {
+        return of(cursor, size, sort, DEFAULT_UNIQUE_PROPERTY, sortableProperties);
+    }
+
+    /**
+     * Slice after a cursor.
+     *
+     * @param cursor             the cursor of the previous slice, or blank for the first slice
+     * @param size               the slice size
+     * @param sort               the sort
+     * @param uniqueProperty     the property appended ascending to the sort if missing
+     * @param sortableProperties the properties allowed in the sort, besides the unique property
+     * @return the request
+     * @throws IllegalArgumentException if the sort has a property outside the sortable properties, or if the cursor is
+     *                                  malformed or was created for another sort
+     */
+    public static NtsKeysetRequest of(String cursor, int size, Sort sort, String uniqueProperty, Set<String> sortableProperties) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size");
+        }
+        Sort keysetSort = sort == null ? Sort.unsorted() : sort;
+        for (Sort.Order order : keysetSort) {
+            if (!order.getProperty().equals(uniqueProperty) && !sortableProperties.contains(order.getProperty())) {
+                throw new IllegalArgumentException("Unsupported keyset sort property: " + order.getProperty());
+            }
+            if (order.isIgnoreCase()) {
+                throw new IllegalArgumentException("Keyset sort does not support ignore case: " + order.getProperty());
+            }
+        }
+        if (keysetSort.getOrderFor(uniqueProperty) == null) {
+            keysetSort = keysetSort.and(Sort.by(uniqueProperty));
+        }
+        Object[] after = null;
+        if (StringUtils.isNotBlank(cursor)) {
+            after = NtsKeysetCursor.decode(cursor, keysetSort);
+            if (after.length != keysetSort.toList().size()) {
+                throw new IllegalArgumentException("cursor");
+            }
+        }
+        return new NtsKeysetRequest(size, keysetSort, after);
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public Sort getSort() {
+        return sort;
+    }
+
+    /**
+     * @return the sort values of the last row already read, in sort order, null for the first slice
+     */
+    public Object[] getAfter() {
+        return after == null ? null : after.clone();
+    }
+
+    public boolean isFirst() {
+        return after == null;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof NtsKeysetRequest)) return false;
+        NtsKeysetRequest that = (NtsKeysetRequest) o;
+        return size == that.size && sort.equals(that.sort) && Arrays.equals(after, that.after);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Objects.hash(size, sort) + Arrays.hashCode(after);
+    }
+
+    @Override
+    public String toString() {
+        return "NtsKeysetRequest{" +
+            "size=" + size +
+            ", sort=" + sort +
+            ", after=" + Arrays.toString(after) +
+            '}';
+    }
+}
@@ -0,0 +1,40 @@
+package org.nentangso.core.repository;
+
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.SliceImpl;
+
+import java.util.List;
+
+/**
+ * Slice read with a {@link NtsKeysetRequest}, without counting the rows.
+ *
+ * @param <T> the row type
+ */
+public class NtsKeysetSlice<T> extends SliceImpl<T> {
+    private static final long serialVersionUID = 1L;
+
+    private final transient NtsKeysetRequest request;
+    private final String nextCursor;
+
+    public NtsKeysetSlice(List<T> content, NtsKeysetRequest request, boolean hasNext, String nextCursor) {
+        super(content, PageRequest.of(0, request.getSize(), request.getSort()), hasNext);
+        this.request = request;
+        this.nextCursor = nextCursor;
+    }
+
+    public NtsKeysetRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * @return the cursor of the next slice, null if this is the last slice
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    @Override
+    public boolean hasPrevious() {
+        return !request.isFirst();
+    }
+}
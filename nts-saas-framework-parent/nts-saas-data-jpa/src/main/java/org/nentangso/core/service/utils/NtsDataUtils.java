@@ -1,10 +1,13 @@
 package org.nentangso.core.service.utils;
 
 import org.nentangso.core.config.NtsConstants;
+import org.nentangso.core.repository.NtsKeysetRequest;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 
+import java.util.Set;
+
 @SuppressWarnings("unused")
 public class NtsDataUtils {
     private NtsDataUtils() {
@@ -19,4 +22,23 @@ public class NtsDataUtils {
             pageable.getSortOr(sort)
         );
     }
+
+    /**
+     * @param cursor             the cursor of the previous slice, or blank for the first slice
+     * @param pageable           the requested size and sort
+     * @param sort               the sort if none is requested
+     * @param sortableProperties the properties allowed in the requested sort, besides {@code id}
+     * @return the request
+     * @throws IllegalArgumentException if the sort has a property outside the sortable properties, or if the cursor is
+     *                                  malformed or was created for another sort
+     */
+    public static NtsKeysetRequest keysetRequestWithDefaultSort(String cursor, Pageable pageable, Sort sort, Set<String> sortableProperties) {
+        int size = pageable.getPageSize();
+        return NtsKeysetRequest.of(
+            cursor,
+            size > 0 && size <= NtsConstants.MAX_ITEMS_PER_PAGE ? size : NtsConstants.ITEMS_PER_PAGE,
+            pageable.getSortOr(sort),
+            sortableProperties
+        );
+    }
 }
@@ -0,0 +1,148 @@
+package org.nentangso.core.service.utils;
+
+import org.springframework.data.domain.Sort;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * Opaque keyset cursor: the sort values of the last row of a slice, for the sort they were read with.
+ * <p>
+ * Values are written in a small binary form, then Base64 URL encoded without padding.
+ * The cursor carries a hash of the sort, so a cursor cannot be replayed against another sort.
+ * Supported values: {@code String}, {@code Long}, {@code Integer}, {@code Boolean}, {@code BigDecimal}, {@code UUID},
+ * {@code Instant}, {@code LocalDate}, {@code LocalDateTime} and enums, decoded as their name.
+ */
+@SuppressWarnings("unused")
+public class NtsKeysetCursor {
+    private NtsKeysetCursor() {
+    }
+
+    private static final int VERSION = 1;
+
+    /**
+     * Encode sort values.
+     *
+     * @param sort   the sort
+     * @param values the values of the sort properties, in sort order, not null
+     * @return the cursor
+     * @throws IllegalArgumentException if a value is null or of an unsupported type
+     */
+    public static String encode(Sort sort, Object[] values) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + values.length * 12);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            out.writeInt(sort.toString().hashCode());
+            out.writeByte(values.length);
+            for (Object value : values) {
+                writeValue(out, value);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+    }
+
+    /**
+     * Decode sort values.
+     *
+     * @param cursor the cursor
+     * @param sort   the sort the cursor must have been created with
+     * @return the values of the sort properties, in sort order
+     * @throws IllegalArgumentException if the cursor is malformed or was created for another sort
+     */
+    public static Object[] decode(String cursor, Sort sort) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Base64.getUrlDecoder().decode(cursor)))) {
+            if (in.readUnsignedByte() != VERSION || in.readInt() != sort.toString().hashCode()) {
+                throw new IllegalArgumentException("cursor");
+            }
+            Object[] values = new Object[in.readUnsignedByte()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = readValue(in);
+            }
+            if (in.available() > 0) {
+                throw new IllegalArgumentException("cursor");
+            }
+            return values;
+        } catch (IOException | IllegalArgumentException | DateTimeException e) {
+            throw new IllegalArgumentException("cursor", e);
+        }
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value instanceof String) {
+            out.writeByte('S');
+            out.writeUTF((String) value);
+        } else if (value instanceof Long) {
+            out.writeByte('J');
+            out.writeLong((Long) value);
+        } else if (value instanceof Integer) {
+            out.writeByte('I');
+            out.writeInt((Integer) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte('Z');
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof BigDecimal) {
+            out.writeByte('D');
+            out.writeUTF(value.toString());
+        } else if (value instanceof UUID) {
+            out.writeByte('U');
+            out.writeLong(((UUID) value).getMostSignificantBits());
+            out.writeLong(((UUID) value).getLeastSignificantBits());
+        } else if (value instanceof Instant) {
+            out.writeByte('T');
+            out.writeLong(((Instant) value).getEpochSecond());
+            out.writeInt(((Instant) value).getNano());
+        } else if (value instanceof LocalDate) {
+            out.writeByte('L');
+            out.writeLong(((LocalDate) value).toEpochDay());
+        } else if (value instanceof LocalDateTime) {
+            out.writeByte('M');
+            out.writeLong(((LocalDateTime) value).toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(((LocalDateTime) value).getNano());
+        } else if (value instanceof Enum) {
+            out.writeByte('S');
+            out.writeUTF(((Enum<?>) value).name());
+        } else {
+            throw new IllegalArgumentException("Unsupported keyset value: " + (value == null ? null : value.getClass().getName()));
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        int tag = in.readUnsignedByte();
+        switch (tag) {
+            case 'S':
+                return in.readUTF();
+            case 'J':
+                return in.readLong();
+            case 'I':
+                return in.readInt();
+            case 'Z':
+                return in.readBoolean();
+            case 'D':
+                return new BigDecimal(in.readUTF());
+            case 'U':
+                return new UUID(in.readLong(), in.readLong());
+            case 'T':
+                return Instant.ofEpochSecond(in.readLong(), in.readInt());
+            case 'L':
+                return LocalDate.ofEpochDay(in.readLong());
+            case 'M':
+                return LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC);
+            default:
+                throw new IllegalArgumentException("cursor");
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package org.nentangso.core.web.rest.utils;
+
+import org.nentangso.core.repository.NtsKeysetSlice;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.util.UriComponentsBuilder;
+
+/**
+ * Link headers for keyset slices.
+ * <p>
+ * The {@code Link} header has the same format as {@code tech.jhipster.web.util.PaginationUtil}, with {@code cursor}
+ * instead of {@code page}. There is no {@code X-Total-Count} header, keyset slices are not counted.
+ */
+@SuppressWarnings("unused")
+public class NtsKeysetPaginationUtil {
+    private NtsKeysetPaginationUtil() {
+    }
+
+    private static final String HEADER_LINK_FORMAT = "<%s>; rel=\"%s\"";
+
+    /**
+     * Generate keyset pagination headers.
+     *
+     * @param uriBuilder the URI of the current request
+     * @param slice      the slice
+     * @param <T>        the row type
+     * @return the headers, with {@code rel="next"} when there is a next slice and {@code rel="first"}
+     */
+    public static <T> HttpHeaders generateKeysetPaginationHttpHeaders(UriComponentsBuilder uriBuilder, NtsKeysetSlice<T> slice) {
+        HttpHeaders headers = new HttpHeaders();
+        StringBuilder link = new StringBuilder();
+        if (slice.hasNext()) {
+            link.append(prepareLink(uriBuilder, slice.getNextCursor(), slice.getSize(), "next")).append(",");
+        }
+        link.append(prepareLink(uriBuilder, null, slice.getSize(), "first"));
+        headers.add(HttpHeaders.LINK, link.toString());
+        return headers;
+    }
+
+    private static String prepareLink(UriComponentsBuilder uriBuilder, String cursor, int size, String relType) {
+        String uri = uriBuilder.cloneBuilder()
+            .replaceQueryParam("page")
+            .replaceQueryParam("cursor", cursor == null ? new Object[0] : new Object[]{cursor})
+            .replaceQueryParam("size", size)
+            .toUriString()
+            .replace(",", "%2C")
+            .replace(";", "%3B");
+        return String.format(HEADER_LINK_FORMAT, uri, relType);
+    }
+}
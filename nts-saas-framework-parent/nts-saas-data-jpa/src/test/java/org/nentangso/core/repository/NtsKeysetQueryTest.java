@@ -0,0 +1,171 @@
+package org.nentangso.core.repository;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.nentangso.core.service.utils.NtsDataUtils;
+import org.nentangso.core.web.rest.utils.NtsKeysetPaginationUtil;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpHeaders;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import javax.persistence.Entity;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class NtsKeysetQueryTest {
+    private static final Set<String> SORTABLE = Set.of("name", "status");
+
+    private LocalContainerEntityManagerFactoryBean factoryBean;
+    private EntityManager entityManager;
+
+    @BeforeEach
+    void setUp() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:keyset;DB_CLOSE_DELAY=-1", "sa", "");
+        factoryBean = new LocalContainerEntityManagerFactoryBean();
+        factoryBean.setDataSource(dataSource);
+        factoryBean.setPackagesToScan(NtsKeysetQueryTest.class.getPackageName());
+        factoryBean.setJpaVendorAdapter(new HibernateJpaVendorAdapter());
+        factoryBean.setJpaPropertyMap(Map.of("hibernate.hbm2ddl.auto", "create-drop"));
+        factoryBean.afterPropertiesSet();
+        EntityManagerFactory entityManagerFactory = factoryBean.getObject();
+        entityManager = entityManagerFactory.createEntityManager();
+        entityManager.getTransaction().begin();
+        for (int i = 1; i <= 25; i++) {
+            entityManager.persist(new Item((long) i, "item-" + (i % 4), i % 2 == 0 ? Status.ACTIVE : Status.DRAFT));
+        }
+        entityManager.getTransaction().commit();
+        entityManager.clear();
+    }
+
+    @AfterEach
+    void tearDown() {
+        entityManager.close();
+        factoryBean.destroy();
+    }
+
+    @Test
+    void findSlice_walksAllRowsInSortOrderWithoutGapsOrDuplicates() {
+        Sort sort = Sort.by(Sort.Order.desc("name"), Sort.Order.asc("status"));
+        List<Long> ids = new ArrayList<>();
+        String cursor = null;
+        int slices = 0;
+        do {
+            NtsKeysetSlice<Item> slice = NtsKeysetQuery.findSlice(entityManager, Item.class, null, NtsKeysetRequest.of(cursor, 4, sort, SORTABLE));
+            assertThat(slice.getContent()).hasSizeLessThanOrEqualTo(4);
+            assertThat(slice.hasPrevious()).isEqualTo(cursor != null);
+            slice.forEach(item -> ids.add(item.getId()));
+            cursor = slice.getNextCursor();
+            assertThat(cursor == null).isEqualTo(!slice.hasNext());
+            slices++;
+        } while (cursor != null);
+
+        List<Long> expected = IntStream.rangeClosed(1, 25)
+            .mapToObj(i -> new Item((long) i, "item-" + (i % 4), i % 2 == 0 ? Status.ACTIVE : Status.DRAFT))
+            .sorted(Comparator.comparing(Item::getName).reversed().thenComparing(Item::getStatus).thenComparing(Item::getId))
+            .map(Item::getId)
+            .collect(Collectors.toList());
+        assertThat(ids).containsExactlyElementsOf(expected);
+        assertThat(slices).isEqualTo(7);
+    }
+
+    @Test
+    void findSlice_appliesSpecification() {
+        NtsKeysetSlice<Item> first = NtsKeysetQuery.findSlice(entityManager, Item.class,
+            (root, query, cb) -> cb.equal(root.get("status"), Status.ACTIVE), NtsKeysetRequest.of(10, Sort.by("id"), SORTABLE));
+        NtsKeysetSlice<Item> second = NtsKeysetQuery.findSlice(entityManager, Item.class,
+            (root, query, cb) -> cb.equal(root.get("status"), Status.ACTIVE), NtsKeysetRequest.of(first.getNextCursor(), 10, Sort.by("id"), SORTABLE));
+
+        assertThat(first.getContent()).extracting(Item::getId).containsExactly(2L, 4L, 6L, 8L, 10L, 12L, 14L, 16L, 18L, 20L);
+        assertThat(second.getContent()).extracting(Item::getId).containsExactly(22L, 24L);
+        assertThat(second.hasNext()).isFalse();
+    }
+
+    @Test
+    void request_rejectsCursorOfAnotherSort() {
+        NtsKeysetSlice<Item> slice = NtsKeysetQuery.findSlice(entityManager, Item.class, null, NtsKeysetRequest.of(5, Sort.by("name"), SORTABLE));
+
+        assertThatThrownBy(() -> NtsKeysetRequest.of(slice.getNextCursor(), 5, Sort.by("status"), SORTABLE))
+            .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> NtsKeysetRequest.of("not-a-cursor", 5, Sort.by("name"), SORTABLE))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void request_rejectsSortOutsideSortableProperties() {
+        assertThatThrownBy(() -> NtsKeysetRequest.of(5, Sort.by("secret"), SORTABLE))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessageContaining("secret");
+        assertThatThrownBy(() -> NtsDataUtils.keysetRequestWithDefaultSort(null, PageRequest.of(0, 5, Sort.by("name", "secret")), Sort.by("id"), SORTABLE))
+            .isInstanceOf(IllegalArgumentException.class);
+        assertThat(NtsDataUtils.keysetRequestWithDefaultSort(null, PageRequest.of(0, 5), Sort.by("name"), SORTABLE).getSort())
+            .isEqualTo(Sort.by("name", "id"));
+        assertThat(NtsKeysetRequest.of(5, Sort.by("id"), Set.of()).getSort()).isEqualTo(Sort.by("id"));
+    }
+
+    @Test
+    void generateKeysetPaginationHttpHeaders() {
+        NtsKeysetSlice<Item> slice = NtsKeysetQuery.findSlice(entityManager, Item.class, null, NtsKeysetRequest.of(5, Sort.by("name"), SORTABLE));
+        UriComponentsBuilder uriBuilder = UriComponentsBuilder.fromUriString("http://localhost/api/items?page=2&size=5&sort=name,asc");
+
+        HttpHeaders headers = NtsKeysetPaginationUtil.generateKeysetPaginationHttpHeaders(uriBuilder, slice);
+
+        assertThat(headers.getFirst(HttpHeaders.LINK)).isEqualTo(
+            "<http://localhost/api/items?sort=name%2Casc&cursor=" + slice.getNextCursor() + "&size=5>; rel=\"next\"," +
+                "<http://localhost/api/items?sort=name%2Casc&size=5>; rel=\"first\"");
+        assertThat(headers.containsKey("X-Total-Count")).isFalse();
+    }
+
+    enum Status {
+        ACTIVE, DRAFT
+    }
+
+    @Entity
+    @Table(name = "keyset_item")
+    static class Item {
+        @Id
+        private Long id;
+        private String name;
+        @Enumerated(EnumType.STRING)
+        private Status status;
+
+        Item() {
+        }
+
+        Item(Long id, String name, Status status) {
+            this.id = id;
+            this.name = name;
+            this.status = status;
+        }
+
+        public Long getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package org.nentangso.core.domain;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+
+import javax.persistence.*;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
+import java.io.Serializable;
+import java.time.Instant;
+
+/**
+ * Inbox events, the keys of the events already processed by a consumer
+ */
+@ConditionalOnProperty(
+    prefix = "nts.helper.inbox-event",
+    name = "enabled",
+    havingValue = "true"
+)
+@Entity
+@Table(name = "nts_inbox_events", uniqueConstraints = {
+    @UniqueConstraint(name = "ux_nts_inbox_events_key", columnNames = {"consumer", "aggregate_id", "aggregate_version", "event_type"})
+}, indexes = {
+    @Index(name = "idx_nts_inbox_events_processed_at", columnList = "processed_at, id")
+})
+public class NtsInboxEventEntity implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Id
+     */
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "id")
+    private Long id;
+
+    /**
+     * Consumer name
+     */
+    @NotNull
+    @Size(max = 100)
+    @Column(name = "consumer", length = 100, nullable = false)
+    private String consumer;
+
+    /**
+     * Aggregate id
+     */
+    @NotNull
+    @Size(max = 36)
+    @Column(name = "aggregate_id", length = 36, nullable = false)
+    private String aggregateId;
+
+    /**
+     * Aggregate version
+     */
+    @Column(name = "aggregate_version", nullable = false)
+    private int aggregateVersion;
+
+    /**
+     * Event type
+     */
+    @NotNull
+    @Size(max = 255)
+    @Column(name = "event_type", nullable = false)
+    private String eventType;
+
+    /**
+     * Processed date
+     */
+    @NotNull
+    @Column(name = "processed_at", nullable = false, updatable = false)
+    private Instant processedAt = Instant.now();
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getConsumer() {
+        return consumer;
+    }
+
+    public void setConsumer(String consumer) {
+        this.consumer = consumer;
+    }
+
+    public String getAggregateId() {
+        return aggregateId;
+    }
+
+    public void setAggregateId(String aggregateId) {
+        this.aggregateId = aggregateId;
+    }
+
+    public int getAggregateVersion() {
+        return aggregateVersion;
+    }
+
+    public void setAggregateVersion(int aggregateVersion) {
+        this.aggregateVersion = aggregateVersion;
+    }
+
+    public String getEventType() {
+        return eventType;
+    }
+
+    public void setEventType(String eventType) {
+        this.eventType = eventType;
+    }
+
+    public Instant getProcessedAt() {
+        return processedAt;
+    }
+
+    public void setProcessedAt(Instant processedAt) {
+        this.processedAt = processedAt;
+    }
+
+    @Override
+    public String toString() {
+        return "InboxEventEntity{" +
+            "id=" + id +
+            ", consumer='" + consumer + '\'' +
+            ", aggregateId='" + aggregateId + '\'' +
+            ", aggregateVersion=" + aggregateVersion +
+            ", eventType='" + eventType + '\'' +
+            ", processedAt=" + processedAt +
+            '}';
+    }
+
+}
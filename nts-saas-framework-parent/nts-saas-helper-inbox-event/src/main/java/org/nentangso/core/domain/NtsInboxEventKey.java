@@ -0,0 +1,73 @@
+package org.nentangso.core.domain;
+
+import org.nentangso.core.config.NtsConstants;
+
+import java.util.Objects;
+
+/**
+ * Deduplication key of an inbox event: the consumer and the aggregate id, aggregate version and event type of the event.
+ * <p>
+ * The aggregate version must be set: {@link NtsConstants#DEFAULT_VERSION} means no version, distinct events of the same
+ * aggregate and type would then share the key and all but the first be dropped as already processed.
+ */
+public final class NtsInboxEventKey {
+    private final String consumer;
+    private final String aggregateId;
+    private final int aggregateVersion;
+    private final String eventType;
+
+    /**
+     * @throws IllegalArgumentException if the aggregate version is {@link NtsConstants#DEFAULT_VERSION}
+     */
+    public NtsInboxEventKey(String consumer, String aggregateId, int aggregateVersion, String eventType) {
+        if (aggregateVersion == NtsConstants.DEFAULT_VERSION) {
+            throw new IllegalArgumentException("aggregateVersion");
+        }
+        this.consumer = Objects.requireNonNull(consumer, "consumer");
+        this.aggregateId = Objects.requireNonNull(aggregateId, "aggregateId");
+        this.aggregateVersion = aggregateVersion;
+        this.eventType = Objects.requireNonNull(eventType, "eventType");
+    }
+
+    public String getConsumer() {
+        return consumer;
+    }
+
+    public String getAggregateId() {
+        return aggregateId;
+    }
+
+    public int getAggregateVersion() {
+        return aggregateVersion;
+    }
+
+    public String getEventType() {
+        return eventType;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof NtsInboxEventKey)) return false;
+        NtsInboxEventKey that = (NtsInboxEventKey) o;
+        return aggregateVersion == that.aggregateVersion
+            && consumer.equals(that.consumer)
+            && aggregateId.equals(that.aggregateId)
+            && eventType.equals(that.eventType);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(consumer, aggregateId, aggregateVersion, eventType);
+    }
+
+    @Override
+    public String toString() {
+        return "InboxEventKey{" +
+            "consumer='" + consumer + '\'' +
+            ", aggregateId='" + aggregateId + '\'' +
+            ", aggregateVersion=" + aggregateVersion +
+            ", eventType='" + eventType + '\'' +
+            '}';
+    }
+}
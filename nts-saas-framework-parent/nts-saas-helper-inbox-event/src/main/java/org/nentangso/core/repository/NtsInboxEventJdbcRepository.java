@@ -0,0 +1,174 @@
+package org.nentangso.core.repository;
+
+import org.nentangso.core.config.NtsConstants;
+import org.nentangso.core.domain.NtsInboxEventEntity;
+import org.nentangso.core.domain.NtsInboxEventKey;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Plain JDBC access to the {@link NtsInboxEventEntity} table: multi-row acknowledgements, key lookups and streaming.
+ */
+@ConditionalOnProperty(
+    prefix = "nts.helper.inbox-event",
+    name = "enabled",
+    havingValue = "true"
+)
+@Repository
+public class NtsInboxEventJdbcRepository {
+    private static final String INSERT_INTO = "insert into nts_inbox_events " +
+        "(consumer, aggregate_id, aggregate_version, event_type, processed_at) values ";
+    private static final String ROW_VALUES = "(?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+    private final int batchSize;
+    private final Map<Integer, String> insertStatements = new ConcurrentHashMap<>();
+
+    public NtsInboxEventJdbcRepository(
+        JdbcTemplate jdbcTemplate,
+        @Value("${nts.helper.inbox-event.batch-size:500}") int batchSize
+    ) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize");
+        }
+        this.jdbcTemplate = jdbcTemplate;
+        this.namedParameterJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Insert keys with multi-row insert statements, chunked by {@code nts.helper.inbox-event.batch-size}.
+     *
+     * @param keys        the keys to insert
+     * @param processedAt the processed date
+     * @return the number of inserted rows
+     * @throws DuplicateKeyException if a key is already stored
+     */
+    public int batchInsert(List<NtsInboxEventKey> keys, Instant processedAt) {
+        if (keys == null || keys.isEmpty()) return 0;
+        int inserted = 0;
+        for (int from = 0; from < keys.size(); from += batchSize) {
+            List<NtsInboxEventKey> chunk = keys.subList(from, Math.min(from + batchSize, keys.size()));
+            inserted += jdbcTemplate.update(getInsertStatement(chunk.size()), ps -> setValues(ps, chunk, processedAt));
+        }
+        return inserted;
+    }
+
+    /**
+     * Insert keys outside of a transaction, skipping the keys already stored.
+     * Each chunk is written with one statement and falls back to one statement per key when it holds a duplicate.
+     *
+     * @param keys        the keys to insert
+     * @param processedAt the processed date
+     * @return the number of inserted rows
+     */
+    public int batchInsertIgnoreDuplicates(List<NtsInboxEventKey> keys, Instant processedAt) {
+        if (keys == null || keys.isEmpty()) return 0;
+        int inserted = 0;
+        for (int from = 0; from < keys.size(); from += batchSize) {
+            List<NtsInboxEventKey> chunk = keys.subList(from, Math.min(from + batchSize, keys.size()));
+            try {
+                inserted += jdbcTemplate.update(getInsertStatement(chunk.size()), ps -> setValues(ps, chunk, processedAt));
+            } catch (DuplicateKeyException e) {
+                for (NtsInboxEventKey key : chunk) {
+                    try {
+                        inserted += jdbcTemplate.update(getInsertStatement(1), ps -> setValues(ps, List.of(key), processedAt));
+                    } catch (DuplicateKeyException ignored) {
+                        // already acknowledged
+                    }
+                }
+            }
+        }
+        return inserted;
+    }
+
+    public boolean exists(NtsInboxEventKey key) {
+        Boolean exists = jdbcTemplate.query("select 1 from nts_inbox_events " +
+                "where consumer = ? and aggregate_id = ? and aggregate_version = ? and event_type = ?",
+            (ResultSetExtractor<Boolean>) ResultSet::next, key.getConsumer(), key.getAggregateId(), key.getAggregateVersion(), key.getEventType());
+        return Boolean.TRUE.equals(exists);
+    }
+
+    /**
+     * Stream the keys processed since the given date, {@code batch-size} rows per fetch. Rows without an aggregate version
+     * are not keys and are skipped.
+     *
+     * @param processedSince the lower bound of the processed date
+     * @param action         called for each key
+     */
+    public void forEachKey(Instant processedSince, Consumer<NtsInboxEventKey> action) {
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement("select consumer, aggregate_id, aggregate_version, event_type " +
+                "from nts_inbox_events where processed_at >= ? and aggregate_version <> ?");
+            ps.setFetchSize(batchSize);
+            ps.setTimestamp(1, Timestamp.from(processedSince));
+            ps.setInt(2, NtsConstants.DEFAULT_VERSION);
+            return ps;
+        }, (RowCallbackHandler) rs -> action.accept(new NtsInboxEventKey(rs.getString(1), rs.getString(2), rs.getInt(3), rs.getString(4))));
+    }
+
+    /**
+     * Delete up to {@code batch-size} keys processed before the given date.
+     *
+     * @param processedBefore the upper bound of the processed date, exclusive
+     * @return the number of deleted rows
+     */
+    public int deleteProcessedBefore(Instant processedBefore) {
+        List<Long> ids = new ArrayList<>(batchSize);
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement("select id from nts_inbox_events where processed_at < ? order by processed_at, id");
+            ps.setMaxRows(batchSize);
+            ps.setTimestamp(1, Timestamp.from(processedBefore));
+            return ps;
+        }, (RowCallbackHandler) rs -> ids.add(rs.getLong(1)));
+        if (ids.isEmpty()) return 0;
+        return namedParameterJdbcTemplate.update("delete from nts_inbox_events where id in (:ids)", new MapSqlParameterSource("ids", ids));
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    private String getInsertStatement(int rows) {
+        return insertStatements.computeIfAbsent(rows, size -> {
+            StringBuilder sql = new StringBuilder(INSERT_INTO.length() + size * (ROW_VALUES.length() + 2));
+            sql.append(INSERT_INTO);
+            for (int i = 0; i < size; i++) {
+                if (i > 0) sql.append(", ");
+                sql.append(ROW_VALUES);
+            }
+            return sql.toString();
+        });
+    }
+
+    private static void setValues(PreparedStatement ps, List<NtsInboxEventKey> keys, Instant processedAt) throws SQLException {
+        Timestamp timestamp = Timestamp.from(processedAt);
+        int index = 0;
+        for (NtsInboxEventKey key : keys) {
+            ps.setString(++index, key.getConsumer());
+            ps.setString(++index, key.getAggregateId());
+            ps.setInt(++index, key.getAggregateVersion());
+            ps.setString(++index, key.getEventType());
+            ps.setTimestamp(++index, timestamp);
+        }
+    }
+}
@@ -0,0 +1,362 @@
+package org.nentangso.core.service.helper;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.nentangso.core.domain.NtsInboxEventKey;
+import org.nentangso.core.repository.NtsInboxEventJdbcRepository;
+import org.nentangso.core.service.utils.NtsBloomFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Idempotent consumer inbox. Consumers check {@link #isProcessed} before handling an event and {@link #acknowledge} it afterwards,
+ * or use {@link #process} for both.
+ * <p>
+ * A check looks at the keys recently acknowledged on this node, then at a Bloom filter of every key acknowledged within
+ * {@code nts.helper.inbox-event.dedup-window}: a key absent from the filter is new without a database round trip.
+ * Only a key present in the filter is checked against {@code nts_inbox_events}.
+ * <p>
+ * Inside a transaction, acknowledgements are written as one batch right before commit, atomically with the consumer's own changes.
+ * Outside a transaction, they are queued and written in batches every {@code nts.helper.inbox-event.flush-interval} milliseconds,
+ * a crash may then lose the last acknowledgements and the events are processed again.
+ * <p>
+ * The filter is rebuilt from {@code nts_inbox_events} every {@code nts.helper.inbox-event.rebuild-interval}, on the flush thread,
+ * so it forgets the keys older than the dedup window and learns the keys acknowledged by other nodes. Keys acknowledged
+ * during a rebuild are put in both filters.
+ * <p>
+ * Between rebuilds, the filter of a node only knows the keys acknowledged by the node itself.
+ * When several nodes consume the same events, acknowledge inside the consumer transaction: the unique key then rejects
+ * a concurrent duplicate at commit and rolls its changes back.
+ */
+@ConditionalOnProperty(
+    prefix = "nts.helper.inbox-event",
+    name = "enabled",
+    havingValue = "true"
+)
+@Service
+public class NtsInboxEventHelper implements InitializingBean, DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(NtsInboxEventHelper.class);
+    private static final String METRIC_PREFIX = "nts.inbox";
+
+    private final NtsInboxEventJdbcRepository inboxEventJdbcRepository;
+    private final long expectedInsertions;
+    private final double falsePositiveProbability;
+    private final Map<NtsInboxEventKey, Boolean> recentKeys;
+    private final Duration dedupWindow;
+    private final long flushInterval;
+    private final Duration rebuildInterval;
+    private final Queue<NtsInboxEventKey> pendingKeys = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private volatile NtsBloomFilter bloomFilter;
+    /**
+     * The filter being rebuilt, null between rebuilds
+     */
+    private volatile NtsBloomFilter rebuildingFilter;
+    private volatile ScheduledExecutorService flushExecutor;
+    private final Counter bloomMisses;
+    private final Counter recentHits;
+    private final Counter tableHits;
+    private final Counter tableMisses;
+
+    public NtsInboxEventHelper(
+        NtsInboxEventJdbcRepository inboxEventJdbcRepository,
+        ObjectProvider<MeterRegistry> meterRegistryProvider,
+        @Value("${nts.helper.inbox-event.expected-insertions:1000000}") long expectedInsertions,
+        @Value("${nts.helper.inbox-event.false-positive-probability:0.01}") double falsePositiveProbability,
+        @Value("${nts.helper.inbox-event.recent-size:10000}") int recentSize,
+        @Value("${nts.helper.inbox-event.dedup-window:P7D}") Duration dedupWindow,
+        @Value("${nts.helper.inbox-event.flush-interval:200}") long flushInterval,
+        @Value("${nts.helper.inbox-event.rebuild-interval:PT1H}") Duration rebuildInterval
+    ) {
+        this.inboxEventJdbcRepository = inboxEventJdbcRepository;
+        this.expectedInsertions = expectedInsertions;
+        this.falsePositiveProbability = falsePositiveProbability;
+        this.bloomFilter = new NtsBloomFilter(expectedInsertions, falsePositiveProbability);
+        this.recentKeys = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<NtsInboxEventKey, Boolean> eldest) {
+                return size() > recentSize;
+            }
+        });
+        this.dedupWindow = dedupWindow;
+        this.flushInterval = flushInterval;
+        this.rebuildInterval = rebuildInterval;
+        MeterRegistry meterRegistry = meterRegistryProvider.getIfAvailable(SimpleMeterRegistry::new);
+        this.bloomMisses = Counter.builder(METRIC_PREFIX + ".check").tag("result", "bloom_miss").register(meterRegistry);
+        this.recentHits = Counter.builder(METRIC_PREFIX + ".check").tag("result", "recent_hit").register(meterRegistry);
+        this.tableHits = Counter.builder(METRIC_PREFIX + ".check").tag("result", "table_hit").register(meterRegistry);
+        this.tableMisses = Counter.builder(METRIC_PREFIX + ".check").tag("result", "table_miss").register(meterRegistry);
+        Gauge.builder(METRIC_PREFIX + ".pending", pendingCount, AtomicInteger::get)
+            .description("Acknowledgements waiting to be written")
+            .register(meterRegistry);
+    }
+
+    /**
+     * Load the keys acknowledged within the dedup window into the Bloom filter, then start the flush thread.
+     */
+    @Override
+    public void afterPropertiesSet() {
+        int loaded = load(bloomFilter);
+        log.debug("Loaded {} inbox event keys", loaded);
+        flushExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "nts-inbox-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flushExecutor.scheduleWithFixedDelay(this::flushQuietly, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        long rebuildMillis = rebuildInterval.toMillis();
+        flushExecutor.scheduleWithFixedDelay(this::rebuildQuietly, rebuildMillis, rebuildMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isProcessed(String consumer, String aggregateId, int aggregateVersion, String eventType) {
+        return isProcessed(new NtsInboxEventKey(consumer, aggregateId, aggregateVersion, eventType));
+    }
+
+    public boolean isProcessed(NtsInboxEventKey key) {
+        if (recentKeys.containsKey(key)) {
+            recentHits.increment();
+            return true;
+        }
+        PendingAcknowledgements pendingAcknowledgements = (PendingAcknowledgements) TransactionSynchronizationManager.getResource(this);
+        if (pendingAcknowledgements != null && pendingAcknowledgements.keys.contains(key)) {
+            recentHits.increment();
+            return true;
+        }
+        if (!bloomFilter.mightContain(hash(key))) {
+            bloomMisses.increment();
+            return false;
+        }
+        if (inboxEventJdbcRepository.exists(key)) {
+            recentKeys.put(key, Boolean.TRUE);
+            tableHits.increment();
+            return true;
+        }
+        tableMisses.increment();
+        return false;
+    }
+
+    public void acknowledge(String consumer, String aggregateId, int aggregateVersion, String eventType) {
+        acknowledge(new NtsInboxEventKey(consumer, aggregateId, aggregateVersion, eventType));
+    }
+
+    /**
+     * Record the event as processed, in the current transaction when there is one.
+     *
+     * @param key the event key
+     */
+    public void acknowledge(NtsInboxEventKey key) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            PendingAcknowledgements pendingAcknowledgements = (PendingAcknowledgements) TransactionSynchronizationManager.getResource(this);
+            if (pendingAcknowledgements == null) {
+                pendingAcknowledgements = new PendingAcknowledgements();
+                TransactionSynchronizationManager.bindResource(this, pendingAcknowledgements);
+                TransactionSynchronizationManager.registerSynchronization(pendingAcknowledgements);
+            }
+            pendingAcknowledgements.keys.add(key);
+            return;
+        }
+        // queued before the filter is updated, so a rebuild that misses the filter update finds the key queued or stored
+        pendingKeys.add(key);
+        remember(key);
+        ScheduledExecutorService executor = flushExecutor;
+        if (pendingCount.incrementAndGet() >= inboxEventJdbcRepository.getBatchSize() && executor != null) {
+            executor.execute(this::flushQuietly);
+        }
+    }
+
+    /**
+     * Run the handler unless the event was already processed, then acknowledge it.
+     *
+     * @param key     the event key
+     * @param handler the event handler
+     * @return false if the event was already processed
+     */
+    public boolean process(NtsInboxEventKey key, Runnable handler) {
+        if (isProcessed(key)) return false;
+        handler.run();
+        acknowledge(key);
+        return true;
+    }
+
+    /**
+     * Write the queued acknowledgements.
+     *
+     * @return the number of acknowledgements written
+     */
+    public int flush() {
+        int batchSize = inboxEventJdbcRepository.getBatchSize();
+        int written = 0;
+        List<NtsInboxEventKey> batch = new ArrayList<>(batchSize);
+        NtsInboxEventKey key;
+        while ((key = pendingKeys.poll()) != null) {
+            pendingCount.decrementAndGet();
+            batch.add(key);
+            if (batch.size() == batchSize) {
+                written += writeBatch(batch);
+                batch.clear();
+            }
+        }
+        return written + writeBatch(batch);
+    }
+
+    /**
+     * Delete the keys older than the dedup window.
+     */
+    @Scheduled(cron = "${nts.helper.inbox-event.purge-cron:0 0 * * * *}")
+    public void purge() {
+        Instant cutoff = Instant.now().minus(dedupWindow);
+        int deleted;
+        do {
+            deleted = inboxEventJdbcRepository.deleteProcessedBefore(cutoff);
+        } while (deleted == inboxEventJdbcRepository.getBatchSize());
+    }
+
+    /**
+     * Rebuild the Bloom filter from the keys acknowledged within the dedup window, on the flush thread.
+     *
+     * @return the number of keys loaded from the table
+     * @throws InterruptedException if interrupted while waiting for the rebuild
+     */
+    public int rebuild() throws InterruptedException {
+        try {
+            return flushExecutor.submit(this::rebuildFilter).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        ScheduledExecutorService executor = flushExecutor;
+        if (executor != null) {
+            executor.shutdown();
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+            flushExecutor = null;
+        }
+        flushQuietly();
+    }
+
+    /**
+     * Runs on the flush thread, so no flush is in progress: every acknowledged key is then queued or stored.
+     */
+    private int rebuildFilter() {
+        NtsBloomFilter rebuilt = new NtsBloomFilter(expectedInsertions, falsePositiveProbability);
+        rebuildingFilter = rebuilt;
+        try {
+            flushQuietly();
+            pendingKeys.forEach(key -> rebuilt.put(hash(key)));
+            int loaded = load(rebuilt);
+            bloomFilter = rebuilt;
+            log.debug("Rebuilt inbox event filter with {} keys", loaded);
+            return loaded;
+        } finally {
+            rebuildingFilter = null;
+        }
+    }
+
+    private void rebuildQuietly() {
+        try {
+            rebuildFilter();
+        } catch (RuntimeException e) {
+            log.warn("Cannot rebuild inbox event filter, keep the current one", e);
+        }
+    }
+
+    private int load(NtsBloomFilter filter) {
+        AtomicInteger loaded = new AtomicInteger();
+        inboxEventJdbcRepository.forEachKey(Instant.now().minus(dedupWindow), key -> {
+            filter.put(hash(key));
+            loaded.incrementAndGet();
+        });
+        return loaded.get();
+    }
+
+    private int writeBatch(List<NtsInboxEventKey> batch) {
+        if (batch.isEmpty()) return 0;
+        try {
+            return inboxEventJdbcRepository.batchInsertIgnoreDuplicates(batch, Instant.now());
+        } catch (DataAccessException e) {
+            batch.forEach(pendingKeys::add);
+            pendingCount.addAndGet(batch.size());
+            throw e;
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.warn("Cannot write inbox acknowledgements, {} pending", pendingCount.get(), e);
+        }
+    }
+
+    private void remember(NtsInboxEventKey key) {
+        putFilter(hash(key));
+        recentKeys.put(key, Boolean.TRUE);
+    }
+
+    private void putFilter(long hash) {
+        // the rebuilding filter is read first: if it was not set yet, the key is stored or queued before the rebuild reads them
+        NtsBloomFilter rebuilding = rebuildingFilter;
+        bloomFilter.put(hash);
+        if (rebuilding != null) {
+            rebuilding.put(hash);
+        }
+    }
+
+    private static long hash(NtsInboxEventKey key) {
+        return NtsBloomFilter.hash(key.getConsumer(), key.getAggregateId(), Integer.toString(key.getAggregateVersion()), key.getEventType());
+    }
+
+    private class PendingAcknowledgements implements TransactionSynchronization {
+        private final Set<NtsInboxEventKey> keys = new LinkedHashSet<>();
+
+        @Override
+        public void beforeCommit(boolean readOnly) {
+            if (keys.isEmpty()) return;
+            try {
+                inboxEventJdbcRepository.batchInsert(new ArrayList<>(keys), Instant.now());
+            } catch (DuplicateKeyException e) {
+                // processed concurrently, the filter must send the next delivery to the table
+                keys.forEach(key -> putFilter(hash(key)));
+                throw e;
+            }
+        }
+
+        @Override
+        public void afterCommit() {
+            keys.forEach(NtsInboxEventHelper.this::remember);
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(NtsInboxEventHelper.this);
+        }
+    }
+}
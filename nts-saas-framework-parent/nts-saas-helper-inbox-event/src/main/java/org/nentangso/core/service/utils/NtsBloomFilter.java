@@ -0,0 +1,93 @@
+package org.nentangso.core.service.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe Bloom filter over 64-bit hashes.
+ * <p>
+ * {@link #mightContain(long)} never returns false for a hash that was {@link #put(long) put}, and returns true for
+ * an absent hash with about the configured probability as long as no more than the expected number of hashes are put.
+ * Bits are set with compare-and-set, readers never lock.
+ */
+public final class NtsBloomFilter {
+    private static final double LN2 = Math.log(2);
+
+    private final AtomicLongArray words;
+    private final long bitCount;
+    private final int hashCount;
+
+    /**
+     * @param expectedInsertions        the number of hashes expected to be put
+     * @param falsePositiveProbability the target false positive probability, between 0 and 1 exclusive
+     */
+    public NtsBloomFilter(long expectedInsertions, double falsePositiveProbability) {
+        if (expectedInsertions <= 0) {
+            throw new IllegalArgumentException("expectedInsertions");
+        }
+        if (falsePositiveProbability <= 0 || falsePositiveProbability >= 1) {
+            throw new IllegalArgumentException("falsePositiveProbability");
+        }
+        long bits = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveProbability) / (LN2 * LN2));
+        int wordCount = Math.toIntExact(Math.max(1, (bits + 63) / 64));
+        this.words = new AtomicLongArray(wordCount);
+        this.bitCount = (long) wordCount * 64;
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / expectedInsertions * LN2));
+    }
+
+    public void put(long hash) {
+        long h1 = hash;
+        long h2 = hash >>> 32 | hash << 32;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = ((h1 + i * h2) & Long.MAX_VALUE) % bitCount;
+            int index = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long word;
+            do {
+                word = words.get(index);
+                if ((word & mask) != 0) break;
+            } while (!words.compareAndSet(index, word, word | mask));
+        }
+    }
+
+    public boolean mightContain(long hash) {
+        long h1 = hash;
+        long h2 = hash >>> 32 | hash << 32;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = ((h1 + i * h2) & Long.MAX_VALUE) % bitCount;
+            if ((words.get((int) (bit >>> 6)) & 1L << bit) == 0) return false;
+        }
+        return true;
+    }
+
+    public long getBitCount() {
+        return bitCount;
+    }
+
+    public int getHashCount() {
+        return hashCount;
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the parts, with a separator between parts and a final avalanche mix.
+     *
+     * @param parts the parts, null parts hash like empty ones
+     * @return the hash
+     */
+    public static long hash(CharSequence... parts) {
+        long hash = 0xcbf29ce484222325L;
+        for (CharSequence part : parts) {
+            if (part != null) {
+                for (int i = 0; i < part.length(); i++) {
+                    hash = (hash ^ part.charAt(i)) * 0x100000001b3L;
+                }
+            }
+            hash = (hash ^ 0xffff) * 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
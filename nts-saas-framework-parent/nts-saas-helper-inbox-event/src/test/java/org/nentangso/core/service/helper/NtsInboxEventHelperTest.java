@@ -0,0 +1,158 @@
+package org.nentangso.core.service.helper;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.nentangso.core.config.NtsConstants;
+import org.nentangso.core.domain.NtsInboxEventKey;
+import org.nentangso.core.repository.NtsInboxEventJdbcRepository;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test class for the {@link NtsInboxEventHelper}.
+ */
+class NtsInboxEventHelperTest {
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate transactionTemplate;
+    private SimpleMeterRegistry meterRegistry;
+    private NtsInboxEventHelper inboxEventHelper;
+
+    @BeforeEach
+    void setup() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:inbox;DB_CLOSE_DELAY=-1", "sa", "");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("drop table if exists nts_inbox_events");
+        jdbcTemplate.execute("create table nts_inbox_events (" +
+            "id bigint auto_increment primary key, consumer varchar(100) not null, aggregate_id varchar(36) not null, " +
+            "aggregate_version int not null, event_type varchar(255) not null, processed_at timestamp not null, " +
+            "constraint ux_nts_inbox_events_key unique (consumer, aggregate_id, aggregate_version, event_type))");
+        transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        meterRegistry = new SimpleMeterRegistry();
+        inboxEventHelper = createInboxEventHelper();
+    }
+
+    @AfterEach
+    void cleanup() throws InterruptedException {
+        inboxEventHelper.destroy();
+    }
+
+    @Test
+    void testAcknowledgeInTransaction() {
+        NtsInboxEventKey key = new NtsInboxEventKey("billing", "1", 1, "created");
+        assertThat(inboxEventHelper.isProcessed(key)).isFalse();
+
+        transactionTemplate.executeWithoutResult(status -> {
+            assertThat(inboxEventHelper.process(key, () -> { })).isTrue();
+            assertThat(countEvents()).isZero();
+            assertThat(inboxEventHelper.isProcessed(key)).isTrue();
+        });
+
+        assertThat(countEvents()).isEqualTo(1);
+        assertThat(inboxEventHelper.process(key, () -> { })).isFalse();
+        assertThat(meterRegistry.get("nts.inbox.check").tag("result", "bloom_miss").counter().count()).isEqualTo(2);
+    }
+
+    @Test
+    void testRollbackForgetsAcknowledgement() {
+        NtsInboxEventKey key = new NtsInboxEventKey("billing", "1", 1, "created");
+        transactionTemplate.executeWithoutResult(status -> {
+            inboxEventHelper.acknowledge(key);
+            status.setRollbackOnly();
+        });
+
+        assertThat(countEvents()).isZero();
+        assertThat(inboxEventHelper.isProcessed(key)).isFalse();
+    }
+
+    @Test
+    void testVersionlessKeyRefused() throws InterruptedException {
+        assertThatThrownBy(() -> inboxEventHelper.acknowledge("billing", "1", NtsConstants.DEFAULT_VERSION, "created"))
+            .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> inboxEventHelper.isProcessed("billing", "1", NtsConstants.DEFAULT_VERSION, "created"))
+            .isInstanceOf(IllegalArgumentException.class);
+        assertThat(countEvents()).isZero();
+
+        jdbcTemplate.update("insert into nts_inbox_events (consumer, aggregate_id, aggregate_version, event_type, processed_at) " +
+            "values ('billing', '1', 0, 'created', current_timestamp)");
+        assertThat(inboxEventHelper.rebuild()).isZero();
+    }
+
+    @Test
+    void testBatchedAcknowledgementsAndWarmUp() throws InterruptedException {
+        for (int i = 0; i < 5; i++) {
+            inboxEventHelper.acknowledge("billing", String.valueOf(i), 1, "created");
+        }
+        inboxEventHelper.acknowledge("billing", "0", 1, "created");
+        inboxEventHelper.destroy();
+        assertThat(countEvents()).isEqualTo(5);
+
+        inboxEventHelper = createInboxEventHelper();
+        assertThat(inboxEventHelper.isProcessed("billing", "3", 1, "created")).isTrue();
+        assertThat(meterRegistry.get("nts.inbox.check").tag("result", "table_hit").counter().count()).isEqualTo(1);
+        assertThat(inboxEventHelper.isProcessed("billing", "3", 2, "created")).isFalse();
+    }
+
+    @Test
+    void testConcurrentDuplicateRejectedAtCommit() throws InterruptedException {
+        NtsInboxEventKey key = new NtsInboxEventKey("billing", "1", 1, "created");
+        NtsInboxEventHelper otherNode = createInboxEventHelper();
+        try {
+            transactionTemplate.executeWithoutResult(status -> otherNode.acknowledge(key));
+        } finally {
+            otherNode.destroy();
+        }
+
+        assertThatThrownBy(() -> transactionTemplate.executeWithoutResult(status -> inboxEventHelper.acknowledge(key)))
+            .isInstanceOf(DuplicateKeyException.class);
+        assertThat(inboxEventHelper.isProcessed(key)).isTrue();
+    }
+
+    @Test
+    void testRebuildLearnsOtherNodesAndForgetsExpiredKeys() throws InterruptedException {
+        NtsInboxEventKey key = new NtsInboxEventKey("billing", "1", 1, "created");
+        NtsInboxEventHelper otherNode = createInboxEventHelper();
+        try {
+            transactionTemplate.executeWithoutResult(status -> otherNode.acknowledge(key));
+        } finally {
+            otherNode.destroy();
+        }
+        jdbcTemplate.update("insert into nts_inbox_events (consumer, aggregate_id, aggregate_version, event_type, processed_at) " +
+            "values ('billing', '2', 1, 'created', dateadd('DAY', -8, current_timestamp))");
+        assertThat(inboxEventHelper.isProcessed(key)).isFalse();
+
+        assertThat(inboxEventHelper.rebuild()).isEqualTo(1);
+
+        assertThat(inboxEventHelper.isProcessed(key)).isTrue();
+        assertThat(meterRegistry.get("nts.inbox.check").tag("result", "table_hit").counter().count()).isEqualTo(1);
+    }
+
+    @SuppressWarnings("unchecked")
+    private NtsInboxEventHelper createInboxEventHelper() {
+        ObjectProvider<MeterRegistry> meterRegistryProvider = mock(ObjectProvider.class);
+        when(meterRegistryProvider.getIfAvailable(any())).thenReturn(meterRegistry);
+        NtsInboxEventHelper helper = new NtsInboxEventHelper(new NtsInboxEventJdbcRepository(jdbcTemplate, 2), meterRegistryProvider,
+            1000, 0.01, 100, Duration.ofDays(7), 60_000, Duration.ofHours(1));
+        helper.afterPropertiesSet();
+        return helper;
+    }
+
+    private int countEvents() {
+        Integer count = jdbcTemplate.queryForObject("select count(*) from nts_inbox_events", Integer.class);
+        return count == null ? 0 : count;
+    }
+}
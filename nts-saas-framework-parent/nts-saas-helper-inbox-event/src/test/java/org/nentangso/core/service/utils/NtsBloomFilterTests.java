@@ -0,0 +1,31 @@
+package org.nentangso.core.service.utils;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class NtsBloomFilterTests {
+    @Test
+    @DisplayName("No false negative and false positive rate near the target")
+    void testFalsePositiveRate() {
+        NtsBloomFilter bloomFilter = new NtsBloomFilter(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) {
+            bloomFilter.put(NtsBloomFilter.hash("consumer", "aggregate-" + i));
+        }
+        for (int i = 0; i < 10_000; i++) {
+            assertThat(bloomFilter.mightContain(NtsBloomFilter.hash("consumer", "aggregate-" + i))).isTrue();
+        }
+        int falsePositives = 0;
+        for (int i = 10_000; i < 110_000; i++) {
+            if (bloomFilter.mightContain(NtsBloomFilter.hash("consumer", "aggregate-" + i))) falsePositives++;
+        }
+        assertThat(falsePositives / 100_000.0).isLessThan(0.02);
+    }
+
+    @Test
+    @DisplayName("Parts are separated")
+    void testHashSeparatesParts() {
+        assertThat(NtsBloomFilter.hash("ab", "c")).isNotEqualTo(NtsBloomFilter.hash("a", "bc"));
+    }
+}
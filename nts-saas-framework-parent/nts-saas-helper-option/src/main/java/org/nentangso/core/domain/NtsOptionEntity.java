@@ -1,6 +1,9 @@
 package org.nentangso.core.domain;
 
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
 import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.GenericGenerator;
 import org.hibernate.annotations.Where;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 
@@ -26,8 +29,10 @@ public class NtsOptionEntity extends AbstractAuditingEntity implements Serializa
     private static final long serialVersionUID = 1L;
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(generator = NtsTimeOrderedIdGenerator.NAME)
+    @GenericGenerator(name = NtsTimeOrderedIdGenerator.NAME, strategy = NtsTimeOrderedIdGenerator.STRATEGY)
     @Column(name = "id")
+    @JsonSerialize(using = ToStringSerializer.class)
     private Long id;
 
     /**
@@ -0,0 +1,49 @@
+package org.nentangso.core.domain;
+
+/**
+ * Encoding of {@link NtsOutboxEventEntity#getPayload()}.
+ * <p>
+ * {@link #JSON} payloads are stored as JSON text. The other encodings are binary and stored as Base64 text.
+ */
+public enum NtsOutboxEventEncoding {
+    JSON(Format.JSON, false),
+    JSON_GZIP(Format.JSON, true),
+    SMILE(Format.SMILE, false),
+    SMILE_GZIP(Format.SMILE, true),
+    CBOR(Format.CBOR, false),
+    CBOR_GZIP(Format.CBOR, true);
+
+    private final Format format;
+    private final boolean compressed;
+
+    NtsOutboxEventEncoding(Format format, boolean compressed) {
+        this.format = format;
+        this.compressed = compressed;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * @return the encoding with the same format, without compression
+     */
+    public NtsOutboxEventEncoding uncompressed() {
+        switch (format) {
+            case SMILE:
+                return SMILE;
+            case CBOR:
+                return CBOR;
+            default:
+                return JSON;
+        }
+    }
+
+    public enum Format {
+        JSON, SMILE, CBOR
+    }
+}
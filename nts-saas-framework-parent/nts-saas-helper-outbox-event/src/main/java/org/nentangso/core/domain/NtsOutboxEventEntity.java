@@ -1,5 +1,6 @@
 package org.nentangso.core.domain;
 
+import org.hibernate.annotations.GenericGenerator;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.data.annotation.CreatedDate;
 
@@ -18,7 +19,10 @@ import java.time.Instant;
     havingValue = "true"
 )
 @Entity
-@Table(name = "nts_outbox_events")
+@Table(name = "nts_outbox_events", indexes = {
+    @Index(name = "idx_nts_outbox_events_published_at", columnList = "published_at, id"),
+    @Index(name = "idx_nts_outbox_events_aggregate", columnList = "aggregate_type, aggregate_id, published_at")
+})
 public class NtsOutboxEventEntity implements Serializable {
     private static final long serialVersionUID = 1L;
 
@@ -26,7 +30,8 @@ public class NtsOutboxEventEntity implements Serializable {
      * Id
      */
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(generator = NtsTimeOrderedIdGenerator.NAME)
+    @GenericGenerator(name = NtsTimeOrderedIdGenerator.NAME, strategy = NtsTimeOrderedIdGenerator.STRATEGY)
     @Column(name = "id")
     private Long id;
 
@@ -63,6 +68,28 @@ public class NtsOutboxEventEntity implements Serializable {
     @Column(name = "payload", length = 65535, nullable = false)
     private String payload;
 
+    /**
+     * Payload encoding
+     */
+    @NotNull
+    @Enumerated(EnumType.STRING)
+    @Column(name = "payload_encoding", length = 20, nullable = false)
+    private NtsOutboxEventEncoding payloadEncoding = NtsOutboxEventEncoding.JSON;
+
+    /**
+     * Reference of the payload in the payload store, when too large to be kept in the row
+     */
+    @Size(max = 255)
+    @Column(name = "payload_reference")
+    private String payloadReference;
+
+    /**
+     * SHA-256 checksum of the offloaded payload
+     */
+    @Size(max = 64)
+    @Column(name = "payload_checksum", length = 64)
+    private String payloadChecksum;
+
     /**
      * Aggregate version
      */
@@ -91,6 +118,37 @@ public class NtsOutboxEventEntity implements Serializable {
     @Column(name = "created_at", nullable = false, updatable = false)
     private Instant createdAt = Instant.now();
 
+    /**
+     * Published date, null until a relay has published the event
+     */
+    @Column(name = "published_at")
+    private Instant publishedAt;
+
+    /**
+     * Number of failed publication attempts
+     */
+    @Column(name = "attempts", nullable = false)
+    private int attempts = 0;
+
+    /**
+     * Date before which the event is not published again, after a failed attempt
+     */
+    @Column(name = "next_attempt_at")
+    private Instant nextAttemptAt;
+
+    /**
+     * Error of the last failed attempt
+     */
+    @Size(max = 1000)
+    @Column(name = "last_error", length = 1000)
+    private String lastError;
+
+    /**
+     * Parked date, set when the event failed too many times and is no longer published
+     */
+    @Column(name = "parked_at")
+    private Instant parkedAt;
+
     public Long getId() {
         return id;
     }
@@ -131,6 +189,30 @@ public class NtsOutboxEventEntity implements Serializable {
         this.payload = payload;
     }
 
+    public NtsOutboxEventEncoding getPayloadEncoding() {
+        return payloadEncoding;
+    }
+
+    public void setPayloadEncoding(NtsOutboxEventEncoding payloadEncoding) {
+        this.payloadEncoding = payloadEncoding;
+    }
+
+    public String getPayloadReference() {
+        return payloadReference;
+    }
+
+    public void setPayloadReference(String payloadReference) {
+        this.payloadReference = payloadReference;
+    }
+
+    public String getPayloadChecksum() {
+        return payloadChecksum;
+    }
+
+    public void setPayloadChecksum(String payloadChecksum) {
+        this.payloadChecksum = payloadChecksum;
+    }
+
     public int getAggregateVersion() {
         return aggregateVersion;
     }
@@ -163,6 +245,46 @@ public class NtsOutboxEventEntity implements Serializable {
         this.createdAt = createdDate;
     }
 
+    public Instant getPublishedAt() {
+        return publishedAt;
+    }
+
+    public void setPublishedAt(Instant publishedAt) {
+        this.publishedAt = publishedAt;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public Instant getNextAttemptAt() {
+        return nextAttemptAt;
+    }
+
+    public void setNextAttemptAt(Instant nextAttemptAt) {
+        this.nextAttemptAt = nextAttemptAt;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public void setLastError(String lastError) {
+        this.lastError = lastError;
+    }
+
+    public Instant getParkedAt() {
+        return parkedAt;
+    }
+
+    public void setParkedAt(Instant parkedAt) {
+        this.parkedAt = parkedAt;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
@@ -188,10 +310,16 @@ public class NtsOutboxEventEntity implements Serializable {
             ", aggregateId='" + aggregateId + '\'' +
             ", eventType='" + eventType + '\'' +
             ", payload='" + payload + '\'' +
+            ", payloadEncoding=" + payloadEncoding +
+            ", payloadReference='" + payloadReference + '\'' +
             ", aggregateVersion=" + aggregateVersion +
             ", businessVersion=" + businessVersion +
             ", actor='" + actor + '\'' +
             ", createdDate=" + createdAt +
+            ", publishedAt=" + publishedAt +
+            ", attempts=" + attempts +
+            ", nextAttemptAt=" + nextAttemptAt +
+            ", parkedAt=" + parkedAt +
             '}';
     }
 
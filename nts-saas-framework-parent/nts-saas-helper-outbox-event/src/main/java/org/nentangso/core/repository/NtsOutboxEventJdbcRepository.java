@@ -0,0 +1,223 @@
+package org.nentangso.core.repository;
+
+import org.nentangso.core.domain.NtsOutboxEventEncoding;
+import org.nentangso.core.domain.NtsOutboxEventEntity;
+import org.nentangso.core.service.utils.NtsIdUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Plain JDBC access to the {@link NtsOutboxEventEntity} table.
+ * <p>
+ * This repository writes events with multi-row insert statements, one statement per chunk.
+ * Events without an id get a time-ordered one from {@link NtsIdUtils#nextId()}, so ids are known before the insert.
+ * <p>
+ * It also claims due events of one aggregate type for the workers that consume them from the table, and records
+ * their outcome. A claim pushes {@code next_attempt_at} to the end of a lease with a conditional update per event,
+ * so an event is claimed by one node at a time.
+ */
+@ConditionalOnProperty(
+    prefix = "nts.helper.outbox-event",
+    name = "enabled",
+    havingValue = "true"
+)
+@Repository
+public class NtsOutboxEventJdbcRepository {
+    private static final String INSERT_INTO = "insert into nts_outbox_events " +
+        "(id, aggregate_type, aggregate_id, event_type, payload, payload_encoding, payload_reference, payload_checksum, " +
+        "aggregate_version, business_version, actor, created_at, attempts) values ";
+    private static final String ROW_VALUES = "(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String SELECT_DUE = "select id, aggregate_type, aggregate_id, event_type, payload, payload_encoding, " +
+        "payload_reference, payload_checksum, aggregate_version, business_version, actor, created_at, attempts from nts_outbox_events " +
+        "where aggregate_type = ? and published_at is null and parked_at is null and (next_attempt_at is null or next_attempt_at <= ?) " +
+        "order by id";
+    private static final String CLAIM = "update nts_outbox_events set next_attempt_at = ? where id = ? " +
+        "and published_at is null and parked_at is null and (next_attempt_at is null or next_attempt_at <= ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final int batchSize;
+    private final Map<Integer, String> insertStatements = new ConcurrentHashMap<>();
+
+    public NtsOutboxEventJdbcRepository(
+        JdbcTemplate jdbcTemplate,
+        @Value("${nts.helper.outbox-event.batch-size:500}") int batchSize
+    ) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize");
+        }
+        this.jdbcTemplate = jdbcTemplate;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Insert events with multi-row insert statements, chunked by {@code nts.helper.outbox-event.batch-size}.
+     *
+     * @param events the events to insert, missing ids are generated and set on the events
+     * @return the number of inserted rows
+     */
+    public int batchInsert(List<NtsOutboxEventEntity> events) {
+        if (events == null || events.isEmpty()) return 0;
+        for (NtsOutboxEventEntity event : events) {
+            if (event.getId() == null) {
+                event.setId(NtsIdUtils.nextId());
+            }
+        }
+        int inserted = 0;
+        for (int from = 0; from < events.size(); from += batchSize) {
+            List<NtsOutboxEventEntity> chunk = events.subList(from, Math.min(from + batchSize, events.size()));
+            inserted += jdbcTemplate.update(getInsertStatement(chunk.size()), ps -> setValues(ps, chunk));
+        }
+        return inserted;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Claim the due events of an aggregate type: unpublished, unparked, and whose {@code next_attempt_at} is over.
+     *
+     * @param aggregateType the aggregate type
+     * @param now           the current time
+     * @param leaseUntil    the new {@code next_attempt_at} of the claimed events, when they are due again if not recorded
+     * @param limit         the maximum number of events
+     * @return the claimed events, in id order
+     */
+    public List<NtsOutboxEventEntity> claimDue(String aggregateType, Instant now, Instant leaseUntil, int limit) {
+        List<NtsOutboxEventEntity> dueEvents = new ArrayList<>();
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(SELECT_DUE);
+            ps.setMaxRows(limit);
+            ps.setString(1, aggregateType);
+            ps.setTimestamp(2, Timestamp.from(now));
+            return ps;
+        }, rs -> {
+            dueEvents.add(mapRow(rs));
+        });
+        if (dueEvents.isEmpty()) return dueEvents;
+        int[] claims = jdbcTemplate.batchUpdate(CLAIM, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                ps.setTimestamp(1, Timestamp.from(leaseUntil));
+                ps.setLong(2, dueEvents.get(i).getId());
+                ps.setTimestamp(3, Timestamp.from(now));
+            }
+
+            @Override
+            public int getBatchSize() {
+                return dueEvents.size();
+            }
+        });
+        List<NtsOutboxEventEntity> claimedEvents = new ArrayList<>(dueEvents.size());
+        for (int i = 0; i < claims.length; i++) {
+            if (claims[i] != 0) claimedEvents.add(dueEvents.get(i));
+        }
+        return claimedEvents;
+    }
+
+    /**
+     * @param id          the event id
+     * @param publishedAt the publication date
+     * @return the number of updated rows
+     */
+    public int markPublished(long id, Instant publishedAt) {
+        return jdbcTemplate.update("update nts_outbox_events set published_at = ? where id = ?", Timestamp.from(publishedAt), id);
+    }
+
+    /**
+     * @param id            the event id
+     * @param attempts      the number of failed attempts, the last one included
+     * @param nextAttemptAt the date of the next attempt
+     * @param lastError     the error of the last attempt
+     * @return the number of updated rows
+     */
+    public int markFailed(long id, int attempts, Instant nextAttemptAt, String lastError) {
+        return jdbcTemplate.update("update nts_outbox_events set attempts = ?, next_attempt_at = ?, last_error = ? where id = ?",
+            attempts, Timestamp.from(nextAttemptAt), lastError, id);
+    }
+
+    /**
+     * @param id        the event id
+     * @param attempts  the number of failed attempts, the last one included
+     * @param parkedAt  the parking date
+     * @param lastError the error of the last attempt
+     * @return the number of updated rows
+     */
+    public int markParked(long id, int attempts, Instant parkedAt, String lastError) {
+        return jdbcTemplate.update("update nts_outbox_events set attempts = ?, parked_at = ?, last_error = ? where id = ?",
+            attempts, Timestamp.from(parkedAt), lastError, id);
+    }
+
+    /**
+     * Hand a claimed event back without counting an attempt, e.g. when it was throttled.
+     *
+     * @param id            the event id
+     * @param nextAttemptAt the date of the next attempt
+     * @return the number of updated rows
+     */
+    public int release(long id, Instant nextAttemptAt) {
+        return jdbcTemplate.update("update nts_outbox_events set next_attempt_at = ? where id = ?", Timestamp.from(nextAttemptAt), id);
+    }
+
+    private static NtsOutboxEventEntity mapRow(ResultSet rs) throws SQLException {
+        NtsOutboxEventEntity event = new NtsOutboxEventEntity();
+        event.setId(rs.getLong(1));
+        event.setAggregateType(rs.getString(2));
+        event.setAggregateId(rs.getString(3));
+        event.setEventType(rs.getString(4));
+        event.setPayload(rs.getString(5));
+        event.setPayloadEncoding(NtsOutboxEventEncoding.valueOf(rs.getString(6)));
+        event.setPayloadReference(rs.getString(7));
+        event.setPayloadChecksum(rs.getString(8));
+        event.setAggregateVersion(rs.getInt(9));
+        event.setBusinessVersion(rs.getInt(10));
+        event.setActor(rs.getString(11));
+        event.setCreatedAt(rs.getTimestamp(12).toInstant());
+        event.setAttempts(rs.getInt(13));
+        return event;
+    }
+
+    private String getInsertStatement(int rows) {
+        return insertStatements.computeIfAbsent(rows, size -> {
+            StringBuilder sql = new StringBuilder(INSERT_INTO.length() + size * (ROW_VALUES.length() + 2));
+            sql.append(INSERT_INTO);
+            for (int i = 0; i < size; i++) {
+                if (i > 0) sql.append(", ");
+                sql.append(ROW_VALUES);
+            }
+            return sql.toString();
+        });
+    }
+
+    private static void setValues(PreparedStatement ps, List<NtsOutboxEventEntity> events) throws SQLException {
+        int index = 0;
+        for (NtsOutboxEventEntity event : events) {
+            ps.setLong(++index, event.getId());
+            ps.setString(++index, event.getAggregateType());
+            ps.setString(++index, event.getAggregateId());
+            ps.setString(++index, event.getEventType());
+            ps.setString(++index, event.getPayload());
+            ps.setString(++index, event.getPayloadEncoding().name());
+            ps.setString(++index, event.getPayloadReference());
+            ps.setString(++index, event.getPayloadChecksum());
+            ps.setInt(++index, event.getAggregateVersion());
+            ps.setInt(++index, event.getBusinessVersion());
+            ps.setString(++index, event.getActor());
+            ps.setTimestamp(++index, Timestamp.from(event.getCreatedAt()));
+            ps.setInt(++index, event.getAttempts());
+        }
+    }
+}
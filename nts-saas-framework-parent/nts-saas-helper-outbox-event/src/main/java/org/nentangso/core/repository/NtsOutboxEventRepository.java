@@ -2,9 +2,16 @@ package org.nentangso.core.repository;
 
 import org.nentangso.core.domain.NtsOutboxEventEntity;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.stereotype.Repository;
 
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
 @ConditionalOnProperty(
     prefix = "nts.helper.outbox-event",
     name = "enabled",
@@ -12,4 +19,34 @@ import org.springframework.stereotype.Repository;
 )
 @Repository
 public interface NtsOutboxEventRepository extends CrudRepository<NtsOutboxEventEntity, Long> {
+    String DUE_EVENTS = "select e from NtsOutboxEventEntity e where e.publishedAt is null and e.parkedAt is null" +
+        " and (e.nextAttemptAt is null or e.nextAttemptAt <= ?1)" +
+        " and not exists (select p.id from NtsOutboxEventEntity p where p.aggregateType = e.aggregateType" +
+        " and p.aggregateId = e.aggregateId and p.publishedAt is null and p.parkedAt is null and p.nextAttemptAt > ?1" +
+        " and (p.aggregateVersion < e.aggregateVersion or (p.aggregateVersion = e.aggregateVersion and p.id < e.id)))";
+
+    /**
+     * Unpublished, unparked events whose retry delay is over, in id order.
+     * Events of an aggregate are not due while an earlier event of the aggregate waits for its retry delay.
+     */
+    @Query(DUE_EVENTS + " order by e.id")
+    List<NtsOutboxEventEntity> findDue(Instant now, Pageable pageable);
+
+    /**
+     * Same as {@link #findDue(Instant, Pageable)}, without the events of the given aggregate types.
+     */
+    @Query(DUE_EVENTS + " and e.aggregateType not in ?2 order by e.id")
+    List<NtsOutboxEventEntity> findDueExcluding(Instant now, Collection<String> aggregateTypes, Pageable pageable);
+
+    @Modifying
+    @Query("update NtsOutboxEventEntity e set e.publishedAt = ?2 where e.id in ?1")
+    int markPublished(Collection<Long> ids, Instant publishedAt);
+
+    @Modifying
+    @Query("update NtsOutboxEventEntity e set e.attempts = e.attempts + 1, e.nextAttemptAt = ?2, e.lastError = ?3 where e.id = ?1")
+    int markFailed(Long id, Instant nextAttemptAt, String lastError);
+
+    @Modifying
+    @Query("update NtsOutboxEventEntity e set e.attempts = e.attempts + 1, e.parkedAt = ?2, e.lastError = ?3 where e.id = ?1")
+    int markParked(Long id, Instant parkedAt, String lastError);
 }
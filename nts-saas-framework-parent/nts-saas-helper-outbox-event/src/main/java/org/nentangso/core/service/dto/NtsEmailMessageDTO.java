@@ -0,0 +1,115 @@
+package org.nentangso.core.service.dto;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Payload of a {@link org.nentangso.core.config.NtsConstants#AGGREGATE_EMAIL_MESSAGE} outbox event.
+ */
+public class NtsEmailMessageDTO implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Recipient address.
+     */
+    private String to;
+
+    /**
+     * Subject template.
+     */
+    private String subject;
+
+    /**
+     * Name of the body template, loaded from {@code classpath:templates/mail/<template>.html}.
+     */
+    private String template;
+
+    /**
+     * Language tag of the template, {@code <template>_<language>.html} is used when it exists.
+     */
+    private String language;
+
+    /**
+     * Template variables.
+     */
+    private Map<String, Object> variables = new LinkedHashMap<>();
+
+    public NtsEmailMessageDTO() {
+    }
+
+    public NtsEmailMessageDTO(String to, String subject, String template, Map<String, Object> variables) {
+        this.to = to;
+        this.subject = subject;
+        this.template = template;
+        this.variables = variables;
+    }
+
+    public String getTo() {
+        return to;
+    }
+
+    public void setTo(String to) {
+        this.to = to;
+    }
+
+    public String getSubject() {
+        return subject;
+    }
+
+    public void setSubject(String subject) {
+        this.subject = subject;
+    }
+
+    public String getTemplate() {
+        return template;
+    }
+
+    public void setTemplate(String template) {
+        this.template = template;
+    }
+
+    public String getLanguage() {
+        return language;
+    }
+
+    public void setLanguage(String language) {
+        this.language = language;
+    }
+
+    public Map<String, Object> getVariables() {
+        return variables;
+    }
+
+    public void setVariables(Map<String, Object> variables) {
+        this.variables = variables;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof NtsEmailMessageDTO)) return false;
+        NtsEmailMessageDTO that = (NtsEmailMessageDTO) o;
+        return Objects.equals(to, that.to)
+            && Objects.equals(subject, that.subject)
+            && Objects.equals(template, that.template)
+            && Objects.equals(language, that.language)
+            && Objects.equals(variables, that.variables);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(to, subject, template, language, variables);
+    }
+
+    @Override
+    public String toString() {
+        return "EmailMessageDTO{" +
+            "to='" + to + '\'' +
+            ", subject='" + subject + '\'' +
+            ", template='" + template + '\'' +
+            ", language='" + language + '\'' +
+            '}';
+    }
+}
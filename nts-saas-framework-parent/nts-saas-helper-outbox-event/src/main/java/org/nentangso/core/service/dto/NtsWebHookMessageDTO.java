@@ -0,0 +1,80 @@
+package org.nentangso.core.service.dto;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Payload of a {@link org.nentangso.core.config.NtsConstants#AGGREGATE_WEB_HOOK} outbox event.
+ */
+public class NtsWebHookMessageDTO implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Endpoint receiving the POST request.
+     */
+    private String url;
+
+    /**
+     * Topic of the web hook, sent in the {@code x_topic} header.
+     */
+    private String topic;
+
+    /**
+     * JSON body, sent and signed as is.
+     */
+    private String body;
+
+    public NtsWebHookMessageDTO() {
+    }
+
+    public NtsWebHookMessageDTO(String url, String topic, String body) {
+        this.url = url;
+        this.topic = topic;
+        this.body = body;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public void setTopic(String topic) {
+        this.topic = topic;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public void setBody(String body) {
+        this.body = body;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof NtsWebHookMessageDTO)) return false;
+        NtsWebHookMessageDTO that = (NtsWebHookMessageDTO) o;
+        return Objects.equals(url, that.url) && Objects.equals(topic, that.topic) && Objects.equals(body, that.body);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(url, topic, body);
+    }
+
+    @Override
+    public String toString() {
+        return "WebHookMessageDTO{" +
+            "url='" + url + '\'' +
+            ", topic='" + topic + '\'' +
+            '}';
+    }
+}
@@ -0,0 +1,256 @@
+package org.nentangso.core.service.helper;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.nentangso.core.config.NtsConstants;
+import org.nentangso.core.domain.NtsOutboxEventEntity;
+import org.nentangso.core.repository.NtsOutboxEventJdbcRepository;
+import org.nentangso.core.service.dto.NtsEmailMessageDTO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.mail.javamail.MimeMessageHelper;
+import org.springframework.stereotype.Component;
+
+import javax.mail.MessagingException;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Sends {@link NtsConstants#AGGREGATE_EMAIL_MESSAGE} outbox events, whose payload is a {@link NtsEmailMessageDTO},
+ * straight from the outbox table, see {@link NtsOutboxEventWorker}.
+ * <p>
+ * Each round claims up to {@code nts.helper.email.batch-size} events and sends them from the worker thread.
+ * Bodies and subjects are rendered from {@link NtsEmailTemplateCache}. A round is sent over one SMTP connection,
+ * which stays open for the next rounds until it has been idle for {@code nts.helper.email.connection-idle-timeout} milliseconds.
+ * <p>
+ * Each recipient domain has a token bucket of {@code domain-rate} messages per second and {@code domain-burst} messages:
+ * messages over the limit are deferred until the domain has tokens again, without holding up the other domains.
+ * Failed messages are retried with exponential backoff up to {@code max-retries} times, then parked.
+ * Invalid recipients and templates are parked right away.
+ */
+@ConditionalOnProperty(
+    prefix = "nts.helper.email",
+    name = "enabled",
+    havingValue = "true"
+)
+@ConditionalOnClass(name = "org.springframework.mail.javamail.JavaMailSenderImpl")
+@Component
+public class NtsEmailDispatcher extends NtsOutboxEventWorker {
+    private static final Logger log = LoggerFactory.getLogger(NtsEmailDispatcher.class);
+    private static final String METRIC_PREFIX = "nts.email";
+    private static final Pattern EMAIL_PATTERN = Pattern.compile(NtsConstants.EXTRA_EMAIL_PATTERN);
+
+    private final JavaMailSenderImpl mailSender;
+    private final NtsEmailTemplateCache emailTemplateCache;
+    private final NtsOutboxEventCodec outboxEventCodec;
+    private final Map<String, TokenBucket> domainBuckets = new ConcurrentHashMap<>();
+    private final String from;
+    private final double domainRate;
+    private final double domainBurst;
+    private final int maxRetries;
+    private final long initialBackoff;
+    private final long connectionIdleTimeout;
+    private final Counter sent;
+    private final Counter failed;
+    private final Counter throttled;
+
+    private Transport transport;
+    private long lastUsed;
+
+    public NtsEmailDispatcher(
+        JavaMailSenderImpl mailSender,
+        NtsEmailTemplateCache emailTemplateCache,
+        NtsOutboxEventCodec outboxEventCodec,
+        NtsOutboxEventJdbcRepository outboxEventJdbcRepository,
+        NtsOutboxEventSignal outboxEventSignal,
+        ObjectProvider<MeterRegistry> meterRegistryProvider,
+        @Value("${nts.helper.email.from:no-reply@localhost}") String from,
+        @Value("${nts.helper.email.batch-size:50}") int batchSize,
+        @Value("${nts.helper.email.domain-rate:10}") double domainRate,
+        @Value("${nts.helper.email.domain-burst:20}") double domainBurst,
+        @Value("${nts.helper.email.max-retries:5}") int maxRetries,
+        @Value("${nts.helper.email.initial-backoff:1000}") long initialBackoff,
+        @Value("${nts.helper.email.connection-idle-timeout:30000}") long connectionIdleTimeout,
+        @Value("${nts.helper.email.poll-interval:1000}") long pollInterval,
+        @Value("${nts.helper.email.lease:PT5M}") Duration lease
+    ) {
+        this(mailSender, emailTemplateCache, outboxEventCodec, outboxEventJdbcRepository, outboxEventSignal,
+            meterRegistryProvider.getIfAvailable(SimpleMeterRegistry::new), from, batchSize, domainRate, domainBurst, maxRetries,
+            initialBackoff, connectionIdleTimeout, pollInterval, lease);
+    }
+
+    private NtsEmailDispatcher(
+        JavaMailSenderImpl mailSender,
+        NtsEmailTemplateCache emailTemplateCache,
+        NtsOutboxEventCodec outboxEventCodec,
+        NtsOutboxEventJdbcRepository outboxEventJdbcRepository,
+        NtsOutboxEventSignal outboxEventSignal,
+        MeterRegistry meterRegistry,
+        String from,
+        int batchSize,
+        double domainRate,
+        double domainBurst,
+        int maxRetries,
+        long initialBackoff,
+        long connectionIdleTimeout,
+        long pollInterval,
+        Duration lease
+    ) {
+        super(outboxEventJdbcRepository, outboxEventSignal, meterRegistry, NtsConstants.AGGREGATE_EMAIL_MESSAGE, batchSize, pollInterval, lease);
+        if (domainRate <= 0 || domainBurst < 1) {
+            throw new IllegalArgumentException("domainRate");
+        }
+        this.mailSender = mailSender;
+        this.emailTemplateCache = emailTemplateCache;
+        this.outboxEventCodec = outboxEventCodec;
+        this.from = from;
+        this.domainRate = domainRate;
+        this.domainBurst = domainBurst;
+        this.maxRetries = maxRetries;
+        this.initialBackoff = initialBackoff;
+        this.connectionIdleTimeout = connectionIdleTimeout;
+        this.sent = Counter.builder(METRIC_PREFIX + ".sent").register(meterRegistry);
+        this.failed = Counter.builder(METRIC_PREFIX + ".failed").register(meterRegistry);
+        this.throttled = Counter.builder(METRIC_PREFIX + ".throttled").register(meterRegistry);
+    }
+
+    /**
+     * Send an email outbox event, from the worker thread.
+     *
+     * @param outboxEvent the event, its payload is a {@link NtsEmailMessageDTO}
+     * @return the outcome of the attempt, already completed
+     */
+    @Override
+    protected CompletableFuture<Outcome> handle(NtsOutboxEventEntity outboxEvent) {
+        return CompletableFuture.completedFuture(send(outboxEvent));
+    }
+
+    private Outcome send(NtsOutboxEventEntity outboxEvent) {
+        NtsEmailMessageDTO message;
+        try {
+            message = outboxEventCodec.decode(outboxEvent, NtsEmailMessageDTO.class);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Cannot read email event {}", outboxEvent.getId(), e);
+            failed.increment();
+            return Outcome.park("Cannot read email: " + e);
+        }
+        if (message.getTo() == null || !EMAIL_PATTERN.matcher(message.getTo()).matches()) {
+            log.warn("Invalid email recipient {}", message.getTo());
+            failed.increment();
+            return Outcome.park("Invalid email recipient " + message.getTo());
+        }
+        String domain = message.getTo().substring(message.getTo().lastIndexOf('@') + 1).toLowerCase(Locale.ROOT);
+        long wait = domainBuckets.computeIfAbsent(domain, key -> new TokenBucket()).tryAcquire();
+        if (wait > 0) {
+            throttled.increment();
+            return Outcome.defer(Duration.ofNanos(wait));
+        }
+        MimeMessage mimeMessage;
+        try {
+            mimeMessage = render(message);
+        } catch (MessagingException | RuntimeException e) {
+            log.warn("Cannot render email {}", message, e);
+            failed.increment();
+            return Outcome.park("Cannot render email: " + e);
+        }
+        try {
+            Transport connectedTransport = connect();
+            connectedTransport.sendMessage(mimeMessage, mimeMessage.getAllRecipients());
+            lastUsed = System.nanoTime();
+            sent.increment();
+            return Outcome.done();
+        } catch (MessagingException e) {
+            closeConnection();
+            int retries = outboxEvent.getAttempts();
+            if (retries >= maxRetries) {
+                log.warn("Give up email {} after {} retries", message, retries, e);
+                failed.increment();
+                return Outcome.park(String.valueOf(e));
+            }
+            return Outcome.retry(Duration.ofMillis(initialBackoff << Math.min(retries, 20)), String.valueOf(e));
+        }
+    }
+
+    @Override
+    protected void afterRound() {
+        closeIdleConnection();
+    }
+
+    private MimeMessage render(NtsEmailMessageDTO message) throws MessagingException {
+        Map<String, Object> variables = message.getVariables() == null ? Collections.emptyMap() : message.getVariables();
+        MimeMessage mimeMessage = mailSender.createMimeMessage();
+        MimeMessageHelper helper = new MimeMessageHelper(mimeMessage, false, StandardCharsets.UTF_8.name());
+        helper.setFrom(from);
+        helper.setTo(message.getTo());
+        helper.setSubject(emailTemplateCache.renderText(message.getSubject(), variables));
+        helper.setText(emailTemplateCache.render(message.getTemplate(), message.getLanguage(), variables), true);
+        mimeMessage.saveChanges();
+        return mimeMessage;
+    }
+
+    private Transport connect() throws MessagingException {
+        if (transport != null && transport.isConnected()) return transport;
+        closeConnection();
+        Transport newTransport = mailSender.getSession().getTransport(mailSender.getProtocol() == null ? "smtp" : mailSender.getProtocol());
+        newTransport.connect(mailSender.getHost(), mailSender.getPort(), mailSender.getUsername(), mailSender.getPassword());
+        transport = newTransport;
+        return transport;
+    }
+
+    private void closeIdleConnection() {
+        if (transport != null && System.nanoTime() - lastUsed > TimeUnit.MILLISECONDS.toNanos(connectionIdleTimeout)) {
+            closeConnection();
+        }
+    }
+
+    private void closeConnection() {
+        if (transport == null) return;
+        try {
+            transport.close();
+        } catch (MessagingException e) {
+            log.debug("Cannot close SMTP connection", e);
+        }
+        transport = null;
+    }
+
+    @Override
+    public void destroy() {
+        super.destroy();
+        closeConnection();
+    }
+
+    private final class TokenBucket {
+        private double tokens = domainBurst;
+        private long refilledAt = System.nanoTime();
+
+        /**
+         * @return 0 if a token was taken, otherwise the nanoseconds to wait for the next token
+         */
+        synchronized long tryAcquire() {
+            long now = System.nanoTime();
+            tokens = Math.min(domainBurst, tokens + (now - refilledAt) * domainRate / TimeUnit.SECONDS.toNanos(1));
+            refilledAt = now;
+            if (tokens >= 1) {
+                tokens -= 1;
+                return 0;
+            }
+            return (long) Math.ceil((1 - tokens) / domainRate * TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+}
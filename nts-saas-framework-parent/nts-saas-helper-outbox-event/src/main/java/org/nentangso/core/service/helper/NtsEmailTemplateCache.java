@@ -0,0 +1,161 @@
+package org.nentangso.core.service.helper;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.stereotype.Component;
+import org.springframework.web.util.HtmlUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Email templates, parsed once and kept as a list of literal and variable segments.
+ * <p>
+ * {@code {{name}}} writes the HTML escaped value of a variable, {@code {{{name}}}} writes it as is,
+ * dotted names such as {@code {{user.firstName}}} read nested maps. Missing variables are written as empty text.
+ * Body templates are loaded from {@code nts.helper.email.template-location}, {@code <template>_<language>.html} first.
+ */
+@ConditionalOnProperty(
+    prefix = "nts.helper.email",
+    name = "enabled",
+    havingValue = "true"
+)
+@Component
+public class NtsEmailTemplateCache {
+    private static final int MAX_INLINE_TEMPLATES = 1000;
+
+    private final ResourceLoader resourceLoader;
+    private final String templateLocation;
+    private final Map<String, Optional<Template>> templates = new ConcurrentHashMap<>();
+    private final Map<String, Template> inlineTemplates = new ConcurrentHashMap<>();
+
+    public NtsEmailTemplateCache(
+        ResourceLoader resourceLoader,
+        @Value("${nts.helper.email.template-location:classpath:templates/mail/}") String templateLocation
+    ) {
+        this.resourceLoader = resourceLoader;
+        this.templateLocation = templateLocation.endsWith("/") ? templateLocation : templateLocation + "/";
+    }
+
+    /**
+     * Render a body template.
+     *
+     * @param name      the template name
+     * @param language  the language tag, or null
+     * @param variables the variables
+     * @return the rendered HTML
+     * @throws IllegalArgumentException if the template does not exist
+     */
+    public String render(String name, String language, Map<String, Object> variables) {
+        Optional<Template> template = Optional.empty();
+        if (language != null && !language.isEmpty()) {
+            template = loadTemplate(name + "_" + language);
+        }
+        if (template.isEmpty()) {
+            template = loadTemplate(name);
+        }
+        return template
+            .orElseThrow(() -> new IllegalArgumentException("Email template not found: " + name))
+            .render(variables);
+    }
+
+    /**
+     * Render an inline template, such as a subject.
+     *
+     * @param source    the template source
+     * @param variables the variables
+     * @return the rendered text, not escaped
+     */
+    public String renderText(String source, Map<String, Object> variables) {
+        if (source == null) return "";
+        Template template = inlineTemplates.get(source);
+        if (template == null) {
+            template = Template.compile(source, false);
+            if (inlineTemplates.size() < MAX_INLINE_TEMPLATES) {
+                inlineTemplates.putIfAbsent(source, template);
+            }
+        }
+        return template.render(variables);
+    }
+
+    private Optional<Template> loadTemplate(String name) {
+        return templates.computeIfAbsent(name, key -> {
+            Resource resource = resourceLoader.getResource(templateLocation + key + ".html");
+            if (!resource.exists()) return Optional.empty();
+            try (InputStream in = resource.getInputStream()) {
+                return Optional.of(Template.compile(new String(in.readAllBytes(), StandardCharsets.UTF_8), true));
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot read email template " + key, e);
+            }
+        });
+    }
+
+    static final class Template {
+        private final List<Object> segments;
+        private final int length;
+
+        private Template(List<Object> segments, int length) {
+            this.segments = segments;
+            this.length = length;
+        }
+
+        static Template compile(String source, boolean escapeHtml) {
+            List<Object> segments = new ArrayList<>();
+            int from = 0;
+            while (true) {
+                int start = source.indexOf("{{", from);
+                if (start < 0) break;
+                boolean raw = source.startsWith("{{{", start);
+                String close = raw ? "}}}" : "}}";
+                int end = source.indexOf(close, start + close.length());
+                if (end < 0) break;
+                if (start > from) segments.add(source.substring(from, start));
+                String name = source.substring(start + close.length(), end).trim();
+                segments.add(new Variable(name.split("\\."), escapeHtml && !raw));
+                from = end + close.length();
+            }
+            if (from < source.length()) segments.add(source.substring(from));
+            return new Template(segments, source.length());
+        }
+
+        String render(Map<String, Object> variables) {
+            StringBuilder out = new StringBuilder(length + 64);
+            for (Object segment : segments) {
+                if (segment instanceof String) {
+                    out.append((String) segment);
+                } else {
+                    ((Variable) segment).appendTo(out, variables);
+                }
+            }
+            return out.toString();
+        }
+    }
+
+    private static final class Variable {
+        private final String[] path;
+        private final boolean escapeHtml;
+
+        Variable(String[] path, boolean escapeHtml) {
+            this.path = path;
+            this.escapeHtml = escapeHtml;
+        }
+
+        void appendTo(StringBuilder out, Map<String, Object> variables) {
+            Object value = variables;
+            for (String key : path) {
+                if (!(value instanceof Map)) return;
+                value = ((Map<?, ?>) value).get(key);
+            }
+            if (value == null) return;
+            out.append(escapeHtml ? HtmlUtils.htmlEscape(value.toString()) : value.toString());
+        }
+    }
+}
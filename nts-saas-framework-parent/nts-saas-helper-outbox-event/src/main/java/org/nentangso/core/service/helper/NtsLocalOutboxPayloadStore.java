@@ -0,0 +1,78 @@
+package org.nentangso.core.service.helper;
+
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ * {@link NtsOutboxPayloadStore} on the local filesystem, under {@code nts.helper.outbox-event.payload-store.directory}.
+ * Payloads are written to a temporary file then moved atomically, and read through a memory-mapped buffer.
+ * <p>
+ * The directory is required: offloaded payloads must outlive their outbox rows, so it must be a durable volume,
+ * shared by the relays that read them.
+ */
+@ConditionalOnProperty(
+    prefix = "nts.helper.outbox-event.payload-store",
+    name = "type",
+    havingValue = "local"
+)
+@Component
+public class NtsLocalOutboxPayloadStore implements NtsOutboxPayloadStore {
+    private static final Pattern REFERENCE_PATTERN = Pattern.compile("^[0-9a-f]{32}$");
+    private static final String EXTENSION = ".bin";
+
+    private final Path directory;
+
+    public NtsLocalOutboxPayloadStore(
+        @Value("${nts.helper.outbox-event.payload-store.directory:}") String directory
+    ) throws IOException {
+        if (directory == null || directory.isBlank()) {
+            throw new IllegalStateException("nts.helper.outbox-event.payload-store.directory is required by the local payload store");
+        }
+        this.directory = Files.createDirectories(Paths.get(directory));
+    }
+
+    @Override
+    public String store(byte[] payload) throws IOException {
+        String reference = UUID.randomUUID().toString().replace("-", "");
+        Path path = resolve(reference);
+        Files.createDirectories(path.getParent());
+        Path temp = Files.createTempFile(path.getParent(), reference, ".tmp");
+        try {
+            Files.write(temp, payload);
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return reference;
+    }
+
+    @Override
+    public InputStream open(String reference) throws IOException {
+        try (FileChannel channel = FileChannel.open(resolve(reference), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new ByteBufferBackedInputStream(buffer);
+        }
+    }
+
+    @Override
+    public void delete(String reference) throws IOException {
+        Files.deleteIfExists(resolve(reference));
+    }
+
+    private Path resolve(String reference) {
+        if (reference == null || !REFERENCE_PATTERN.matcher(reference).matches()) {
+            throw new IllegalArgumentException("reference");
+        }
+        return directory.resolve(reference.substring(0, 2)).resolve(reference + EXTENSION);
+    }
+}
@@ -0,0 +1,184 @@
+package org.nentangso.core.service.helper;
+
+import org.nentangso.core.config.NtsConstants;
+import org.nentangso.core.domain.NtsOutboxEventEntity;
+import org.nentangso.core.repository.NtsOutboxEventJdbcRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Transaction-bound buffer of outbox events.
+ * <p>
+ * Events queued inside a transaction are collected here and written as one batch in {@code beforeCommit}.
+ * With {@code nts.helper.outbox-event.buffer.coalesce} enabled, events with the same aggregate type, aggregate id, event type
+ * and aggregate version are coalesced, the last one wins. Events without a version ({@link NtsConstants#DEFAULT_VERSION})
+ * are never coalesced, two updates of an unversioned aggregate are two events. The offloaded payload of a coalesced-away
+ * event is deleted from the {@link NtsOutboxPayloadStore}.
+ * After commit, {@link NtsOutboxEventSignal} is raised so that a local relay publishes them without waiting for its next poll,
+ * and the written events are handed to {@link NtsOutboxEventBus} when it is enabled.
+ */
+@ConditionalOnProperty(
+    prefix = "nts.helper.outbox-event",
+    name = "enabled",
+    havingValue = "true"
+)
+@Component
+public class NtsOutboxEventBuffer {
+    private static final Logger log = LoggerFactory.getLogger(NtsOutboxEventBuffer.class);
+
+    private final NtsOutboxEventJdbcRepository outboxEventJdbcRepository;
+    private final NtsOutboxEventSignal outboxEventSignal;
+    private final NtsOutboxEventBus outboxEventBus;
+    private final NtsOutboxPayloadStore payloadStore;
+    private final boolean enabled;
+    private final boolean coalesce;
+
+    public NtsOutboxEventBuffer(
+        NtsOutboxEventJdbcRepository outboxEventJdbcRepository,
+        NtsOutboxEventSignal outboxEventSignal,
+        Optional<NtsOutboxEventBus> outboxEventBus,
+        Optional<NtsOutboxPayloadStore> payloadStore,
+        @Value("${nts.helper.outbox-event.buffer.enabled:true}") boolean enabled,
+        @Value("${nts.helper.outbox-event.buffer.coalesce:false}") boolean coalesce
+    ) {
+        this.outboxEventJdbcRepository = outboxEventJdbcRepository;
+        this.outboxEventSignal = outboxEventSignal;
+        this.outboxEventBus = outboxEventBus.orElse(null);
+        this.payloadStore = payloadStore.orElse(null);
+        this.enabled = enabled;
+        this.coalesce = coalesce;
+    }
+
+    /**
+     * Buffer the event until the current transaction commits.
+     *
+     * @param outboxEvent the event
+     * @return false if there is no transaction synchronization or buffering is disabled, the caller must write the event itself
+     */
+    public boolean add(NtsOutboxEventEntity outboxEvent) {
+        PendingEvents pendingEvents = currentPendingEvents();
+        if (pendingEvents == null) return false;
+        pendingEvents.add(outboxEvent);
+        return true;
+    }
+
+    /**
+     * Buffer the events until the current transaction commits.
+     *
+     * @param outboxEvents the events
+     * @return false if there is no transaction synchronization or buffering is disabled, the caller must write the events itself
+     */
+    public boolean addAll(Collection<NtsOutboxEventEntity> outboxEvents) {
+        PendingEvents pendingEvents = currentPendingEvents();
+        if (pendingEvents == null) return false;
+        outboxEvents.forEach(pendingEvents::add);
+        return true;
+    }
+
+    private PendingEvents currentPendingEvents() {
+        if (!enabled || !TransactionSynchronizationManager.isSynchronizationActive()) {
+            return null;
+        }
+        PendingEvents pendingEvents = (PendingEvents) TransactionSynchronizationManager.getResource(this);
+        if (pendingEvents == null) {
+            pendingEvents = new PendingEvents();
+            TransactionSynchronizationManager.bindResource(this, pendingEvents);
+            TransactionSynchronizationManager.registerSynchronization(pendingEvents);
+        }
+        return pendingEvents;
+    }
+
+    private class PendingEvents implements TransactionSynchronization {
+        private final Map<Object, NtsOutboxEventEntity> events = new LinkedHashMap<>();
+        private final List<NtsOutboxEventEntity> flushed = new ArrayList<>();
+
+        void add(NtsOutboxEventEntity outboxEvent) {
+            Object key = coalesce && outboxEvent.getAggregateVersion() != NtsConstants.DEFAULT_VERSION
+                ? new CoalesceKey(outboxEvent)
+                : new Object();
+            NtsOutboxEventEntity previous = events.put(key, outboxEvent);
+            if (previous != null) {
+                events.remove(key);
+                events.put(key, outboxEvent);
+                discardPayload(previous);
+            }
+        }
+
+        private void discardPayload(NtsOutboxEventEntity outboxEvent) {
+            String reference = outboxEvent.getPayloadReference();
+            if (reference == null || payloadStore == null) return;
+            try {
+                payloadStore.delete(reference);
+            } catch (IOException | RuntimeException e) {
+                log.warn("Cannot delete payload {} of coalesced outbox event", reference, e);
+            }
+        }
+
+        @Override
+        public void beforeCommit(boolean readOnly) {
+            if (events.isEmpty()) return;
+            List<NtsOutboxEventEntity> outboxEvents = new ArrayList<>(events.values());
+            outboxEventJdbcRepository.batchInsert(outboxEvents);
+            flushed.addAll(outboxEvents);
+            events.clear();
+        }
+
+        @Override
+        public void afterCommit() {
+            if (flushed.isEmpty()) return;
+            outboxEventSignal.signal();
+            if (outboxEventBus != null) {
+                outboxEventBus.publishAll(flushed);
+            }
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(NtsOutboxEventBuffer.this);
+        }
+    }
+
+    private static final class CoalesceKey {
+        private final String aggregateType;
+        private final String aggregateId;
+        private final String eventType;
+        private final int aggregateVersion;
+
+        CoalesceKey(NtsOutboxEventEntity outboxEvent) {
+            this.aggregateType = outboxEvent.getAggregateType();
+            this.aggregateId = outboxEvent.getAggregateId();
+            this.eventType = outboxEvent.getEventType();
+            this.aggregateVersion = outboxEvent.getAggregateVersion();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof CoalesceKey)) return false;
+            CoalesceKey that = (CoalesceKey) o;
+            return aggregateVersion == that.aggregateVersion
+                && Objects.equals(aggregateType, that.aggregateType)
+                && Objects.equals(aggregateId, that.aggregateId)
+                && Objects.equals(eventType, that.eventType);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(aggregateType, aggregateId, eventType, aggregateVersion);
+        }
+    }
+}
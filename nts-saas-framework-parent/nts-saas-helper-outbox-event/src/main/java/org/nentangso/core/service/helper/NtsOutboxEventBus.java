@@ -0,0 +1,327 @@
+package org.nentangso.core.service.helper;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.nentangso.core.domain.NtsOutboxEventEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * In-process event bus for committed outbox events.
+ * <p>
+ * Events are handed over through a bounded ring buffer, claimed lock-free by the committing threads and drained by one bus thread,
+ * which delivers them in batches of up to {@code nts.helper.outbox-event.bus.batch-size} to the subscribers of their aggregate type
+ * and event type. Same-JVM consumers see an event right after its transaction commits instead of waiting for the relay.
+ * <p>
+ * Delivery is best effort: a full buffer is handled by {@code nts.helper.outbox-event.bus.backpressure}, and events are lost on shutdown.
+ * The outbox table stays the durable source.
+ */
+@ConditionalOnProperty(
+    prefix = "nts.helper.outbox-event.bus",
+    name = "enabled",
+    havingValue = "true"
+)
+@Component
+public class NtsOutboxEventBus implements SmartLifecycle, DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(NtsOutboxEventBus.class);
+    private static final String METRIC_PREFIX = "nts.outbox.bus";
+
+    /**
+     * What a publisher does when the ring buffer is full.
+     */
+    public enum Backpressure {
+        /**
+         * Wait for free space up to {@code block-timeout}, then drop the event.
+         */
+        BLOCK,
+        /**
+         * Drop the event.
+         */
+        DROP,
+        /**
+         * Deliver the event on the publishing thread.
+         */
+        CALLER_RUNS
+    }
+
+    private final NtsOutboxEventEntity[] slots;
+    private final AtomicLongArray slotSequences;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicLong consumed = new AtomicLong();
+    private final Map<String, List<Subscription>> subscriptions = new ConcurrentHashMap<>();
+    private final int batchSize;
+    private final Backpressure backpressure;
+    private final long blockTimeoutNanos;
+    private final Counter published;
+    private final Counter dropped;
+    private final Counter delivered;
+    private final Counter failed;
+
+    private volatile Thread consumerThread;
+    private volatile boolean waiting = false;
+    private volatile boolean running = false;
+
+    public NtsOutboxEventBus(
+        ObjectProvider<MeterRegistry> meterRegistryProvider,
+        @Value("${nts.helper.outbox-event.bus.capacity:8192}") int capacity,
+        @Value("${nts.helper.outbox-event.bus.batch-size:256}") int batchSize,
+        @Value("${nts.helper.outbox-event.bus.backpressure:BLOCK}") Backpressure backpressure,
+        @Value("${nts.helper.outbox-event.bus.block-timeout:100}") long blockTimeout
+    ) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("capacity");
+        }
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize");
+        }
+        int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.slots = new NtsOutboxEventEntity[size];
+        this.slotSequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            slotSequences.set(i, -1);
+        }
+        this.mask = size - 1;
+        this.batchSize = batchSize;
+        this.backpressure = backpressure;
+        this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(blockTimeout);
+        MeterRegistry meterRegistry = meterRegistryProvider.getIfAvailable(SimpleMeterRegistry::new);
+        Gauge.builder(METRIC_PREFIX + ".backlog", this, NtsOutboxEventBus::getBacklog)
+            .description("Events waiting in the ring buffer")
+            .register(meterRegistry);
+        this.published = Counter.builder(METRIC_PREFIX + ".published").register(meterRegistry);
+        this.dropped = Counter.builder(METRIC_PREFIX + ".dropped").register(meterRegistry);
+        this.delivered = Counter.builder(METRIC_PREFIX + ".delivered").register(meterRegistry);
+        this.failed = Counter.builder(METRIC_PREFIX + ".failed").register(meterRegistry);
+    }
+
+    /**
+     * Subscribe to the events of an aggregate type.
+     *
+     * @param aggregateType the aggregate type
+     * @param eventType     the event type, or null for every event type
+     * @param subscriber    the subscriber
+     * @return the subscription, to cancel it
+     */
+    public Subscription subscribe(String aggregateType, String eventType, NtsOutboxEventSubscriber subscriber) {
+        Objects.requireNonNull(aggregateType, "aggregateType");
+        Objects.requireNonNull(subscriber, "subscriber");
+        Subscription subscription = new Subscription(aggregateType, eventType, subscriber);
+        subscriptions.computeIfAbsent(aggregateType, key -> new CopyOnWriteArrayList<>()).add(subscription);
+        return subscription;
+    }
+
+    /**
+     * Publish the events once the current transaction has committed, or right away when there is no transaction.
+     *
+     * @param outboxEvents the events
+     */
+    public void publishAfterCommit(Collection<NtsOutboxEventEntity> outboxEvents) {
+        if (outboxEvents.isEmpty()) return;
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            publishAll(outboxEvents);
+            return;
+        }
+        List<NtsOutboxEventEntity> committedEvents = new ArrayList<>(outboxEvents);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                publishAll(committedEvents);
+            }
+        });
+    }
+
+    /**
+     * Publish committed events.
+     *
+     * @param outboxEvents the events
+     */
+    public void publishAll(Collection<NtsOutboxEventEntity> outboxEvents) {
+        for (NtsOutboxEventEntity outboxEvent : outboxEvents) {
+            publish(outboxEvent);
+        }
+    }
+
+    /**
+     * Publish a committed event. Events without subscriber are skipped.
+     * When the bus is not running, the event is delivered on the calling thread.
+     *
+     * @param outboxEvent the event
+     * @return false if the event was dropped
+     */
+    public boolean publish(NtsOutboxEventEntity outboxEvent) {
+        List<Subscription> candidates = subscriptions.get(outboxEvent.getAggregateType());
+        if (candidates == null || candidates.isEmpty()) return true;
+        published.increment();
+        if (!running) {
+            deliver(Collections.singletonList(outboxEvent));
+            return true;
+        }
+        long sequence = claim();
+        if (sequence < 0) {
+            if (backpressure == Backpressure.CALLER_RUNS) {
+                deliver(Collections.singletonList(outboxEvent));
+                return true;
+            }
+            dropped.increment();
+            return false;
+        }
+        int index = (int) sequence & mask;
+        slots[index] = outboxEvent;
+        slotSequences.set(index, sequence);
+        if (waiting) {
+            LockSupport.unpark(consumerThread);
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of events waiting in the ring buffer
+     */
+    public long getBacklog() {
+        return Math.max(0, claimed.get() - consumed.get());
+    }
+
+    public int getCapacity() {
+        return slots.length;
+    }
+
+    private long claim() {
+        long deadline = 0;
+        while (true) {
+            long sequence = claimed.get();
+            if (sequence - consumed.get() < slots.length) {
+                if (claimed.compareAndSet(sequence, sequence + 1)) return sequence;
+            } else if (backpressure != Backpressure.BLOCK || !running) {
+                return -1;
+            } else if (deadline == 0) {
+                deadline = System.nanoTime() + blockTimeoutNanos;
+            } else if (System.nanoTime() - deadline > 0) {
+                return -1;
+            } else {
+                LockSupport.parkNanos(1_000);
+            }
+        }
+    }
+
+    private void consume() {
+        List<NtsOutboxEventEntity> batch = new ArrayList<>(batchSize);
+        long next = consumed.get();
+        while (true) {
+            int index = (int) next & mask;
+            if (slotSequences.get(index) == next) {
+                batch.add(slots[index]);
+                slots[index] = null;
+                next++;
+                if (batch.size() < batchSize) continue;
+            }
+            if (!batch.isEmpty()) {
+                consumed.set(next);
+                deliver(batch);
+                batch.clear();
+                continue;
+            }
+            if (!running) return;
+            // publishers unpark the bus thread after they fill a slot and see it waiting, and stop unparks it
+            waiting = true;
+            if (slotSequences.get(index) != next) {
+                LockSupport.park(this);
+            }
+            waiting = false;
+        }
+    }
+
+    private void deliver(List<NtsOutboxEventEntity> outboxEvents) {
+        Map<Subscription, List<NtsOutboxEventEntity>> eventsBySubscription = new LinkedHashMap<>();
+        for (NtsOutboxEventEntity outboxEvent : outboxEvents) {
+            List<Subscription> candidates = subscriptions.get(outboxEvent.getAggregateType());
+            if (candidates == null) continue;
+            for (Subscription subscription : candidates) {
+                if (subscription.matches(outboxEvent)) {
+                    eventsBySubscription.computeIfAbsent(subscription, key -> new ArrayList<>()).add(outboxEvent);
+                }
+            }
+        }
+        eventsBySubscription.forEach((subscription, subscriptionEvents) -> {
+            try {
+                subscription.subscriber.onEvents(Collections.unmodifiableList(subscriptionEvents));
+                delivered.increment(subscriptionEvents.size());
+            } catch (Exception e) {
+                log.warn("Subscriber of {}/{} failed to handle {} events", subscription.aggregateType, subscription.eventType, subscriptionEvents.size(), e);
+                failed.increment(subscriptionEvents.size());
+            }
+        });
+    }
+
+    @Override
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        consumerThread = new Thread(this::consume, "nts-outbox-bus");
+        consumerThread.setDaemon(true);
+        consumerThread.start();
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (!running) return;
+        running = false;
+        LockSupport.unpark(consumerThread);
+        try {
+            consumerThread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        stop();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    public final class Subscription {
+        private final String aggregateType;
+        private final String eventType;
+        private final NtsOutboxEventSubscriber subscriber;
+
+        private Subscription(String aggregateType, String eventType, NtsOutboxEventSubscriber subscriber) {
+            this.aggregateType = aggregateType;
+            this.eventType = eventType;
+            this.subscriber = subscriber;
+        }
+
+        boolean matches(NtsOutboxEventEntity outboxEvent) {
+            return eventType == null || eventType.equals(outboxEvent.getEventType());
+        }
+
+        public void cancel() {
+            List<Subscription> candidates = subscriptions.get(aggregateType);
+            if (candidates != null) {
+                candidates.remove(this);
+            }
+        }
+    }
+}
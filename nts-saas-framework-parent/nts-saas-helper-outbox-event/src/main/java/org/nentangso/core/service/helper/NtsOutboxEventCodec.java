@@ -0,0 +1,440 @@
+package org.nentangso.core.service.helper;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.nentangso.core.domain.NtsOutboxEventEncoding;
+import org.nentangso.core.domain.NtsOutboxEventEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Encodes outbox event payloads and decodes them back, for the helper, relays and consumers.
+ * <p>
+ * Payloads are serialized by cached per-type {@link ObjectWriter}s of the application {@link ObjectMapper},
+ * so the output honours its modules and features whatever the format.
+ * The default encoding is {@code nts.helper.outbox-event.encoding}. Compressed encodings only compress payloads
+ * of at least {@code nts.helper.outbox-event.compression-threshold} bytes, smaller payloads keep the uncompressed variant.
+ * <p>
+ * When a {@link NtsOutboxPayloadStore} is configured, payloads longer than {@code nts.helper.outbox-event.payload-store.threshold}
+ * are offloaded to it and the row only keeps the reference and a SHA-256 checksum. They are read back lazily, as a stream.
+ * A payload offloaded inside a transaction is deleted again if the transaction rolls back.
+ */
+@ConditionalOnProperty(
+    prefix = "nts.helper.outbox-event",
+    name = "enabled",
+    havingValue = "true"
+)
+@Component
+public class NtsOutboxEventCodec {
+    private static final Logger log = LoggerFactory.getLogger(NtsOutboxEventCodec.class);
+    private static final String CHECKSUM_ALGORITHM = "SHA-256";
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final ObjectMapper objectMapper;
+    private final NtsOutboxPayloadStore payloadStore;
+    private final NtsOutboxEventEncoding encoding;
+    private final int compressionThreshold;
+    private final int offloadThreshold;
+    private final Map<NtsOutboxEventEncoding.Format, JsonFactory> factories = new EnumMap<>(NtsOutboxEventEncoding.Format.class);
+    private final Map<Class<?>, ObjectWriter> writers = new ConcurrentHashMap<>();
+    private final Map<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
+
+    public NtsOutboxEventCodec(
+        ObjectMapper objectMapper,
+        Optional<NtsOutboxPayloadStore> payloadStore,
+        @Value("${nts.helper.outbox-event.encoding:JSON}") NtsOutboxEventEncoding encoding,
+        @Value("${nts.helper.outbox-event.compression-threshold:1024}") int compressionThreshold,
+        @Value("${nts.helper.outbox-event.payload-store.threshold:32768}") int offloadThreshold
+    ) {
+        this.objectMapper = objectMapper;
+        this.payloadStore = payloadStore.orElse(null);
+        this.encoding = encoding;
+        this.compressionThreshold = compressionThreshold;
+        this.offloadThreshold = offloadThreshold;
+        factories.put(NtsOutboxEventEncoding.Format.JSON, objectMapper.getFactory());
+        factories.put(NtsOutboxEventEncoding.Format.SMILE, new SmileFactory());
+        factories.put(NtsOutboxEventEncoding.Format.CBOR, new CBORFactory());
+    }
+
+    public NtsOutboxEventEncoding getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * Encode the payload into the outbox event with the default encoding,
+     * offloading it to the payload store if it is too large.
+     *
+     * @param outboxEvent the event
+     * @param payload     the payload
+     * @throws IOException if the payload cannot be serialized or stored
+     */
+    public void write(NtsOutboxEventEntity outboxEvent, Object payload) throws IOException {
+        Encoded encoded = encode(payload);
+        outboxEvent.setPayloadEncoding(encoded.getEncoding());
+        if (payloadStore != null && encoded.length() > offloadThreshold) {
+            byte[] bytes = encoded.getBytes();
+            String reference = payloadStore.store(bytes);
+            if (TransactionSynchronizationManager.isSynchronizationActive()) {
+                TransactionSynchronizationManager.registerSynchronization(new DeletePayloadOnRollback(reference));
+            }
+            outboxEvent.setPayloadReference(reference);
+            outboxEvent.setPayloadChecksum(checksum(bytes));
+            outboxEvent.setPayload("");
+        } else {
+            outboxEvent.setPayload(encoded.getPayload());
+            outboxEvent.setPayloadReference(null);
+            outboxEvent.setPayloadChecksum(null);
+        }
+    }
+
+    /**
+     * Encode the payload of an outbox event with the default encoding.
+     * String payloads are taken as JSON text and only compressed if the default encoding is {@link NtsOutboxEventEncoding#JSON_GZIP}.
+     *
+     * @param payload the payload
+     * @return the encoded payload
+     * @throws IOException if the payload cannot be serialized
+     */
+    public Encoded encode(Object payload) throws IOException {
+        if (payload instanceof String) {
+            String json = (String) payload;
+            if (encoding == NtsOutboxEventEncoding.JSON_GZIP && json.length() >= compressionThreshold) {
+                return new Encoded(null, gzip(json.getBytes(StandardCharsets.UTF_8)), NtsOutboxEventEncoding.JSON_GZIP);
+            }
+            return new Encoded(json, null, NtsOutboxEventEncoding.JSON);
+        }
+        return encode(payload, encoding);
+    }
+
+    /**
+     * Encode the payload of an outbox event.
+     *
+     * @param payload  the payload
+     * @param encoding the encoding
+     * @return the encoded payload, compressed encodings fall back to their uncompressed variant below the threshold
+     * @throws IOException if the payload cannot be serialized
+     */
+    public Encoded encode(Object payload, NtsOutboxEventEncoding encoding) throws IOException {
+        ObjectWriter writer = payload == null
+            ? objectMapper.writer()
+            : writers.computeIfAbsent(payload.getClass(), objectMapper::writerFor);
+        if (encoding == NtsOutboxEventEncoding.JSON) {
+            return new Encoded(writer.writeValueAsString(payload), null, encoding);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        try (JsonGenerator generator = factories.get(encoding.getFormat()).createGenerator(out)) {
+            writer.writeValue(generator, payload);
+        }
+        byte[] bytes = out.toByteArray();
+        if (encoding.isCompressed() && bytes.length >= compressionThreshold) {
+            return new Encoded(null, gzip(bytes), encoding);
+        }
+        return new Encoded(null, bytes, encoding.uncompressed());
+    }
+
+    /**
+     * Open the encoded payload bytes of an outbox event, still compressed for compressed encodings.
+     * Offloaded payloads are read from the payload store and checked against the checksum once fully read.
+     *
+     * @param outboxEvent the event
+     * @return the encoded payload bytes
+     * @throws IOException if the payload cannot be read
+     */
+    public InputStream openPayload(NtsOutboxEventEntity outboxEvent) throws IOException {
+        String reference = outboxEvent.getPayloadReference();
+        if (reference == null) {
+            return new ByteArrayInputStream(new Encoded(outboxEvent.getPayload(), null, encodingOf(outboxEvent)).getBytes());
+        }
+        if (payloadStore == null) {
+            throw new IOException("No payload store to resolve " + reference);
+        }
+        return new ChecksumInputStream(payloadStore.open(reference), outboxEvent.getPayloadChecksum());
+    }
+
+    /**
+     * Decode the payload of an outbox event.
+     *
+     * @param outboxEvent the event
+     * @param type        the payload type
+     * @param <T>         the payload type
+     * @return the payload
+     * @throws IOException if the payload cannot be decoded
+     */
+    public <T> T decode(NtsOutboxEventEntity outboxEvent, Class<T> type) throws IOException {
+        if (outboxEvent.getPayloadReference() == null) {
+            return decode(outboxEvent.getPayload(), outboxEvent.getPayloadEncoding(), type);
+        }
+        try (InputStream in = openPayload(outboxEvent)) {
+            return decode(in, encodingOf(outboxEvent), type);
+        }
+    }
+
+    /**
+     * Decode an encoded payload, e.g. received by a consumer with its encoding.
+     *
+     * @param payload  the encoded payload
+     * @param encoding the encoding, null for JSON
+     * @param type     the payload type
+     * @param <T>      the payload type
+     * @return the payload
+     * @throws IOException if the payload cannot be decoded
+     */
+    public <T> T decode(String payload, NtsOutboxEventEncoding encoding, Class<T> type) throws IOException {
+        if (payload == null) return null;
+        if (encoding == null || encoding == NtsOutboxEventEncoding.JSON) {
+            try (JsonParser parser = objectMapper.getFactory().createParser(payload)) {
+                return readValue(parser, type);
+            }
+        }
+        return decode(new ByteArrayInputStream(Base64.getDecoder().decode(payload)), encoding, type);
+    }
+
+    /**
+     * Decode encoded payload bytes, e.g. streamed from {@link #openPayload(NtsOutboxEventEntity)}.
+     *
+     * @param in       the encoded payload bytes
+     * @param encoding the encoding, null for JSON
+     * @param type     the payload type
+     * @param <T>      the payload type
+     * @return the payload
+     * @throws IOException if the payload cannot be decoded
+     */
+    public <T> T decode(InputStream in, NtsOutboxEventEncoding encoding, Class<T> type) throws IOException {
+        NtsOutboxEventEncoding actual = encoding == null ? NtsOutboxEventEncoding.JSON : encoding;
+        InputStream source = actual.isCompressed() ? new GZIPInputStream(in) : in;
+        try (JsonParser parser = factories.get(actual.getFormat()).createParser(source)) {
+            return readValue(parser, type);
+        }
+    }
+
+    /**
+     * Decode the payload of an outbox event as a tree.
+     *
+     * @param outboxEvent the event
+     * @return the payload tree
+     * @throws IOException if the payload cannot be decoded
+     */
+    public JsonNode decodeTree(NtsOutboxEventEntity outboxEvent) throws IOException {
+        return decode(outboxEvent, JsonNode.class);
+    }
+
+    /**
+     * Decode the payload of an outbox event as JSON text, for relays that forward JSON.
+     *
+     * @param outboxEvent the event
+     * @return the JSON payload
+     * @throws IOException if the payload cannot be decoded
+     */
+    public String toJson(NtsOutboxEventEntity outboxEvent) throws IOException {
+        if (encodingOf(outboxEvent) == NtsOutboxEventEncoding.JSON) {
+            if (outboxEvent.getPayloadReference() == null) {
+                return outboxEvent.getPayload();
+            }
+            try (InputStream in = openPayload(outboxEvent)) {
+                return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+        }
+        return objectMapper.writeValueAsString(decodeTree(outboxEvent));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T readValue(JsonParser parser, Class<T> type) throws IOException {
+        ObjectReader reader = readers.computeIfAbsent(type, objectMapper::readerFor);
+        return (T) reader.readValue(parser);
+    }
+
+    private static NtsOutboxEventEncoding encodingOf(NtsOutboxEventEntity outboxEvent) {
+        return outboxEvent.getPayloadEncoding() == null ? NtsOutboxEventEncoding.JSON : outboxEvent.getPayloadEncoding();
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, bytes.length / 4));
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        }
+        return out.toByteArray();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(CHECKSUM_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String checksum(byte[] bytes) {
+        return toHex(newDigest().digest(bytes));
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0x0f];
+            chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0x0f];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Encoded payload with its actual encoding.
+     * JSON payloads are text, the other encodings are bytes, stored as Base64 text in the outbox table.
+     */
+    public static final class Encoded {
+        private final NtsOutboxEventEncoding encoding;
+        private String payload;
+        private byte[] bytes;
+
+        private Encoded(String payload, byte[] bytes, NtsOutboxEventEncoding encoding) {
+            this.payload = payload;
+            this.bytes = bytes;
+            this.encoding = encoding;
+        }
+
+        /**
+         * @return the payload as stored in the outbox table
+         */
+        public String getPayload() {
+            if (payload == null) {
+                payload = encoding == NtsOutboxEventEncoding.JSON
+                    ? new String(bytes, StandardCharsets.UTF_8)
+                    : Base64.getEncoder().encodeToString(bytes);
+            }
+            return payload;
+        }
+
+        /**
+         * @return the encoded payload bytes
+         */
+        public byte[] getBytes() {
+            if (bytes == null) {
+                bytes = encoding == NtsOutboxEventEncoding.JSON
+                    ? payload.getBytes(StandardCharsets.UTF_8)
+                    : Base64.getDecoder().decode(payload);
+            }
+            return bytes;
+        }
+
+        public NtsOutboxEventEncoding getEncoding() {
+            return encoding;
+        }
+
+        int length() {
+            if (payload != null) return payload.length();
+            return encoding == NtsOutboxEventEncoding.JSON ? bytes.length : (bytes.length + 2) / 3 * 4;
+        }
+    }
+
+    /**
+     * Deletes an offloaded payload when the transaction that should have referenced it rolls back.
+     */
+    private final class DeletePayloadOnRollback implements TransactionSynchronization {
+        private final String reference;
+
+        DeletePayloadOnRollback(String reference) {
+            this.reference = reference;
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            if (status != STATUS_ROLLED_BACK) return;
+            try {
+                payloadStore.delete(reference);
+            } catch (IOException | RuntimeException e) {
+                log.warn("Cannot delete outbox payload {} after rollback", reference, e);
+            }
+        }
+    }
+
+    /**
+     * Checks the SHA-256 checksum of the stream once fully read, or when closed.
+     */
+    private static final class ChecksumInputStream extends FilterInputStream {
+        private final MessageDigest digest = newDigest();
+        private final String expected;
+        private boolean verified = false;
+
+        ChecksumInputStream(InputStream in, String expected) {
+            super(in);
+            this.expected = expected;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b < 0) {
+                verify();
+            } else {
+                digest.update((byte) b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n < 0) {
+                verify();
+            } else {
+                digest.update(b, off, n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            throw new IOException("skip is not supported");
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (!verified) {
+                    byte[] buffer = new byte[8192];
+                    int n;
+                    while ((n = super.read(buffer, 0, buffer.length)) >= 0) {
+                        digest.update(buffer, 0, n);
+                    }
+                    verify();
+                }
+            } finally {
+                super.close();
+            }
+        }
+
+        private void verify() throws IOException {
+            if (verified || expected == null) return;
+            verified = true;
+            String actual = toHex(digest.digest());
+            if (!expected.equalsIgnoreCase(actual)) {
+                throw new IOException("Payload checksum mismatch, expected " + expected + " but was " + actual);
+            }
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package org.nentangso.core.service.helper;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.nentangso.core.domain.NtsOutboxEventEntity;
+import org.apache.commons.lang3.StringUtils;
+import org.nentangso.core.repository.NtsOutboxEventRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Publishes unpublished outbox events through {@link NtsOutboxEventPublisher}.
+ * <p>
+ * Each round reads a page of unpublished events, hashes them by aggregate into N lanes and runs the lanes concurrently.
+ * A lane publishes its events one by one in aggregate version order, so events of one aggregate are never reordered.
+ * When an event fails, the later events of the same aggregate are held back until the next round.
+ * Published events are marked with {@code published_at}.
+ * <p>
+ * A failed event is retried with an exponential backoff: its {@code next_attempt_at} is pushed back, and until then
+ * neither it nor the later events of its aggregate are read, so they do not hold slots of the page.
+ * After {@code max-attempts} failures the event is parked with {@code parked_at} and the aggregate moves on;
+ * parked events stay in the table, clear {@code parked_at} to retry them.
+ * <p>
+ * Events of the aggregate types consumed by a {@link NtsOutboxEventWorker} are left to that worker.
+ * <p>
+ * Between rounds the dispatcher waits for {@link NtsOutboxEventSignal}, with the poll interval as an upper bound,
+ * unless the last round published a full page.
+ * Run it on a single node per database.
+ */
+@ConditionalOnProperty(
+    prefix = "nts.helper.outbox-event.dispatcher",
+    name = "enabled",
+    havingValue = "true"
+)
+@Component
+public class NtsOutboxEventDispatcher implements SmartLifecycle, DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(NtsOutboxEventDispatcher.class);
+    private static final int MAX_ERROR_LENGTH = 1000;
+
+    private final NtsOutboxEventRepository outboxEventRepository;
+    private final NtsOutboxEventPublisher outboxEventPublisher;
+    private final NtsOutboxEventSignal outboxEventSignal;
+    private final TransactionTemplate transactionTemplate;
+    private final Set<String> workerAggregateTypes;
+    private final int batchSize;
+    private final long pollInterval;
+    private final int maxAttempts;
+    private final Duration initialBackoff;
+    private final Duration maxBackoff;
+    private final Counter parked;
+    private final Lane[] lanes;
+    private final ExecutorService laneExecutor;
+
+    private Thread pollThread;
+    private volatile boolean running = false;
+
+    public NtsOutboxEventDispatcher(
+        NtsOutboxEventRepository outboxEventRepository,
+        NtsOutboxEventPublisher outboxEventPublisher,
+        NtsOutboxEventSignal outboxEventSignal,
+        PlatformTransactionManager transactionManager,
+        ObjectProvider<NtsOutboxEventWorker> outboxEventWorkers,
+        ObjectProvider<MeterRegistry> meterRegistryProvider,
+        @Value("${nts.helper.outbox-event.dispatcher.lanes:0}") int lanes,
+        @Value("${nts.helper.outbox-event.dispatcher.batch-size:500}") int batchSize,
+        @Value("${nts.helper.outbox-event.dispatcher.poll-interval:1000}") long pollInterval,
+        @Value("${nts.helper.outbox-event.dispatcher.max-attempts:10}") int maxAttempts,
+        @Value("${nts.helper.outbox-event.dispatcher.initial-backoff:PT1S}") Duration initialBackoff,
+        @Value("${nts.helper.outbox-event.dispatcher.max-backoff:PT5M}") Duration maxBackoff
+    ) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize");
+        }
+        if (maxAttempts <= 0) {
+            throw new IllegalArgumentException("maxAttempts");
+        }
+        this.outboxEventRepository = outboxEventRepository;
+        this.outboxEventPublisher = outboxEventPublisher;
+        this.outboxEventSignal = outboxEventSignal;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.workerAggregateTypes = outboxEventWorkers.stream()
+            .map(NtsOutboxEventWorker::getAggregateType)
+            .collect(Collectors.toSet());
+        this.batchSize = batchSize;
+        this.pollInterval = pollInterval;
+        this.maxAttempts = maxAttempts;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        MeterRegistry meterRegistry = meterRegistryProvider.getIfAvailable(SimpleMeterRegistry::new);
+        this.parked = Counter.builder("nts.outbox.dispatcher.parked")
+            .description("Events parked after too many failed attempts")
+            .register(meterRegistry);
+        int laneCount = lanes > 0 ? lanes : Runtime.getRuntime().availableProcessors();
+        this.lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            this.lanes[i] = new Lane(i, meterRegistry);
+        }
+        AtomicInteger threadCount = new AtomicInteger();
+        this.laneExecutor = Executors.newFixedThreadPool(laneCount, runnable -> {
+            Thread thread = new Thread(runnable, "nts-outbox-lane-" + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Publish one page of due events, then record the published and failed ones.
+     *
+     * @return the number of published events
+     */
+    public int dispatch() {
+        List<NtsOutboxEventEntity> outboxEvents = transactionTemplate.execute(status -> workerAggregateTypes.isEmpty()
+            ? outboxEventRepository.findDue(Instant.now(), PageRequest.of(0, batchSize))
+            : outboxEventRepository.findDueExcluding(Instant.now(), workerAggregateTypes, PageRequest.of(0, batchSize))
+        );
+        if (outboxEvents == null || outboxEvents.isEmpty()) return 0;
+        Map<Integer, List<NtsOutboxEventEntity>> eventsByLane = outboxEvents.stream()
+            .collect(Collectors.groupingBy(this::laneOf));
+        Map<Long, Exception> failures = new ConcurrentHashMap<>();
+        List<CompletableFuture<List<Long>>> futures = new ArrayList<>(eventsByLane.size());
+        eventsByLane.forEach((lane, laneEvents) -> futures.add(
+            CompletableFuture.supplyAsync(() -> lanes[lane].publish(laneEvents, failures), laneExecutor)
+        ));
+        List<Long> publishedIds = futures.stream()
+            .map(CompletableFuture::join)
+            .flatMap(Collection::stream)
+            .collect(Collectors.toList());
+        if (!publishedIds.isEmpty() || !failures.isEmpty()) {
+            Instant now = Instant.now();
+            transactionTemplate.executeWithoutResult(status -> {
+                if (!publishedIds.isEmpty()) {
+                    outboxEventRepository.markPublished(publishedIds, now);
+                }
+                outboxEvents.stream()
+                    .filter(outboxEvent -> failures.containsKey(outboxEvent.getId()))
+                    .forEach(outboxEvent -> markFailed(outboxEvent, failures.get(outboxEvent.getId()), now));
+            });
+        }
+        return publishedIds.size();
+    }
+
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    /**
+     * @param lane the lane index
+     * @return the delay between creation and publication of the last event published by the lane
+     */
+    public Duration getLaneLag(int lane) {
+        return Duration.ofMillis(lanes[lane].lag.get());
+    }
+
+    /**
+     * @param lane the lane index
+     * @return the number of events of the current round not yet processed by the lane
+     */
+    public int getLanePending(int lane) {
+        return lanes[lane].pending.get();
+    }
+
+    /**
+     * @param attempts the number of failed attempts, the last one included
+     * @return the delay before the next attempt
+     */
+    Duration backoff(int attempts) {
+        Duration delay = initialBackoff.multipliedBy(1L << Math.min(attempts - 1, 20));
+        return delay.compareTo(maxBackoff) > 0 ? maxBackoff : delay;
+    }
+
+    private void markFailed(NtsOutboxEventEntity outboxEvent, Exception e, Instant now) {
+        int attempts = outboxEvent.getAttempts() + 1;
+        String lastError = StringUtils.abbreviate(String.valueOf(e), MAX_ERROR_LENGTH);
+        if (attempts >= maxAttempts) {
+            log.error("Parking outbox event {} of aggregate {}/{} after {} failed attempts", outboxEvent.getId(),
+                outboxEvent.getAggregateType(), outboxEvent.getAggregateId(), attempts, e);
+            outboxEventRepository.markParked(outboxEvent.getId(), now, lastError);
+            parked.increment();
+        } else {
+            outboxEventRepository.markFailed(outboxEvent.getId(), now.plus(backoff(attempts)), lastError);
+        }
+    }
+
+    int laneOf(NtsOutboxEventEntity outboxEvent) {
+        int hash = Objects.hash(outboxEvent.getAggregateType(), outboxEvent.getAggregateId());
+        return Math.floorMod(hash ^ (hash >>> 16), lanes.length);
+    }
+
+    @Override
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        pollThread = new Thread(this::poll, "nts-outbox-dispatcher");
+        pollThread.setDaemon(true);
+        pollThread.start();
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (!running) return;
+        running = false;
+        pollThread.interrupt();
+        try {
+            pollThread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        pollThread = null;
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        stop();
+        laneExecutor.shutdown();
+        if (!laneExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+            laneExecutor.shutdownNow();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void poll() {
+        long seenSequence = outboxEventSignal.getSequence();
+        while (running) {
+            try {
+                int published = dispatch();
+                if (published < batchSize) {
+                    seenSequence = outboxEventSignal.await(seenSequence, pollInterval, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.warn("Cannot dispatch outbox events", e);
+                try {
+                    seenSequence = outboxEventSignal.await(seenSequence, pollInterval, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private class Lane {
+        private static final String METRIC_PREFIX = "nts.outbox.dispatcher.lane";
+
+        private final int index;
+        private final AtomicLong lag = new AtomicLong();
+        private final AtomicInteger pending = new AtomicInteger();
+        private final Counter published;
+        private final Counter failed;
+        private final Timer publishLag;
+
+        Lane(int index, MeterRegistry meterRegistry) {
+            this.index = index;
+            String tag = String.valueOf(index);
+            Gauge.builder(METRIC_PREFIX + ".lag", lag, AtomicLong::get)
+                .description("Delay between creation and publication of the last event published by the lane")
+                .baseUnit("milliseconds")
+                .tag("lane", tag)
+                .register(meterRegistry);
+            Gauge.builder(METRIC_PREFIX + ".pending", pending, AtomicInteger::get)
+                .description("Events of the current round not yet processed by the lane")
+                .tag("lane", tag)
+                .register(meterRegistry);
+            this.published = Counter.builder(METRIC_PREFIX + ".published").tag("lane", tag).register(meterRegistry);
+            this.failed = Counter.builder(METRIC_PREFIX + ".failed").tag("lane", tag).register(meterRegistry);
+            this.publishLag = Timer.builder(METRIC_PREFIX + ".publish.lag").tag("lane", tag).register(meterRegistry);
+        }
+
+        List<Long> publish(List<NtsOutboxEventEntity> outboxEvents, Map<Long, Exception> failures) {
+            outboxEvents.sort(Comparator.comparingInt(NtsOutboxEventEntity::getAggregateVersion)
+                .thenComparing(NtsOutboxEventEntity::getId));
+            pending.set(outboxEvents.size());
+            List<Long> publishedIds = new ArrayList<>(outboxEvents.size());
+            Set<String> heldBackAggregates = new HashSet<>();
+            for (NtsOutboxEventEntity outboxEvent : outboxEvents) {
+                String aggregate = outboxEvent.getAggregateType() + "/" + outboxEvent.getAggregateId();
+                if (!heldBackAggregates.contains(aggregate)) {
+                    try {
+                        outboxEventPublisher.publish(outboxEvent);
+                        publishedIds.add(outboxEvent.getId());
+                        long lagMillis = Math.max(0, Duration.between(outboxEvent.getCreatedAt(), Instant.now()).toMillis());
+                        lag.set(lagMillis);
+                        publishLag.record(lagMillis, TimeUnit.MILLISECONDS);
+                        published.increment();
+                    } catch (Exception e) {
+                        log.warn("Cannot publish outbox event {} on lane {}, holding back aggregate {}", outboxEvent.getId(), index, aggregate, e);
+                        heldBackAggregates.add(aggregate);
+                        failures.put(outboxEvent.getId(), e);
+                        failed.increment();
+                    }
+                }
+                pending.decrementAndGet();
+            }
+            return publishedIds;
+        }
+    }
+}
@@ -1,17 +1,20 @@
 package org.nentangso.core.service.helper;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.nentangso.core.config.NtsConstants;
 import org.nentangso.core.domain.NtsOutboxEventEntity;
+import org.nentangso.core.repository.NtsOutboxEventJdbcRepository;
 import org.nentangso.core.repository.NtsOutboxEventRepository;
 import org.nentangso.core.security.SecurityUtils;
+import org.nentangso.core.service.utils.NtsIdUtils;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.UUID;
+import java.util.Optional;
 
 @ConditionalOnProperty(
     prefix = "nts.helper.outbox-event",
@@ -21,24 +24,45 @@ import java.util.UUID;
 @Service
 public class NtsOutboxEventHelper {
     private final NtsOutboxEventRepository outboxEventRepository;
-    private final ObjectMapper objectMapper;
+    private final NtsOutboxEventJdbcRepository outboxEventJdbcRepository;
+    private final NtsOutboxEventBuffer outboxEventBuffer;
+    private final NtsOutboxEventCodec outboxEventCodec;
+    private final NtsOutboxEventBus outboxEventBus;
 
-    public NtsOutboxEventHelper(NtsOutboxEventRepository outboxEventRepository, ObjectMapper objectMapper) {
+    public NtsOutboxEventHelper(NtsOutboxEventRepository outboxEventRepository, NtsOutboxEventJdbcRepository outboxEventJdbcRepository, NtsOutboxEventBuffer outboxEventBuffer, NtsOutboxEventCodec outboxEventCodec, Optional<NtsOutboxEventBus> outboxEventBus) {
         this.outboxEventRepository = outboxEventRepository;
-        this.objectMapper = objectMapper;
+        this.outboxEventJdbcRepository = outboxEventJdbcRepository;
+        this.outboxEventBuffer = outboxEventBuffer;
+        this.outboxEventCodec = outboxEventCodec;
+        this.outboxEventBus = outboxEventBus.orElse(null);
     }
 
+    /**
+     * Queue one event per payload, written with multi-row inserts when the transaction commits.
+     * The actor is resolved once for the whole batch.
+     *
+     * @param aggregateType the aggregate type
+     * @param eventType     the event type
+     * @param payloads      the payloads, each one gets a random aggregate id
+     * @throws IOException if a payload cannot be serialized
+     */
     @Transactional
     public void batchQueue(String aggregateType, String eventType, List<?> payloads) throws IOException {
         if (payloads == null || payloads.isEmpty()) return;
+        String actor = SecurityUtils.getCurrentUserLogin().orElse(NtsConstants.SYSTEM);
+        List<NtsOutboxEventEntity> outboxEvents = new ArrayList<>(payloads.size());
         for (Object payload : payloads) {
-            queue(aggregateType, UUID.randomUUID().toString(), eventType, payload, NtsConstants.DEFAULT_VERSION);
+            outboxEvents.add(createOutboxEvent(aggregateType, NtsIdUtils.nextUuidString(), eventType, payload, actor, NtsConstants.DEFAULT_VERSION, NtsConstants.DEFAULT_BUSINESS_VERSION));
+        }
+        if (!outboxEventBuffer.addAll(outboxEvents)) {
+            outboxEventJdbcRepository.batchInsert(outboxEvents);
+            publishAfterCommit(outboxEvents);
         }
     }
 
     @Transactional
     public void queue(String aggregateType, String eventType, Object payload) throws IOException {
-        queue(aggregateType, UUID.randomUUID().toString(), eventType, payload, NtsConstants.DEFAULT_VERSION);
+        queue(aggregateType, NtsIdUtils.nextUuidString(), eventType, payload, NtsConstants.DEFAULT_VERSION);
     }
 
     @Transactional
@@ -47,17 +71,34 @@ public class NtsOutboxEventHelper {
         queue(aggregateType, aggregateId, eventType, payload, actor, aggregateVersion, NtsConstants.DEFAULT_BUSINESS_VERSION);
     }
 
+    /**
+     * Queue an event. Inside a transaction the event is buffered and written in one batch with the other events
+     * of the transaction, right before it commits. Once committed, the event is published to {@link NtsOutboxEventBus} when it is enabled.
+     */
     @Transactional
     public void queue(String aggregateType, String aggregateId, String eventType, Object payload, String actor, int aggregateVersion, int businessVersion) throws IOException {
+        NtsOutboxEventEntity outboxEvent = createOutboxEvent(aggregateType, aggregateId, eventType, payload, actor, aggregateVersion, businessVersion);
+        if (!outboxEventBuffer.add(outboxEvent)) {
+            outboxEventRepository.save(outboxEvent);
+            publishAfterCommit(Collections.singletonList(outboxEvent));
+        }
+    }
+
+    private void publishAfterCommit(List<NtsOutboxEventEntity> outboxEvents) {
+        if (outboxEventBus != null) {
+            outboxEventBus.publishAfterCommit(outboxEvents);
+        }
+    }
+
+    private NtsOutboxEventEntity createOutboxEvent(String aggregateType, String aggregateId, String eventType, Object payload, String actor, int aggregateVersion, int businessVersion) throws IOException {
         NtsOutboxEventEntity outboxEvent = new NtsOutboxEventEntity();
-        String payloadJson = payload instanceof String ? (String) payload : objectMapper.writeValueAsString(payload);
         outboxEvent.setAggregateType(aggregateType);
         outboxEvent.setAggregateId(aggregateId);
         outboxEvent.setEventType(eventType);
-        outboxEvent.setPayload(payloadJson);
+        outboxEventCodec.write(outboxEvent, payload);
         outboxEvent.setActor(actor);
         outboxEvent.setAggregateVersion(aggregateVersion);
         outboxEvent.setBusinessVersion(businessVersion);
-        outboxEventRepository.save(outboxEvent);
+        return outboxEvent;
     }
 }
@@ -0,0 +1,18 @@
+package org.nentangso.core.service.helper;
+
+import org.nentangso.core.domain.NtsOutboxEventEntity;
+
+/**
+ * Publishes outbox events to their destination, a message broker or another service.
+ * Applications provide one bean of this type to enable {@link NtsOutboxEventDispatcher}.
+ */
+public interface NtsOutboxEventPublisher {
+    /**
+     * Publish one event. Throwing marks the event as failed, it will be retried on the next round
+     * and later events of the same aggregate are held back until then.
+     *
+     * @param outboxEvent the event
+     * @throws Exception if the event cannot be published
+     */
+    void publish(NtsOutboxEventEntity outboxEvent) throws Exception;
+}
@@ -0,0 +1,39 @@
+package org.nentangso.core.service.helper;
+
+import org.nentangso.core.domain.NtsOutboxEventEntity;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Instant;
+
+/**
+ * {@link Flux} view of {@link NtsOutboxEventReplayer}. Pages are read on the bounded elastic scheduler,
+ * only when the subscriber requests more events.
+ */
+@ConditionalOnProperty(
+    prefix = "nts.helper.outbox-event",
+    name = "enabled",
+    havingValue = "true"
+)
+@ConditionalOnClass(name = "reactor.core.publisher.Flux")
+@Component
+public class NtsOutboxEventReactiveReplayer {
+    private final NtsOutboxEventReplayer outboxEventReplayer;
+
+    public NtsOutboxEventReactiveReplayer(NtsOutboxEventReplayer outboxEventReplayer) {
+        this.outboxEventReplayer = outboxEventReplayer;
+    }
+
+    public Flux<NtsOutboxEventEntity> replayAfterId(NtsOutboxEventReplayer.Source source, String aggregateType, long afterId) {
+        return Flux.fromStream(() -> outboxEventReplayer.replayAfterId(source, aggregateType, afterId))
+            .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    public Flux<NtsOutboxEventEntity> replaySince(NtsOutboxEventReplayer.Source source, String aggregateType, Instant createdSince) {
+        return Flux.fromStream(() -> outboxEventReplayer.replaySince(source, aggregateType, createdSince))
+            .subscribeOn(Schedulers.boundedElastic());
+    }
+}
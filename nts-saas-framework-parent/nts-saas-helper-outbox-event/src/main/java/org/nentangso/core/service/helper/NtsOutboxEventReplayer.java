@@ -0,0 +1,214 @@
+package org.nentangso.core.service.helper;
+
+import org.nentangso.core.domain.NtsOutboxEventEncoding;
+import org.nentangso.core.domain.NtsOutboxEventEntity;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.*;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Replays outbox events in id order, to rebuild a downstream system.
+ * <p>
+ * Events are read page by page with keyset pagination on the id column ({@code id > last id of the previous page}),
+ * {@code nts.helper.outbox-event.replay.page-size} rows per page and {@code replay.fetch-size} rows per round trip.
+ * No cursor or transaction is kept open between pages and at most one page is held in memory.
+ * <p>
+ * {@link Source#ALL} reads both {@code nts_outbox_events} and the archive table of {@link NtsOutboxEventRetention},
+ * which keeps the original ids: each page merges the first rows of both tables, the outbox table being read first
+ * so that an event archived in between is not missed.
+ * Filtering by aggregate type scans the primary key, add an {@code (aggregate_type, id)} index for rare aggregate types.
+ */
+@ConditionalOnProperty(
+    prefix = "nts.helper.outbox-event",
+    name = "enabled",
+    havingValue = "true"
+)
+@Component
+public class NtsOutboxEventReplayer {
+    private static final Pattern TABLE_NAME_PATTERN = Pattern.compile("^[A-Za-z_][A-Za-z0-9_.]*$");
+
+    public enum Source {
+        OUTBOX, ARCHIVE, ALL
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String archiveTable;
+    private final int pageSize;
+    private final int fetchSize;
+
+    public NtsOutboxEventReplayer(
+        JdbcTemplate jdbcTemplate,
+        @Value("${nts.helper.outbox-event.retention.archive-table:nts_outbox_events_archive}") String archiveTable,
+        @Value("${nts.helper.outbox-event.replay.page-size:500}") int pageSize,
+        @Value("${nts.helper.outbox-event.replay.fetch-size:100}") int fetchSize
+    ) {
+        if (!TABLE_NAME_PATTERN.matcher(archiveTable).matches()) {
+            throw new IllegalArgumentException("archiveTable");
+        }
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize");
+        }
+        this.jdbcTemplate = jdbcTemplate;
+        this.archiveTable = archiveTable;
+        this.pageSize = pageSize;
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * Replay the events with an id greater than {@code afterId}.
+     *
+     * @param source        the tables to read
+     * @param aggregateType the aggregate type, or null for every aggregate type
+     * @param afterId       the id to start after, 0 to replay from the beginning
+     * @return the events in id order, read lazily
+     */
+    public Stream<NtsOutboxEventEntity> replayAfterId(Source source, String aggregateType, long afterId) {
+        PageIterator iterator = new PageIterator(tables(source), aggregateType, afterId);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+            Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Replay the events created at or after {@code createdSince}.
+     *
+     * @param source        the tables to read
+     * @param aggregateType the aggregate type, or null for every aggregate type
+     * @param createdSince  the lower bound of the created date
+     * @return the events in id order, read lazily
+     */
+    public Stream<NtsOutboxEventEntity> replaySince(Source source, String aggregateType, Instant createdSince) {
+        long firstId = Long.MAX_VALUE;
+        for (String table : tables(source)) {
+            firstId = Math.min(firstId, findFirstId(table, aggregateType, createdSince));
+        }
+        if (firstId == Long.MAX_VALUE) return Stream.empty();
+        return replayAfterId(source, aggregateType, firstId - 1);
+    }
+
+    private List<String> tables(Source source) {
+        switch (source) {
+            case OUTBOX:
+                return Collections.singletonList(NtsOutboxEventRetention.TABLE);
+            case ARCHIVE:
+                return Collections.singletonList(archiveTable);
+            default:
+                return Arrays.asList(NtsOutboxEventRetention.TABLE, archiveTable);
+        }
+    }
+
+    private long findFirstId(String table, String aggregateType, Instant createdSince) {
+        long[] firstId = {Long.MAX_VALUE};
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement("select id from " + table + " where created_at >= ?" +
+                (aggregateType == null ? "" : " and aggregate_type = ?") + " order by id");
+            ps.setMaxRows(1);
+            ps.setTimestamp(1, Timestamp.from(createdSince));
+            if (aggregateType != null) ps.setString(2, aggregateType);
+            return ps;
+        }, (RowCallbackHandler) rs -> firstId[0] = rs.getLong(1));
+        return firstId[0];
+    }
+
+    private List<NtsOutboxEventEntity> findPage(String table, String aggregateType, long afterId) {
+        List<NtsOutboxEventEntity> page = new ArrayList<>();
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement("select " + NtsOutboxEventRetention.COLUMNS + " from " + table +
+                " where id > ?" + (aggregateType == null ? "" : " and aggregate_type = ?") + " order by id");
+            ps.setMaxRows(pageSize);
+            ps.setFetchSize(Math.min(fetchSize, pageSize));
+            ps.setLong(1, afterId);
+            if (aggregateType != null) ps.setString(2, aggregateType);
+            return ps;
+        }, (RowCallbackHandler) rs -> page.add(mapRow(rs)));
+        return page;
+    }
+
+    private static NtsOutboxEventEntity mapRow(ResultSet rs) throws SQLException {
+        NtsOutboxEventEntity outboxEvent = new NtsOutboxEventEntity();
+        outboxEvent.setId(rs.getLong("id"));
+        outboxEvent.setAggregateType(rs.getString("aggregate_type"));
+        outboxEvent.setAggregateId(rs.getString("aggregate_id"));
+        outboxEvent.setEventType(rs.getString("event_type"));
+        outboxEvent.setPayload(rs.getString("payload"));
+        outboxEvent.setPayloadEncoding(NtsOutboxEventEncoding.valueOf(rs.getString("payload_encoding")));
+        outboxEvent.setPayloadReference(rs.getString("payload_reference"));
+        outboxEvent.setPayloadChecksum(rs.getString("payload_checksum"));
+        outboxEvent.setAggregateVersion(rs.getInt("aggregate_version"));
+        outboxEvent.setBusinessVersion(rs.getInt("business_version"));
+        outboxEvent.setActor(rs.getString("actor"));
+        outboxEvent.setCreatedAt(rs.getTimestamp("created_at").toInstant());
+        Timestamp publishedAt = rs.getTimestamp("published_at");
+        outboxEvent.setPublishedAt(publishedAt == null ? null : publishedAt.toInstant());
+        outboxEvent.setAttempts(rs.getInt("attempts"));
+        Timestamp nextAttemptAt = rs.getTimestamp("next_attempt_at");
+        outboxEvent.setNextAttemptAt(nextAttemptAt == null ? null : nextAttemptAt.toInstant());
+        outboxEvent.setLastError(rs.getString("last_error"));
+        Timestamp parkedAt = rs.getTimestamp("parked_at");
+        outboxEvent.setParkedAt(parkedAt == null ? null : parkedAt.toInstant());
+        return outboxEvent;
+    }
+
+    private class PageIterator implements Iterator<NtsOutboxEventEntity> {
+        private final List<String> tables;
+        private final String aggregateType;
+        private long lastId;
+        private Iterator<NtsOutboxEventEntity> page = Collections.emptyIterator();
+        private boolean exhausted = false;
+
+        PageIterator(List<String> tables, String aggregateType, long afterId) {
+            this.tables = tables;
+            this.aggregateType = aggregateType;
+            this.lastId = afterId;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (!page.hasNext() && !exhausted) {
+                page = nextPage().iterator();
+            }
+            return page.hasNext();
+        }
+
+        @Override
+        public NtsOutboxEventEntity next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            NtsOutboxEventEntity outboxEvent = page.next();
+            lastId = outboxEvent.getId();
+            return outboxEvent;
+        }
+
+        private Collection<NtsOutboxEventEntity> nextPage() {
+            if (tables.size() == 1) {
+                List<NtsOutboxEventEntity> outboxEvents = findPage(tables.get(0), aggregateType, lastId);
+                exhausted = outboxEvents.size() < pageSize;
+                return outboxEvents;
+            }
+            TreeMap<Long, NtsOutboxEventEntity> merged = new TreeMap<>();
+            boolean full = false;
+            for (String table : tables) {
+                List<NtsOutboxEventEntity> outboxEvents = findPage(table, aggregateType, lastId);
+                full |= outboxEvents.size() == pageSize;
+                for (NtsOutboxEventEntity outboxEvent : outboxEvents) {
+                    merged.putIfAbsent(outboxEvent.getId(), outboxEvent);
+                }
+            }
+            exhausted = !full && merged.size() <= pageSize;
+            while (merged.size() > pageSize) {
+                merged.pollLastEntry();
+            }
+            return merged.values();
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package org.nentangso.core.service.helper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.*;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps {@code nts_outbox_events} small by removing published events older than {@code nts.helper.outbox-event.retention.max-age}.
+ * <p>
+ * Modes, from {@code nts.helper.outbox-event.retention.mode}:
+ * <ul>
+ *     <li>{@link Mode#ARCHIVE}: move events to {@code retention.archive-table}, which has the same columns, retry and failure
+ *     history included, in chunks.</li>
+ *     <li>{@link Mode#DELETE}: delete events in chunks, with their offloaded payloads.</li>
+ *     <li>{@link Mode#PARTITION}: the table is partitioned by day on {@code created_at}. Create the partitions of the coming days
+ *     and drop the daily partitions past the max age that hold no unpublished event, then delete their offloaded payloads.</li>
+ * </ul>
+ * Each chunk is selected on the {@code (published_at, id)} index then moved or deleted by primary key in its own short transaction,
+ * so writers are not blocked. Chunks are throttled: the job sleeps at least {@code retention.chunk-pause}, and at least as long
+ * as the last chunk took, so it never keeps the database busy more than half of the time. A run stops after
+ * {@code retention.max-run-time}, and runs are scheduled by {@code retention.cron}, which can be restricted to off-peak hours.
+ * Run it on a single node per database.
+ */
+@ConditionalOnProperty(
+    prefix = "nts.helper.outbox-event.retention",
+    name = "enabled",
+    havingValue = "true"
+)
+@Component
+public class NtsOutboxEventRetention {
+    private static final Logger log = LoggerFactory.getLogger(NtsOutboxEventRetention.class);
+
+    static final String TABLE = "nts_outbox_events";
+    static final String COLUMNS = "id, aggregate_type, aggregate_id, event_type, payload, payload_encoding, payload_reference, " +
+        "payload_checksum, aggregate_version, business_version, actor, created_at, published_at, attempts, next_attempt_at, " +
+        "last_error, parked_at";
+    private static final Pattern TABLE_NAME_PATTERN = Pattern.compile("^[A-Za-z_][A-Za-z0-9_.]*$");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final NtsOutboxPayloadStore payloadStore;
+    private final Mode mode;
+    private final Duration maxAge;
+    private final int chunkSize;
+    private final Duration chunkPause;
+    private final Duration maxRunTime;
+    private final String archiveTable;
+    private final PartitionDialect partitionDialect;
+    private final int partitionsAhead;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    public NtsOutboxEventRetention(
+        JdbcTemplate jdbcTemplate,
+        PlatformTransactionManager transactionManager,
+        Optional<NtsOutboxPayloadStore> payloadStore,
+        @Value("${nts.helper.outbox-event.retention.mode:ARCHIVE}") Mode mode,
+        @Value("${nts.helper.outbox-event.retention.max-age:P7D}") Duration maxAge,
+        @Value("${nts.helper.outbox-event.retention.chunk-size:1000}") int chunkSize,
+        @Value("${nts.helper.outbox-event.retention.chunk-pause:PT0.2S}") Duration chunkPause,
+        @Value("${nts.helper.outbox-event.retention.max-run-time:PT5M}") Duration maxRunTime,
+        @Value("${nts.helper.outbox-event.retention.archive-table:nts_outbox_events_archive}") String archiveTable,
+        @Value("${nts.helper.outbox-event.retention.partition-dialect:POSTGRESQL}") PartitionDialect partitionDialect,
+        @Value("${nts.helper.outbox-event.retention.partitions-ahead:3}") int partitionsAhead
+    ) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize");
+        }
+        if (!TABLE_NAME_PATTERN.matcher(archiveTable).matches()) {
+            throw new IllegalArgumentException("archiveTable");
+        }
+        this.jdbcTemplate = jdbcTemplate;
+        this.namedParameterJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.payloadStore = payloadStore.orElse(null);
+        this.mode = mode;
+        this.maxAge = maxAge;
+        this.chunkSize = chunkSize;
+        this.chunkPause = chunkPause;
+        this.maxRunTime = maxRunTime;
+        this.archiveTable = archiveTable;
+        this.partitionDialect = partitionDialect;
+        this.partitionsAhead = partitionsAhead;
+    }
+
+    @Scheduled(cron = "${nts.helper.outbox-event.retention.cron:0 */15 * * * *}")
+    public void scheduledRun() {
+        try {
+            int removed = run();
+            if (removed > 0) {
+                log.info("Outbox retention removed {} ({})", removed, mode);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Outbox retention failed", e);
+        }
+    }
+
+    /**
+     * Run the retention once, unless a run is already in progress.
+     *
+     * @return the number of events archived or deleted, or the number of partitions dropped
+     */
+    public int run() {
+        if (!running.compareAndSet(false, true)) return 0;
+        try {
+            Instant cutoff = Instant.now().minus(maxAge);
+            return mode == Mode.PARTITION ? rotatePartitions(cutoff) : purge(cutoff);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private int purge(Instant cutoff) {
+        long deadline = System.nanoTime() + maxRunTime.toNanos();
+        int total = 0;
+        while (System.nanoTime() < deadline) {
+            long start = System.nanoTime();
+            Chunk chunk = transactionTemplate.execute(status -> purgeChunk(cutoff));
+            if (chunk == null || chunk.size == 0) break;
+            total += chunk.size;
+            deletePayloads(chunk.payloadReferences);
+            if (chunk.size < chunkSize) break;
+            if (!throttle(Duration.ofNanos(System.nanoTime() - start))) break;
+        }
+        return total;
+    }
+
+    private Chunk purgeChunk(Instant cutoff) {
+        List<Long> ids = new ArrayList<>(chunkSize);
+        List<String> payloadReferences = new ArrayList<>();
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement("select id, payload_reference from " + TABLE +
+                " where published_at < ? order by published_at, id");
+            ps.setMaxRows(chunkSize);
+            ps.setTimestamp(1, Timestamp.from(cutoff));
+            return ps;
+        }, rs -> {
+            ids.add(rs.getLong(1));
+            String payloadReference = rs.getString(2);
+            if (payloadReference != null) payloadReferences.add(payloadReference);
+        });
+        if (ids.isEmpty()) return new Chunk(0, Collections.emptyList());
+        MapSqlParameterSource params = new MapSqlParameterSource("ids", ids);
+        if (mode == Mode.ARCHIVE) {
+            namedParameterJdbcTemplate.update("insert into " + archiveTable + " (" + COLUMNS + ") select " + COLUMNS +
+                " from " + TABLE + " where id in (:ids)", params);
+            payloadReferences.clear();
+        }
+        int deleted = namedParameterJdbcTemplate.update("delete from " + TABLE + " where id in (:ids)", params);
+        return new Chunk(deleted, payloadReferences);
+    }
+
+    private void deletePayloads(List<String> payloadReferences) {
+        if (payloadStore == null) return;
+        for (String payloadReference : payloadReferences) {
+            try {
+                payloadStore.delete(payloadReference);
+            } catch (IOException | RuntimeException e) {
+                log.warn("Cannot delete outbox payload {}", payloadReference, e);
+            }
+        }
+    }
+
+    private int rotatePartitions(Instant cutoff) {
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        Set<LocalDate> partitions = new TreeSet<>(partitionDialect.listPartitions(jdbcTemplate));
+        for (int i = 0; i <= partitionsAhead; i++) {
+            LocalDate day = today.plusDays(i);
+            if (!partitions.contains(day)) {
+                partitionDialect.createPartition(jdbcTemplate, day);
+            }
+        }
+        int dropped = 0;
+        for (LocalDate day : partitions) {
+            Instant start = day.atStartOfDay(ZoneOffset.UTC).toInstant();
+            Instant end = day.plusDays(1).atStartOfDay(ZoneOffset.UTC).toInstant();
+            if (end.isAfter(cutoff)) break;
+            Integer unpublished = jdbcTemplate.queryForObject("select count(*) from " + TABLE +
+                " where created_at >= ? and created_at < ? and published_at is null", Integer.class, Timestamp.from(start), Timestamp.from(end));
+            if (unpublished != null && unpublished > 0) {
+                log.warn("Keep outbox partition of {}, {} events are not published yet", day, unpublished);
+                continue;
+            }
+            List<String> payloadReferences = payloadStore == null ? Collections.emptyList() : jdbcTemplate.queryForList(
+                "select payload_reference from " + TABLE + " where created_at >= ? and created_at < ? and payload_reference is not null",
+                String.class, Timestamp.from(start), Timestamp.from(end));
+            partitionDialect.dropPartition(jdbcTemplate, day);
+            deletePayloads(payloadReferences);
+            dropped++;
+            if (!throttle(chunkPause)) break;
+        }
+        return dropped;
+    }
+
+    private boolean throttle(Duration lastChunk) {
+        Duration pause = lastChunk.compareTo(chunkPause) > 0 ? lastChunk : chunkPause;
+        try {
+            Thread.sleep(pause.toMillis());
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static final class Chunk {
+        private final int size;
+        private final List<String> payloadReferences;
+
+        Chunk(int size, List<String> payloadReferences) {
+            this.size = size;
+            this.payloadReferences = payloadReferences;
+        }
+    }
+
+    public enum Mode {
+        ARCHIVE, DELETE, PARTITION
+    }
+
+    /**
+     * Daily partitions of {@code nts_outbox_events} on {@code created_at}, in UTC.
+     */
+    public enum PartitionDialect {
+        /**
+         * Declarative partitioning, {@code partition by range (created_at)}, partitions named {@code nts_outbox_events_pYYYYMMDD}.
+         */
+        POSTGRESQL {
+            @Override
+            List<LocalDate> listPartitions(JdbcTemplate jdbcTemplate) {
+                return parse(jdbcTemplate.queryForList("select c.relname from pg_inherits i " +
+                    "join pg_class c on c.oid = i.inhrelid join pg_class p on p.oid = i.inhparent " +
+                    "where p.relname = '" + TABLE + "'", String.class));
+            }
+
+            @Override
+            void createPartition(JdbcTemplate jdbcTemplate, LocalDate day) {
+                jdbcTemplate.execute("create table if not exists " + TABLE + "_" + name(day) + " partition of " + TABLE +
+                    " for values from ('" + day + "') to ('" + day.plusDays(1) + "')");
+            }
+
+            @Override
+            void dropPartition(JdbcTemplate jdbcTemplate, LocalDate day) {
+                jdbcTemplate.execute("drop table if exists " + TABLE + "_" + name(day));
+            }
+        },
+        /**
+         * {@code partition by range (unix_timestamp(created_at))} with a {@code pmax} partition of {@code maxvalue},
+         * partitions named {@code pYYYYMMDD}.
+         */
+        MYSQL {
+            @Override
+            List<LocalDate> listPartitions(JdbcTemplate jdbcTemplate) {
+                return parse(jdbcTemplate.queryForList("select partition_name from information_schema.partitions " +
+                    "where table_schema = database() and table_name = '" + TABLE + "' and partition_name is not null", String.class));
+            }
+
+            @Override
+            void createPartition(JdbcTemplate jdbcTemplate, LocalDate day) {
+                long lessThan = day.plusDays(1).atStartOfDay(ZoneOffset.UTC).toEpochSecond();
+                jdbcTemplate.execute("alter table " + TABLE + " reorganize partition pmax into (partition " + name(day) +
+                    " values less than (" + lessThan + "), partition pmax values less than maxvalue)");
+            }
+
+            @Override
+            void dropPartition(JdbcTemplate jdbcTemplate, LocalDate day) {
+                jdbcTemplate.execute("alter table " + TABLE + " drop partition " + name(day));
+            }
+        };
+
+        private static final Pattern PARTITION_NAME_PATTERN = Pattern.compile("p(\\d{8})$");
+        private static final DateTimeFormatter PARTITION_DATE_FORMAT = DateTimeFormatter.BASIC_ISO_DATE;
+
+        abstract List<LocalDate> listPartitions(JdbcTemplate jdbcTemplate);
+
+        abstract void createPartition(JdbcTemplate jdbcTemplate, LocalDate day);
+
+        abstract void dropPartition(JdbcTemplate jdbcTemplate, LocalDate day);
+
+        static String name(LocalDate day) {
+            return "p" + PARTITION_DATE_FORMAT.format(day);
+        }
+
+        static List<LocalDate> parse(List<String> partitionNames) {
+            List<LocalDate> days = new ArrayList<>(partitionNames.size());
+            for (String partitionName : partitionNames) {
+                Matcher matcher = PARTITION_NAME_PATTERN.matcher(partitionName);
+                if (matcher.find()) {
+                    days.add(LocalDate.parse(matcher.group(1), PARTITION_DATE_FORMAT));
+                }
+            }
+            return days;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package org.nentangso.core.service.helper;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-JVM wakeup signal, raised after a transaction that wrote outbox events has committed.
+ * <p>
+ * A local relay keeps its poll interval as an upper bound and waits on this signal in between,
+ * so freshly committed events are picked up immediately:
+ * <pre>
+ * long seen = signal.getSequence();
+ * while (running) {
+ *     relay();
+ *     seen = signal.await(seen, pollInterval, TimeUnit.MILLISECONDS);
+ * }
+ * </pre>
+ */
+@ConditionalOnProperty(
+    prefix = "nts.helper.outbox-event",
+    name = "enabled",
+    havingValue = "true"
+)
+@Component
+public class NtsOutboxEventSignal {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition committed = lock.newCondition();
+    private long sequence = 0;
+
+    /**
+     * Wake up every waiting relay.
+     */
+    public void signal() {
+        lock.lock();
+        try {
+            sequence++;
+            committed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of signals raised so far
+     */
+    public long getSequence() {
+        lock.lock();
+        try {
+            return sequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait until a signal newer than {@code seenSequence} is raised, or the timeout elapses.
+     * Signals raised between two calls are not lost.
+     *
+     * @param seenSequence the last sequence seen by the caller
+     * @param timeout      the maximum time to wait
+     * @param unit         the time unit of the timeout
+     * @return the current sequence, equal to {@code seenSequence} when the wait timed out
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    public long await(long seenSequence, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (sequence == seenSequence && nanos > 0) {
+                nanos = committed.awaitNanos(nanos);
+            }
+            return sequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package org.nentangso.core.service.helper;
+
+import org.nentangso.core.domain.NtsOutboxEventEntity;
+
+import java.util.List;
+
+/**
+ * Same-JVM consumer of committed outbox events, registered with {@link NtsOutboxEventBus#subscribe(String, String, NtsOutboxEventSubscriber)}.
+ */
+@FunctionalInterface
+public interface NtsOutboxEventSubscriber {
+    /**
+     * Handle a batch of committed events, in commit order. Called from the bus thread, handlers must not block for long.
+     * Delivery is best effort, the outbox table stays the durable source of the events.
+     *
+     * @param outboxEvents the events matching the subscription, not modifiable
+     * @throws Exception if the events cannot be handled, the error is logged and the batch is not redelivered
+     */
+    void onEvents(List<NtsOutboxEventEntity> outboxEvents) throws Exception;
+}
@@ -0,0 +1,298 @@
+package org.nentangso.core.service.helper;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.commons.lang3.StringUtils;
+import org.nentangso.core.domain.NtsOutboxEventEntity;
+import org.nentangso.core.repository.NtsOutboxEventJdbcRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.SmartLifecycle;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Consumes the outbox events of one aggregate type straight from {@code nts_outbox_events}, the table being the queue.
+ * <p>
+ * Each round claims up to {@code batch-size} due events, minus the events still in progress. A claim pushes
+ * {@code next_attempt_at} to the end of the lease, so an event whose outcome was never recorded, e.g. after a crash,
+ * is claimed again once the lease is over, by this node or another. Events are handled by {@link #handle(NtsOutboxEventEntity)}
+ * and the outcome is recorded in the row: {@code published_at} when done, {@code attempts}, {@code next_attempt_at} and
+ * {@code last_error} for a retry, {@code parked_at} when given up, and only {@code next_attempt_at} when deferred.
+ * Delivery is at least once.
+ * <p>
+ * Between rounds the worker waits for {@link NtsOutboxEventSignal}, with the poll interval as an upper bound,
+ * unless the last round claimed all it asked for. {@link NtsOutboxEventDispatcher} leaves the aggregate types of the workers alone.
+ */
+public abstract class NtsOutboxEventWorker implements SmartLifecycle, DisposableBean {
+    private static final int MAX_ERROR_LENGTH = 1000;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final NtsOutboxEventJdbcRepository outboxEventJdbcRepository;
+    private final NtsOutboxEventSignal outboxEventSignal;
+    private final String aggregateType;
+    private final int batchSize;
+    private final long pollInterval;
+    private final Duration lease;
+    private final Set<Long> inProgress = ConcurrentHashMap.newKeySet();
+    private final Timer roundTimer;
+
+    private Thread pollThread;
+    private volatile boolean running = false;
+
+    /**
+     * @param outboxEventJdbcRepository the repository of the outbox table
+     * @param outboxEventSignal         the signal raised when events are committed
+     * @param meterRegistry             the registry of the worker metrics
+     * @param aggregateType             the aggregate type of the consumed events
+     * @param batchSize                 the maximum number of events in progress
+     * @param pollInterval              the maximum time between rounds, in milliseconds
+     * @param lease                     the time a claimed event is left to this worker
+     */
+    protected NtsOutboxEventWorker(
+        NtsOutboxEventJdbcRepository outboxEventJdbcRepository,
+        NtsOutboxEventSignal outboxEventSignal,
+        MeterRegistry meterRegistry,
+        String aggregateType,
+        int batchSize,
+        long pollInterval,
+        Duration lease
+    ) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize");
+        }
+        this.outboxEventJdbcRepository = outboxEventJdbcRepository;
+        this.outboxEventSignal = outboxEventSignal;
+        this.aggregateType = Objects.requireNonNull(aggregateType, "aggregateType");
+        this.batchSize = batchSize;
+        this.pollInterval = pollInterval;
+        this.lease = lease;
+        Gauge.builder("nts.outbox.worker.in-progress", inProgress, Set::size)
+            .description("Claimed events whose outcome is not recorded yet")
+            .tag("aggregate", aggregateType)
+            .register(meterRegistry);
+        this.roundTimer = Timer.builder("nts.outbox.worker.round").tag("aggregate", aggregateType).register(meterRegistry);
+    }
+
+    /**
+     * Handle a claimed event. The future may complete on any thread, but should complete within the lease.
+     *
+     * @param outboxEvent the event, {@link NtsOutboxEventEntity#getAttempts()} holds the number of previous failed attempts
+     * @return the outcome to record
+     */
+    protected abstract CompletableFuture<Outcome> handle(NtsOutboxEventEntity outboxEvent);
+
+    /**
+     * Called at the end of each round, on the thread of the round.
+     */
+    protected void afterRound() {
+    }
+
+    public String getAggregateType() {
+        return aggregateType;
+    }
+
+    /**
+     * @return the number of claimed events whose outcome is not recorded yet
+     */
+    public int getInProgress() {
+        return inProgress.size();
+    }
+
+    /**
+     * Claim due events and start handling them.
+     *
+     * @return the number of claimed events
+     */
+    public int dispatch() {
+        int limit = batchSize - inProgress.size();
+        if (limit <= 0) return 0;
+        long start = System.nanoTime();
+        Instant now = Instant.now();
+        List<NtsOutboxEventEntity> outboxEvents = outboxEventJdbcRepository.claimDue(aggregateType, now, now.plus(lease), limit);
+        for (NtsOutboxEventEntity outboxEvent : outboxEvents) {
+            if (!inProgress.add(outboxEvent.getId())) continue;
+            CompletableFuture<Outcome> outcome;
+            try {
+                outcome = handle(outboxEvent);
+            } catch (RuntimeException e) {
+                outcome = CompletableFuture.failedFuture(e);
+            }
+            outcome.whenComplete((result, error) -> {
+                try {
+                    record(outboxEvent, result, error);
+                } finally {
+                    inProgress.remove(outboxEvent.getId());
+                }
+            });
+        }
+        afterRound();
+        roundTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return outboxEvents.size();
+    }
+
+    private void record(NtsOutboxEventEntity outboxEvent, Outcome outcome, Throwable error) {
+        Instant now = Instant.now();
+        long id = outboxEvent.getId();
+        int attempts = outboxEvent.getAttempts() + 1;
+        try {
+            if (outcome == null) {
+                log.warn("Cannot handle {} event {}, retry after the lease", aggregateType, id, error);
+                outboxEventJdbcRepository.markFailed(id, attempts, now.plus(lease), abbreviate(String.valueOf(error)));
+                return;
+            }
+            switch (outcome.type) {
+                case DONE:
+                    outboxEventJdbcRepository.markPublished(id, now);
+                    break;
+                case RETRY:
+                    outboxEventJdbcRepository.markFailed(id, attempts, now.plus(outcome.delay), abbreviate(outcome.error));
+                    break;
+                case PARK:
+                    log.warn("Parking {} event {} after {} attempts: {}", aggregateType, id, attempts, outcome.error);
+                    outboxEventJdbcRepository.markParked(id, attempts, now, abbreviate(outcome.error));
+                    break;
+                case DEFER:
+                    outboxEventJdbcRepository.release(id, now.plus(outcome.delay));
+                    break;
+            }
+        } catch (RuntimeException e) {
+            log.warn("Cannot record outcome of {} event {}, it is handled again after the lease", aggregateType, id, e);
+        }
+    }
+
+    private static String abbreviate(String error) {
+        return StringUtils.abbreviate(error, MAX_ERROR_LENGTH);
+    }
+
+    @Override
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        pollThread = new Thread(this::poll, "nts-outbox-worker-" + aggregateType);
+        pollThread.setDaemon(true);
+        pollThread.start();
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (!running) return;
+        running = false;
+        pollThread.interrupt();
+        try {
+            pollThread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        pollThread = null;
+    }
+
+    @Override
+    public void destroy() {
+        stop();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void poll() {
+        long seenSequence = outboxEventSignal.getSequence();
+        while (running) {
+            try {
+                int limit = batchSize - inProgress.size();
+                int claimed = dispatch();
+                if (claimed == 0 || claimed < limit) {
+                    seenSequence = outboxEventSignal.await(seenSequence, pollInterval, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.warn("Cannot dispatch {} events", aggregateType, e);
+                try {
+                    seenSequence = outboxEventSignal.await(seenSequence, pollInterval, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Outcome of the handling of an event.
+     */
+    public static final class Outcome {
+        private static final Outcome DONE = new Outcome(Type.DONE, Duration.ZERO, null);
+
+        private final Type type;
+        private final Duration delay;
+        private final String error;
+
+        private Outcome(Type type, Duration delay, String error) {
+            this.type = type;
+            this.delay = delay;
+            this.error = error;
+        }
+
+        /**
+         * @return the event is done and marked as published
+         */
+        public static Outcome done() {
+            return DONE;
+        }
+
+        /**
+         * @param delay the delay before the next attempt
+         * @param error the error of the attempt
+         * @return the attempt failed and is counted, the event is due again after the delay
+         */
+        public static Outcome retry(Duration delay, String error) {
+            return new Outcome(Type.RETRY, delay, error);
+        }
+
+        /**
+         * @param error the error of the attempt
+         * @return the event is given up and parked
+         */
+        public static Outcome park(String error) {
+            return new Outcome(Type.PARK, Duration.ZERO, error);
+        }
+
+        /**
+         * @param delay the delay before the next attempt
+         * @return the event was not attempted, e.g. throttled, and is due again after the delay
+         */
+        public static Outcome defer(Duration delay) {
+            return new Outcome(Type.DEFER, delay, null);
+        }
+
+        public boolean isDone() {
+            return type == Type.DONE;
+        }
+
+        @Override
+        public String toString() {
+            return "Outcome{" +
+                "type=" + type +
+                ", delay=" + delay +
+                ", error='" + error + '\'' +
+                '}';
+        }
+
+        private enum Type {
+            DONE, RETRY, PARK, DEFER
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package org.nentangso.core.service.helper;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Blob store for outbox payloads too large to be kept in the outbox table (claim check).
+ * The row keeps the reference returned by {@link #store(byte[])} and a checksum of the payload.
+ */
+public interface NtsOutboxPayloadStore {
+    /**
+     * Store an encoded payload.
+     *
+     * @param payload the encoded payload bytes
+     * @return the reference of the stored payload, at most 255 characters
+     * @throws IOException if the payload cannot be stored
+     */
+    String store(byte[] payload) throws IOException;
+
+    /**
+     * Open a stored payload for reading.
+     *
+     * @param reference the reference returned by {@link #store(byte[])}
+     * @return the encoded payload bytes
+     * @throws IOException if the payload cannot be read
+     */
+    InputStream open(String reference) throws IOException;
+
+    /**
+     * Delete a stored payload, missing payloads are ignored.
+     *
+     * @param reference the reference returned by {@link #store(byte[])}
+     * @throws IOException if the payload cannot be deleted
+     */
+    void delete(String reference) throws IOException;
+}
@@ -0,0 +1,336 @@
+package org.nentangso.core.service.helper;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.nentangso.core.config.NtsConstants;
+import org.nentangso.core.domain.NtsOutboxEventEntity;
+import org.nentangso.core.repository.NtsOutboxEventJdbcRepository;
+import org.nentangso.core.service.dto.NtsWebHookMessageDTO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Delivers {@link NtsConstants#AGGREGATE_WEB_HOOK} outbox events, whose payload is a {@link NtsWebHookMessageDTO},
+ * straight from the outbox table, see {@link NtsOutboxEventWorker}.
+ * <p>
+ * Messages are POSTed with a shared asynchronous {@link HttpClient}, which keeps connections alive between requests.
+ * At most {@code nts.helper.web-hook.max-concurrency-per-endpoint} requests are in flight per endpoint (scheme, host and port),
+ * and at most {@code max-queue-per-endpoint} others wait in a queue of that endpoint, so a slow receiver does not hold up
+ * the others. Events over that are deferred.
+ * The body is signed with HMAC-SHA256 of {@code nts.helper.web-hook.secret}, which is required, sent base64 encoded
+ * in {@code x_hmac_sha256}, and {@code x_retries} holds the number of previous attempts.
+ * <p>
+ * Network errors, 408, 429 and 5xx responses are retried with exponential backoff and jitter, up to
+ * {@code nts.helper.web-hook.max-retries} times, then the event is parked. Retries are scheduled in the outbox table.
+ */
+@ConditionalOnProperty(
+    prefix = "nts.helper.web-hook",
+    name = "enabled",
+    havingValue = "true"
+)
+@Component
+public class NtsWebHookDeliveryEngine extends NtsOutboxEventWorker {
+    private static final Logger log = LoggerFactory.getLogger(NtsWebHookDeliveryEngine.class);
+    private static final String METRIC_PREFIX = "nts.webhook";
+    private static final String HMAC_SHA256 = "HmacSHA256";
+
+    private final NtsOutboxEventCodec outboxEventCodec;
+    private final HttpClient httpClient;
+    private final ExecutorService httpExecutor;
+    private final Map<String, EndpointLimiter> endpointLimiters = new ConcurrentHashMap<>();
+    private final SecretKeySpec signingKey;
+    private final int maxConcurrencyPerEndpoint;
+    private final int maxQueuePerEndpoint;
+    private final int maxRetries;
+    private final long initialBackoff;
+    private final long maxBackoff;
+    private final Duration requestTimeout;
+    private final MeterRegistry meterRegistry;
+    private final Timer deliveryLatency;
+    private final Counter delivered;
+    private final Counter retried;
+    private final Counter deferred;
+    private final Counter failed;
+
+    public NtsWebHookDeliveryEngine(
+        NtsOutboxEventJdbcRepository outboxEventJdbcRepository,
+        NtsOutboxEventSignal outboxEventSignal,
+        NtsOutboxEventCodec outboxEventCodec,
+        ObjectProvider<MeterRegistry> meterRegistryProvider,
+        @Value("${nts.helper.web-hook.secret:}") String secret,
+        @Value("${nts.helper.web-hook.max-concurrency-per-endpoint:4}") int maxConcurrencyPerEndpoint,
+        @Value("${nts.helper.web-hook.max-queue-per-endpoint:100}") int maxQueuePerEndpoint,
+        @Value("${nts.helper.web-hook.max-retries:8}") int maxRetries,
+        @Value("${nts.helper.web-hook.initial-backoff:1000}") long initialBackoff,
+        @Value("${nts.helper.web-hook.max-backoff:3600000}") long maxBackoff,
+        @Value("${nts.helper.web-hook.connect-timeout:5000}") long connectTimeout,
+        @Value("${nts.helper.web-hook.request-timeout:10000}") long requestTimeout,
+        @Value("${nts.helper.web-hook.batch-size:500}") int batchSize,
+        @Value("${nts.helper.web-hook.poll-interval:1000}") long pollInterval,
+        @Value("${nts.helper.web-hook.lease:PT5M}") Duration lease
+    ) {
+        this(outboxEventJdbcRepository, outboxEventSignal, outboxEventCodec, meterRegistryProvider.getIfAvailable(SimpleMeterRegistry::new),
+            secret, maxConcurrencyPerEndpoint, maxQueuePerEndpoint, maxRetries, initialBackoff, maxBackoff, connectTimeout, requestTimeout,
+            batchSize, pollInterval, lease);
+    }
+
+    private NtsWebHookDeliveryEngine(
+        NtsOutboxEventJdbcRepository outboxEventJdbcRepository,
+        NtsOutboxEventSignal outboxEventSignal,
+        NtsOutboxEventCodec outboxEventCodec,
+        MeterRegistry meterRegistry,
+        String secret,
+        int maxConcurrencyPerEndpoint,
+        int maxQueuePerEndpoint,
+        int maxRetries,
+        long initialBackoff,
+        long maxBackoff,
+        long connectTimeout,
+        long requestTimeout,
+        int batchSize,
+        long pollInterval,
+        Duration lease
+    ) {
+        super(outboxEventJdbcRepository, outboxEventSignal, meterRegistry, NtsConstants.AGGREGATE_WEB_HOOK, batchSize, pollInterval, lease);
+        if (secret == null || secret.isEmpty()) {
+            throw new IllegalStateException("nts.helper.web-hook.secret is required to sign web hooks");
+        }
+        if (maxConcurrencyPerEndpoint <= 0) {
+            throw new IllegalArgumentException("maxConcurrencyPerEndpoint");
+        }
+        if (maxQueuePerEndpoint < 0) {
+            throw new IllegalArgumentException("maxQueuePerEndpoint");
+        }
+        this.outboxEventCodec = outboxEventCodec;
+        this.signingKey = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), HMAC_SHA256);
+        this.maxConcurrencyPerEndpoint = maxConcurrencyPerEndpoint;
+        this.maxQueuePerEndpoint = maxQueuePerEndpoint;
+        this.maxRetries = maxRetries;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        this.requestTimeout = Duration.ofMillis(requestTimeout);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.httpExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "nts-webhook-http-" + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.httpClient = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofMillis(connectTimeout))
+            .followRedirects(HttpClient.Redirect.NEVER)
+            .executor(httpExecutor)
+            .build();
+        this.meterRegistry = meterRegistry;
+        this.deliveryLatency = Timer.builder(METRIC_PREFIX + ".delivery.latency")
+            .description("Delay between creation of the event and successful delivery, retries included")
+            .register(meterRegistry);
+        this.delivered = Counter.builder(METRIC_PREFIX + ".delivered").register(meterRegistry);
+        this.retried = Counter.builder(METRIC_PREFIX + ".retried").register(meterRegistry);
+        this.deferred = Counter.builder(METRIC_PREFIX + ".deferred").register(meterRegistry);
+        this.failed = Counter.builder(METRIC_PREFIX + ".failed").register(meterRegistry);
+    }
+
+    /**
+     * Attempt to deliver a web hook outbox event.
+     *
+     * @param outboxEvent the event, its payload is a {@link NtsWebHookMessageDTO}
+     * @return the outcome of the attempt
+     */
+    @Override
+    protected CompletableFuture<Outcome> handle(NtsOutboxEventEntity outboxEvent) {
+        Delivery delivery;
+        try {
+            NtsWebHookMessageDTO message = outboxEventCodec.decode(outboxEvent, NtsWebHookMessageDTO.class);
+            delivery = new Delivery(message, outboxEvent);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Cannot read web hook event {}", outboxEvent.getId(), e);
+            failed.increment();
+            return CompletableFuture.completedFuture(Outcome.park("Cannot read web hook: " + e));
+        }
+        EndpointLimiter limiter = endpointLimiters.computeIfAbsent(delivery.endpoint, key -> new EndpointLimiter());
+        if (!limiter.execute(() -> send(delivery, limiter))) {
+            deferred.increment();
+            return CompletableFuture.completedFuture(Outcome.defer(Duration.ofMillis(initialBackoff)));
+        }
+        return delivery.outcome;
+    }
+
+    /**
+     * @param body the body
+     * @return the base64 HMAC-SHA256 signature of the body
+     */
+    public String sign(byte[] body) {
+        try {
+            Mac mac = Mac.getInstance(HMAC_SHA256);
+            mac.init(signingKey);
+            return Base64.getEncoder().encodeToString(mac.doFinal(body));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        super.destroy();
+        httpExecutor.shutdownNow();
+    }
+
+    private void send(Delivery delivery, EndpointLimiter limiter) {
+        HttpRequest.Builder request = HttpRequest.newBuilder(delivery.uri)
+            .timeout(requestTimeout)
+            .header("Content-Type", "application/json")
+            .header(NtsConstants.HEADER_RETRIES, String.valueOf(delivery.retries))
+            .POST(HttpRequest.BodyPublishers.ofByteArray(delivery.body));
+        if (delivery.topic != null) request.header(NtsConstants.HEADER_TOPIC, delivery.topic);
+        request.header(NtsConstants.HEADER_HMAC_SHA256, delivery.signature);
+        long start = System.nanoTime();
+        CompletableFuture<HttpResponse<Void>> response;
+        try {
+            response = httpClient.sendAsync(request.build(), HttpResponse.BodyHandlers.discarding());
+        } catch (RuntimeException e) {
+            limiter.release();
+            complete(delivery, -1, null, e);
+            return;
+        }
+        response.whenComplete((httpResponse, error) -> {
+            limiter.release();
+            int status = httpResponse == null ? -1 : httpResponse.statusCode();
+            Timer.builder(METRIC_PREFIX + ".request")
+                .tag("status", status < 0 ? "error" : (status / 100) + "xx")
+                .register(meterRegistry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            complete(delivery, status, httpResponse, error);
+        });
+    }
+
+    private void complete(Delivery delivery, int status, HttpResponse<Void> response, Throwable error) {
+        if (status >= 200 && status < 300) {
+            delivered.increment();
+            deliveryLatency.record(Math.max(0, Duration.between(delivery.createdAt, Instant.now()).toMillis()), TimeUnit.MILLISECONDS);
+            delivery.outcome.complete(Outcome.done());
+            return;
+        }
+        String reason = status < 0 ? String.valueOf(error) : "status " + status;
+        boolean retryable = status < 0 || status == 408 || status == 429 || status >= 500;
+        if (!retryable || delivery.retries >= maxRetries) {
+            log.warn("Give up web hook {} after {} retries, {}", delivery.uri, delivery.retries, reason);
+            failed.increment();
+            delivery.outcome.complete(Outcome.park(reason));
+            return;
+        }
+        retried.increment();
+        long delay = Math.max(backoff(delivery.retries + 1), retryAfter(response));
+        log.debug("Retry web hook {} in {} ms, {}", delivery.uri, delay, reason);
+        delivery.outcome.complete(Outcome.retry(Duration.ofMillis(delay), reason));
+    }
+
+    /**
+     * @param retries the number of the retry, from 1
+     * @return a random delay between half and all of {@code initial-backoff * 2^(retries - 1)}, capped by {@code max-backoff}
+     */
+    long backoff(int retries) {
+        long delay = initialBackoff << Math.min(retries - 1, 30);
+        if (delay <= 0 || delay > maxBackoff) delay = maxBackoff;
+        long half = delay / 2;
+        return half + ThreadLocalRandom.current().nextLong(delay - half + 1);
+    }
+
+    private long retryAfter(HttpResponse<Void> response) {
+        if (response == null) return 0;
+        return response.headers().firstValue("Retry-After")
+            .map(value -> {
+                try {
+                    return Math.min(TimeUnit.SECONDS.toMillis(Long.parseLong(value.trim())), maxBackoff);
+                } catch (NumberFormatException e) {
+                    return 0L;
+                }
+            })
+            .orElse(0L);
+    }
+
+    private final class Delivery {
+        private final URI uri;
+        private final String endpoint;
+        private final String topic;
+        private final byte[] body;
+        private final String signature;
+        private final int retries;
+        private final Instant createdAt;
+        private final CompletableFuture<Outcome> outcome = new CompletableFuture<>();
+
+        Delivery(NtsWebHookMessageDTO message, NtsOutboxEventEntity outboxEvent) {
+            this.uri = URI.create(Objects.requireNonNull(message.getUrl(), "url"));
+            if (!"http".equalsIgnoreCase(uri.getScheme()) && !"https".equalsIgnoreCase(uri.getScheme())) {
+                throw new IllegalArgumentException("Unsupported web hook url " + uri);
+            }
+            this.endpoint = uri.getScheme().toLowerCase(Locale.ROOT) + "://" + uri.getHost() + ":" + uri.getPort();
+            this.topic = message.getTopic();
+            this.body = (message.getBody() == null ? "" : message.getBody()).getBytes(StandardCharsets.UTF_8);
+            this.signature = sign(body);
+            this.retries = outboxEvent.getAttempts();
+            this.createdAt = outboxEvent.getCreatedAt();
+        }
+    }
+
+    /**
+     * Limits the requests in flight to one endpoint, and the requests waiting for it, without blocking the caller.
+     * A released slot is handed to the next waiting request on the HTTP executor, not on the releasing thread.
+     */
+    private final class EndpointLimiter {
+        private final Deque<Runnable> waiting = new ArrayDeque<>();
+        private int active = 0;
+
+        /**
+         * @return false if the queue of the endpoint is full, the task is not run
+         */
+        boolean execute(Runnable task) {
+            synchronized (this) {
+                if (active >= maxConcurrencyPerEndpoint) {
+                    if (waiting.size() >= maxQueuePerEndpoint) return false;
+                    waiting.add(task);
+                    return true;
+                }
+                active++;
+            }
+            task.run();
+            return true;
+        }
+
+        void release() {
+            Runnable next;
+            synchronized (this) {
+                next = waiting.poll();
+                if (next == null) {
+                    active--;
+                    return;
+                }
+            }
+            try {
+                httpExecutor.execute(next);
+            } catch (RejectedExecutionException e) {
+                log.debug("Web hook engine is stopped, dropping queued request", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package org.nentangso.core.service.helper;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.nentangso.core.config.NtsConstants;
+import org.nentangso.core.domain.NtsOutboxEventEncoding;
+import org.nentangso.core.domain.NtsOutboxEventEntity;
+import org.nentangso.core.repository.NtsOutboxEventJdbcRepository;
+import org.nentangso.core.service.dto.NtsEmailMessageDTO;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test class for the {@link NtsEmailDispatcher}, against a local fake SMTP server and an in-memory outbox table.
+ */
+class NtsEmailDispatcherTest {
+    @TempDir
+    Path templateDir;
+
+    private ServerSocket serverSocket;
+    private Thread serverThread;
+    private final AtomicInteger connections = new AtomicInteger();
+    private final List<String> messages = new CopyOnWriteArrayList<>();
+    private volatile boolean rejectNextData = false;
+    private SimpleMeterRegistry meterRegistry;
+    private JdbcTemplate jdbcTemplate;
+    private NtsOutboxEventJdbcRepository outboxEventJdbcRepository;
+    private NtsOutboxEventCodec outboxEventCodec;
+    private NtsEmailDispatcher dispatcher;
+
+    @BeforeEach
+    void setup() throws IOException {
+        serverSocket = new ServerSocket(0);
+        serverThread = new Thread(this::serve);
+        serverThread.setDaemon(true);
+        serverThread.start();
+        Files.writeString(templateDir.resolve("welcome.html"), "<p>Hello {{user.name}}</p>");
+        Files.writeString(templateDir.resolve("welcome_vi.html"), "<p>Xin chào {{user.name}}</p>");
+        meterRegistry = new SimpleMeterRegistry();
+        jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource("jdbc:h2:mem:outbox-email;DB_CLOSE_DELAY=-1", "sa", ""));
+        jdbcTemplate.execute("drop table if exists nts_outbox_events");
+        jdbcTemplate.execute("create table nts_outbox_events (" +
+            "id bigint primary key, aggregate_type varchar(255) not null, aggregate_id varchar(36) not null, " +
+            "event_type varchar(255) not null, payload clob not null, payload_encoding varchar(20) not null, payload_reference varchar(255), payload_checksum varchar(64), aggregate_version int not null, business_version int not null, " +
+            "actor varchar(255) not null, created_at timestamp not null, published_at timestamp, attempts int not null, " +
+            "next_attempt_at timestamp, last_error varchar(1000), parked_at timestamp)");
+        outboxEventJdbcRepository = new NtsOutboxEventJdbcRepository(jdbcTemplate, 100);
+        outboxEventCodec = new NtsOutboxEventCodec(new ObjectMapper(), Optional.empty(), NtsOutboxEventEncoding.JSON, 1024, 32768);
+    }
+
+    @AfterEach
+    void cleanup() throws IOException {
+        if (dispatcher != null) dispatcher.destroy();
+        serverSocket.close();
+    }
+
+    @Test
+    void testSendBatchOverOneConnection() throws Exception {
+        dispatcher = createDispatcher(100, 100);
+        for (int i = 0; i < 5; i++) {
+            insertOutboxEvent(message("user" + i + "@example.com", "vi"));
+        }
+
+        assertThat(dispatcher.dispatch()).isEqualTo(5);
+        insertOutboxEvent(message("late@example.com", null));
+        assertThat(dispatcher.dispatch()).isEqualTo(1);
+        assertThat(dispatcher.dispatch()).isZero();
+
+        assertThat(messages).hasSize(6);
+        assertThat(messages.get(0)).contains("Subject: Welcome Alice").contains("Xin ch");
+        assertThat(messages.get(5)).contains("Hello Alice");
+        assertThat(connections).hasValue(1);
+        assertThat(countPublished()).isEqualTo(6);
+        assertThat(meterRegistry.get("nts.email.sent").counter().count()).isEqualTo(6);
+    }
+
+    @Test
+    void testThrottlePerDomain() throws Exception {
+        dispatcher = createDispatcher(1, 2);
+        for (int i = 0; i < 3; i++) {
+            insertOutboxEvent(message("user" + i + "@slow.com", null));
+        }
+        insertOutboxEvent(message("user@fast.com", null));
+
+        assertThat(dispatcher.dispatch()).isEqualTo(4);
+        assertThat(messages).hasSize(3);
+        assertThat(countPublished()).isEqualTo(3);
+        assertThat(meterRegistry.get("nts.email.throttled").counter().count()).isEqualTo(1);
+        assertThat(jdbcTemplate.queryForObject("select attempts from nts_outbox_events where published_at is null", Integer.class))
+            .isZero();
+
+        await(() -> {
+            dispatcher.dispatch();
+            return countPublished() == 4;
+        });
+        assertThat(messages).hasSize(4);
+    }
+
+    @Test
+    void testRetryAfterRejectedMessage() throws Exception {
+        dispatcher = createDispatcher(100, 100);
+        rejectNextData = true;
+        long id = insertOutboxEvent(message("user@example.com", null));
+
+        assertThat(dispatcher.dispatch()).isEqualTo(1);
+        assertThat(countPublished()).isZero();
+        assertThat(jdbcTemplate.queryForObject("select attempts from nts_outbox_events where id = ?", Integer.class, id)).isEqualTo(1);
+
+        await(() -> {
+            dispatcher.dispatch();
+            return countPublished() == 1;
+        });
+        assertThat(messages).hasSize(1);
+        assertThat(connections).hasValue(2);
+    }
+
+    @Test
+    void testInvalidRecipientIsParked() throws Exception {
+        dispatcher = createDispatcher(100, 100);
+        long id = insertOutboxEvent(message("not-an-email", null));
+
+        assertThat(dispatcher.dispatch()).isEqualTo(1);
+
+        assertThat(messages).isEmpty();
+        assertThat(jdbcTemplate.queryForObject("select count(*) from nts_outbox_events where id = ? and parked_at is not null",
+            Integer.class, id)).isEqualTo(1);
+        assertThat(meterRegistry.get("nts.email.failed").counter().count()).isEqualTo(1);
+        assertThat(dispatcher.dispatch()).isZero();
+    }
+
+    private NtsEmailDispatcher createDispatcher(double domainRate, double domainBurst) {
+        JavaMailSenderImpl mailSender = new JavaMailSenderImpl();
+        mailSender.setHost("127.0.0.1");
+        mailSender.setPort(serverSocket.getLocalPort());
+        NtsEmailTemplateCache emailTemplateCache = new NtsEmailTemplateCache(new DefaultResourceLoader(), templateDir.toUri().toString());
+        @SuppressWarnings("unchecked")
+        ObjectProvider<MeterRegistry> meterRegistryProvider = mock(ObjectProvider.class);
+        when(meterRegistryProvider.getIfAvailable(any())).thenReturn(meterRegistry);
+        return new NtsEmailDispatcher(mailSender, emailTemplateCache, outboxEventCodec, outboxEventJdbcRepository, new NtsOutboxEventSignal(),
+            meterRegistryProvider, "no-reply@example.com", 50, domainRate, domainBurst, 3, 10, 30000, 10, Duration.ofMinutes(1));
+    }
+
+    private long insertOutboxEvent(NtsEmailMessageDTO message) throws IOException {
+        NtsOutboxEventEntity outboxEvent = new NtsOutboxEventEntity();
+        outboxEvent.setAggregateType(NtsConstants.AGGREGATE_EMAIL_MESSAGE);
+        outboxEvent.setAggregateId(message.getTo());
+        outboxEvent.setEventType("send");
+        outboxEvent.setActor("system");
+        outboxEventCodec.write(outboxEvent, message);
+        outboxEventJdbcRepository.batchInsert(List.of(outboxEvent));
+        return outboxEvent.getId();
+    }
+
+    private int countPublished() {
+        Integer count = jdbcTemplate.queryForObject("select count(*) from nts_outbox_events where published_at is not null", Integer.class);
+        return count == null ? 0 : count;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertThat(System.nanoTime()).as("condition not met in time").isLessThan(deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static NtsEmailMessageDTO message(String to, String language) {
+        NtsEmailMessageDTO message = new NtsEmailMessageDTO(to, "Welcome {{user.name}}", "welcome", Map.of("user", Map.of("name", "Alice")));
+        message.setLanguage(language);
+        return message;
+    }
+
+    private void serve() {
+        while (!serverSocket.isClosed()) {
+            try (Socket socket = serverSocket.accept()) {
+                connections.incrementAndGet();
+                handle(socket);
+            } catch (IOException e) {
+                // server closed or client gone
+            }
+        }
+    }
+
+    private void handle(Socket socket) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+        reply(out, "220 localhost fake SMTP");
+        String line;
+        while ((line = in.readLine()) != null) {
+            String command = line.length() < 4 ? line.toUpperCase() : line.substring(0, 4).toUpperCase();
+            switch (command) {
+                case "EHLO":
+                case "HELO":
+                    reply(out, "250 localhost");
+                    break;
+                case "DATA":
+                    reply(out, "354 End data with <CR><LF>.<CR><LF>");
+                    StringBuilder data = new StringBuilder();
+                    while ((line = in.readLine()) != null && !line.equals(".")) {
+                        data.append(line).append('\n');
+                    }
+                    if (rejectNextData) {
+                        rejectNextData = false;
+                        reply(out, "421 Service not available, closing channel");
+                        return;
+                    }
+                    messages.add(data.toString());
+                    reply(out, "250 OK");
+                    break;
+                case "QUIT":
+                    reply(out, "221 Bye");
+                    return;
+                default:
+                    reply(out, "250 OK");
+            }
+        }
+    }
+
+    private static void reply(Writer out, String line) throws IOException {
+        out.write(line + "\r\n");
+        out.flush();
+    }
+}
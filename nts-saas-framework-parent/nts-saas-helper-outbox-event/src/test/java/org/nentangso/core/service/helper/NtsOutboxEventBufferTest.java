@@ -0,0 +1,138 @@
+package org.nentangso.core.service.helper;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.nentangso.core.config.NtsConstants;
+import org.nentangso.core.domain.NtsOutboxEventEntity;
+import org.nentangso.core.repository.NtsOutboxEventJdbcRepository;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Test class for the {@link NtsOutboxEventBuffer}.
+ */
+class NtsOutboxEventBufferTest {
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate transactionTemplate;
+    private NtsOutboxEventSignal outboxEventSignal;
+    private NtsOutboxEventBuffer outboxEventBuffer;
+
+    @BeforeEach
+    void setup() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:outbox-buffer;DB_CLOSE_DELAY=-1", "sa", "");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("drop table if exists nts_outbox_events");
+        jdbcTemplate.execute("create table nts_outbox_events (" +
+            "id bigint primary key, aggregate_type varchar(255) not null, aggregate_id varchar(36) not null, " +
+            "event_type varchar(255) not null, payload clob not null, payload_encoding varchar(20) not null, payload_reference varchar(255), payload_checksum varchar(64), aggregate_version int not null, business_version int not null, " +
+            "actor varchar(255) not null, created_at timestamp not null, attempts int not null)");
+        transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        outboxEventSignal = new NtsOutboxEventSignal();
+        outboxEventBuffer = new NtsOutboxEventBuffer(new NtsOutboxEventJdbcRepository(jdbcTemplate, 2), outboxEventSignal, Optional.empty(), Optional.empty(), true, true);
+    }
+
+    @Test
+    void testFlushBeforeCommitAndSignalAfterCommit() {
+        transactionTemplate.executeWithoutResult(status -> {
+            assertThat(outboxEventBuffer.add(createOutboxEvent("1", 1, "{\"v\":1}"))).isTrue();
+            assertThat(outboxEventBuffer.add(createOutboxEvent("1", 2, "{\"v\":2}"))).isTrue();
+            assertThat(outboxEventBuffer.add(createOutboxEvent("2", 1, "{\"v\":1}"))).isTrue();
+            assertThat(countEvents()).isZero();
+            assertThat(outboxEventSignal.getSequence()).isZero();
+        });
+        assertThat(countEvents()).isEqualTo(3);
+        assertThat(outboxEventSignal.getSequence()).isEqualTo(1);
+    }
+
+    @Test
+    void testCoalesceSameAggregateVersion() {
+        transactionTemplate.executeWithoutResult(status -> {
+            outboxEventBuffer.add(createOutboxEvent("1", 1, "{\"v\":\"first\"}"));
+            outboxEventBuffer.add(createOutboxEvent("1", 1, "{\"v\":\"last\"}"));
+        });
+        assertThat(countEvents()).isEqualTo(1);
+        assertThat(jdbcTemplate.queryForObject("select payload from nts_outbox_events", String.class)).isEqualTo("{\"v\":\"last\"}");
+    }
+
+    @Test
+    void testNeverCoalesceDefaultVersion() {
+        transactionTemplate.executeWithoutResult(status -> {
+            outboxEventBuffer.add(createOutboxEvent("1", NtsConstants.DEFAULT_VERSION, "{\"v\":\"first\"}"));
+            outboxEventBuffer.add(createOutboxEvent("1", NtsConstants.DEFAULT_VERSION, "{\"v\":\"last\"}"));
+        });
+        assertThat(countEvents()).isEqualTo(2);
+    }
+
+    @Test
+    void testCoalesceIsOptIn() {
+        NtsOutboxEventBuffer defaultBuffer = new NtsOutboxEventBuffer(new NtsOutboxEventJdbcRepository(jdbcTemplate, 2),
+            outboxEventSignal, Optional.empty(), Optional.empty(), true, false);
+        transactionTemplate.executeWithoutResult(status -> {
+            defaultBuffer.add(createOutboxEvent("1", 1, "{\"v\":\"first\"}"));
+            defaultBuffer.add(createOutboxEvent("1", 1, "{\"v\":\"last\"}"));
+        });
+        assertThat(countEvents()).isEqualTo(2);
+    }
+
+    @Test
+    void testDeletePayloadOfCoalescedEvent(@TempDir Path directory) throws IOException {
+        NtsLocalOutboxPayloadStore payloadStore = new NtsLocalOutboxPayloadStore(directory.toString());
+        NtsOutboxEventBuffer offloadingBuffer = new NtsOutboxEventBuffer(new NtsOutboxEventJdbcRepository(jdbcTemplate, 2),
+            outboxEventSignal, Optional.empty(), Optional.of(payloadStore), true, true);
+        NtsOutboxEventEntity first = createOutboxEvent("1", 1, "");
+        first.setPayloadReference(payloadStore.store(new byte[]{1}));
+        NtsOutboxEventEntity last = createOutboxEvent("1", 1, "");
+        last.setPayloadReference(payloadStore.store(new byte[]{2}));
+        transactionTemplate.executeWithoutResult(status -> {
+            offloadingBuffer.add(first);
+            offloadingBuffer.add(last);
+        });
+        assertThat(countEvents()).isEqualTo(1);
+        assertThatThrownBy(() -> payloadStore.open(first.getPayloadReference())).isInstanceOf(IOException.class);
+        try (InputStream in = payloadStore.open(last.getPayloadReference())) {
+            assertThat(in.readAllBytes()).containsExactly(2);
+        }
+    }
+
+    @Test
+    void testRollbackDiscardsEvents() {
+        transactionTemplate.executeWithoutResult(status -> {
+            outboxEventBuffer.add(createOutboxEvent("1", 1, "{}"));
+            status.setRollbackOnly();
+        });
+        assertThat(countEvents()).isZero();
+        assertThat(outboxEventSignal.getSequence()).isZero();
+    }
+
+    @Test
+    void testNoTransaction() {
+        assertThat(outboxEventBuffer.add(createOutboxEvent("1", 1, "{}"))).isFalse();
+    }
+
+    private int countEvents() {
+        Integer count = jdbcTemplate.queryForObject("select count(*) from nts_outbox_events", Integer.class);
+        return count == null ? 0 : count;
+    }
+
+    private static NtsOutboxEventEntity createOutboxEvent(String aggregateId, int aggregateVersion, String payload) {
+        NtsOutboxEventEntity outboxEvent = new NtsOutboxEventEntity();
+        outboxEvent.setAggregateType("product");
+        outboxEvent.setAggregateId(aggregateId);
+        outboxEvent.setEventType("update");
+        outboxEvent.setPayload(payload);
+        outboxEvent.setActor("system");
+        outboxEvent.setAggregateVersion(aggregateVersion);
+        return outboxEvent;
+    }
+}
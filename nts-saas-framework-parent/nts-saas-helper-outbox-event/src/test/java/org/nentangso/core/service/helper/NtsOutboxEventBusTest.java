@@ -0,0 +1,116 @@
+package org.nentangso.core.service.helper;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.nentangso.core.domain.NtsOutboxEventEntity;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test class for the {@link NtsOutboxEventBus}.
+ */
+class NtsOutboxEventBusTest {
+    private NtsOutboxEventBus outboxEventBus;
+
+    @AfterEach
+    void tearDown() {
+        if (outboxEventBus != null) {
+            outboxEventBus.destroy();
+        }
+    }
+
+    @Test
+    void testDeliverBySubscription() throws InterruptedException {
+        outboxEventBus = createOutboxEventBus(16, 4, NtsOutboxEventBus.Backpressure.BLOCK);
+        List<String> created = new CopyOnWriteArrayList<>();
+        List<String> all = new CopyOnWriteArrayList<>();
+        CountDownLatch delivered = new CountDownLatch(10);
+        outboxEventBus.subscribe("order", "created", events -> events.forEach(e -> created.add(e.getAggregateId())));
+        outboxEventBus.subscribe("order", null, events -> events.forEach(e -> {
+            all.add(e.getAggregateId());
+            delivered.countDown();
+        }));
+        outboxEventBus.start();
+
+        for (int i = 0; i < 10; i++) {
+            outboxEventBus.publish(createOutboxEvent("order", String.valueOf(i), i % 2 == 0 ? "created" : "updated"));
+        }
+        outboxEventBus.publish(createOutboxEvent("invoice", "x", "created"));
+
+        assertThat(delivered.await(5, TimeUnit.SECONDS)).isTrue();
+        outboxEventBus.stop();
+        assertThat(all).containsExactly("0", "1", "2", "3", "4", "5", "6", "7", "8", "9");
+        assertThat(created).containsExactly("0", "2", "4", "6", "8");
+    }
+
+    @Test
+    void testDropWhenFull() throws InterruptedException {
+        outboxEventBus = createOutboxEventBus(2, 1, NtsOutboxEventBus.Backpressure.DROP);
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        outboxEventBus.subscribe("order", null, events -> {
+            entered.countDown();
+            release.await();
+        });
+        outboxEventBus.start();
+
+        assertThat(outboxEventBus.publish(createOutboxEvent("order", "1", "created"))).isTrue();
+        assertThat(entered.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(outboxEventBus.publish(createOutboxEvent("order", "2", "created"))).isTrue();
+        assertThat(outboxEventBus.publish(createOutboxEvent("order", "3", "created"))).isTrue();
+        assertThat(outboxEventBus.publish(createOutboxEvent("order", "4", "created"))).isFalse();
+        release.countDown();
+    }
+
+    @Test
+    void testPublishAfterCommitOnly() {
+        outboxEventBus = createOutboxEventBus(16, 4, NtsOutboxEventBus.Backpressure.BLOCK);
+        List<NtsOutboxEventEntity> received = new CopyOnWriteArrayList<>();
+        outboxEventBus.subscribe("order", null, received::addAll);
+        DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:outbox-bus;DB_CLOSE_DELAY=-1", "sa", "");
+        TransactionTemplate transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+
+        transactionTemplate.executeWithoutResult(status -> {
+            outboxEventBus.publishAfterCommit(Collections.singletonList(createOutboxEvent("order", "1", "created")));
+            status.setRollbackOnly();
+        });
+        transactionTemplate.executeWithoutResult(status -> {
+            outboxEventBus.publishAfterCommit(Collections.singletonList(createOutboxEvent("order", "2", "created")));
+            assertThat(received).isEmpty();
+        });
+
+        assertThat(received.stream().map(NtsOutboxEventEntity::getAggregateId).collect(Collectors.toList())).containsExactly("2");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static NtsOutboxEventBus createOutboxEventBus(int capacity, int batchSize, NtsOutboxEventBus.Backpressure backpressure) {
+        ObjectProvider<io.micrometer.core.instrument.MeterRegistry> meterRegistryProvider = mock(ObjectProvider.class);
+        when(meterRegistryProvider.getIfAvailable(any())).thenCallRealMethod();
+        return new NtsOutboxEventBus(meterRegistryProvider, capacity, batchSize, backpressure, 100);
+    }
+
+    private static NtsOutboxEventEntity createOutboxEvent(String aggregateType, String aggregateId, String eventType) {
+        NtsOutboxEventEntity outboxEvent = new NtsOutboxEventEntity();
+        outboxEvent.setAggregateType(aggregateType);
+        outboxEvent.setAggregateId(aggregateId);
+        outboxEvent.setEventType(eventType);
+        outboxEvent.setPayload("{}");
+        outboxEvent.setCreatedAt(Instant.now());
+        return outboxEvent;
+    }
+}
@@ -0,0 +1,119 @@
+package org.nentangso.core.service.helper;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.nentangso.core.domain.NtsOutboxEventEncoding;
+import org.nentangso.core.domain.NtsOutboxEventEntity;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Test class for the {@link NtsOutboxEventCodec}.
+ */
+class NtsOutboxEventCodecTest {
+    private static final Map<String, Object> PAYLOAD = Map.of("id", 1, "title", "Product", "tags", List.of("a", "b"));
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void testRoundTripAllEncodings() throws IOException {
+        NtsOutboxEventCodec codec = new NtsOutboxEventCodec(objectMapper, Optional.empty(), NtsOutboxEventEncoding.JSON, 0, 32768);
+        for (NtsOutboxEventEncoding encoding : NtsOutboxEventEncoding.values()) {
+            NtsOutboxEventCodec.Encoded encoded = codec.encode(PAYLOAD, encoding);
+            assertThat(encoded.getEncoding()).isEqualTo(encoding);
+            NtsOutboxEventEntity outboxEvent = new NtsOutboxEventEntity();
+            outboxEvent.setPayload(encoded.getPayload());
+            outboxEvent.setPayloadEncoding(encoded.getEncoding());
+            assertThat(codec.decode(outboxEvent, Map.class)).isEqualTo(PAYLOAD);
+            assertThat(objectMapper.readValue(codec.toJson(outboxEvent), Map.class)).isEqualTo(PAYLOAD);
+        }
+    }
+
+    @Test
+    void testCompressionThreshold() throws IOException {
+        NtsOutboxEventCodec codec = new NtsOutboxEventCodec(objectMapper, Optional.empty(), NtsOutboxEventEncoding.SMILE_GZIP, 1024, 32768);
+        assertThat(codec.encode(PAYLOAD).getEncoding()).isEqualTo(NtsOutboxEventEncoding.SMILE);
+        String large = "x".repeat(4096);
+        NtsOutboxEventCodec.Encoded encoded = codec.encode(Map.of("text", large));
+        assertThat(encoded.getEncoding()).isEqualTo(NtsOutboxEventEncoding.SMILE_GZIP);
+        assertThat(encoded.getPayload().length()).isLessThan(large.length() / 4);
+        assertThat(codec.decode(encoded.getPayload(), encoded.getEncoding(), Map.class)).containsEntry("text", large);
+    }
+
+    @Test
+    void testStringPayloadIsJson() throws IOException {
+        NtsOutboxEventCodec codec = new NtsOutboxEventCodec(objectMapper, Optional.empty(), NtsOutboxEventEncoding.CBOR, 0, 32768);
+        NtsOutboxEventCodec.Encoded encoded = codec.encode("{\"id\":1}");
+        assertThat(encoded.getEncoding()).isEqualTo(NtsOutboxEventEncoding.JSON);
+        assertThat(encoded.getPayload()).isEqualTo("{\"id\":1}");
+        assertThat(codec.decode(encoded.getPayload(), null, Map.class)).containsEntry("id", 1);
+    }
+
+    @Test
+    void testOffloadToPayloadStore(@TempDir Path directory) throws IOException {
+        NtsLocalOutboxPayloadStore payloadStore = new NtsLocalOutboxPayloadStore(directory.toString());
+        NtsOutboxEventCodec codec = new NtsOutboxEventCodec(objectMapper, Optional.of(payloadStore), NtsOutboxEventEncoding.JSON, 1024, 100);
+        NtsOutboxEventEntity small = new NtsOutboxEventEntity();
+        codec.write(small, PAYLOAD);
+        assertThat(small.getPayloadReference()).isNull();
+
+        Map<String, Object> largePayload = Map.of("text", "y".repeat(1000));
+        NtsOutboxEventEntity large = new NtsOutboxEventEntity();
+        codec.write(large, largePayload);
+        assertThat(large.getPayload()).isEmpty();
+        assertThat(large.getPayloadReference()).isNotBlank();
+        assertThat(large.getPayloadChecksum()).hasSize(64);
+        assertThat(codec.decode(large, Map.class)).isEqualTo(largePayload);
+        assertThat(objectMapper.readValue(codec.toJson(large), Map.class)).isEqualTo(largePayload);
+
+        large.setPayloadChecksum("0".repeat(64));
+        assertThatThrownBy(() -> codec.toJson(large)).isInstanceOf(IOException.class);
+        payloadStore.delete(large.getPayloadReference());
+        assertThatThrownBy(() -> codec.openPayload(large)).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void testDeleteOffloadedPayloadOnRollback(@TempDir Path directory) throws IOException {
+        NtsLocalOutboxPayloadStore payloadStore = new NtsLocalOutboxPayloadStore(directory.toString());
+        NtsOutboxEventCodec codec = new NtsOutboxEventCodec(objectMapper, Optional.of(payloadStore), NtsOutboxEventEncoding.JSON, 1024, 100);
+        TransactionTemplate transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(
+            new DriverManagerDataSource("jdbc:h2:mem:outbox-codec;DB_CLOSE_DELAY=-1", "sa", "")));
+        Map<String, Object> largePayload = Map.of("text", "y".repeat(1000));
+
+        NtsOutboxEventEntity rolledBack = new NtsOutboxEventEntity();
+        transactionTemplate.executeWithoutResult(status -> {
+            write(codec, rolledBack, largePayload);
+            status.setRollbackOnly();
+        });
+        assertThatThrownBy(() -> payloadStore.open(rolledBack.getPayloadReference())).isInstanceOf(IOException.class);
+
+        NtsOutboxEventEntity committed = new NtsOutboxEventEntity();
+        transactionTemplate.executeWithoutResult(status -> write(codec, committed, largePayload));
+        assertThat(codec.decode(committed, Map.class)).isEqualTo(largePayload);
+    }
+
+    @Test
+    void testLocalPayloadStoreRequiresDirectory() {
+        assertThatThrownBy(() -> new NtsLocalOutboxPayloadStore("")).isInstanceOf(IllegalStateException.class);
+    }
+
+    private static void write(NtsOutboxEventCodec codec, NtsOutboxEventEntity outboxEvent, Object payload) {
+        try {
+            codec.write(outboxEvent, payload);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
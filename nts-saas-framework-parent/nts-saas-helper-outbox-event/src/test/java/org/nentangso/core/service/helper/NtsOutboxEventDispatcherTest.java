@@ -0,0 +1,127 @@
+package org.nentangso.core.service.helper;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.nentangso.core.domain.NtsOutboxEventEntity;
+import org.nentangso.core.repository.NtsOutboxEventRepository;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test class for the {@link NtsOutboxEventDispatcher}.
+ */
+class NtsOutboxEventDispatcherTest {
+    private NtsOutboxEventRepository outboxEventRepository;
+    private final Map<String, List<Integer>> publishedVersions = new ConcurrentHashMap<>();
+    private final Set<String> failingEvents = ConcurrentHashMap.newKeySet();
+    private NtsOutboxEventDispatcher dispatcher;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setup() {
+        outboxEventRepository = mock(NtsOutboxEventRepository.class);
+        NtsOutboxEventPublisher publisher = outboxEvent -> {
+            String key = outboxEvent.getAggregateId() + "@" + outboxEvent.getAggregateVersion();
+            if (failingEvents.contains(key)) {
+                throw new IllegalStateException(key);
+            }
+            publishedVersions.computeIfAbsent(outboxEvent.getAggregateId(), k -> new CopyOnWriteArrayList<>())
+                .add(outboxEvent.getAggregateVersion());
+        };
+        ObjectProvider<io.micrometer.core.instrument.MeterRegistry> meterRegistryProvider = mock(ObjectProvider.class);
+        when(meterRegistryProvider.getIfAvailable(any())).thenCallRealMethod();
+        dispatcher = new NtsOutboxEventDispatcher(outboxEventRepository, publisher, new NtsOutboxEventSignal(),
+            mock(PlatformTransactionManager.class), mock(ObjectProvider.class), meterRegistryProvider, 4, 100, 10, 3, Duration.ofSeconds(1), Duration.ofSeconds(5));
+    }
+
+    @AfterEach
+    void cleanup() throws InterruptedException {
+        dispatcher.destroy();
+    }
+
+    @Test
+    void testPublishInAggregateVersionOrder() {
+        List<NtsOutboxEventEntity> outboxEvents = new ArrayList<>();
+        long id = 1;
+        for (int version = 3; version >= 1; version--) {
+            for (String aggregateId : List.of("a", "b", "c", "d", "e")) {
+                outboxEvents.add(createOutboxEvent(id++, aggregateId, version));
+            }
+        }
+        when(outboxEventRepository.findDue(any(), any())).thenReturn(outboxEvents);
+        assertThat(dispatcher.dispatch()).isEqualTo(15);
+        assertThat(publishedVersions).hasSize(5);
+        publishedVersions.values().forEach(versions -> assertThat(versions).containsExactly(1, 2, 3));
+        verify(outboxEventRepository, atLeastOnce()).markPublished(argThat(ids -> ids.size() == 15), any());
+    }
+
+    @Test
+    void testHoldBackAggregateAfterFailure() {
+        failingEvents.add("a@2");
+        List<NtsOutboxEventEntity> outboxEvents = new ArrayList<>(List.of(
+            createOutboxEvent(1, "a", 1),
+            createOutboxEvent(2, "a", 2),
+            createOutboxEvent(3, "a", 3),
+            createOutboxEvent(4, "b", 1)
+        ));
+        when(outboxEventRepository.findDue(any(), any())).thenReturn(outboxEvents);
+        assertThat(dispatcher.dispatch()).isEqualTo(2);
+        assertThat(publishedVersions.get("a")).containsExactly(1);
+        assertThat(publishedVersions.get("b")).containsExactly(1);
+        verify(outboxEventRepository).markPublished(argThat(ids -> new HashSet<>(ids).equals(Set.of(1L, 4L))), any());
+        verify(outboxEventRepository).markFailed(eq(2L), argThat(nextAttemptAt -> nextAttemptAt.isAfter(Instant.now())), contains("a@2"));
+        verify(outboxEventRepository, never()).markFailed(eq(3L), any(), any());
+    }
+
+    @Test
+    void testParkAfterMaxAttempts() {
+        failingEvents.add("a@1");
+        NtsOutboxEventEntity outboxEvent = createOutboxEvent(1, "a", 1);
+        outboxEvent.setAttempts(2);
+        when(outboxEventRepository.findDue(any(), any())).thenReturn(new ArrayList<>(List.of(outboxEvent)));
+        assertThat(dispatcher.dispatch()).isZero();
+        verify(outboxEventRepository).markParked(eq(1L), any(), contains("a@1"));
+        verify(outboxEventRepository, never()).markFailed(any(), any(), any());
+        verify(outboxEventRepository, never()).markPublished(any(), any());
+    }
+
+    @Test
+    void testExponentialBackoff() {
+        assertThat(dispatcher.backoff(1)).isEqualTo(Duration.ofSeconds(1));
+        assertThat(dispatcher.backoff(2)).isEqualTo(Duration.ofSeconds(2));
+        assertThat(dispatcher.backoff(3)).isEqualTo(Duration.ofSeconds(4));
+        assertThat(dispatcher.backoff(4)).isEqualTo(Duration.ofSeconds(5));
+        assertThat(dispatcher.backoff(100)).isEqualTo(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void testSameAggregateSameLane() {
+        NtsOutboxEventEntity first = createOutboxEvent(1, "a", 1);
+        NtsOutboxEventEntity second = createOutboxEvent(2, "a", 2);
+        assertThat(dispatcher.laneOf(first)).isEqualTo(dispatcher.laneOf(second));
+        assertThat(dispatcher.getLaneCount()).isEqualTo(4);
+    }
+
+    private static NtsOutboxEventEntity createOutboxEvent(long id, String aggregateId, int aggregateVersion) {
+        NtsOutboxEventEntity outboxEvent = new NtsOutboxEventEntity();
+        outboxEvent.setId(id);
+        outboxEvent.setAggregateType("product");
+        outboxEvent.setAggregateId(aggregateId);
+        outboxEvent.setEventType("update");
+        outboxEvent.setPayload("{}");
+        outboxEvent.setActor("system");
+        outboxEvent.setAggregateVersion(aggregateVersion);
+        return outboxEvent;
+    }
+}
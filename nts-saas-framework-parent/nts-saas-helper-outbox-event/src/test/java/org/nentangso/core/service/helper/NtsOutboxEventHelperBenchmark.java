@@ -0,0 +1,126 @@
+package org.nentangso.core.service.helper;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.nentangso.core.config.NtsConstants;
+import org.nentangso.core.domain.NtsOutboxEventEncoding;
+import org.nentangso.core.repository.NtsOutboxEventJdbcRepository;
+import org.nentangso.core.security.NtsSecurityHelper;
+import org.nentangso.core.security.SecurityUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Events per second written by {@link NtsOutboxEventHelper#batchQueue} against the legacy one-insert-per-event loop,
+ * on an in-memory H2 database.
+ * <p>
+ * Run the main method from the IDE, or {@code org.openjdk.jmh.Main NtsOutboxEventHelperBenchmark} on the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(NtsOutboxEventHelperBenchmark.EVENTS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NtsOutboxEventHelperBenchmark {
+    static final int EVENTS = 10_000;
+
+    private static final String AGGREGATE_TYPE = "product";
+    private static final String SINGLE_INSERT = "insert into nts_outbox_events " +
+        "(aggregate_type, aggregate_id, event_type, payload, payload_encoding, aggregate_version, business_version, actor, created_at) " +
+        "values (?, ?, ?, ?, 'JSON', ?, ?, ?, ?)";
+
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate transactionTemplate;
+    private ObjectMapper objectMapper;
+    private NtsOutboxEventHelper outboxEventHelper;
+    private List<Payload> payloads;
+
+    @Setup
+    public void setup() {
+        new NtsSecurityHelper("roles", "ROLE_").afterPropertiesSet();
+        DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:outbox;DB_CLOSE_DELAY=-1", "sa", "");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("create table if not exists nts_outbox_events (" +
+            "id bigint auto_increment primary key, aggregate_type varchar(255) not null, aggregate_id varchar(36) not null, " +
+            "event_type varchar(255) not null, payload clob not null, payload_encoding varchar(20) not null, payload_reference varchar(255), payload_checksum varchar(64), aggregate_version int not null, business_version int not null, " +
+            "actor varchar(255) not null, created_at timestamp not null)");
+        transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        objectMapper = new ObjectMapper();
+        NtsOutboxEventJdbcRepository outboxEventJdbcRepository = new NtsOutboxEventJdbcRepository(jdbcTemplate, 500);
+        NtsOutboxEventBuffer outboxEventBuffer = new NtsOutboxEventBuffer(outboxEventJdbcRepository, new NtsOutboxEventSignal(), Optional.empty(), Optional.empty(), true, true);
+        outboxEventHelper = new NtsOutboxEventHelper(null, outboxEventJdbcRepository, outboxEventBuffer, new NtsOutboxEventCodec(objectMapper, Optional.empty(), NtsOutboxEventEncoding.JSON, 1024, 32768), Optional.empty());
+        payloads = new ArrayList<>(EVENTS);
+        for (int i = 0; i < EVENTS; i++) {
+            payloads.add(new Payload(i, "Product " + i));
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void truncate() {
+        jdbcTemplate.execute("truncate table nts_outbox_events");
+    }
+
+    @Benchmark
+    public void legacyQueueLoop() {
+        transactionTemplate.executeWithoutResult(status -> {
+            for (Payload payload : payloads) {
+                String actor = SecurityUtils.getCurrentUserLogin().orElse(NtsConstants.SYSTEM);
+                try {
+                    String payloadJson = objectMapper.writeValueAsString(payload);
+                    jdbcTemplate.update(SINGLE_INSERT, AGGREGATE_TYPE, UUID.randomUUID().toString(), NtsConstants.EVENT_TYPE_CREATE,
+                        payloadJson, NtsConstants.DEFAULT_VERSION, NtsConstants.DEFAULT_BUSINESS_VERSION, actor, Timestamp.from(Instant.now()));
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+    }
+
+    @Benchmark
+    public void batchQueue() {
+        transactionTemplate.executeWithoutResult(status -> {
+            try {
+                outboxEventHelper.batchQueue(AGGREGATE_TYPE, NtsConstants.EVENT_TYPE_CREATE, payloads);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(NtsOutboxEventHelperBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    public static class Payload {
+        private final long id;
+        private final String title;
+
+        public Payload(long id, String title) {
+            this.id = id;
+            this.title = title;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+    }
+}
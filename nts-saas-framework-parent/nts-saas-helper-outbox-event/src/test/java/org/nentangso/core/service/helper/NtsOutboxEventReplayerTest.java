@@ -0,0 +1,97 @@
+package org.nentangso.core.service.helper;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.nentangso.core.domain.NtsOutboxEventEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test class for the {@link NtsOutboxEventReplayer}.
+ */
+class NtsOutboxEventReplayerTest {
+    private static final Instant START = Instant.parse("2022-01-01T00:00:00Z");
+
+    private JdbcTemplate jdbcTemplate;
+    private NtsOutboxEventReplayer outboxEventReplayer;
+
+    @BeforeEach
+    void setup() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:outbox-replay;DB_CLOSE_DELAY=-1", "sa", "");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        for (String table : new String[]{"nts_outbox_events", "nts_outbox_events_archive"}) {
+            jdbcTemplate.execute("drop table if exists " + table);
+            jdbcTemplate.execute("create table " + table + " (" +
+                "id bigint auto_increment primary key, aggregate_type varchar(255) not null, aggregate_id varchar(36) not null, " +
+                "event_type varchar(255) not null, payload clob not null, payload_encoding varchar(20) not null, payload_reference varchar(255), payload_checksum varchar(64), aggregate_version int not null, business_version int not null, " +
+                "actor varchar(255) not null, created_at timestamp not null, published_at timestamp, attempts int not null default 0, " +
+                "next_attempt_at timestamp, last_error varchar(1000), parked_at timestamp)");
+        }
+        for (long id = 1; id <= 7; id++) {
+            insertOutboxEvent("nts_outbox_events_archive", id, id % 3 == 0 ? "invoice" : "order");
+        }
+        // archived while being read, present in both tables
+        insertOutboxEvent("nts_outbox_events", 7, "order");
+        for (long id = 8; id <= 15; id++) {
+            insertOutboxEvent("nts_outbox_events", id, id % 3 == 0 ? "invoice" : "order");
+        }
+        outboxEventReplayer = new NtsOutboxEventReplayer(jdbcTemplate, "nts_outbox_events_archive", 3, 2);
+    }
+
+    @Test
+    void testReplayAllAfterId() {
+        assertThat(ids(outboxEventReplayer.replayAfterId(NtsOutboxEventReplayer.Source.ALL, null, 0).collect(Collectors.toList())))
+            .containsExactly(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L, 11L, 12L, 13L, 14L, 15L);
+        assertThat(ids(outboxEventReplayer.replayAfterId(NtsOutboxEventReplayer.Source.ALL, "invoice", 3).collect(Collectors.toList())))
+            .containsExactly(6L, 9L, 12L, 15L);
+    }
+
+    @Test
+    void testReplaySingleTable() {
+        assertThat(ids(outboxEventReplayer.replayAfterId(NtsOutboxEventReplayer.Source.OUTBOX, "order", 0).collect(Collectors.toList())))
+            .containsExactly(7L, 8L, 10L, 11L, 13L, 14L);
+        assertThat(ids(outboxEventReplayer.replayAfterId(NtsOutboxEventReplayer.Source.ARCHIVE, null, 5).collect(Collectors.toList())))
+            .containsExactly(6L, 7L);
+    }
+
+    @Test
+    void testReplaySince() {
+        List<NtsOutboxEventEntity> outboxEvents = outboxEventReplayer
+            .replaySince(NtsOutboxEventReplayer.Source.ALL, "order", START.plus(4, ChronoUnit.HOURS))
+            .limit(3)
+            .collect(Collectors.toList());
+
+        assertThat(ids(outboxEvents)).containsExactly(4L, 5L, 7L);
+        assertThat(outboxEvents.get(0).getCreatedAt()).isEqualTo(START.plus(4, ChronoUnit.HOURS));
+        assertThat(outboxEventReplayer.replaySince(NtsOutboxEventReplayer.Source.ALL, null, START.plus(30, ChronoUnit.DAYS))).isEmpty();
+    }
+
+    @Test
+    void testReactiveReplay() {
+        NtsOutboxEventReactiveReplayer reactiveReplayer = new NtsOutboxEventReactiveReplayer(outboxEventReplayer);
+
+        List<NtsOutboxEventEntity> outboxEvents = reactiveReplayer.replayAfterId(NtsOutboxEventReplayer.Source.ALL, "invoice", 0)
+            .collectList()
+            .block();
+
+        assertThat(ids(outboxEvents)).containsExactly(3L, 6L, 9L, 12L, 15L);
+    }
+
+    private void insertOutboxEvent(String table, long id, String aggregateType) {
+        jdbcTemplate.update("insert into " + table + " (id, aggregate_type, aggregate_id, event_type, payload, payload_encoding, " +
+                "aggregate_version, business_version, actor, created_at, published_at) values (?, ?, ?, 'created', '{}', 'JSON', 1, 1, 'system', ?, ?)",
+            id, aggregateType, String.valueOf(id), Timestamp.from(START.plus(id, ChronoUnit.HOURS)), Timestamp.from(START));
+    }
+
+    private static List<Long> ids(List<NtsOutboxEventEntity> outboxEvents) {
+        return outboxEvents.stream().map(NtsOutboxEventEntity::getId).collect(Collectors.toList());
+    }
+}
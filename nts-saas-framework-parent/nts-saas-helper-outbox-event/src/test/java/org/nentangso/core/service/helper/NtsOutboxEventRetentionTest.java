@@ -0,0 +1,127 @@
+package org.nentangso.core.service.helper;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Test class for the {@link NtsOutboxEventRetention}.
+ */
+class NtsOutboxEventRetentionTest {
+    private DriverManagerDataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setup() {
+        dataSource = new DriverManagerDataSource("jdbc:h2:mem:outbox-retention;DB_CLOSE_DELAY=-1", "sa", "");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        for (String table : new String[]{"nts_outbox_events", "nts_outbox_events_archive"}) {
+            jdbcTemplate.execute("drop table if exists " + table);
+            jdbcTemplate.execute("create table " + table + " (" +
+                "id bigint auto_increment primary key, aggregate_type varchar(255) not null, aggregate_id varchar(36) not null, " +
+                "event_type varchar(255) not null, payload clob not null, payload_encoding varchar(20) not null, payload_reference varchar(255), payload_checksum varchar(64), aggregate_version int not null, business_version int not null, " +
+                "actor varchar(255) not null, created_at timestamp not null, published_at timestamp, attempts int not null, " +
+                "next_attempt_at timestamp, last_error varchar(1000), parked_at timestamp)");
+        }
+        Instant now = Instant.now();
+        for (int i = 0; i < 25; i++) {
+            insertOutboxEvent(now.minus(30, ChronoUnit.DAYS), now.minus(20, ChronoUnit.DAYS));
+        }
+        insertOutboxEvent(now.minus(30, ChronoUnit.DAYS), null);
+        insertOutboxEvent(now.minus(2, ChronoUnit.DAYS), now.minus(1, ChronoUnit.DAYS));
+    }
+
+    @Test
+    void testArchiveInChunks() {
+        NtsOutboxEventRetention retention = createRetention(NtsOutboxEventRetention.Mode.ARCHIVE);
+
+        assertThat(retention.run()).isEqualTo(25);
+        assertThat(count("nts_outbox_events")).isEqualTo(2);
+        assertThat(count("nts_outbox_events_archive")).isEqualTo(25);
+        assertThat(jdbcTemplate.queryForObject("select count(*) from nts_outbox_events_archive " +
+            "where attempts = 2 and next_attempt_at is not null and last_error = 'timeout'", Integer.class)).isEqualTo(25);
+        assertThat(jdbcTemplate.queryForObject("select count(*) from nts_outbox_events where published_at is null", Integer.class)).isEqualTo(1);
+        assertThat(retention.run()).isZero();
+    }
+
+    @Test
+    void testDelete() {
+        NtsOutboxEventRetention retention = createRetention(NtsOutboxEventRetention.Mode.DELETE);
+
+        assertThat(retention.run()).isEqualTo(25);
+        assertThat(count("nts_outbox_events")).isEqualTo(2);
+        assertThat(count("nts_outbox_events_archive")).isZero();
+    }
+
+    @Test
+    void testDropPartitionWithPayloads(@TempDir Path directory) throws IOException {
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        LocalDate expired = today.minusDays(30);
+        createPartitionCatalog(expired, today.minusDays(2), today, today.plusDays(1), today.plusDays(2), today.plusDays(3));
+        jdbcTemplate.execute("create table nts_outbox_events_" + NtsOutboxEventRetention.PartitionDialect.name(expired) + " (id bigint)");
+        NtsLocalOutboxPayloadStore payloadStore = new NtsLocalOutboxPayloadStore(directory.toString());
+        String payloadReference = payloadStore.store(new byte[]{1});
+        jdbcTemplate.update("update nts_outbox_events set payload_reference = ? where id = 1", payloadReference);
+        NtsOutboxEventRetention retention = new NtsOutboxEventRetention(jdbcTemplate, new DataSourceTransactionManager(dataSource),
+            Optional.of(payloadStore), NtsOutboxEventRetention.Mode.PARTITION, Duration.ofDays(7), 10, Duration.ZERO,
+            Duration.ofMinutes(1), "nts_outbox_events_archive", NtsOutboxEventRetention.PartitionDialect.POSTGRESQL, 3);
+
+        assertThat(retention.run()).isZero();
+        payloadStore.open(payloadReference).close();
+
+        jdbcTemplate.update("update nts_outbox_events set published_at = ? where published_at is null", Timestamp.from(Instant.now()));
+        assertThat(retention.run()).isEqualTo(1);
+        assertThatThrownBy(() -> payloadStore.open(payloadReference)).isInstanceOf(IOException.class);
+        assertThat(jdbcTemplate.queryForObject("select count(*) from information_schema.tables where lower(table_name) = ?",
+            Integer.class, "nts_outbox_events_" + NtsOutboxEventRetention.PartitionDialect.name(expired))).isZero();
+    }
+
+    /**
+     * Stand-in for the PostgreSQL catalog read by {@link NtsOutboxEventRetention.PartitionDialect#POSTGRESQL}.
+     */
+    private void createPartitionCatalog(LocalDate... days) {
+        jdbcTemplate.execute("drop table if exists pg_class");
+        jdbcTemplate.execute("drop table if exists pg_inherits");
+        jdbcTemplate.execute("create table pg_class (oid int primary key, relname varchar(255))");
+        jdbcTemplate.execute("create table pg_inherits (inhrelid int, inhparent int)");
+        jdbcTemplate.update("insert into pg_class values (0, 'nts_outbox_events')");
+        for (int i = 0; i < days.length; i++) {
+            jdbcTemplate.update("insert into pg_class values (?, ?)", i + 1, "nts_outbox_events_" + NtsOutboxEventRetention.PartitionDialect.name(days[i]));
+            jdbcTemplate.update("insert into pg_inherits values (?, 0)", i + 1);
+        }
+    }
+
+    private NtsOutboxEventRetention createRetention(NtsOutboxEventRetention.Mode mode) {
+        return new NtsOutboxEventRetention(jdbcTemplate, new DataSourceTransactionManager(dataSource), Optional.empty(), mode,
+            Duration.ofDays(7), 10, Duration.ZERO, Duration.ofMinutes(1), "nts_outbox_events_archive",
+            NtsOutboxEventRetention.PartitionDialect.POSTGRESQL, 3);
+    }
+
+    private void insertOutboxEvent(Instant createdAt, Instant publishedAt) {
+        jdbcTemplate.update("insert into nts_outbox_events (aggregate_type, aggregate_id, event_type, payload, payload_encoding, " +
+                "aggregate_version, business_version, actor, created_at, published_at, attempts, next_attempt_at, last_error) " +
+                "values ('order', '1', 'created', '{}', 'JSON', 1, 1, 'system', ?, ?, 2, ?, 'timeout')",
+            Timestamp.from(createdAt), publishedAt == null ? null : Timestamp.from(publishedAt), Timestamp.from(createdAt));
+    }
+
+    private int count(String table) {
+        Integer count = jdbcTemplate.queryForObject("select count(*) from " + table, Integer.class);
+        return count == null ? 0 : count;
+    }
+}
@@ -0,0 +1,247 @@
+package org.nentangso.core.service.helper;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.nentangso.core.config.NtsConstants;
+import org.nentangso.core.domain.NtsOutboxEventEncoding;
+import org.nentangso.core.domain.NtsOutboxEventEntity;
+import org.nentangso.core.repository.NtsOutboxEventJdbcRepository;
+import org.nentangso.core.service.dto.NtsWebHookMessageDTO;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test class for the {@link NtsWebHookDeliveryEngine}, against a local stub HTTP server and an in-memory outbox table.
+ */
+class NtsWebHookDeliveryEngineTest {
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private final List<Request> requests = new CopyOnWriteArrayList<>();
+    private volatile Function<Integer, Integer> statusByRequest = n -> 200;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private volatile long handlerDelay = 0;
+    private SimpleMeterRegistry meterRegistry;
+    private JdbcTemplate jdbcTemplate;
+    private NtsOutboxEventJdbcRepository outboxEventJdbcRepository;
+    private NtsOutboxEventCodec outboxEventCodec;
+    private NtsWebHookDeliveryEngine engine;
+
+    @BeforeEach
+    void setup() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        serverExecutor = Executors.newFixedThreadPool(8);
+        server.setExecutor(serverExecutor);
+        server.createContext("/hooks", this::handle);
+        server.start();
+        meterRegistry = new SimpleMeterRegistry();
+        jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource("jdbc:h2:mem:outbox-web-hook;DB_CLOSE_DELAY=-1", "sa", ""));
+        jdbcTemplate.execute("drop table if exists nts_outbox_events");
+        jdbcTemplate.execute("create table nts_outbox_events (" +
+            "id bigint primary key, aggregate_type varchar(255) not null, aggregate_id varchar(36) not null, " +
+            "event_type varchar(255) not null, payload clob not null, payload_encoding varchar(20) not null, payload_reference varchar(255), payload_checksum varchar(64), aggregate_version int not null, business_version int not null, " +
+            "actor varchar(255) not null, created_at timestamp not null, published_at timestamp, attempts int not null, " +
+            "next_attempt_at timestamp, last_error varchar(1000), parked_at timestamp)");
+        outboxEventJdbcRepository = new NtsOutboxEventJdbcRepository(jdbcTemplate, 100);
+        outboxEventCodec = new NtsOutboxEventCodec(new ObjectMapper(), Optional.empty(), NtsOutboxEventEncoding.JSON, 1024, 32768);
+        engine = createEngine(2, 100);
+    }
+
+    @AfterEach
+    void cleanup() {
+        engine.destroy();
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Test
+    void testDeliverSignedOutboxEvent() throws Exception {
+        long id = insertOutboxEvent(new NtsWebHookMessageDTO(url(), "orders/create", "{\"id\":1}"));
+
+        assertThat(engine.dispatch()).isEqualTo(1);
+        awaitPublished(id);
+
+        assertThat(requests).hasSize(1);
+        Request request = requests.get(0);
+        assertThat(request.body).isEqualTo("{\"id\":1}");
+        assertThat(request.retries).isEqualTo("0");
+        assertThat(request.topic).isEqualTo("orders/create");
+        assertThat(request.signature).isEqualTo(engine.sign("{\"id\":1}".getBytes(StandardCharsets.UTF_8)));
+        assertThat(meterRegistry.get("nts.webhook.delivered").counter().count()).isEqualTo(1);
+        assertThat(engine.dispatch()).isZero();
+    }
+
+    @Test
+    void testRetryWithBackoff() throws Exception {
+        statusByRequest = n -> n < 2 ? 503 : 200;
+        long id = insertOutboxEvent(new NtsWebHookMessageDTO(url(), "orders/create", "{}"));
+
+        awaitPublished(id);
+
+        assertThat(requests).extracting(request -> request.retries).containsExactly("0", "1", "2");
+        assertThat(jdbcTemplate.queryForObject("select attempts from nts_outbox_events where id = ?", Integer.class, id)).isEqualTo(2);
+        assertThat(meterRegistry.get("nts.webhook.retried").counter().count()).isEqualTo(2);
+        assertThat(meterRegistry.get("nts.webhook.request").tag("status", "5xx").timer().count()).isEqualTo(2);
+    }
+
+    @Test
+    void testClientErrorIsParked() throws Exception {
+        statusByRequest = n -> 400;
+        long id = insertOutboxEvent(new NtsWebHookMessageDTO(url(), "orders/create", "{}"));
+
+        engine.dispatch();
+        await(() -> jdbcTemplate.queryForObject("select count(*) from nts_outbox_events where id = ? and parked_at is not null",
+            Integer.class, id) == 1);
+
+        assertThat(requests).hasSize(1);
+        assertThat(jdbcTemplate.queryForObject("select last_error from nts_outbox_events where id = ?", String.class, id)).isEqualTo("status 400");
+        assertThat(meterRegistry.get("nts.webhook.failed").counter().count()).isEqualTo(1);
+        assertThat(engine.dispatch()).isZero();
+    }
+
+    @Test
+    void testConcurrencyPerEndpoint() throws Exception {
+        handlerDelay = 100;
+        for (int i = 0; i < 6; i++) {
+            insertOutboxEvent(new NtsWebHookMessageDTO(url(), "orders/create", "{}"));
+        }
+
+        assertThat(engine.dispatch()).isEqualTo(6);
+        await(() -> countPublished() == 6);
+
+        assertThat(requests).hasSize(6);
+        assertThat(maxInFlight.get()).isLessThanOrEqualTo(2);
+    }
+
+    @Test
+    void testDeferWhenEndpointQueueIsFull() throws Exception {
+        engine.destroy();
+        engine = createEngine(1, 1);
+        handlerDelay = 100;
+        for (int i = 0; i < 4; i++) {
+            insertOutboxEvent(new NtsWebHookMessageDTO(url(), "orders/create", "{}"));
+        }
+
+        assertThat(engine.dispatch()).isEqualTo(4);
+        assertThat(meterRegistry.get("nts.webhook.deferred").counter().count()).isEqualTo(2);
+        await(() -> countPublished() == 2);
+        await(() -> {
+            engine.dispatch();
+            return countPublished() == 4;
+        });
+
+        assertThat(jdbcTemplate.queryForObject("select max(attempts) from nts_outbox_events", Integer.class)).isZero();
+        assertThat(maxInFlight.get()).isEqualTo(1);
+    }
+
+    @Test
+    void testSecretIsRequired() {
+        assertThatThrownBy(() -> new NtsWebHookDeliveryEngine(outboxEventJdbcRepository, new NtsOutboxEventSignal(), outboxEventCodec,
+            meterRegistryProvider(), "", 2, 100, 3, 20, 1000, 1000, 5000, 100, 10, Duration.ofMinutes(1)))
+            .isInstanceOf(IllegalStateException.class);
+    }
+
+    private NtsWebHookDeliveryEngine createEngine(int maxConcurrencyPerEndpoint, int maxQueuePerEndpoint) {
+        return new NtsWebHookDeliveryEngine(outboxEventJdbcRepository, new NtsOutboxEventSignal(), outboxEventCodec,
+            meterRegistryProvider(), "secret", maxConcurrencyPerEndpoint, maxQueuePerEndpoint, 3, 20, 1000, 1000, 5000, 100, 10,
+            Duration.ofMinutes(1));
+    }
+
+    @SuppressWarnings("unchecked")
+    private ObjectProvider<MeterRegistry> meterRegistryProvider() {
+        ObjectProvider<MeterRegistry> meterRegistryProvider = mock(ObjectProvider.class);
+        when(meterRegistryProvider.getIfAvailable(any())).thenReturn(meterRegistry);
+        return meterRegistryProvider;
+    }
+
+    private long insertOutboxEvent(NtsWebHookMessageDTO message) throws IOException {
+        NtsOutboxEventEntity outboxEvent = new NtsOutboxEventEntity();
+        outboxEvent.setAggregateType(NtsConstants.AGGREGATE_WEB_HOOK);
+        outboxEvent.setAggregateId("1");
+        outboxEvent.setEventType("deliver");
+        outboxEvent.setActor("system");
+        outboxEventCodec.write(outboxEvent, message);
+        outboxEventJdbcRepository.batchInsert(List.of(outboxEvent));
+        return outboxEvent.getId();
+    }
+
+    private int countPublished() {
+        Integer count = jdbcTemplate.queryForObject("select count(*) from nts_outbox_events where published_at is not null", Integer.class);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * Dispatch until the event is published, as the poll thread would.
+     */
+    private void awaitPublished(long id) throws InterruptedException {
+        await(() -> {
+            engine.dispatch();
+            return jdbcTemplate.queryForObject("select count(*) from nts_outbox_events where id = ? and published_at is not null",
+                Integer.class, id) == 1;
+        });
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertThat(System.nanoTime()).as("condition not met in time").isLessThan(deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/hooks";
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        int current = inFlight.incrementAndGet();
+        maxInFlight.accumulateAndGet(current, Math::max);
+        try {
+            Request request = new Request();
+            request.body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            request.retries = exchange.getRequestHeaders().getFirst(NtsConstants.HEADER_RETRIES);
+            request.topic = exchange.getRequestHeaders().getFirst(NtsConstants.HEADER_TOPIC);
+            request.signature = exchange.getRequestHeaders().getFirst(NtsConstants.HEADER_HMAC_SHA256);
+            int status = statusByRequest.apply(requests.size());
+            requests.add(request);
+            if (handlerDelay > 0) Thread.sleep(handlerDelay);
+            exchange.sendResponseHeaders(status, -1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            inFlight.decrementAndGet();
+            exchange.close();
+        }
+    }
+
+    private static class Request {
+        private String body;
+        private String retries;
+        private String topic;
+        private String signature;
+    }
+}
@@ -0,0 +1,25 @@
+package org.nentangso.core.service.helper;
+
+import java.util.Map;
+
+/**
+ * Batched loader of one resource type for {@link NtsGlobalIdResolver}.
+ * <p>
+ * Declare implementations as beans, or register them with {@link NtsGlobalIdResolver#register(NtsGlobalIdLoader)}.
+ *
+ * @param <T> the resource type
+ */
+public interface NtsGlobalIdLoader<T> {
+    /**
+     * @return the resource name of the global ids, such as {@code Product} for {@code gid://shop/Product/1}
+     */
+    String getResourceName();
+
+    /**
+     * Load resources with one query.
+     *
+     * @param ids the legacy ids, distinct
+     * @return the resources by legacy id, ids not found are left out
+     */
+    Map<Long, ? extends T> load(long[] ids);
+}
@@ -0,0 +1,166 @@
+package org.nentangso.core.service.helper;
+
+import org.nentangso.core.service.utils.NtsGlobalIdCodec;
+import org.nentangso.core.service.utils.NtsGlobalIdUtils;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Resolves lists of global ids of mixed resource types, such as {@code gid://shop/Product/1, gid://shop/Order/9}.
+ * <p>
+ * Ids are grouped by resource name and each group is loaded with one call of its {@link NtsGlobalIdLoader}.
+ * When several resource types are requested, the groups are offered to the {@code taskExecutor} while the calling thread
+ * loads them in order, taking over each group no executor thread has started: a saturated or rejecting executor, even one
+ * the caller runs on, only slows the resolution down. Loaders running on the executor do not see the caller's transaction
+ * or other thread-bound state.
+ * <p>
+ * Resource names read from global ids are only cached by {@link NtsGlobalIdCodec} once registered with a loader.
+ */
+@SuppressWarnings("unused")
+@Service
+public class NtsGlobalIdResolver {
+    private final Map<String, Registration> registrations = new ConcurrentHashMap<>();
+    private final Executor executor;
+
+    public NtsGlobalIdResolver(
+        ObjectProvider<NtsGlobalIdLoader<?>> loaders,
+        @Qualifier("taskExecutor") Optional<Executor> executor
+    ) {
+        loaders.orderedStream().forEach(this::register);
+        this.executor = executor.orElse(null);
+    }
+
+    /**
+     * Register the loader of a resource type.
+     *
+     * @param loader the loader
+     * @throws IllegalStateException if another loader is registered for the resource name
+     */
+    public void register(NtsGlobalIdLoader<?> loader) {
+        NtsGlobalIdCodec codec = NtsGlobalIdCodec.of(loader.getResourceName());
+        Registration existing = registrations.putIfAbsent(codec.getResourceName(), new Registration(loader, codec));
+        if (existing != null && existing.loader != loader) {
+            throw new IllegalStateException("Duplicate global id loader: " + codec.getResourceName());
+        }
+    }
+
+    /**
+     * Load the resources of global ids.
+     *
+     * @param globalIds the global ids, of any registered resource types
+     * @return the resources in the order of the global ids, null for blank ids, unknown resource types and ids not found
+     * @throws IllegalArgumentException if a global id is invalid
+     */
+    public List<Object> resolve(List<String> globalIds) {
+        if (globalIds == null || globalIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        int size = globalIds.size();
+        String[] resourceNames = new String[size];
+        long[] localIds = new long[size];
+        Map<String, Group> groups = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+            String globalId = globalIds.get(i);
+            String resourceName = NtsGlobalIdUtils.getResourceName(globalId);
+            if (resourceName == null) continue;
+            Registration registration = registrations.get(resourceName);
+            if (registration == null) {
+                // validated without caching the resource name of the client
+                NtsGlobalIdCodec.uncached(resourceName).toLocalId(globalId);
+                continue;
+            }
+            localIds[i] = registration.codec.toLocalId(globalId);
+            resourceNames[i] = resourceName;
+            groups.computeIfAbsent(resourceName, key -> new Group(registration.loader)).add(localIds[i]);
+        }
+        load(groups.values());
+        List<Object> resources = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            resources.add(resourceNames[i] == null ? null : groups.get(resourceNames[i]).resources.get(localIds[i]));
+        }
+        return resources;
+    }
+
+    private void load(Collection<Group> groups) {
+        if (executor != null && groups.size() > 1) {
+            for (Group group : groups) {
+                try {
+                    executor.execute(group::run);
+                } catch (RejectedExecutionException e) {
+                    // the calling thread loads it below
+                }
+            }
+        }
+        for (Group group : groups) {
+            group.run();
+        }
+        for (Group group : groups) {
+            try {
+                group.done.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+    }
+
+    private static final class Registration {
+        private final NtsGlobalIdLoader<?> loader;
+        private final NtsGlobalIdCodec codec;
+
+        Registration(NtsGlobalIdLoader<?> loader, NtsGlobalIdCodec codec) {
+            this.loader = loader;
+            this.codec = codec;
+        }
+    }
+
+    private static final class Group {
+        private final NtsGlobalIdLoader<?> loader;
+        private final Set<Long> ids = new LinkedHashSet<>();
+        private final AtomicBoolean started = new AtomicBoolean(false);
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private Map<Long, ?> resources = Collections.emptyMap();
+
+        Group(NtsGlobalIdLoader<?> loader) {
+            this.loader = loader;
+        }
+
+        void add(long id) {
+            ids.add(id);
+        }
+
+        /**
+         * Load the group, unless another thread started it.
+         */
+        void run() {
+            if (!started.compareAndSet(false, true)) return;
+            try {
+                load();
+                done.complete(null);
+            } catch (Throwable e) {
+                done.completeExceptionally(e);
+            }
+        }
+
+        private void load() {
+            long[] distinctIds = new long[ids.size()];
+            int index = 0;
+            for (Long id : ids) {
+                distinctIds[index++] = id;
+            }
+            Map<Long, ?> loaded = loader.load(distinctIds);
+            resources = loaded == null ? Collections.emptyMap() : loaded;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package org.nentangso.core.service.helper;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test class for the {@link NtsGlobalIdResolver}.
+ */
+class NtsGlobalIdResolverTest {
+    private ExecutorService executor;
+    private RecordingLoader products;
+    private RecordingLoader orders;
+    private NtsGlobalIdResolver resolver;
+
+    @BeforeEach
+    void setup() {
+        executor = Executors.newFixedThreadPool(2);
+        products = new RecordingLoader("Product");
+        orders = new RecordingLoader("Order");
+        @SuppressWarnings("unchecked")
+        ObjectProvider<NtsGlobalIdLoader<?>> loaders = mock(ObjectProvider.class);
+        when(loaders.orderedStream()).thenReturn(Stream.of(products, orders));
+        resolver = new NtsGlobalIdResolver(loaders, Optional.of(executor));
+    }
+
+    @AfterEach
+    void cleanup() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void testResolveInInputOrderWithOneCallPerResource() {
+        List<Object> resources = resolver.resolve(Arrays.asList(
+            "gid://shop/Product/1", "gid://shop/Order/9", null, "gid://shop/Product/2",
+            "gid://shop/Product/1", "gid://shop/Variant/5", "gid://shop/Order/404"));
+
+        assertThat(resources).containsExactly("Product#1", "Order#9", null, "Product#2", "Product#1", null, null);
+        assertThat(products.calls).containsExactly(List.of(1L, 2L));
+        assertThat(orders.calls).containsExactly(List.of(9L, 404L));
+    }
+
+    @Test
+    void testLoadResourcesInParallel() throws Exception {
+        CountDownLatch bothStarted = new CountDownLatch(2);
+        products.latch = bothStarted;
+        orders.latch = bothStarted;
+
+        List<Object> resources = resolver.resolve(List.of("gid://shop/Product/1", "gid://shop/Order/2"));
+
+        assertThat(resources).containsExactly("Product#1", "Order#2");
+        assertThat(products.threads).doesNotContainAnyElementsOf(orders.threads);
+    }
+
+    @Test
+    void testSaturatedOrRejectingExecutor() throws Exception {
+        ExecutorService saturated = Executors.newSingleThreadExecutor();
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            saturated.execute(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            List<String> globalIds = List.of("gid://shop/Product/1", "gid://shop/Order/2");
+            Future<List<Object>> resources = saturated.submit(() -> createResolver(saturated).resolve(globalIds));
+
+            assertThat(createResolver(saturated).resolve(globalIds)).containsExactly("Product#1", "Order#2");
+            release.countDown();
+            assertThat(resources.get(5, TimeUnit.SECONDS)).containsExactly("Product#1", "Order#2");
+        } finally {
+            saturated.shutdownNow();
+        }
+
+        Executor rejecting = command -> {
+            throw new RejectedExecutionException();
+        };
+        assertThat(createResolver(rejecting).resolve(List.of("gid://shop/Product/1", "gid://shop/Order/2")))
+            .containsExactly("Product#1", "Order#2");
+    }
+
+    @Test
+    void testInvalidGlobalIdAndDuplicateLoader() {
+        assertThatThrownBy(() -> resolver.resolve(List.of("gid://shop/Product/x"))).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> resolver.resolve(List.of("Product/1"))).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> resolver.resolve(List.of("gid://shop/Variant/x"))).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> resolver.resolve(List.of("gid://shop/Vari-ant/1"))).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> resolver.register(new RecordingLoader("Product"))).isInstanceOf(IllegalStateException.class);
+        assertThat(products.calls).isEmpty();
+    }
+
+    private NtsGlobalIdResolver createResolver(Executor executor) {
+        @SuppressWarnings("unchecked")
+        ObjectProvider<NtsGlobalIdLoader<?>> loaders = mock(ObjectProvider.class);
+        when(loaders.orderedStream()).thenReturn(Stream.of(new RecordingLoader("Product"), new RecordingLoader("Order")));
+        return new NtsGlobalIdResolver(loaders, Optional.of(executor));
+    }
+
+    private static final class RecordingLoader implements NtsGlobalIdLoader<String> {
+        private final String resourceName;
+        private final List<List<Long>> calls = new CopyOnWriteArrayList<>();
+        private final Set<String> threads = ConcurrentHashMap.newKeySet();
+        private volatile CountDownLatch latch;
+
+        RecordingLoader(String resourceName) {
+            this.resourceName = resourceName;
+        }
+
+        @Override
+        public String getResourceName() {
+            return resourceName;
+        }
+
+        @Override
+        public Map<Long, String> load(long[] ids) {
+            calls.add(LongStream.of(ids).boxed().collect(Collectors.toList()));
+            threads.add(Thread.currentThread().getName());
+            if (latch != null) {
+                latch.countDown();
+                try {
+                    assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            return LongStream.of(ids)
+                .filter(id -> id != 404L)
+                .boxed()
+                .collect(Collectors.toMap(id -> id, id -> resourceName + "#" + id));
+        }
+    }
+}
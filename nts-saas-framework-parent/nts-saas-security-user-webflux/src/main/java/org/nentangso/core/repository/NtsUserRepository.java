@@ -1,11 +1,20 @@
 package org.nentangso.core.repository;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
-import org.apache.commons.beanutils.BeanComparator;
 import org.nentangso.core.domain.NtsAuthority;
 import org.nentangso.core.domain.NtsUserEntity;
+import org.nentangso.core.service.dto.NtsUserDTO;
 import org.springframework.data.domain.*;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.r2dbc.convert.R2dbcConverter;
@@ -30,6 +39,12 @@ public interface NtsUserRepository extends R2dbcRepository<NtsUserEntity, String
 
     Flux<NtsUserEntity> findAllByIdNotNullAndActivatedIsTrue(Pageable pageable);
 
+    /**
+     * Activated users projected on a DTO, such as {@link NtsUserDTO}: only the parameters of its persistence constructor
+     * are selected and rows are read straight into DTOs.
+     */
+    <T> Flux<T> findAllByActivatedIsTrue(Pageable pageable, Class<T> type);
+
     Mono<Long> count();
 
     @Query("INSERT INTO nts_user_authority VALUES(:userId, :authority)")
@@ -48,10 +63,38 @@ interface NtsUserRepositoryInternal {
     Mono<NtsUserEntity> create(NtsUserEntity user);
 
     Flux<NtsUserEntity> findAllWithAuthorities(Pageable pageable);
+
+    Mono<Map<String, Set<String>>> findAuthorityNamesByUserIds(Collection<String> userIds);
+
+    Mono<Void> syncUserAuthorities(Map<String, ? extends Collection<String>> authoritiesByUserId);
 }
 
 class NtsUserRepositoryInternalImpl implements NtsUserRepositoryInternal {
 
+    /**
+     * User properties allowed in the sort of {@link #findAllWithAuthorities(Pageable)}, mapped to their columns by the
+     * entity template
+     */
+    static final Set<String> SORTABLE_PROPERTIES = Set.of(
+        "id",
+        "login",
+        "firstName",
+        "lastName",
+        "email",
+        "activated",
+        "langKey",
+        "imageUrl",
+        "createdBy",
+        "createdAt",
+        "updatedBy",
+        "updatedAt"
+    );
+
+    /**
+     * Maximum number of bind parameters pairs of one multi-row insert, and of user ids of one {@code IN} query
+     */
+    static final int BATCH_SIZE = 500;
+
     private final DatabaseClient db;
     private final R2dbcEntityTemplate r2dbcEntityTemplate;
     private final R2dbcConverter r2dbcConverter;
@@ -67,33 +110,33 @@ class NtsUserRepositoryInternalImpl implements NtsUserRepositoryInternal {
         return findOneWithAuthoritiesBy("login", login);
     }
 
+    /**
+     * Page of users with their authorities, in two statements: the page of users is sorted, limited and offset in SQL,
+     * then the authorities of these users only are read with one {@code IN} query.
+     *
+     * @param pageable the page, sorted by the properties of {@link #SORTABLE_PROPERTIES}
+     * @return the users of the page, in page order
+     * @throws IllegalArgumentException if the sort has a property that is not sortable
+     */
     @Override
     public Flux<NtsUserEntity> findAllWithAuthorities(Pageable pageable) {
-        String property = pageable.getSort().stream().map(Sort.Order::getProperty).findFirst().orElse("id");
-        String direction = String.valueOf(
-            pageable.getSort().stream().map(Sort.Order::getDirection).findFirst().orElse(Sort.DEFAULT_DIRECTION)
-        );
-        long page = pageable.getPageNumber();
-        long size = pageable.getPageSize();
-
-        return db
-            .sql("SELECT * FROM nts_user u LEFT JOIN nts_user_authority ua ON u.id=ua.user_id")
-            .map((row, metadata) ->
-                Tuples.of(
-                    r2dbcConverter.read(NtsUserEntity.class, row, metadata),
-                    Optional.ofNullable(row.get("authority_name", String.class))
-                )
-            )
-            .all()
-            .groupBy(t -> t.getT1().getLogin())
-            .flatMap(l -> l.collectList().map(t -> updateUserWithAuthorities(t.get(0).getT1(), t)))
-            .sort(
-                Sort.Direction.fromString(direction) == Sort.DEFAULT_DIRECTION
-                    ? new BeanComparator<>(property)
-                    : new BeanComparator<>(property).reversed()
-            )
-            .skip(page * size)
-            .take(size);
+        org.springframework.data.relational.core.query.Query query = org.springframework.data.relational.core.query.Query
+            .empty()
+            .sort(toUserSort(pageable.getSort()));
+        if (pageable.isPaged()) {
+            query = query.limit(pageable.getPageSize()).offset(pageable.getOffset());
+        }
+        return r2dbcEntityTemplate
+            .select(query, NtsUserEntity.class)
+            .collectList()
+            .filter(users -> !users.isEmpty())
+            .flatMapMany(users ->
+                findAuthorityNamesByUserIds(users.stream().map(NtsUserEntity::getId).collect(Collectors.toList()))
+                    .flatMapIterable(authorities -> {
+                        users.forEach(user -> user.setAuthorities(toAuthorities(authorities.get(user.getId()))));
+                        return users;
+                    })
+            );
     }
 
     @Override
@@ -103,7 +146,7 @@ class NtsUserRepositoryInternalImpl implements NtsUserRepositoryInternal {
 
     private Mono<NtsUserEntity> findOneWithAuthoritiesBy(String fieldName, Object fieldValue) {
         return db
-            .sql("SELECT * FROM nts_user u LEFT JOIN nts_user_authority ua ON u.id=ua.user_id WHERE u." + fieldName + " = :" + fieldName)
+            .sql("SELECT * FROM nts_users u LEFT JOIN nts_user_authority ua ON u.id=ua.user_id WHERE u." + fieldName + " = :" + fieldName)
             .bind(fieldName, fieldValue)
             .map((row, metadata) ->
                 Tuples.of(
@@ -117,6 +160,116 @@ class NtsUserRepositoryInternalImpl implements NtsUserRepositoryInternal {
             .map(l -> updateUserWithAuthorities(l.get(0).getT1(), l));
     }
 
+    /**
+     * Authority names of users, with one {@code IN} query per {@link #BATCH_SIZE} users.
+     *
+     * @param userIds the user ids
+     * @return the authority names by user id, users without authority are absent
+     */
+    @Override
+    public Mono<Map<String, Set<String>>> findAuthorityNamesByUserIds(Collection<String> userIds) {
+        if (userIds.isEmpty()) return Mono.just(new HashMap<>());
+        return Flux
+            .fromIterable(partition(new ArrayList<>(userIds)))
+            .concatMap(ids ->
+                db
+                    .sql("SELECT user_id, authority_name FROM nts_user_authority WHERE user_id IN (:userIds)")
+                    .bind("userIds", ids)
+                    .map((row, metadata) -> Tuples.of(row.get("user_id", String.class), row.get("authority_name", String.class)))
+                    .all()
+            )
+            .collect(
+                HashMap::new,
+                (authorities, t) -> authorities.computeIfAbsent(t.getT1(), userId -> new LinkedHashSet<>()).add(t.getT2())
+            );
+    }
+
+    /**
+     * Make the authorities of users equal to the given ones, writing only the difference: one {@code DELETE ... IN}
+     * per user with stale authorities and one multi-row insert per {@link #BATCH_SIZE} missing authorities.
+     *
+     * @param authoritiesByUserId the desired authority names by user id, users absent from the map are not changed
+     * @return a completed {@link Mono}
+     */
+    @Override
+    public Mono<Void> syncUserAuthorities(Map<String, ? extends Collection<String>> authoritiesByUserId) {
+        if (authoritiesByUserId.isEmpty()) return Mono.empty();
+        return findAuthorityNamesByUserIds(authoritiesByUserId.keySet())
+            .flatMap(current -> {
+                List<Tuple2<String, String>> toInsert = new ArrayList<>();
+                Map<String, Set<String>> toDelete = new LinkedHashMap<>();
+                authoritiesByUserId.forEach((userId, authorities) -> {
+                    Set<String> desired = new LinkedHashSet<>(authorities);
+                    Set<String> existing = current.getOrDefault(userId, Collections.emptySet());
+                    for (String authority : desired) {
+                        if (!existing.contains(authority)) {
+                            toInsert.add(Tuples.of(userId, authority));
+                        }
+                    }
+                    for (String authority : existing) {
+                        if (!desired.contains(authority)) {
+                            toDelete.computeIfAbsent(userId, id -> new LinkedHashSet<>()).add(authority);
+                        }
+                    }
+                });
+                return Flux
+                    .fromIterable(toDelete.entrySet())
+                    .concatMap(e ->
+                        db
+                            .sql("DELETE FROM nts_user_authority WHERE user_id = :userId AND authority_name IN (:authorities)")
+                            .bind("userId", e.getKey())
+                            .bind("authorities", e.getValue())
+                            .then()
+                    )
+                    .thenMany(Flux.fromIterable(partition(toInsert)).concatMap(this::insertUserAuthorities))
+                    .then();
+            });
+    }
+
+    private Mono<Void> insertUserAuthorities(List<Tuple2<String, String>> rows) {
+        StringBuilder sql = new StringBuilder("INSERT INTO nts_user_authority (user_id, authority_name) VALUES ");
+        for (int i = 0; i < rows.size(); i++) {
+            if (i > 0) sql.append(", ");
+            sql.append("(:u").append(i).append(", :a").append(i).append(')');
+        }
+        DatabaseClient.GenericExecuteSpec spec = db.sql(sql.toString());
+        for (int i = 0; i < rows.size(); i++) {
+            spec = spec.bind("u" + i, rows.get(i).getT1()).bind("a" + i, rows.get(i).getT2());
+        }
+        return spec.then();
+    }
+
+    private static <T> List<List<T>> partition(List<T> list) {
+        List<List<T>> chunks = new ArrayList<>((list.size() + BATCH_SIZE - 1) / BATCH_SIZE);
+        for (int from = 0; from < list.size(); from += BATCH_SIZE) {
+            chunks.add(list.subList(from, Math.min(from + BATCH_SIZE, list.size())));
+        }
+        return chunks;
+    }
+
+    /**
+     * Check the sort against {@link #SORTABLE_PROPERTIES} and append {@code id} so that pages are stable.
+     */
+    private static Sort toUserSort(Sort sort) {
+        for (Sort.Order order : sort) {
+            if (!SORTABLE_PROPERTIES.contains(order.getProperty())) {
+                throw new IllegalArgumentException("Unsupported user sort property: " + order.getProperty());
+            }
+        }
+        return sort.getOrderFor("id") == null ? sort.and(Sort.by("id")) : sort;
+    }
+
+    private static Set<NtsAuthority> toAuthorities(Set<String> names) {
+        Set<NtsAuthority> authorities = new HashSet<>();
+        if (names == null) return authorities;
+        for (String name : names) {
+            NtsAuthority authority = new NtsAuthority();
+            authority.setName(name);
+            authorities.add(authority);
+        }
+        return authorities;
+    }
+
     private NtsUserEntity updateUserWithAuthorities(NtsUserEntity user, List<Tuple2<NtsUserEntity, Optional<String>>> tuples) {
         user.setAuthorities(
             tuples
@@ -8,8 +8,11 @@ import org.nentangso.core.repository.NtsUserRepository;
 import org.nentangso.core.security.SecurityUtils;
 import org.nentangso.core.service.dto.NtsAdminUserDTO;
 import org.nentangso.core.service.dto.NtsUserDTO;
+import org.nentangso.core.service.utils.NtsFingerprintCache;
+import org.nentangso.core.service.utils.NtsReactiveCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.data.domain.Pageable;
 import org.springframework.security.authentication.AbstractAuthenticationToken;
@@ -17,14 +20,23 @@ import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.oauth2.client.authentication.OAuth2AuthenticationToken;
 import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.NoTransactionException;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.reactive.TransactionSynchronization;
+import org.springframework.transaction.reactive.TransactionSynchronizationManager;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 /**
@@ -34,15 +46,50 @@ import java.util.stream.Collectors;
 @ConditionalOnMissingBean(name = "userService")
 public class NtsUserService {
 
+    /**
+     * Claims used to build the local user, a change of any of them synchronizes the user again
+     */
+    private static final List<String> SYNC_CLAIMS = List.of(
+        "sub",
+        "uid",
+        "preferred_username",
+        "given_name",
+        "name",
+        "family_name",
+        "email_verified",
+        "email",
+        "langKey",
+        "locale",
+        "picture",
+        "updated_at"
+    );
+
     private final Logger log = LoggerFactory.getLogger(NtsUserService.class);
 
     private final NtsUserRepository userRepository;
 
     private final NtsAuthorityRepository authorityRepository;
 
-    public NtsUserService(NtsUserRepository userRepository, NtsAuthorityRepository authorityRepository) {
+    private final NtsFingerprintCache userSyncCache;
+
+    private final NtsReactiveCache<String, NtsUserEntity> usersByLoginCache;
+
+    private final NtsAuthorityCatalog authorityCatalog;
+
+    public NtsUserService(
+        NtsUserRepository userRepository,
+        NtsAuthorityRepository authorityRepository,
+        NtsAuthorityCatalog authorityCatalog,
+        @Value("${nts.security.user.sync-cache.maximum-size:10000}") long syncCacheMaximumSize,
+        @Value("${nts.security.user.sync-cache.ttl:PT10M}") Duration syncCacheTtl,
+        @Value("${nts.security.user.lookup-cache.maximum-size:10000}") long lookupCacheMaximumSize,
+        @Value("${nts.security.user.lookup-cache.ttl:PT1M}") Duration lookupCacheTtl
+    ) {
         this.userRepository = userRepository;
         this.authorityRepository = authorityRepository;
+        this.authorityCatalog = authorityCatalog;
+        this.userSyncCache = new NtsFingerprintCache(syncCacheMaximumSize, syncCacheTtl);
+        this.usersByLoginCache = new NtsReactiveCache<>(lookupCacheMaximumSize, lookupCacheTtl);
     }
 
     /**
@@ -59,7 +106,7 @@ public class NtsUserService {
     public Mono<Void> updateUser(String firstName, String lastName, String email, String langKey, String imageUrl) {
         return SecurityUtils
             .getCurrentUserLogin()
-            .flatMap(userRepository::findOneByLogin)
+            .flatMap(userRepository::findOneWithAuthoritiesByLogin)
             .flatMap(user -> {
                 user.setFirstName(firstName);
                 user.setLastName(lastName);
@@ -79,30 +126,66 @@ public class NtsUserService {
         return saveUser(user, false);
     }
 
+    /**
+     * Save a user and make its stored authorities equal to {@link NtsUserEntity#getAuthorities()}: only missing
+     * authorities are inserted and only stale ones are deleted.
+     *
+     * @param user        the user, with all its authorities.
+     * @param forceCreate insert the user even if it has an id.
+     * @return the saved user.
+     */
     @Transactional
     public Mono<NtsUserEntity> saveUser(NtsUserEntity user, boolean forceCreate) {
+        return saveUsers(List.of(user), forceCreate).single();
+    }
+
+    /**
+     * Save users and make their stored authorities equal to {@link NtsUserEntity#getAuthorities()}, with one read of
+     * the current authorities and batched writes of the difference for all users.
+     * The users are evicted from the lookup cache when saved and again after commit.
+     *
+     * @param users       the users, with all their authorities.
+     * @param forceCreate insert the users even if they have an id.
+     * @return the saved users, in order.
+     */
+    @Transactional
+    public Flux<NtsUserEntity> saveUsers(Collection<NtsUserEntity> users, boolean forceCreate) {
         return SecurityUtils
             .getCurrentUserLogin()
             .switchIfEmpty(Mono.just(NtsConstants.SYSTEM))
-            .flatMap(login -> {
-                if (user.getCreatedBy() == null) {
-                    user.setCreatedBy(login);
-                }
-                user.setUpdatedBy(login);
-                // Saving the relationship can be done in an entity callback
-                // once https://github.com/spring-projects/spring-data-r2dbc/issues/215 is done
-                Mono<NtsUserEntity> persistedUser;
-                if (forceCreate) {
-                    persistedUser = userRepository.create(user);
-                } else {
-                    persistedUser = userRepository.save(user);
-                }
-                return persistedUser.flatMap(savedUser ->
-                    Flux
-                        .fromIterable(user.getAuthorities())
-                        .flatMap(authority -> userRepository.saveUserAuthority(savedUser.getId(), authority.getName()))
-                        .then(Mono.just(savedUser))
+            .flatMapMany(login ->
+                Flux
+                    .fromIterable(users)
+                    .concatMap(user -> {
+                        if (user.getCreatedBy() == null) {
+                            user.setCreatedBy(login);
+                        }
+                        user.setUpdatedBy(login);
+                        // Saving the relationship can be done in an entity callback
+                        // once https://github.com/spring-projects/spring-data-r2dbc/issues/215 is done
+                        Mono<NtsUserEntity> persistedUser = forceCreate ? userRepository.create(user) : userRepository.save(user);
+                        return persistedUser
+                            .doOnNext(savedUser -> {
+                                userSyncCache.invalidate(savedUser.getLogin());
+                                usersByLoginCache.invalidate(savedUser.getLogin());
+                            })
+                            .map(savedUser -> Tuples.of(savedUser, user.getAuthorities()));
+                    })
+            )
+            .collectList()
+            .flatMapMany(savedUsers -> {
+                Map<String, Set<String>> authoritiesByUserId = new LinkedHashMap<>();
+                savedUsers.forEach(t ->
+                    authoritiesByUserId.put(
+                        t.getT1().getId(),
+                        t.getT2().stream().map(NtsAuthority::getName).collect(Collectors.toCollection(LinkedHashSet::new))
+                    )
                 );
+                List<String> logins = savedUsers.stream().map(t -> t.getT1().getLogin()).collect(Collectors.toList());
+                return userRepository
+                    .syncUserAuthorities(authoritiesByUserId)
+                    .then(afterCommit(Mono.fromRunnable(() -> logins.forEach(usersByLoginCache::invalidate))))
+                    .thenMany(Flux.fromIterable(savedUsers).map(Tuple2::getT1));
             });
     }
 
@@ -113,7 +196,7 @@ public class NtsUserService {
 
     @Transactional(readOnly = true)
     public Flux<NtsUserDTO> getAllPublicUsers(Pageable pageable) {
-        return userRepository.findAllByIdNotNullAndActivatedIsTrue(pageable).map(NtsUserDTO::new);
+        return userRepository.findAllByActivatedIsTrue(pageable, NtsUserDTO.class);
     }
 
     @Transactional(readOnly = true)
@@ -121,41 +204,62 @@ public class NtsUserService {
         return userRepository.count();
     }
 
-    @Transactional(readOnly = true)
+    /**
+     * The user with its authorities, from a cache kept for {@code nts.security.user.lookup-cache.ttl}.
+     * Concurrent lookups of a login that is not cached share one query.
+     *
+     * @param login the login of the user.
+     * @return the user, empty if there is no such user.
+     */
     public Mono<NtsUserEntity> getUserWithAuthoritiesByLogin(String login) {
-        return userRepository.findOneWithAuthoritiesByLogin(login);
+        return usersByLoginCache.get(login, userRepository::findOneWithAuthoritiesByLogin);
+    }
+
+    /**
+     * Evict a user from the lookup cache, after it was changed without this service.
+     *
+     * @param login the login of the user.
+     */
+    public void evictUser(String login) {
+        usersByLoginCache.invalidate(login);
     }
 
     /**
-     * Gets a list of all the authorities.
+     * Gets a list of all the authorities, from {@link NtsAuthorityCatalog}.
      *
      * @return a list of all the authorities.
      */
-    @Transactional(readOnly = true)
     public Flux<String> getAuthorities() {
-        return authorityRepository.findAll().map(NtsAuthority::getName);
+        return authorityCatalog.getAuthorities().flatMapIterable(authorities -> authorities);
     }
 
     private Mono<NtsUserEntity> syncUserWithIdP(Map<String, Object> details, NtsUserEntity user) {
         // save authorities in to sync user roles/groups between IdP and JHipster's local database
         Collection<String> userAuthorities = user.getAuthorities().stream().map(NtsAuthority::getName).collect(Collectors.toList());
 
-        return getAuthorities()
-            .collectList()
-            .flatMapMany(dbAuthorities -> {
-                List<NtsAuthority> authoritiesToSave = userAuthorities
+        return authorityCatalog
+            .getAuthorities()
+            .flatMap(catalogAuthorities -> {
+                List<String> newAuthorities = userAuthorities
                     .stream()
-                    .filter(authority -> !dbAuthorities.contains(authority))
+                    .filter(authority -> !catalogAuthorities.contains(authority))
+                    .collect(Collectors.toList());
+                if (newAuthorities.isEmpty()) {
+                    return Mono.empty();
+                }
+                // another instance may have saved them since the catalog was loaded
+                return authorityCatalog
+                    .refresh()
+                    .flatMapMany(dbAuthorities -> Flux.fromIterable(newAuthorities).filter(authority -> !dbAuthorities.contains(authority)))
                     .map(authority -> {
                         NtsAuthority authorityToSave = new NtsAuthority();
                         authorityToSave.setName(authority);
                         return authorityToSave;
                     })
-                    .collect(Collectors.toList());
-                return Flux.fromIterable(authoritiesToSave);
+                    .doOnNext(authority -> log.debug("Saving authority '{}' in local database", authority))
+                    .concatMap(authorityRepository::save)
+                    .then(afterCommit(authorityCatalog.refreshQuietly()));
             })
-            .doOnNext(authority -> log.debug("Saving authority '{}' in local database", authority))
-            .flatMap(authorityRepository::save)
             .then(userRepository.findOneByLogin(user.getLogin()))
             .switchIfEmpty(saveUser(user, true))
             .flatMap(existingUser -> {
@@ -184,7 +288,8 @@ public class NtsUserService {
 
     /**
      * Returns the user from an OAuth 2.0 login or resource server with JWT.
-     * Synchronizes the user in the local repository.
+     * Synchronizes the user in the local repository, unless the same claims and authorities were already synchronized
+     * for this login within {@code nts.security.user.sync-cache.ttl}.
      *
      * @param authToken the authentication token.
      * @return the user from the authentication.
@@ -213,7 +318,41 @@ public class NtsUserService {
                 .collect(Collectors.toSet())
         );
 
-        return syncUserWithIdP(attributes, user).flatMap(u -> Mono.just(new NtsAdminUserDTO(u)));
+        List<String> authorities = user.getAuthorities().stream().map(NtsAuthority::getName).collect(Collectors.toList());
+        long fingerprint = NtsFingerprintCache.fingerprint(attributes, SYNC_CLAIMS, authorities);
+        if (userSyncCache.isUnchanged(user.getLogin(), fingerprint)) {
+            return Mono.just(new NtsAdminUserDTO(user));
+        }
+        return syncUserWithIdP(attributes, user)
+            .flatMap(u -> afterCommit(Mono.fromRunnable(() -> userSyncCache.put(u.getLogin(), fingerprint))).thenReturn(u))
+            .flatMap(u -> Mono.just(new NtsAdminUserDTO(u)));
+    }
+
+    /**
+     * Forget that a user was synchronized with the IdP, so that its next authentication synchronizes it again.
+     *
+     * @param login the login of the user.
+     */
+    public void evictUserSync(String login) {
+        userSyncCache.invalidate(login);
+    }
+
+    private static Mono<Void> afterCommit(Mono<?> action) {
+        return TransactionSynchronizationManager
+            .forCurrentTransaction()
+            .filter(TransactionSynchronizationManager::isSynchronizationActive)
+            .doOnNext(synchronizationManager ->
+                synchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                    @Override
+                    public Mono<Void> afterCommit() {
+                        return action.then();
+                    }
+                })
+            )
+            .map(synchronizationManager -> true)
+            .onErrorResume(NoTransactionException.class, e -> Mono.empty())
+            .switchIfEmpty(action.thenReturn(true))
+            .then();
     }
 
     private static NtsUserEntity getUser(Map<String, Object> details) {
@@ -1,6 +1,7 @@
 package org.nentangso.core.service.dto;
 
 import org.nentangso.core.domain.NtsUserEntity;
+import org.springframework.data.annotation.PersistenceCreator;
 
 import java.io.Serializable;
 
@@ -19,6 +20,15 @@ public class NtsUserDTO implements Serializable {
         // Empty constructor needed for Jackson.
     }
 
+    /**
+     * Constructor of the public user projection, that selects only these columns.
+     */
+    @PersistenceCreator
+    public NtsUserDTO(String id, String login) {
+        this.id = id;
+        this.login = login;
+    }
+
     public NtsUserDTO(NtsUserEntity user) {
         this.id = user.getId();
         // Customize it here if you need, or not, firstName/lastName/etc
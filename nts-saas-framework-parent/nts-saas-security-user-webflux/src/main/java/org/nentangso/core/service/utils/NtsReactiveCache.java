@@ -0,0 +1,73 @@
+package org.nentangso.core.service.utils;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Bounded, time-limited cache of {@link Mono} results by key, with one load in flight per key.
+ * <p>
+ * The first subscriber of a key subscribes the loader, the subscribers that come before it completes share that
+ * subscription and its result, so a burst of lookups of one key runs one query. Values and empty results are kept for
+ * the TTL, errors are not: the next subscriber loads again. {@link #invalidate(Object)} drops the entry, a load in flight
+ * still completes for its subscribers but its result is not kept.
+ * <p>
+ * The loader is subscribed without the context of the subscriber that started it, so it never joins the transaction
+ * of one caller and hands its uncommitted state to the others.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+@SuppressWarnings("unused")
+public class NtsReactiveCache<K, V> {
+    private final Cache<K, Mono<V>> entries;
+    private final Duration ttl;
+
+    /**
+     * @param maximumSize the maximum number of keys, 0 disables the cache
+     * @param ttl         the time a result is kept after it was loaded
+     */
+    public NtsReactiveCache(long maximumSize, Duration ttl) {
+        this.entries = CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(ttl)
+            .build();
+        this.ttl = ttl;
+    }
+
+    /**
+     * @param key    the key
+     * @param loader the loader of the value of a key, subscribed at most once per key at a time
+     * @return the cached or shared result, loaded on subscription if there is none
+     */
+    public Mono<V> get(K key, Function<K, Mono<V>> loader) {
+        return Mono.defer(() -> entries.asMap().computeIfAbsent(key, k -> load(k, loader)));
+    }
+
+    public void invalidate(K key) {
+        entries.invalidate(key);
+    }
+
+    public void invalidateAll() {
+        entries.invalidateAll();
+    }
+
+    public long size() {
+        return entries.size();
+    }
+
+    private Mono<V> load(K key, Function<K, Mono<V>> loader) {
+        AtomicReference<Mono<V>> entry = new AtomicReference<>();
+        entry.set(loader
+            .apply(key)
+            .contextWrite(context -> Context.empty())
+            .doOnError(e -> entries.asMap().remove(key, entry.get()))
+            .cache(value -> ttl, e -> Duration.ZERO, () -> ttl));
+        return entry.get();
+    }
+}
@@ -0,0 +1,119 @@
+package org.nentangso.core.repository;
+
+import io.r2dbc.h2.H2ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.nentangso.core.domain.NtsAuthority;
+import org.nentangso.core.domain.NtsUserEntity;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
+import org.springframework.r2dbc.core.DatabaseClient;
+import reactor.core.publisher.Flux;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class NtsUserRepositoryInternalImplTest {
+    private NtsUserRepositoryInternalImpl repository;
+    private DatabaseClient db;
+
+    @BeforeEach
+    void setUp() {
+        ConnectionFactory connectionFactory = H2ConnectionFactory.inMemory("users-" + UUID.randomUUID());
+        db = DatabaseClient.create(connectionFactory);
+        R2dbcEntityTemplate r2dbcEntityTemplate = new R2dbcEntityTemplate(connectionFactory);
+        repository = new NtsUserRepositoryInternalImpl(db, r2dbcEntityTemplate, r2dbcEntityTemplate.getConverter());
+
+        Flux.just(
+                "create table nts_users (id varchar(100) primary key, login varchar(50) not null, first_name varchar(50), " +
+                    "last_name varchar(50), email varchar(254), activated boolean not null, lang_key varchar(10), " +
+                    "image_url varchar(256), created_by varchar(50), created_at timestamp, updated_by varchar(50), updated_at timestamp)",
+                "create table nts_user_authority (user_id varchar(100) not null, authority_name varchar(50) not null)"
+            )
+            .concatMap(sql -> db.sql(sql).then())
+            .blockLast();
+        Flux.range(1, 12)
+            .concatMap(i -> db.sql("insert into nts_users (id, login, first_name, activated) values (:id, :login, :firstName, true)")
+                .bind("id", String.format("u%02d", i))
+                .bind("login", "user" + i)
+                .bind("firstName", "name-" + (i % 3))
+                .then())
+            .blockLast();
+        Flux.range(1, 12)
+            .filter(i -> i % 2 == 0)
+            .concatMap(i -> db.sql("insert into nts_user_authority values (:userId, 'ROLE_USER'), (:userId, 'ROLE_ADMIN')")
+                .bind("userId", String.format("u%02d", i))
+                .then())
+            .blockLast();
+    }
+
+    @Test
+    void findAllWithAuthorities_sortsAndPagesInSql() {
+        Sort sort = Sort.by(Sort.Order.desc("firstName"));
+
+        List<NtsUserEntity> firstPage = repository.findAllWithAuthorities(PageRequest.of(0, 5, sort)).collectList().block();
+        List<NtsUserEntity> lastPage = repository.findAllWithAuthorities(PageRequest.of(2, 5, sort)).collectList().block();
+
+        assertThat(firstPage).extracting(NtsUserEntity::getId).containsExactly("u02", "u05", "u08", "u11", "u01");
+        assertThat(lastPage).extracting(NtsUserEntity::getId).containsExactly("u09", "u12");
+        assertThat(firstPage.get(0).getAuthorities().stream().map(NtsAuthority::getName).collect(Collectors.toSet()))
+            .containsExactlyInAnyOrder("ROLE_USER", "ROLE_ADMIN");
+        assertThat(firstPage.get(1).getAuthorities()).isEmpty();
+    }
+
+    @Test
+    void findAllWithAuthorities_emptyPage() {
+        assertThat(repository.findAllWithAuthorities(PageRequest.of(5, 5)).collectList().block()).isEmpty();
+    }
+
+    @Test
+    void findAllWithAuthorities_rejectsUnknownSortProperty() {
+        assertThatThrownBy(() -> repository.findAllWithAuthorities(PageRequest.of(0, 5, Sort.by("password"))))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void syncUserAuthorities_writesOnlyTheDifference() {
+        repository.syncUserAuthorities(Map.of(
+            "u02", List.of("ROLE_USER", "ROLE_MANAGER"),
+            "u03", List.of("ROLE_USER"),
+            "u04", List.of()
+        )).block();
+
+        Map<String, Set<String>> authorities = repository.findAuthorityNamesByUserIds(List.of("u02", "u03", "u04", "u06")).block();
+        assertThat(authorities).containsOnlyKeys("u02", "u03", "u06");
+        assertThat(authorities.get("u02")).containsExactlyInAnyOrder("ROLE_USER", "ROLE_MANAGER");
+        assertThat(authorities.get("u03")).containsExactly("ROLE_USER");
+        assertThat(authorities.get("u06")).containsExactlyInAnyOrder("ROLE_USER", "ROLE_ADMIN");
+        assertThat(countUserAuthorities()).isEqualTo(11);
+
+        repository.syncUserAuthorities(Map.of("u02", List.of("ROLE_USER", "ROLE_MANAGER"))).block();
+        assertThat(countUserAuthorities()).isEqualTo(11);
+    }
+
+    @Test
+    void syncUserAuthorities_bulkInsertsInBatches() {
+        Map<String, List<String>> authoritiesByUserId = new LinkedHashMap<>();
+        for (int i = 1; i <= 12; i++) {
+            authoritiesByUserId.put(String.format("u%02d", i), IntStream.range(0, 60).mapToObj(a -> "ROLE_" + a).collect(Collectors.toList()));
+        }
+
+        repository.syncUserAuthorities(authoritiesByUserId).block();
+
+        assertThat(countUserAuthorities()).isEqualTo(12 * 60);
+    }
+
+    private long countUserAuthorities() {
+        return db.sql("select count(*) from nts_user_authority").map(row -> row.get(0, Long.class)).one().block();
+    }
+}
@@ -0,0 +1,59 @@
+package org.nentangso.core.repository;
+
+import io.r2dbc.h2.H2ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.nentangso.core.service.dto.NtsUserDTO;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.r2dbc.core.R2dbcEntityTemplate;
+import org.springframework.data.r2dbc.repository.support.R2dbcRepositoryFactory;
+import org.springframework.data.repository.core.support.RepositoryComposition;
+import org.springframework.r2dbc.core.DatabaseClient;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class NtsUserRepositoryTest {
+    private NtsUserRepository userRepository;
+
+    @BeforeEach
+    void setUp() {
+        ConnectionFactory connectionFactory = H2ConnectionFactory.inMemory("users-" + UUID.randomUUID());
+        DatabaseClient db = DatabaseClient.create(connectionFactory);
+        R2dbcEntityTemplate r2dbcEntityTemplate = new R2dbcEntityTemplate(connectionFactory);
+        userRepository = new R2dbcRepositoryFactory(r2dbcEntityTemplate).getRepository(
+            NtsUserRepository.class,
+            RepositoryComposition.RepositoryFragments.just(
+                new NtsUserRepositoryInternalImpl(db, r2dbcEntityTemplate, r2dbcEntityTemplate.getConverter())
+            )
+        );
+
+        // only the public columns: the projection must not select the others
+        db.sql("create table nts_users (id varchar(100) primary key, login varchar(50) not null, activated boolean not null)")
+            .then()
+            .block();
+        Flux.range(1, 6)
+            .concatMap(i -> db.sql("insert into nts_users (id, login, activated) values (:id, :login, :activated)")
+                .bind("id", "u" + i)
+                .bind("login", "user" + i)
+                .bind("activated", i != 3)
+                .then())
+            .blockLast();
+    }
+
+    @Test
+    void findAllByActivatedIsTrue_projectsOnUserDTO() {
+        List<NtsUserDTO> users = userRepository
+            .findAllByActivatedIsTrue(PageRequest.of(0, 3, Sort.by(Sort.Order.desc("login"))), NtsUserDTO.class)
+            .collectList()
+            .block();
+
+        assertThat(users).extracting(NtsUserDTO::getId).containsExactly("u6", "u5", "u4");
+        assertThat(users).extracting(NtsUserDTO::getLogin).containsExactly("user6", "user5", "user4");
+    }
+}
@@ -0,0 +1,146 @@
+package org.nentangso.core.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.nentangso.core.domain.NtsAuthority;
+import org.nentangso.core.domain.NtsUserEntity;
+import org.nentangso.core.repository.NtsAuthorityRepository;
+import org.nentangso.core.repository.NtsUserRepository;
+import org.nentangso.core.security.NtsSecurityHelper;
+import org.nentangso.core.service.dto.NtsAdminUserDTO;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class NtsUserServiceTest {
+    private NtsUserRepository userRepository;
+    private NtsAuthorityRepository authorityRepository;
+    private NtsUserService userService;
+
+    @BeforeEach
+    void setUp() {
+        new NtsSecurityHelper("roles", "ROLE_").afterPropertiesSet();
+        userRepository = mock(NtsUserRepository.class);
+        authorityRepository = mock(NtsAuthorityRepository.class);
+        Set<NtsAuthority> savedAuthorities = new LinkedHashSet<>();
+        when(authorityRepository.findAll()).thenAnswer(invocation -> Flux.fromIterable(new ArrayList<>(savedAuthorities)));
+        when(authorityRepository.save(any(NtsAuthority.class))).thenAnswer(invocation -> {
+            savedAuthorities.add(invocation.getArgument(0));
+            return Mono.just(invocation.getArgument(0));
+        });
+        when(userRepository.findOneByLogin(anyString())).thenAnswer(invocation -> {
+            NtsUserEntity user = new NtsUserEntity();
+            user.setId("u1");
+            user.setLogin(invocation.getArgument(0));
+            return Mono.just(user);
+        });
+        userService = new NtsUserService(
+            userRepository,
+            authorityRepository,
+            new NtsAuthorityCatalog(authorityRepository, Duration.ofMinutes(5)),
+            100,
+            Duration.ofMinutes(10),
+            100,
+            Duration.ofMinutes(1)
+        );
+    }
+
+    @Test
+    void getUserFromAuthentication_skipsSyncWhenClaimsAreUnchanged() {
+        NtsAdminUserDTO first = userService.getUserFromAuthentication(token("Alice", "ROLE_USER")).block();
+        NtsAdminUserDTO second = userService.getUserFromAuthentication(token("Alice", "ROLE_USER")).block();
+
+        assertThat(first.getLogin()).isEqualTo("alice");
+        assertThat(second.getFirstName()).isEqualTo("Alice");
+        assertThat(second.getAuthorities()).containsExactly("ROLE_USER");
+        verify(userRepository, times(1)).findOneByLogin("alice");
+    }
+
+    @Test
+    void getUserFromAuthentication_readsAuthoritiesFromCatalog() {
+        userService.getUserFromAuthentication(token("Alice", "ROLE_USER")).block();
+        clearInvocations(authorityRepository);
+
+        userService.getUserFromAuthentication(token("Alicia", "ROLE_USER")).block();
+
+        assertThat(userService.getAuthorities().collectList().block()).containsExactly("ROLE_USER");
+        verify(authorityRepository, never()).findAll();
+        verify(authorityRepository, never()).save(any(NtsAuthority.class));
+    }
+
+    @Test
+    void getUserFromAuthentication_syncsAgainWhenClaimsChangeOrAfterEviction() {
+        userService.getUserFromAuthentication(token("Alice", "ROLE_USER")).block();
+        userService.getUserFromAuthentication(token("Alicia", "ROLE_USER")).block();
+        userService.getUserFromAuthentication(token("Alicia", "ROLE_ADMIN")).block();
+        userService.evictUserSync("alice");
+        userService.getUserFromAuthentication(token("Alicia", "ROLE_ADMIN")).block();
+
+        verify(userRepository, times(4)).findOneByLogin("alice");
+    }
+
+    @Test
+    void getUserWithAuthoritiesByLogin_sharesOneQueryAndIsEvictedOnSave() {
+        AtomicInteger queries = new AtomicInteger();
+        Sinks.One<NtsUserEntity> result = Sinks.one();
+        when(userRepository.findOneWithAuthoritiesByLogin("alice")).thenAnswer(invocation -> {
+            queries.incrementAndGet();
+            return queries.get() == 1 ? result.asMono() : Mono.just(user("alice"));
+        });
+        when(userRepository.save(any(NtsUserEntity.class))).thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+        when(userRepository.syncUserAuthorities(any())).thenReturn(Mono.empty());
+
+        List<NtsUserEntity> users = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            userService.getUserWithAuthoritiesByLogin("alice").subscribe(users::add);
+        }
+        NtsUserEntity loaded = user("alice");
+        result.tryEmitValue(loaded);
+
+        assertThat(users).hasSize(10).allMatch(user -> user == loaded);
+        assertThat(userService.getUserWithAuthoritiesByLogin("alice").block()).isSameAs(loaded);
+        assertThat(queries).hasValue(1);
+
+        userService.saveUser(loaded).block();
+        assertThat(userService.getUserWithAuthoritiesByLogin("alice").block()).isNotSameAs(loaded);
+        assertThat(queries).hasValue(2);
+    }
+
+    private static NtsUserEntity user(String login) {
+        NtsUserEntity user = new NtsUserEntity();
+        user.setId("u1");
+        user.setLogin(login);
+        return user;
+    }
+
+    private static JwtAuthenticationToken token(String givenName, String authority) {
+        Jwt jwt = Jwt.withTokenValue("token")
+            .header("alg", "none")
+            .subject("alice")
+            .claim("preferred_username", "alice")
+            .claim("given_name", givenName)
+            .build();
+        return new JwtAuthenticationToken(jwt, List.of(new SimpleGrantedAuthority(authority)));
+    }
+}
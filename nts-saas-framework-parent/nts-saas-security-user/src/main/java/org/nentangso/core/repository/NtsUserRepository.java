@@ -1,13 +1,17 @@
 package org.nentangso.core.repository;
 
 import org.nentangso.core.domain.NtsUserEntity;
+import org.nentangso.core.service.dto.NtsUserDTO;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 /**
@@ -26,4 +30,16 @@ public interface NtsUserRepository extends JpaRepository<NtsUserEntity, String>
     Optional<NtsUserEntity> findOneWithAuthoritiesByLogin(String login);
 
     Page<NtsUserEntity> findAllByIdNotNullAndActivatedIsTrue(Pageable pageable);
+
+    /**
+     * Public users projected on {@link NtsUserDTO}: only its columns are selected and no entity is managed.
+     */
+    @Query(
+        value = "select new org.nentangso.core.service.dto.NtsUserDTO(u.id, u.login) from NtsUserEntity u where u.activated = true",
+        countQuery = "select count(u) from NtsUserEntity u where u.activated = true"
+    )
+    Page<NtsUserDTO> findAllPublicUsers(Pageable pageable);
+
+    @EntityGraph(attributePaths = "authorities")
+    List<NtsUserEntity> findAllWithAuthoritiesByIdIn(Collection<String> ids);
 }
@@ -0,0 +1,122 @@
+package org.nentangso.core.service;
+
+import org.nentangso.core.domain.NtsAuthority;
+import org.nentangso.core.repository.NtsAuthorityRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+/**
+ * In-memory catalog of the authority names.
+ * <p>
+ * The names are loaded once all singletons are created and kept in an immutable set, replaced as a whole on
+ * {@link #refresh()}, so reads never touch the database nor take a lock. Call {@link #refreshQuietly()} after authorities
+ * are written. Authorities written by other instances are seen once the set is older than
+ * {@code nts.security.user.authority-catalog.ttl}: the next read reloads it, while concurrent reads keep the current set.
+ */
+@Component
+public class NtsAuthorityCatalog implements SmartInitializingSingleton {
+
+    private final Logger log = LoggerFactory.getLogger(NtsAuthorityCatalog.class);
+
+    private final NtsAuthorityRepository authorityRepository;
+
+    private final Duration ttl;
+
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>();
+
+    private final AtomicBoolean refreshing = new AtomicBoolean(false);
+
+    public NtsAuthorityCatalog(
+        NtsAuthorityRepository authorityRepository,
+        @Value("${nts.security.user.authority-catalog.ttl:PT5M}") Duration ttl
+    ) {
+        this.authorityRepository = authorityRepository;
+        this.ttl = ttl;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        try {
+            refresh();
+        } catch (RuntimeException e) {
+            log.warn("Could not load the authority catalog, it will be loaded on first use", e);
+        }
+    }
+
+    /**
+     * @return the authority names, loaded on first use if the catalog could not be loaded at startup,
+     * reloaded when older than the TTL.
+     */
+    public Set<String> getAuthorities() {
+        Snapshot current = snapshot.get();
+        if (current == null) {
+            return refresh();
+        }
+        if (current.expiresAt.isBefore(Instant.now()) && refreshing.compareAndSet(false, true)) {
+            try {
+                return refresh();
+            } catch (RuntimeException e) {
+                log.warn("Could not reload the authority catalog, keep the current one", e);
+            } finally {
+                refreshing.set(false);
+            }
+        }
+        return current.authorities;
+    }
+
+    public boolean contains(String authority) {
+        return getAuthorities().contains(authority);
+    }
+
+    /**
+     * Reload the authority names from the database.
+     *
+     * @return the new authority names.
+     */
+    public Set<String> refresh() {
+        Set<String> names = authorityRepository
+            .findAll()
+            .stream()
+            .map(NtsAuthority::getName)
+            .collect(Collectors.toCollection(LinkedHashSet::new));
+        Set<String> loaded = Collections.unmodifiableSet(names);
+        snapshot.set(new Snapshot(loaded, Instant.now().plus(ttl)));
+        log.debug("Loaded {} authorities", loaded.size());
+        return loaded;
+    }
+
+    /**
+     * Reload the authority names from the database, for instance after the commit of a write. A failure is logged and
+     * the current names are reloaded on the next read.
+     */
+    public void refreshQuietly() {
+        try {
+            refresh();
+        } catch (RuntimeException e) {
+            log.warn("Could not reload the authority catalog, it will be reloaded on next use", e);
+            snapshot.updateAndGet(current -> current == null ? null : new Snapshot(current.authorities, Instant.MIN));
+        }
+    }
+
+    private static final class Snapshot {
+        private final Set<String> authorities;
+        private final Instant expiresAt;
+
+        Snapshot(Set<String> authorities, Instant expiresAt) {
+            this.authorities = authorities;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -9,8 +9,10 @@ import org.nentangso.core.security.SecurityUtils;
 import org.nentangso.core.service.dto.NtsAdminUserDTO;
 import org.nentangso.core.service.dto.NtsUserDTO;
 import org.nentangso.core.service.mapper.NtsUserMapper;
+import org.nentangso.core.service.utils.NtsFingerprintCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.cache.CacheManager;
 import org.springframework.data.domain.Page;
@@ -21,9 +23,13 @@ import org.springframework.security.oauth2.client.authentication.OAuth2Authentic
 import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
@@ -34,6 +40,24 @@ import java.util.stream.Collectors;
 @ConditionalOnMissingBean(name = "userService")
 public class NtsUserService {
 
+    /**
+     * Claims used to build the local user, a change of any of them synchronizes the user again
+     */
+    private static final List<String> SYNC_CLAIMS = List.of(
+        "sub",
+        "uid",
+        "preferred_username",
+        "given_name",
+        "name",
+        "family_name",
+        "email_verified",
+        "email",
+        "langKey",
+        "locale",
+        "picture",
+        "updated_at"
+    );
+
     private final Logger log = LoggerFactory.getLogger(NtsUserService.class);
 
     private final NtsUserRepository userRepository;
@@ -44,11 +68,25 @@ public class NtsUserService {
 
     private final CacheManager cacheManager;
 
-    public NtsUserService(NtsUserRepository userRepository, NtsAuthorityRepository authorityRepository, NtsUserMapper userMapper, CacheManager cacheManager) {
+    private final NtsFingerprintCache userSyncCache;
+
+    private final NtsAuthorityCatalog authorityCatalog;
+
+    public NtsUserService(
+        NtsUserRepository userRepository,
+        NtsAuthorityRepository authorityRepository,
+        NtsAuthorityCatalog authorityCatalog,
+        NtsUserMapper userMapper,
+        CacheManager cacheManager,
+        @Value("${nts.security.user.sync-cache.maximum-size:10000}") long syncCacheMaximumSize,
+        @Value("${nts.security.user.sync-cache.ttl:PT10M}") Duration syncCacheTtl
+    ) {
         this.userRepository = userRepository;
         this.authorityRepository = authorityRepository;
+        this.authorityCatalog = authorityCatalog;
         this.userMapper = userMapper;
         this.cacheManager = cacheManager;
+        this.userSyncCache = new NtsFingerprintCache(syncCacheMaximumSize, syncCacheTtl);
     }
 
     /**
@@ -77,14 +115,29 @@ public class NtsUserService {
             });
     }
 
+    /**
+     * Page of users with their authorities: the page of users, then the authorities of all of them with one fetch join,
+     * instead of one lazy load per user. A count query is added when the page total is not known from the page itself.
+     *
+     * @param pageable the page.
+     * @return the page of users.
+     */
     @Transactional(readOnly = true)
     public Page<NtsAdminUserDTO> getAllManagedUsers(Pageable pageable) {
-        return userRepository.findAll(pageable).map(userMapper::userToAdminUserDTO);
+        Page<NtsUserEntity> users = userRepository.findAll(pageable);
+        if (!users.hasContent()) {
+            return users.map(userMapper::userToAdminUserDTO);
+        }
+        Map<String, NtsUserEntity> usersWithAuthorities = userRepository
+            .findAllWithAuthoritiesByIdIn(users.map(NtsUserEntity::getId).getContent())
+            .stream()
+            .collect(Collectors.toMap(NtsUserEntity::getId, Function.identity()));
+        return users.map(user -> userMapper.userToAdminUserDTO(usersWithAuthorities.getOrDefault(user.getId(), user)));
     }
 
     @Transactional(readOnly = true)
     public Page<NtsUserDTO> getAllPublicUsers(Pageable pageable) {
-        return userRepository.findAllByIdNotNullAndActivatedIsTrue(pageable).map(userMapper::userToUserDTO);
+        return userRepository.findAllPublicUsers(pageable);
     }
 
     @Transactional(readOnly = true)
@@ -93,25 +146,33 @@ public class NtsUserService {
     }
 
     /**
-     * Gets a list of all the authorities.
+     * Gets a list of all the authorities, from {@link NtsAuthorityCatalog}.
      * @return a list of all the authorities.
      */
-    @Transactional(readOnly = true)
     public List<String> getAuthorities() {
-        return authorityRepository.findAll().stream().map(NtsAuthority::getName).collect(Collectors.toList());
+        return new ArrayList<>(authorityCatalog.getAuthorities());
     }
 
     private NtsUserEntity syncUserWithIdP(Map<String, Object> details, NtsUserEntity user) {
         // save authorities in to sync user roles/groups between IdP and JHipster's local database
-        Collection<String> dbAuthorities = getAuthorities();
-        Collection<String> userAuthorities = user.getAuthorities().stream().map(NtsAuthority::getName).collect(Collectors.toList());
-        for (String authority : userAuthorities) {
-            if (!dbAuthorities.contains(authority)) {
-                log.debug("Saving authority '{}' in local database", authority);
-                NtsAuthority authorityToSave = new NtsAuthority();
-                authorityToSave.setName(authority);
-                authorityRepository.save(authorityToSave);
+        List<String> newAuthorities = user
+            .getAuthorities()
+            .stream()
+            .map(NtsAuthority::getName)
+            .filter(authority -> !authorityCatalog.contains(authority))
+            .collect(Collectors.toList());
+        if (!newAuthorities.isEmpty()) {
+            // another instance may have saved them since the catalog was loaded
+            Set<String> dbAuthorities = authorityCatalog.refresh();
+            for (String authority : newAuthorities) {
+                if (!dbAuthorities.contains(authority)) {
+                    log.debug("Saving authority '{}' in local database", authority);
+                    NtsAuthority authorityToSave = new NtsAuthority();
+                    authorityToSave.setName(authority);
+                    authorityRepository.save(authorityToSave);
+                }
             }
+            afterCommit(authorityCatalog::refreshQuietly);
         }
         // save account in to sync users between IdP and JHipster's local database
         Optional<NtsUserEntity> existingUser = userRepository.findOneByLogin(user.getLogin());
@@ -144,7 +205,8 @@ public class NtsUserService {
 
     /**
      * Returns the user from an OAuth 2.0 login or resource server with JWT.
-     * Synchronizes the user in the local repository.
+     * Synchronizes the user in the local repository, unless the same claims and authorities were already synchronized
+     * for this login within {@code nts.security.user.sync-cache.ttl}.
      *
      * @param authToken the authentication token.
      * @return the user from the authentication.
@@ -173,7 +235,36 @@ public class NtsUserService {
                 .collect(Collectors.toSet())
         );
 
-        return userMapper.userToAdminUserDTO(syncUserWithIdP(attributes, user));
+        List<String> authorities = user.getAuthorities().stream().map(NtsAuthority::getName).collect(Collectors.toList());
+        long fingerprint = NtsFingerprintCache.fingerprint(attributes, SYNC_CLAIMS, authorities);
+        if (userSyncCache.isUnchanged(user.getLogin(), fingerprint)) {
+            return userMapper.userToAdminUserDTO(user);
+        }
+        syncUserWithIdP(attributes, user);
+        afterCommit(() -> userSyncCache.put(user.getLogin(), fingerprint));
+        return userMapper.userToAdminUserDTO(user);
+    }
+
+    /**
+     * Forget that a user was synchronized with the IdP, so that its next authentication synchronizes it again.
+     *
+     * @param login the login of the user.
+     */
+    public void evictUserSync(String login) {
+        userSyncCache.invalidate(login);
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
     }
 
     private static NtsUserEntity getUser(Map<String, Object> details) {
@@ -230,6 +321,7 @@ public class NtsUserService {
     }
 
     private void clearUserCaches(NtsUserEntity user) {
+        userSyncCache.invalidate(user.getLogin());
         Objects.requireNonNull(cacheManager.getCache(NtsUserRepository.USERS_BY_LOGIN_CACHE)).evict(user.getLogin());
         if (user.getEmail() != null) {
             Objects.requireNonNull(cacheManager.getCache(NtsUserRepository.USERS_BY_EMAIL_CACHE)).evict(user.getEmail());
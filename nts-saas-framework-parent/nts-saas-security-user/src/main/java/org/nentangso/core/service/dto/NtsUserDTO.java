@@ -19,6 +19,14 @@ public class NtsUserDTO implements Serializable {
         // Empty constructor needed for Jackson.
     }
 
+    /**
+     * Constructor of the public user projection, that selects only these columns.
+     */
+    public NtsUserDTO(String id, String login) {
+        this.id = id;
+        this.login = login;
+    }
+
     public NtsUserDTO(NtsUserEntity user) {
         this.id = user.getId();
         // Customize it here if you need, or not, firstName/lastName/etc
@@ -0,0 +1,114 @@
+package org.nentangso.core.service;
+
+import org.nentangso.core.domain.NtsUserEntity;
+import org.nentangso.core.repository.NtsUserRepository;
+import org.nentangso.core.service.dto.NtsUserDTO;
+import org.nentangso.core.service.mapper.NtsUserMapper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.repository.support.JpaRepositoryFactory;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Public user pages read through {@link NtsUserRepository#findAllPublicUsers} against the former entity path
+ * ({@code findAllByIdNotNullAndActivatedIsTrue} then {@link NtsUserMapper#userToUserDTO}), on an in-memory H2 database.
+ * <p>
+ * Run the main method from the IDE, or {@code org.openjdk.jmh.Main NtsUserProjectionBenchmark -prof gc} on the test
+ * classpath: the main method adds the GC profiler, whose {@code gc.alloc.rate.norm} is the memory allocated per page.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NtsUserProjectionBenchmark {
+    private static final int USERS = 1_000;
+
+    @Param({"20", "200"})
+    public int pageSize;
+
+    private LocalContainerEntityManagerFactoryBean factoryBean;
+    private TransactionTemplate transactionTemplate;
+    private NtsUserRepository userRepository;
+    private NtsUserMapper userMapper;
+    private Pageable pageable;
+
+    @Setup
+    public void setup() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:users;DB_CLOSE_DELAY=-1", "sa", "");
+        factoryBean = new LocalContainerEntityManagerFactoryBean();
+        factoryBean.setDataSource(dataSource);
+        factoryBean.setPackagesToScan("org.nentangso.core.domain");
+        factoryBean.setJpaVendorAdapter(new HibernateJpaVendorAdapter());
+        factoryBean.setJpaPropertyMap(Map.of(
+            "hibernate.hbm2ddl.auto", "create-drop",
+            "hibernate.cache.use_second_level_cache", "false"
+        ));
+        factoryBean.afterPropertiesSet();
+        EntityManagerFactory entityManagerFactory = factoryBean.getObject();
+        transactionTemplate = new TransactionTemplate(new JpaTransactionManager(entityManagerFactory));
+        transactionTemplate.setReadOnly(true);
+        EntityManager entityManager = SharedEntityManagerCreator.createSharedEntityManager(entityManagerFactory);
+        userRepository = new JpaRepositoryFactory(entityManager).getRepository(NtsUserRepository.class);
+        userMapper = new NtsUserMapper();
+        pageable = PageRequest.of(1, pageSize, Sort.by("login"));
+
+        new TransactionTemplate(new JpaTransactionManager(entityManagerFactory)).executeWithoutResult(status -> {
+            for (int i = 0; i < USERS; i++) {
+                NtsUserEntity user = new NtsUserEntity();
+                user.setId("u" + i);
+                user.setLogin("user" + i);
+                user.setFirstName("First " + i);
+                user.setLastName("Last " + i);
+                user.setEmail("user" + i + "@example.com");
+                user.setImageUrl("https://example.com/avatars/" + i + ".png");
+                user.setLangKey("en");
+                user.setActivated(true);
+                user.setCreatedBy("system");
+                entityManager.persist(user);
+            }
+        });
+    }
+
+    @TearDown
+    public void tearDown() {
+        factoryBean.destroy();
+    }
+
+    @Benchmark
+    public Page<NtsUserDTO> entityPath() {
+        return transactionTemplate.execute(status ->
+            userRepository.findAllByIdNotNullAndActivatedIsTrue(pageable).map(userMapper::userToUserDTO)
+        );
+    }
+
+    @Benchmark
+    public Page<NtsUserDTO> projection() {
+        return transactionTemplate.execute(status -> userRepository.findAllPublicUsers(pageable));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(NtsUserProjectionBenchmark.class.getSimpleName())
+            .addProfiler(GCProfiler.class)
+            .build()).run();
+    }
+}
@@ -0,0 +1,153 @@
+package org.nentangso.core.service;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.nentangso.core.domain.NtsAuthority;
+import org.nentangso.core.domain.NtsUserEntity;
+import org.nentangso.core.repository.NtsAuthorityRepository;
+import org.nentangso.core.repository.NtsUserRepository;
+import org.nentangso.core.service.dto.NtsAdminUserDTO;
+import org.nentangso.core.service.dto.NtsUserDTO;
+import org.nentangso.core.service.mapper.NtsUserMapper;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.repository.support.JpaRepositoryFactory;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class NtsUserServiceTest {
+    private LocalContainerEntityManagerFactoryBean factoryBean;
+    private TransactionTemplate transactionTemplate;
+    private Statistics statistics;
+    private EntityManager entityManager;
+    private NtsAuthorityRepository authorityRepository;
+    private NtsUserService userService;
+
+    @BeforeEach
+    void setUp() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:users-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", "sa", "");
+        factoryBean = new LocalContainerEntityManagerFactoryBean();
+        factoryBean.setDataSource(dataSource);
+        factoryBean.setPackagesToScan("org.nentangso.core.domain");
+        factoryBean.setJpaVendorAdapter(new HibernateJpaVendorAdapter());
+        factoryBean.setJpaPropertyMap(Map.of(
+            "hibernate.hbm2ddl.auto", "create-drop",
+            "hibernate.generate_statistics", "true",
+            "hibernate.cache.use_second_level_cache", "false"
+        ));
+        factoryBean.afterPropertiesSet();
+        EntityManagerFactory entityManagerFactory = factoryBean.getObject();
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        transactionTemplate = new TransactionTemplate(new JpaTransactionManager(entityManagerFactory));
+
+        entityManager = SharedEntityManagerCreator.createSharedEntityManager(entityManagerFactory);
+        JpaRepositoryFactory repositoryFactory = new JpaRepositoryFactory(entityManager);
+        NtsUserRepository userRepository = repositoryFactory.getRepository(NtsUserRepository.class);
+        authorityRepository = repositoryFactory.getRepository(NtsAuthorityRepository.class);
+        userService = new NtsUserService(
+            userRepository,
+            authorityRepository,
+            new NtsAuthorityCatalog(authorityRepository, Duration.ofMinutes(5)),
+            new NtsUserMapper(),
+            new ConcurrentMapCacheManager(),
+            100,
+            Duration.ofMinutes(10)
+        );
+
+        transactionTemplate.executeWithoutResult(status -> {
+            NtsAuthority admin = authority("ROLE_ADMIN");
+            NtsAuthority user = authority("ROLE_USER");
+            entityManager.persist(admin);
+            entityManager.persist(user);
+            for (int i = 1; i <= 60; i++) {
+                NtsUserEntity entity = new NtsUserEntity();
+                entity.setId(String.format("u%02d", i));
+                entity.setLogin("user" + i);
+                entity.setEmail("user" + i + "@example.com");
+                entity.setActivated(true);
+                entity.setCreatedBy("system");
+                entity.setAuthorities(i % 3 == 0 ? Set.of(admin, user) : Set.of(user));
+                entityManager.persist(entity);
+            }
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        factoryBean.destroy();
+    }
+
+    @Test
+    void getAllManagedUsers_loadsUsersAndAuthoritiesInTwoStatementsPlusCount() {
+        statistics.clear();
+
+        Page<NtsAdminUserDTO> page = transactionTemplate.execute(status -> userService.getAllManagedUsers(PageRequest.of(0, 50, Sort.by("id"))));
+
+        assertThat(page.getTotalElements()).isEqualTo(60);
+        assertThat(page.getContent()).hasSize(50);
+        assertThat(page.getContent().get(0).getAuthorities()).containsExactly("ROLE_USER");
+        assertThat(page.getContent().get(2).getAuthorities()).containsExactlyInAnyOrder("ROLE_ADMIN", "ROLE_USER");
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(3);
+    }
+
+    @Test
+    void getAllManagedUsers_lastPageNeedsNoCount() {
+        statistics.clear();
+
+        Page<NtsAdminUserDTO> page = transactionTemplate.execute(status -> userService.getAllManagedUsers(PageRequest.of(1, 50, Sort.by("id"))));
+
+        assertThat(page.getContent()).extracting(NtsAdminUserDTO::getId).startsWith("u51").endsWith("u60");
+        assertThat(page.getContent()).allSatisfy(user -> assertThat(user.getAuthorities()).contains("ROLE_USER"));
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(2);
+    }
+
+    @Test
+    void getAllPublicUsers_projectsWithoutLoadingEntities() {
+        statistics.clear();
+
+        Page<NtsUserDTO> page = transactionTemplate.execute(status -> userService.getAllPublicUsers(PageRequest.of(0, 10, Sort.by(Sort.Order.desc("login")))));
+
+        assertThat(page.getTotalElements()).isEqualTo(60);
+        assertThat(page.getContent()).extracting(NtsUserDTO::getLogin).startsWith("user9", "user8", "user7");
+        assertThat(page.getContent().get(0).getId()).isEqualTo("u09");
+        assertThat(statistics.getEntityLoadCount()).isZero();
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(2);
+    }
+
+    @Test
+    void authorityCatalog_reloadsAfterTtl() {
+        NtsAuthorityCatalog fresh = new NtsAuthorityCatalog(authorityRepository, Duration.ofMinutes(5));
+        NtsAuthorityCatalog expiring = new NtsAuthorityCatalog(authorityRepository, Duration.ZERO);
+        assertThat(fresh.getAuthorities()).containsExactlyInAnyOrder("ROLE_ADMIN", "ROLE_USER");
+        assertThat(expiring.getAuthorities()).containsExactlyInAnyOrder("ROLE_ADMIN", "ROLE_USER");
+
+        transactionTemplate.executeWithoutResult(status -> entityManager.persist(authority("ROLE_MANAGER")));
+
+        assertThat(fresh.contains("ROLE_MANAGER")).isFalse();
+        assertThat(expiring.contains("ROLE_MANAGER")).isTrue();
+    }
+
+    private static NtsAuthority authority(String name) {
+        NtsAuthority authority = new NtsAuthority();
+        authority.setName(name);
+        return authority;
+    }
+}
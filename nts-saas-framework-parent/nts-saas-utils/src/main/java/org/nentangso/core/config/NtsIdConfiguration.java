@@ -0,0 +1,44 @@
+package org.nentangso.core.config;
+
+import org.nentangso.core.service.utils.NtsIdUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.Profiles;
+
+/**
+ * Checks the node id of {@link NtsIdUtils} at startup.
+ * <p>
+ * Ids of {@link NtsIdUtils#nextId()} are primary keys, two nodes with the same node id can generate the same ids.
+ * Without {@code nts.id.node-id}, set as a system property or as the {@code NTS_ID_NODE_ID} environment variable,
+ * the startup fails, unless one of the {@value #DEVELOPMENT_PROFILES} profiles is active or
+ * {@code nts.id.require-node-id} is false, then a warning is logged.
+ */
+@Configuration
+public class NtsIdConfiguration {
+    public static final String DEVELOPMENT_PROFILES = "dev | test | testdev | testprod";
+
+    private final Logger log = LoggerFactory.getLogger(NtsIdConfiguration.class);
+
+    public NtsIdConfiguration(
+        Environment environment,
+        @Value("${nts.id.require-node-id:true}") boolean requireNodeId
+    ) {
+        if (NtsIdUtils.isNodeIdConfigured()) {
+            log.info("Time-ordered ids use node id {}", NtsIdUtils.getNodeId());
+            return;
+        }
+        if (environment.containsProperty("nts.id.node-id")) {
+            throw new IllegalStateException("nts.id.node-id must be set as a system property or the NTS_ID_NODE_ID " +
+                "environment variable, ids can be generated before the application properties are read");
+        }
+        if (requireNodeId && !environment.acceptsProfiles(Profiles.of(DEVELOPMENT_PROFILES))) {
+            throw new IllegalStateException("No nts.id.node-id, set a node id between 0 and " + NtsIdUtils.MAX_NODE_ID +
+                " unique among the running nodes, or nts.id.require-node-id=false for a single node");
+        }
+        log.warn("No nts.id.node-id, time-ordered ids use node id {} derived from the host name and the process id: " +
+            "nodes sharing a node id generate duplicate ids", NtsIdUtils.getNodeId());
+    }
+}
@@ -0,0 +1,89 @@
+package org.nentangso.core.service.utils;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded, time-limited cache of fingerprints by key, to skip work when its inputs did not change.
+ * <p>
+ * A caller computes the fingerprint of its inputs with {@link #fingerprint(Map, Collection, Collection)}, skips the work
+ * when {@link #isUnchanged(String, long)} and {@link #put(String, long) records} the fingerprint once the work is done.
+ * Entries expire after the TTL, so the work is done again at least once per TTL, and the least recently used keys
+ * are evicted beyond the maximum size.
+ */
+@SuppressWarnings("unused")
+public class NtsFingerprintCache {
+    private final Cache<String, Long> fingerprints;
+
+    /**
+     * @param maximumSize the maximum number of keys, 0 disables the cache
+     * @param ttl         the time an entry is kept after it was recorded
+     */
+    public NtsFingerprintCache(long maximumSize, Duration ttl) {
+        this.fingerprints = CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(ttl)
+            .build();
+    }
+
+    /**
+     * @param key         the key
+     * @param fingerprint the fingerprint of the current inputs
+     * @return true if the same fingerprint was recorded for the key and has not expired
+     */
+    public boolean isUnchanged(String key, long fingerprint) {
+        Long recorded = fingerprints.getIfPresent(key);
+        return recorded != null && recorded == fingerprint;
+    }
+
+    public void put(String key, long fingerprint) {
+        fingerprints.put(key, fingerprint);
+    }
+
+    public void invalidate(String key) {
+        fingerprints.invalidate(key);
+    }
+
+    public void invalidateAll() {
+        fingerprints.invalidateAll();
+    }
+
+    public long size() {
+        return fingerprints.size();
+    }
+
+    /**
+     * 64-bit fingerprint of some claims and authorities.
+     *
+     * @param claims      the claims
+     * @param claimNames  the names of the claims to include, in a fixed order
+     * @param authorities the authorities, in any order
+     * @return the fingerprint
+     */
+    public static long fingerprint(Map<String, ?> claims, Collection<String> claimNames, Collection<String> authorities) {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        for (String claimName : claimNames) {
+            Object value = claims.get(claimName);
+            hasher.putString(claimName, StandardCharsets.UTF_8).putByte((byte) 0).putBoolean(value != null);
+            if (value != null) {
+                hasher.putString(value.toString(), StandardCharsets.UTF_8);
+            }
+            hasher.putByte((byte) 0);
+        }
+        List<String> sortedAuthorities = new ArrayList<>(authorities);
+        sortedAuthorities.sort(null);
+        for (String authority : sortedAuthorities) {
+            hasher.putString(authority, StandardCharsets.UTF_8).putByte((byte) 0);
+        }
+        return hasher.hash().asLong();
+    }
+}
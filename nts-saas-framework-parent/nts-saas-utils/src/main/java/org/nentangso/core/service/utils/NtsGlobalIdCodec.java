@@ -0,0 +1,189 @@
+package org.nentangso.core.service.utils;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * GraphQL global id codec of one resource, {@code gid://shop/<Resource>/<id>}.
+ * <p>
+ * Codecs of {@link #of(String)} are created once per resource name and cached, up to 1024 resource names, so resource names
+ * read from a request must be checked against the known resources first, or go through {@link #uncached(String)}. Ids are parsed by comparing the prefix and scanning the digits,
+ * without regular expressions, and formatted into a string builder sized for the longest id.
+ */
+public final class NtsGlobalIdCodec {
+    static final String PREFIX = "gid://shop/";
+    private static final int MAX_DIGITS = 19;
+    private static final int MAX_CACHED_CODECS = 1024;
+    private static final Map<String, NtsGlobalIdCodec> CODECS = new ConcurrentHashMap<>();
+
+    private final String resourceName;
+    private final String prefix;
+
+    private NtsGlobalIdCodec(String resourceName) {
+        this.resourceName = resourceName;
+        this.prefix = PREFIX + resourceName + "/";
+    }
+
+    /**
+     * Codec of a resource
+     *
+     * @param resourceName the name of resource, letters and digits starting with a letter, not read from a request
+     * @return the cached codec
+     * @throws IllegalArgumentException if the resource name is invalid
+     */
+    public static NtsGlobalIdCodec of(String resourceName) {
+        NtsGlobalIdCodec codec = CODECS.get(resourceName);
+        if (codec != null) return codec;
+        if (!isValidResourceName(resourceName)) {
+            throw new IllegalArgumentException("resourceName");
+        }
+        if (CODECS.size() >= MAX_CACHED_CODECS) {
+            return new NtsGlobalIdCodec(resourceName);
+        }
+        return CODECS.computeIfAbsent(resourceName, NtsGlobalIdCodec::new);
+    }
+
+    /**
+     * Codec of a resource, not cached
+     *
+     * @param resourceName the name of resource, letters and digits starting with a letter
+     * @return a new codec, or the cached one if there is one
+     * @throws IllegalArgumentException if the resource name is invalid
+     */
+    public static NtsGlobalIdCodec uncached(String resourceName) {
+        NtsGlobalIdCodec codec = CODECS.get(resourceName);
+        if (codec != null) return codec;
+        if (!isValidResourceName(resourceName)) {
+            throw new IllegalArgumentException("resourceName");
+        }
+        return new NtsGlobalIdCodec(resourceName);
+    }
+
+    public String getResourceName() {
+        return resourceName;
+    }
+
+    /**
+     * GraphQL global id to legacy resource id
+     *
+     * @param id the global id
+     * @return the legacy id, null if the global id is blank
+     * @throws IllegalArgumentException if the global id is not an id of this resource
+     */
+    public Long toLocalId(String id) {
+        if (StringUtils.isBlank(id)) {
+            return null;
+        }
+        return parse(id);
+    }
+
+    /**
+     * GraphQL global ids to legacy resource ids, blank ids are skipped
+     *
+     * @param ids the global ids
+     * @return the legacy ids, in the order of the global ids
+     * @throws IllegalArgumentException if a global id is not an id of this resource
+     */
+    public long[] toLocalIds(Collection<String> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return new long[0];
+        }
+        long[] localIds = new long[ids.size()];
+        int count = 0;
+        for (String id : ids) {
+            if (StringUtils.isBlank(id)) continue;
+            localIds[count++] = parse(id);
+        }
+        return count == localIds.length ? localIds : Arrays.copyOf(localIds, count);
+    }
+
+    /**
+     * Legacy resource id to GraphQL global id
+     *
+     * @param legacyResourceId the legacy id
+     * @return the global id, null if the legacy id is null
+     * @throws IllegalArgumentException if the legacy id is not positive
+     */
+    public String toGlobalId(Long legacyResourceId) {
+        if (legacyResourceId == null) {
+            return null;
+        }
+        return toGlobalId(legacyResourceId.longValue());
+    }
+
+    /**
+     * Legacy resource id to GraphQL global id
+     *
+     * @param legacyResourceId the legacy id
+     * @return the global id
+     * @throws IllegalArgumentException if the legacy id is not positive
+     */
+    public String toGlobalId(long legacyResourceId) {
+        if (legacyResourceId <= 0) {
+            throw new IllegalArgumentException("legacyResourceId");
+        }
+        return new StringBuilder(prefix.length() + MAX_DIGITS)
+            .append(prefix)
+            .append(legacyResourceId)
+            .toString();
+    }
+
+    /**
+     * Legacy resource ids to GraphQL global ids
+     *
+     * @param legacyResourceIds the legacy ids
+     * @return the global ids, in the order of the legacy ids
+     * @throws IllegalArgumentException if a legacy id is not positive
+     */
+    public String[] toGlobalIds(long[] legacyResourceIds) {
+        String[] globalIds = new String[legacyResourceIds.length];
+        for (int i = 0; i < legacyResourceIds.length; i++) {
+            globalIds[i] = toGlobalId(legacyResourceIds[i]);
+        }
+        return globalIds;
+    }
+
+    private long parse(String id) {
+        int length = id.length();
+        int start = prefix.length();
+        if (length == start || !id.startsWith(prefix)) {
+            throw new IllegalArgumentException("globalId");
+        }
+        long value = 0;
+        for (int i = start; i < length; i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new IllegalArgumentException("globalId");
+            }
+            int digit = c - '0';
+            if (value > (Long.MAX_VALUE - digit) / 10) {
+                // Same NumberFormatException as Long.parseLong
+                return Long.parseLong(id.substring(start));
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static boolean isValidResourceName(String resourceName) {
+        int length = resourceName.length();
+        if (length == 0 || !isAsciiLetter(resourceName.charAt(0))) {
+            return false;
+        }
+        for (int i = 1; i < length; i++) {
+            char c = resourceName.charAt(i);
+            if (!isAsciiLetter(c) && (c < '0' || c > '9')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isAsciiLetter(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z';
+    }
+}
@@ -3,18 +3,12 @@ package org.nentangso.core.service.utils;
 import org.apache.commons.lang3.StringUtils;
 
 import java.util.*;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 @SuppressWarnings("unused")
 public class NtsGlobalIdUtils {
     private NtsGlobalIdUtils() {
     }
 
-    private static final Pattern RESOURCE_NAME_PATTERN = Pattern.compile("^[a-zA-Z][a-zA-Z0-9]*$");
-    private static final String PREFIX_REGEX = "gid:\\/\\/shop\\/";
-    private static final String PREFIX = "gid://shop/";
-
     /**
      * GraphQL global id to legacy resource id
      *
@@ -23,18 +17,7 @@ public class NtsGlobalIdUtils {
      * @return the legacy id
      */
     public static Long toLocalId(String id, String resourceName) {
-        if (!RESOURCE_NAME_PATTERN.matcher(resourceName).matches()) {
-            throw new IllegalArgumentException("resourceName");
-        }
-        if (StringUtils.isBlank(id)) {
-            return null;
-        }
-        var pattern = "^" + PREFIX_REGEX + resourceName + "\\/([0-9]+)$";
-        var matcher = Pattern.compile(pattern).matcher(id);
-        if (!matcher.matches() || matcher.groupCount() != 1) {
-            throw new IllegalArgumentException("globalId");
-        }
-        return Long.parseLong(matcher.group(1));
+        return NtsGlobalIdCodec.of(resourceName).toLocalId(id);
     }
 
     /**
@@ -45,11 +28,15 @@ public class NtsGlobalIdUtils {
      * @return the list of legacy ids
      */
     public static List<Long> toLocalIds(List<String> ids, String resourceName) {
-        return Optional.ofNullable(ids).orElseGet(Collections::emptyList)
-            .stream()
-            .map(id -> toLocalId(id, resourceName))
-            .filter(Objects::nonNull)
-            .collect(Collectors.toList());
+        if (ids == null || ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        NtsGlobalIdCodec codec = NtsGlobalIdCodec.of(resourceName);
+        List<Long> localIds = new ArrayList<>(ids.size());
+        for (long localId : codec.toLocalIds(ids)) {
+            localIds.add(localId);
+        }
+        return localIds;
     }
 
     /**
@@ -60,11 +47,44 @@ public class NtsGlobalIdUtils {
      * @return the set of legacy ids
      */
     public static Set<Long> toLocalIds(Set<String> ids, String resourceName) {
-        return Optional.ofNullable(ids).orElseGet(Collections::emptySet)
-            .stream()
-            .map(globalId -> toLocalId(globalId, resourceName))
-            .filter(Objects::nonNull)
-            .collect(Collectors.toSet());
+        if (ids == null || ids.isEmpty()) {
+            return new HashSet<>();
+        }
+        NtsGlobalIdCodec codec = NtsGlobalIdCodec.of(resourceName);
+        Set<Long> localIds = new HashSet<>(Math.max(16, ids.size() * 4 / 3 + 1));
+        for (long localId : codec.toLocalIds(ids)) {
+            localIds.add(localId);
+        }
+        return localIds;
+    }
+
+    /**
+     * GraphQL global ids to legacy resource ids, without boxing
+     *
+     * @param ids the global ids
+     * @param resourceName the name of resource
+     * @return the legacy ids in the order of the global ids, blank global ids are skipped
+     */
+    public static long[] toLocalIdArray(Collection<String> ids, String resourceName) {
+        return NtsGlobalIdCodec.of(resourceName).toLocalIds(ids);
+    }
+
+    /**
+     * Resource name of a GraphQL global id
+     *
+     * @param id the global id
+     * @return the resource name, null if the global id is blank
+     * @throws IllegalArgumentException if the global id is not {@code gid://shop/<Resource>/<id>}
+     */
+    public static String getResourceName(String id) {
+        if (StringUtils.isBlank(id)) {
+            return null;
+        }
+        int end = id.indexOf('/', NtsGlobalIdCodec.PREFIX.length());
+        if (!id.startsWith(NtsGlobalIdCodec.PREFIX) || end <= NtsGlobalIdCodec.PREFIX.length()) {
+            throw new IllegalArgumentException("globalId");
+        }
+        return id.substring(NtsGlobalIdCodec.PREFIX.length(), end);
     }
 
     /**
@@ -75,15 +95,6 @@ public class NtsGlobalIdUtils {
      * @return the global id
      */
     public static String toGlobalId(Long legacyResourceId, String resourceName) {
-        if (!RESOURCE_NAME_PATTERN.matcher(resourceName).matches()) {
-            throw new IllegalArgumentException("resourceName");
-        }
-        if (legacyResourceId == null) {
-            return null;
-        }
-        if (legacyResourceId <= 0) {
-            throw new IllegalArgumentException("legacyResourceId");
-        }
-        return String.format("%s%s/%d", PREFIX, resourceName, legacyResourceId);
+        return NtsGlobalIdCodec.of(resourceName).toGlobalId(legacyResourceId);
     }
 }
@@ -0,0 +1,156 @@
+package org.nentangso.core.service.utils;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.net.InetAddress;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Time-ordered id generator.
+ * <p>
+ * {@link #nextId()} returns Snowflake-style {@code long} ids: 41 bits of milliseconds since 2020-01-01,
+ * 10 bits of node id and 12 bits of sequence. Ids of a node are strictly increasing, even when the clock goes back
+ * or more than 4096 ids are needed in one millisecond: the generator then borrows the next milliseconds.
+ * The node id is read from the {@code nts.id.node-id} system property or the {@code NTS_ID_NODE_ID} environment variable,
+ * it must be unique among the running nodes, e.g. the ordinal of a StatefulSet pod. Otherwise it is derived from the host
+ * name and the process id, which only spreads nodes over 1024 values: two nodes may share a node id and generate the same ids.
+ * {@link org.nentangso.core.config.NtsIdConfiguration} fails the startup in that case, outside the development and test profiles.
+ * <p>
+ * {@link #nextUuid()} returns UUID version 7 values (RFC 9562): 48 bits of Unix milliseconds, a 12-bit counter
+ * kept per thread and 62 random bits from {@link ThreadLocalRandom}, so there is no contention on {@code SecureRandom}.
+ * <p>
+ * Neither method takes a lock.
+ */
+@SuppressWarnings("unused")
+public class NtsIdUtils {
+    private NtsIdUtils() {
+    }
+
+    public static final long EPOCH = 1577836800000L;
+    public static final int NODE_BITS = 10;
+    public static final int SEQUENCE_BITS = 12;
+    public static final long MAX_NODE_ID = (1L << NODE_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    private static final int TIMESTAMP_SHIFT = NODE_BITS + SEQUENCE_BITS;
+    private static final String CONFIGURED_NODE_ID = System.getProperty("nts.id.node-id", System.getenv("NTS_ID_NODE_ID"));
+    private static final long NODE_ID = resolveNodeId();
+    /**
+     * Last (timestamp, sequence) pair, as {@code timestamp << SEQUENCE_BITS | sequence}
+     */
+    private static final AtomicLong LAST = new AtomicLong();
+    /**
+     * Per thread {@code [last millisecond, counter]} of UUIDv7
+     */
+    private static final ThreadLocal<long[]> UUID_STATE = ThreadLocal.withInitial(() -> new long[2]);
+
+    /**
+     * Next Snowflake-style id
+     *
+     * @return the id, greater than every id returned before by this node
+     */
+    public static long nextId() {
+        long now = System.currentTimeMillis() - EPOCH;
+        long last;
+        long next;
+        do {
+            last = LAST.get();
+            next = Math.max(last + 1, now << SEQUENCE_BITS);
+        } while (!LAST.compareAndSet(last, next));
+        return (next >>> SEQUENCE_BITS) << TIMESTAMP_SHIFT | NODE_ID << SEQUENCE_BITS | next & SEQUENCE_MASK;
+    }
+
+    /**
+     * Time of a Snowflake-style id
+     *
+     * @param id the id
+     * @return the time the id was generated, to the millisecond
+     */
+    public static Instant timestampOf(long id) {
+        return Instant.ofEpochMilli((id >>> TIMESTAMP_SHIFT) + EPOCH);
+    }
+
+    /**
+     * Smallest Snowflake-style id of a time, to select ids generated from that time on, whatever their node
+     *
+     * @param timestamp the time
+     * @return the id of node 0 and sequence 0 at that millisecond
+     */
+    public static long firstIdAt(Instant timestamp) {
+        return Math.max(0, timestamp.toEpochMilli() - EPOCH) << TIMESTAMP_SHIFT;
+    }
+
+    /**
+     * Node of a Snowflake-style id
+     *
+     * @param id the id
+     * @return the node id
+     */
+    public static long nodeOf(long id) {
+        return id >>> SEQUENCE_BITS & MAX_NODE_ID;
+    }
+
+    /**
+     * @return the node id of this process
+     */
+    public static long getNodeId() {
+        return NODE_ID;
+    }
+
+    /**
+     * @return true if the node id was configured, false if it was derived from the host name and the process id
+     */
+    public static boolean isNodeIdConfigured() {
+        return StringUtils.isNotBlank(CONFIGURED_NODE_ID);
+    }
+
+    /**
+     * Next UUID version 7
+     *
+     * @return the UUID, greater than every UUID returned before by the current thread
+     */
+    public static UUID nextUuid() {
+        long[] state = UUID_STATE.get();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long millis = System.currentTimeMillis();
+        if (millis > state[0]) {
+            state[0] = millis;
+            state[1] = random.nextInt(1 << 11);
+        } else if (++state[1] > 0xFFF) {
+            state[0]++;
+            state[1] = 0;
+        }
+        long msb = state[0] << 16 | 0x7000L | state[1];
+        long lsb = random.nextLong() >>> 2 | 0x8000000000000000L;
+        return new UUID(msb, lsb);
+    }
+
+    /**
+     * Next UUID version 7 as a string
+     *
+     * @return the canonical 36 characters form
+     */
+    public static String nextUuidString() {
+        return nextUuid().toString();
+    }
+
+    private static long resolveNodeId() {
+        if (isNodeIdConfigured()) {
+            long nodeId = Long.parseLong(CONFIGURED_NODE_ID.trim());
+            if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+                throw new IllegalArgumentException("nts.id.node-id must be between 0 and " + MAX_NODE_ID);
+            }
+            return nodeId;
+        }
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            host = String.valueOf(ThreadLocalRandom.current().nextLong());
+        }
+        int hash = 31 * host.hashCode() + Long.hashCode(ProcessHandle.current().pid());
+        return (hash ^ hash >>> 16) & MAX_NODE_ID;
+    }
+}
@@ -0,0 +1,45 @@
+package org.nentangso.core.service.utils;
+
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Validator generated at compile time for a DTO annotated with {@code @CompiledValidator}.
+ * <p>
+ * The generated class is named after the DTO with the {@code _NtsValidator} suffix and is picked up by {@link NtsValidationUtils}.
+ *
+ * @param <T> the DTO type
+ */
+public interface NtsObjectValidator<T> {
+    String CLASS_SUFFIX = "_NtsValidator";
+
+    /**
+     * Validate the object and add its errors.
+     *
+     * @param object the object
+     * @param prefix the prefix of the field names, or null
+     * @param errors the errors by field name
+     */
+    void validate(T object, String prefix, Map<String, List<String>> errors);
+
+    static void addError(Map<String, List<String>> errors, String prefix, String field, String message) {
+        errors.computeIfAbsent(prefix == null ? field : prefix + field, key -> new ArrayList<>()).add(message);
+    }
+
+    /**
+     * Add the error of a violated field constraint, with the message of the constraint interpolated as Bean Validation does.
+     *
+     * @param errors     the errors by field name
+     * @param prefix     the prefix of the field names, or null
+     * @param type       the DTO class
+     * @param field      the field name
+     * @param constraint the constraint annotation type
+     * @param value      the field value
+     */
+    static void addError(Map<String, List<String>> errors, String prefix, Class<?> type, String field,
+                         Class<? extends Annotation> constraint, Object value) {
+        addError(errors, prefix, field, NtsValidationUtils.interpolate(type, field, constraint, value));
+    }
+}
@@ -12,7 +12,6 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Objects;
 import java.util.Set;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -21,24 +20,42 @@ public class NtsTextUtils {
     private NtsTextUtils() {
     }
 
+    /**
+     * First and last characters of {@link #UNACCENT_TABLE}, from Latin-1 letters to the Vietnamese extended Latin block
+     */
+    private static final char UNACCENT_FIRST = '\u00C0';
+    private static final char UNACCENT_LAST = '\u1EF9';
+    /**
+     * Marks a combining diacritic to remove
+     */
+    private static final char UNACCENT_REMOVE = '\uFFFF';
+    /**
+     * Replacement by character, from {@link #UNACCENT_FIRST}, 0 when the character is kept
+     */
+    private static final char[] UNACCENT_TABLE = createUnaccentTable();
+
+    /**
+     * Address code: Vietnamese accents removed, characters other than letters, digits and underscore
+     * replaced by one underscore per run, in upper case.
+     *
+     * @param input the address name
+     * @return the code, empty if the input is blank
+     */
     public static String generateAddressCode(String input) {
         if (StringUtils.isBlank(input)) return "";
-        String code = NtsTextUtils.removeVietnameseChar(input);
-        code = replaceSpecialWithUnderScore(code);
-        return StringUtils.upperCase(code);
-    }
-
-    private static String replaceSpecialWithUnderScore(String code) {
-        if (StringUtils.isBlank(code)) {
-            return code;
-        }
-        if (Pattern.compile("[^A-Za-z0-9_]").matcher(code).find()) {
-            return replaceSpecialWithUnderScore(code.replaceAll("[^A-Za-z0-9_]", "_"));
+        StringBuilder code = new StringBuilder(input.length());
+        for (int i = 0, length = input.length(); i < length; i++) {
+            char c = unaccent(input.charAt(i));
+            if (c == UNACCENT_REMOVE) continue;
+            if (c >= 'a' && c <= 'z') {
+                code.append((char) (c - ('a' - 'A')));
+            } else if (c >= 'A' && c <= 'Z' || c >= '0' && c <= '9') {
+                code.append(c);
+            } else if (code.length() == 0 || code.charAt(code.length() - 1) != '_') {
+                code.append('_');
+            }
         }
-        if (Pattern.compile("_{2}").matcher(code).find()) {
-            return replaceSpecialWithUnderScore(code.replaceAll("_+", "_"));
-        }
-        return code;
+        return code.toString();
     }
 
     @Deprecated(forRemoval = true, since = "1.0.4")
@@ -47,27 +64,78 @@ public class NtsTextUtils {
         return unaccentVietnamese(input);
     }
 
+    /**
+     * Remove Vietnamese accents in one pass, from precomposed (NFC) or decomposed (NFD) input.
+     *
+     * @param input the text
+     * @return the text without accents, the input itself if it has none
+     */
     public static String unaccentVietnamese(String input) {
         if (StringUtils.isEmpty(input)) {
             return input;
         }
-        input = input.replaceAll("[àáạảãâầấậẩẫăằắặẳẵ]", "a");
-        input = input.replaceAll("[èéẹẻẽêềếệểễ]", "e");
-        input = input.replaceAll("[ìíịỉĩ]", "i");
-        input = input.replaceAll("[òóọỏõôồốộổỗơờớợởỡ]", "o");
-        input = input.replaceAll("[ùúụủũưừứựửữ]", "u");
-        input = input.replaceAll("[ỳýỵỷỹ]", "y");
-        input = input.replaceAll("[đ]", "d");
-        input = input.replaceAll("[ÀÁẠẢÃÂẦẤẬẨẪĂẰẮẶẲẴ]", "A");
-        input = input.replaceAll("[ÈÉẸẺẼÊỀẾỆỂỄ]", "E");
-        input = input.replaceAll("[ÌÍỊỈĨ]", "I");
-        input = input.replaceAll("[ÒÓỌỎÕÔỒỐỘỔỖƠỜỚỢỞỠ]", "O");
-        input = input.replaceAll("[ÙÚỤỦŨƯỪỨỰỬỮ]", "U");
-        input = input.replaceAll("[ỲÝỴỶỸ]", "Y");
-        input = input.replaceAll("[Đ]", "D");
+        int length = input.length();
+        for (int i = 0; i < length; i++) {
+            char c = input.charAt(i);
+            if (unaccent(c) != c) {
+                StringBuilder output = new StringBuilder(length).append(input, 0, i);
+                return unaccentVietnamese(input.subSequence(i, length), output).toString();
+            }
+        }
         return input;
     }
 
+    /**
+     * Remove Vietnamese accents in one pass, from precomposed (NFC) or decomposed (NFD) input, without intermediate strings.
+     *
+     * @param input  the text
+     * @param output the builder to append the text without accents to
+     * @return the output
+     */
+    public static StringBuilder unaccentVietnamese(CharSequence input, StringBuilder output) {
+        for (int i = 0, length = input.length(); i < length; i++) {
+            char c = unaccent(input.charAt(i));
+            if (c != UNACCENT_REMOVE) {
+                output.append(c);
+            }
+        }
+        return output;
+    }
+
+    private static char unaccent(char c) {
+        if (c < UNACCENT_FIRST || c > UNACCENT_LAST) return c;
+        char replacement = UNACCENT_TABLE[c - UNACCENT_FIRST];
+        return replacement == 0 ? c : replacement;
+    }
+
+    private static char[] createUnaccentTable() {
+        char[] table = new char[UNACCENT_LAST - UNACCENT_FIRST + 1];
+        String[][] replacements = {
+            {"àáạảãâầấậẩẫăằắặẳẵ", "a"},
+            {"èéẹẻẽêềếệểễ", "e"},
+            {"ìíịỉĩ", "i"},
+            {"òóọỏõôồốộổỗơờớợởỡ", "o"},
+            {"ùúụủũưừứựửữ", "u"},
+            {"ỳýỵỷỹ", "y"},
+            {"đ", "d"},
+            {"ÀÁẠẢÃÂẦẤẬẨẪĂẰẮẶẲẴ", "A"},
+            {"ÈÉẸẺẼÊỀẾỆỂỄ", "E"},
+            {"ÌÍỊỈĨ", "I"},
+            {"ÒÓỌỎÕÔỒỐỘỔỖƠỜỚỢỞỠ", "O"},
+            {"ÙÚỤỦŨƯỪỨỰỬỮ", "U"},
+            {"ỲÝỴỶỸ", "Y"},
+            {"Đ", "D"},
+            // Combining grave, acute, circumflex, tilde, breve, hook above, horn and dot below of decomposed text
+            {"\u0300\u0301\u0302\u0303\u0306\u0309\u031B\u0323", String.valueOf(UNACCENT_REMOVE)},
+        };
+        for (String[] replacement : replacements) {
+            for (char c : replacement[0].toCharArray()) {
+                table[c - UNACCENT_FIRST] = replacement[1].charAt(0);
+            }
+        }
+        return table;
+    }
+
     public static String toSnakeCase(String input) {
         if (StringUtils.isEmpty(input)) return input;
         return CaseFormat.UPPER_CAMEL.to(CaseFormat.LOWER_UNDERSCORE, input);
@@ -4,15 +4,31 @@ import org.apache.commons.lang3.StringUtils;
 import org.nentangso.core.service.errors.FormValidationException;
 
 import javax.validation.ConstraintViolation;
+import javax.validation.MessageInterpolator;
 import javax.validation.Validation;
+import javax.validation.ValidationException;
 import javax.validation.Validator;
 import javax.validation.ValidatorFactory;
+import javax.validation.metadata.ConstraintDescriptor;
+import javax.validation.metadata.PropertyDescriptor;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.InvocationTargetException;
 import java.util.*;
 
 public class NtsValidationUtils {
     private NtsValidationUtils() {
     }
 
+    /**
+     * Compiled validators by DTO class, empty when the DTO has none
+     */
+    private static final ClassValue<Optional<NtsObjectValidator<Object>>> COMPILED_VALIDATORS = new ClassValue<>() {
+        @Override
+        protected Optional<NtsObjectValidator<Object>> computeValue(Class<?> type) {
+            return loadCompiledValidator(type);
+        }
+    };
+
     public static <T> void validateObject(T entity) {
         validateObject(entity, null);
     }
@@ -26,9 +42,12 @@ public class NtsValidationUtils {
 
     public static <T> Map<String, List<String>> validateObjectAndGetErrors(T entity, String prefix) {
         Map<String, List<String>> errors = new HashMap<>();
-        ValidatorFactory factory = Validation.buildDefaultValidatorFactory();
-        Validator validator = factory.getValidator();
-        Set<ConstraintViolation<T>> constraintViolations = validator.validate(entity);
+        Optional<NtsObjectValidator<Object>> compiledValidator = COMPILED_VALIDATORS.get(entity.getClass());
+        if (compiledValidator.isPresent()) {
+            compiledValidator.get().validate(entity, prefix, errors);
+            return errors;
+        }
+        Set<ConstraintViolation<T>> constraintViolations = getValidator().validate(entity);
         if (!constraintViolations.isEmpty()) {
             for (ConstraintViolation<T> constraintViolation : constraintViolations) {
                 String field = StringUtils.join(prefix, constraintViolation.getPropertyPath().toString());
@@ -39,4 +58,84 @@ public class NtsValidationUtils {
         }
         return errors;
     }
+
+    /**
+     * Shared Bean Validation validator, built on first use
+     *
+     * @return the validator
+     */
+    public static Validator getValidator() {
+        return ValidatorHolder.VALIDATOR;
+    }
+
+    /**
+     * Message of a field constraint violated in a compiled validator, interpolated from the message template of the constraint
+     * by the {@link MessageInterpolator} of the shared validator, as Bean Validation does.
+     *
+     * @param type       the DTO class
+     * @param field      the field name
+     * @param constraint the constraint annotation type
+     * @param value      the field value
+     * @return the interpolated message
+     */
+    public static String interpolate(Class<?> type, String field, Class<? extends Annotation> constraint, Object value) {
+        PropertyDescriptor property = getValidator().getConstraintsForClass(type).getConstraintsForProperty(field);
+        ConstraintDescriptor<?> descriptor = property == null ? null : property.getConstraintDescriptors().stream()
+            .filter(candidate -> candidate.getAnnotation().annotationType().equals(constraint))
+            .findFirst()
+            .orElse(null);
+        if (descriptor == null) {
+            throw new IllegalStateException("No " + constraint.getSimpleName() + " on " + type.getName() + "." + field);
+        }
+        return ValidatorHolder.FACTORY.getMessageInterpolator()
+            .interpolate(descriptor.getMessageTemplate(), new InterpolatorContext(descriptor, value));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Optional<NtsObjectValidator<Object>> loadCompiledValidator(Class<?> type) {
+        try {
+            Class<?> validatorClass = Class.forName(type.getName() + NtsObjectValidator.CLASS_SUFFIX, true, type.getClassLoader());
+            if (!NtsObjectValidator.class.isAssignableFrom(validatorClass)) {
+                return Optional.empty();
+            }
+            return Optional.of((NtsObjectValidator<Object>) validatorClass.getDeclaredConstructor().newInstance());
+        } catch (ClassNotFoundException | LinkageError e) {
+            return Optional.empty();
+        } catch (NoSuchMethodException | InstantiationException | IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("Cannot create compiled validator of " + type.getName(), e);
+        }
+    }
+
+    private static final class ValidatorHolder {
+        private static final ValidatorFactory FACTORY = Validation.buildDefaultValidatorFactory();
+        private static final Validator VALIDATOR = FACTORY.getValidator();
+    }
+
+    private static final class InterpolatorContext implements MessageInterpolator.Context {
+        private final ConstraintDescriptor<?> constraintDescriptor;
+        private final Object validatedValue;
+
+        InterpolatorContext(ConstraintDescriptor<?> constraintDescriptor, Object validatedValue) {
+            this.constraintDescriptor = constraintDescriptor;
+            this.validatedValue = validatedValue;
+        }
+
+        @Override
+        public ConstraintDescriptor<?> getConstraintDescriptor() {
+            return constraintDescriptor;
+        }
+
+        @Override
+        public Object getValidatedValue() {
+            return validatedValue;
+        }
+
+        @Override
+        public <T> T unwrap(Class<T> type) {
+            if (type.isInstance(this)) {
+                return type.cast(this);
+            }
+            throw new ValidationException("Cannot unwrap " + type.getName());
+        }
+    }
 }
@@ -0,0 +1,43 @@
+package org.nentangso.core.config;
+
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.nentangso.core.service.utils.NtsIdUtils;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Id Configuration Unit Tests power by nentangso.org")
+public class NtsIdConfigurationTests {
+
+    @BeforeEach
+    public void requireDerivedNodeId() {
+        Assumptions.assumeFalse(NtsIdUtils.isNodeIdConfigured(), "nts.id.node-id is configured");
+    }
+
+    @Test
+    @DisplayName("Node id: required outside development and test profiles")
+    public void requireNodeId() {
+        StandardEnvironment environment = new StandardEnvironment();
+        environment.setActiveProfiles("prod");
+        assertThrows(IllegalStateException.class, () -> new NtsIdConfiguration(environment, true));
+        assertDoesNotThrow(() -> new NtsIdConfiguration(environment, false));
+
+        environment.setActiveProfiles("dev");
+        assertDoesNotThrow(() -> new NtsIdConfiguration(environment, true));
+    }
+
+    @Test
+    @DisplayName("Node id: not read from the application properties")
+    public void nodeIdInApplicationProperties() {
+        StandardEnvironment environment = new StandardEnvironment();
+        environment.setActiveProfiles("dev");
+        environment.getPropertySources().addFirst(new MapPropertySource("application", Map.of("nts.id.node-id", "1")));
+        assertThrows(IllegalStateException.class, () -> new NtsIdConfiguration(environment, false));
+    }
+}
@@ -0,0 +1,61 @@
+package org.nentangso.core.service.utils;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Fingerprint Cache Unit Tests power by nentangso.org")
+public class NtsFingerprintCacheTests {
+
+    @Test
+    @DisplayName("Fingerprint: only the listed claims, authorities in any order")
+    public void fingerprint() {
+        List<String> claimNames = List.of("sub", "email");
+        Map<String, Object> claims = new HashMap<>(Map.of("sub", "alice", "email", "alice@example.com", "iat", 1));
+        long fingerprint = NtsFingerprintCache.fingerprint(claims, claimNames, List.of("ROLE_USER", "ROLE_ADMIN"));
+
+        claims.put("iat", 2);
+        assertEquals(fingerprint, NtsFingerprintCache.fingerprint(claims, claimNames, List.of("ROLE_ADMIN", "ROLE_USER")));
+        assertNotEquals(fingerprint, NtsFingerprintCache.fingerprint(claims, claimNames, List.of("ROLE_USER")));
+        claims.put("email", "bob@example.com");
+        assertNotEquals(fingerprint, NtsFingerprintCache.fingerprint(claims, claimNames, List.of("ROLE_USER", "ROLE_ADMIN")));
+        claims.remove("email");
+        assertNotEquals(
+            NtsFingerprintCache.fingerprint(claims, claimNames, List.of()),
+            NtsFingerprintCache.fingerprint(Map.of("sub", "alice", "email", ""), claimNames, List.of())
+        );
+    }
+
+    @Test
+    @DisplayName("Is unchanged: same fingerprint until invalidated")
+    public void isUnchanged() {
+        NtsFingerprintCache cache = new NtsFingerprintCache(2, Duration.ofMinutes(10));
+        assertFalse(cache.isUnchanged("alice", 1L));
+
+        cache.put("alice", 1L);
+        assertTrue(cache.isUnchanged("alice", 1L));
+        assertFalse(cache.isUnchanged("alice", 2L));
+
+        cache.invalidate("alice");
+        assertFalse(cache.isUnchanged("alice", 1L));
+
+        cache.put("alice", 1L);
+        cache.put("bob", 1L);
+        cache.put("carol", 1L);
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    @DisplayName("Is unchanged: disabled with a maximum size of 0")
+    public void isUnchanged_disabled() {
+        NtsFingerprintCache cache = new NtsFingerprintCache(0, Duration.ofMinutes(10));
+        cache.put("alice", 1L);
+        assertFalse(cache.isUnchanged("alice", 1L));
+    }
+}
@@ -0,0 +1,65 @@
+package org.nentangso.core.service.utils;
+
+import org.junit.jupiter.api.*;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Global Id Utils Unit Tests power by nentangso.org")
+public class NtsGlobalIdUtilsTests {
+    @Test
+    @DisplayName("To local id: parse valid global id")
+    public void toLocalId() {
+        assertEquals(123L, NtsGlobalIdUtils.toLocalId("gid://shop/Product/123", "Product"));
+        assertEquals(Long.MAX_VALUE, NtsGlobalIdUtils.toLocalId("gid://shop/Product/" + Long.MAX_VALUE, "Product"));
+        assertEquals(7L, NtsGlobalIdUtils.toLocalId("gid://shop/Product/007", "Product"));
+        assertNull(NtsGlobalIdUtils.toLocalId(null, "Product"));
+        assertNull(NtsGlobalIdUtils.toLocalId(" ", "Product"));
+    }
+
+    @Test
+    @DisplayName("To local id: throws IllegalArgumentException")
+    public void toLocalId_throws_illegal_argument_exception() {
+        assertThrows(IllegalArgumentException.class, () -> NtsGlobalIdUtils.toLocalId("gid://shop/Product/1", "Product/1"));
+        assertThrows(IllegalArgumentException.class, () -> NtsGlobalIdUtils.toLocalId("gid://shop/Product/1", "1Product"));
+        assertThrows(IllegalArgumentException.class, () -> NtsGlobalIdUtils.toLocalId("gid://shop/Product/", "Product"));
+        assertThrows(IllegalArgumentException.class, () -> NtsGlobalIdUtils.toLocalId("gid://shop/Variant/1", "Product"));
+        assertThrows(IllegalArgumentException.class, () -> NtsGlobalIdUtils.toLocalId("gid://shop/Product/1a", "Product"));
+        assertThrows(IllegalArgumentException.class, () -> NtsGlobalIdUtils.toLocalId("gid://shop/Product/-1", "Product"));
+        assertThrows(IllegalArgumentException.class, () -> NtsGlobalIdUtils.toLocalId(" gid://shop/Product/1", "Product"));
+        assertThrows(NumberFormatException.class, () -> NtsGlobalIdUtils.toLocalId("gid://shop/Product/9223372036854775808", "Product"));
+    }
+
+    @Test
+    @DisplayName("Codec: cached only through of")
+    public void codecCache() {
+        assertSame(NtsGlobalIdCodec.of("Product"), NtsGlobalIdCodec.of("Product"));
+        assertSame(NtsGlobalIdCodec.of("Product"), NtsGlobalIdCodec.uncached("Product"));
+        assertNotSame(NtsGlobalIdCodec.uncached("Unknown"), NtsGlobalIdCodec.uncached("Unknown"));
+        assertEquals(1L, NtsGlobalIdCodec.uncached("Unknown").toLocalId("gid://shop/Unknown/1"));
+        assertThrows(IllegalArgumentException.class, () -> NtsGlobalIdCodec.uncached("Unk/nown"));
+    }
+
+    @Test
+    @DisplayName("To local ids: keep order, skip blank ids")
+    public void toLocalIds() {
+        List<String> ids = Arrays.asList("gid://shop/Product/3", null, "gid://shop/Product/1", "", "gid://shop/Product/2");
+        assertEquals(List.of(3L, 1L, 2L), NtsGlobalIdUtils.toLocalIds(ids, "Product"));
+        assertArrayEquals(new long[]{3L, 1L, 2L}, NtsGlobalIdUtils.toLocalIdArray(ids, "Product"));
+        assertEquals(Set.of(1L, 2L), NtsGlobalIdUtils.toLocalIds(Set.of("gid://shop/Product/1", "gid://shop/Product/2"), "Product"));
+        assertTrue(NtsGlobalIdUtils.toLocalIds((List<String>) null, "invalid name").isEmpty());
+    }
+
+    @Test
+    @DisplayName("To global id: format valid legacy id")
+    public void toGlobalId() {
+        assertEquals("gid://shop/Product/123", NtsGlobalIdUtils.toGlobalId(123L, "Product"));
+        assertEquals("gid://shop/Product/" + Long.MAX_VALUE, NtsGlobalIdUtils.toGlobalId(Long.MAX_VALUE, "Product"));
+        assertNull(NtsGlobalIdUtils.toGlobalId(null, "Product"));
+        assertArrayEquals(new String[]{"gid://shop/Order/1", "gid://shop/Order/2"}, NtsGlobalIdCodec.of("Order").toGlobalIds(new long[]{1, 2}));
+        assertSame(NtsGlobalIdCodec.of("Order"), NtsGlobalIdCodec.of("Order"));
+        assertThrows(IllegalArgumentException.class, () -> NtsGlobalIdUtils.toGlobalId(0L, "Product"));
+        assertThrows(IllegalArgumentException.class, () -> NtsGlobalIdUtils.toGlobalId(1L, "Product-1"));
+    }
+}
@@ -0,0 +1,82 @@
+package org.nentangso.core.service.utils;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Id Utils Unit Tests power by nentangso.org")
+public class NtsIdUtilsTests {
+
+    @Test
+    @DisplayName("Next id: strictly increasing with time and node")
+    public void nextId() {
+        Instant before = Instant.now().minusMillis(1);
+        long previous = NtsIdUtils.nextId();
+        for (int i = 0; i < 100_000; i++) {
+            long id = NtsIdUtils.nextId();
+            assertTrue(id > previous);
+            previous = id;
+        }
+        assertTrue(previous > 0);
+        assertEquals(NtsIdUtils.getNodeId(), NtsIdUtils.nodeOf(previous));
+        Instant timestamp = NtsIdUtils.timestampOf(previous);
+        assertFalse(timestamp.isBefore(before));
+        assertTrue(Duration.between(Instant.now(), timestamp).toMillis() < 1000);
+        assertTrue(NtsIdUtils.firstIdAt(timestamp) <= previous);
+        assertTrue(NtsIdUtils.firstIdAt(timestamp.plusMillis(1)) > previous);
+        assertEquals(timestamp, NtsIdUtils.timestampOf(NtsIdUtils.firstIdAt(timestamp)));
+    }
+
+    @Test
+    @DisplayName("Next id: unique across threads")
+    public void nextId_concurrent() throws Exception {
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 20_000; i++) {
+                        ids.add(NtsIdUtils.nextId());
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(160_000, ids.size());
+    }
+
+    @Test
+    @DisplayName("Next UUID: version 7, increasing in a thread")
+    public void nextUuid() {
+        long before = System.currentTimeMillis();
+        UUID previous = NtsIdUtils.nextUuid();
+        assertEquals(7, previous.version());
+        assertEquals(2, previous.variant());
+        assertTrue(previous.getMostSignificantBits() >>> 16 >= before);
+        for (int i = 0; i < 100_000; i++) {
+            UUID uuid = NtsIdUtils.nextUuid();
+            assertTrue(Long.compareUnsigned(uuid.getMostSignificantBits(), previous.getMostSignificantBits()) > 0);
+            previous = uuid;
+        }
+        String value = NtsIdUtils.nextUuidString();
+        assertEquals(36, value.length());
+        assertEquals('7', value.charAt(14));
+    }
+}
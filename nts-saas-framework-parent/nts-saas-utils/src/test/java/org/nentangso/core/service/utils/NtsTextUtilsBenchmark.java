@@ -0,0 +1,88 @@
+package org.nentangso.core.service.utils;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * {@link NtsTextUtils#unaccentVietnamese} and {@link NtsTextUtils#generateAddressCode} against the former regex implementations.
+ * <p>
+ * Run the main method from the IDE, or {@code org.openjdk.jmh.Main NtsTextUtilsBenchmark} on the test classpath,
+ * with {@code -prof gc} to compare allocations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NtsTextUtilsBenchmark {
+    @Param({"Số 1 Đường Nguyễn Văn Trỗi, Phường 8, Quận Phú Nhuận, Thành phố Hồ Chí Minh", "1 Nguyen Van Troi Street, Ward 8"})
+    public String input;
+
+    private final StringBuilder output = new StringBuilder(128);
+
+    @Benchmark
+    public String unaccentRegex() {
+        return legacyUnaccentVietnamese(input);
+    }
+
+    @Benchmark
+    public String unaccentTable() {
+        return NtsTextUtils.unaccentVietnamese(input);
+    }
+
+    @Benchmark
+    public StringBuilder unaccentTableBuilder() {
+        output.setLength(0);
+        return NtsTextUtils.unaccentVietnamese(input, output);
+    }
+
+    @Benchmark
+    public String addressCodeRegex() {
+        return legacyReplaceSpecialWithUnderScore(legacyUnaccentVietnamese(input)).toUpperCase();
+    }
+
+    @Benchmark
+    public String addressCodeTable() {
+        return NtsTextUtils.generateAddressCode(input);
+    }
+
+    private static String legacyReplaceSpecialWithUnderScore(String code) {
+        if (Pattern.compile("[^A-Za-z0-9_]").matcher(code).find()) {
+            return legacyReplaceSpecialWithUnderScore(code.replaceAll("[^A-Za-z0-9_]", "_"));
+        }
+        if (Pattern.compile("_{2}").matcher(code).find()) {
+            return legacyReplaceSpecialWithUnderScore(code.replaceAll("_+", "_"));
+        }
+        return code;
+    }
+
+    private static String legacyUnaccentVietnamese(String input) {
+        input = input.replaceAll("[àáạảãâầấậẩẫăằắặẳẵ]", "a");
+        input = input.replaceAll("[èéẹẻẽêềếệểễ]", "e");
+        input = input.replaceAll("[ìíịỉĩ]", "i");
+        input = input.replaceAll("[òóọỏõôồốộổỗơờớợởỡ]", "o");
+        input = input.replaceAll("[ùúụủũưừứựửữ]", "u");
+        input = input.replaceAll("[ỳýỵỷỹ]", "y");
+        input = input.replaceAll("[đ]", "d");
+        input = input.replaceAll("[ÀÁẠẢÃÂẦẤẬẨẪĂẰẮẶẲẴ]", "A");
+        input = input.replaceAll("[ÈÉẸẺẼÊỀẾỆỂỄ]", "E");
+        input = input.replaceAll("[ÌÍỊỈĨ]", "I");
+        input = input.replaceAll("[ÒÓỌỎÕÔỒỐỘỔỖƠỜỚỢỞỠ]", "O");
+        input = input.replaceAll("[ÙÚỤỦŨƯỪỨỰỬỮ]", "U");
+        input = input.replaceAll("[ỲÝỴỶỸ]", "Y");
+        input = input.replaceAll("[Đ]", "D");
+        return input;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(NtsTextUtilsBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+}
@@ -2,6 +2,8 @@ package org.nentangso.core.service.utils;
 
 import org.junit.jupiter.api.*;
 
+import java.text.Normalizer;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 @DisplayName("Text Utils Unit Tests power by nentangso.org")
@@ -29,4 +31,35 @@ public class NtsTextUtilsTests {
         assertEquals("", NtsTextUtils.unaccentVietnamese(""));
         assertEquals(" ", NtsTextUtils.unaccentVietnamese(" "));
     }
+
+    @Test
+    @DisplayName("Unaccent Vietnamese: decomposed input")
+    public void unaccentVietnamese_nfd() {
+        String input = "Nguyễn Văn Long, Phường Đa Kao, Quận Một, Thành phố Hồ Chí Minh";
+        String expected = "Nguyen Van Long, Phuong Da Kao, Quan Mot, Thanh pho Ho Chi Minh";
+        assertEquals(expected, NtsTextUtils.unaccentVietnamese(Normalizer.normalize(input, Normalizer.Form.NFD)));
+        assertEquals(expected, NtsTextUtils.unaccentVietnamese(Normalizer.normalize(input, Normalizer.Form.NFC)));
+        assertEquals("U u O o", NtsTextUtils.unaccentVietnamese(Normalizer.normalize("Ữ ừ Ở ợ", Normalizer.Form.NFD)));
+    }
+
+    @Test
+    @DisplayName("Unaccent Vietnamese: append to StringBuilder, same instance without accents")
+    public void unaccentVietnamese_builder() {
+        StringBuilder output = new StringBuilder("> ");
+        assertSame(output, NtsTextUtils.unaccentVietnamese(new StringBuilder("Hà Nội"), output));
+        assertEquals("> Ha Noi", output.toString());
+        String input = "Ha Noi";
+        assertSame(input, NtsTextUtils.unaccentVietnamese(input));
+    }
+
+    @Test
+    @DisplayName("Generate address code")
+    public void generateAddressCode() {
+        assertEquals("THANH_PHO_HO_CHI_MINH", NtsTextUtils.generateAddressCode("Thành phố Hồ Chí Minh"));
+        assertEquals("BA_RIA_VUNG_TAU", NtsTextUtils.generateAddressCode("Bà Rịa - Vũng Tàu"));
+        assertEquals("_QUAN_1_", NtsTextUtils.generateAddressCode(" Quận 1 "));
+        assertEquals("DAK_LAK", NtsTextUtils.generateAddressCode(Normalizer.normalize("Đắk__Lắk", Normalizer.Form.NFD)));
+        assertEquals("", NtsTextUtils.generateAddressCode(" "));
+        assertEquals("", NtsTextUtils.generateAddressCode(null));
+    }
 }
@@ -1,6 +1,7 @@
 package org.nentangso.core.domain;
 
 import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.GenericGenerator;
 import org.hibernate.annotations.Where;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 
@@ -30,7 +31,8 @@ public class NtsMetafieldEntity extends AbstractAuditingEntity implements Serial
      * The unique ID of the metafield.
      */
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(generator = NtsTimeOrderedIdGenerator.NAME)
+    @GenericGenerator(name = NtsTimeOrderedIdGenerator.NAME, strategy = NtsTimeOrderedIdGenerator.STRATEGY)
     @Column(name = "id")
     private Long id;
 
@@ -1,6 +1,7 @@
 package org.nentangso.core.service.dto;
 
 import io.swagger.v3.oas.annotations.media.Schema;
+import org.nentangso.core.annotation.CompiledValidator;
 import org.nentangso.core.service.utils.NtsValidationUtils;
 
 import javax.validation.constraints.NotNull;
@@ -10,6 +11,7 @@ import java.util.function.Supplier;
 /**
  * Represents a generic custom attribute.
  */
+@CompiledValidator
 @Schema(description = "Represents a generic custom attribute.")
 public class NtsAttributeDTO implements Serializable {
     /**
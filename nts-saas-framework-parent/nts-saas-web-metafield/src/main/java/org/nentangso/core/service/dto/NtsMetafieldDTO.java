@@ -1,5 +1,8 @@
 package org.nentangso.core.service.dto;
 
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
+import org.nentangso.core.annotation.CompiledValidator;
 import org.nentangso.core.service.utils.NtsValidationUtils;
 
 import javax.validation.constraints.Min;
@@ -10,10 +13,12 @@ import java.io.Serializable;
 import java.time.Instant;
 import java.util.function.Supplier;
 
+@CompiledValidator
 public class NtsMetafieldDTO extends AbstractAuditingDTO implements Serializable {
     /**
-     * The unique ID of the metafield.
+     * The unique ID of the metafield, a JSON string: time-ordered ids exceed the integers exact in JavaScript.
      */
+    @JsonSerialize(using = ToStringSerializer.class)
     private final Long id;
 
     /**
@@ -24,10 +29,11 @@ public class NtsMetafieldDTO extends AbstractAuditingDTO implements Serializable
     private final String ownerResource;
 
     /**
-     * The unique ID of the resource that the metafield is attached to.
+     * The unique ID of the resource that the metafield is attached to, a JSON string.
      */
     @NotNull
     @Min(1L)
+    @JsonSerialize(using = ToStringSerializer.class)
     private final Long ownerId;
 
     /**
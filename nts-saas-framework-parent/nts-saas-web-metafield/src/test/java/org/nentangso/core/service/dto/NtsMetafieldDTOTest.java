@@ -0,0 +1,96 @@
+package org.nentangso.core.service.dto;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.nentangso.core.service.errors.FormValidationException;
+import org.nentangso.core.service.utils.NtsValidationUtils;
+
+import javax.validation.ConstraintViolation;
+import java.util.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Test class for the compiled validators of {@link NtsMetafieldDTO} and {@link NtsAttributeDTO},
+ * which must report the same errors as Bean Validation.
+ */
+class NtsMetafieldDTOTest {
+    @Test
+    void testCompiledValidatorsAreGenerated() throws Exception {
+        assertThat(Class.forName(NtsMetafieldDTO.class.getName() + "_NtsValidator")).isNotNull();
+        assertThat(Class.forName(NtsAttributeDTO.class.getName() + "_NtsValidator")).isNotNull();
+    }
+
+    @Test
+    void testSameErrorsAsBeanValidation() {
+        List<NtsMetafieldDTO> metafields = List.of(
+            metafield("product", 1L, "custom", "color", "red", "single_line_text_field", "Color"),
+            metafield(null, null, null, null, null, null, null),
+            metafield(" ", 0L, "c", "co", "red", "", null),
+            metafield("p".repeat(21), -5L, "n".repeat(21), "k".repeat(31), "v".repeat(65536), "t".repeat(51), "d".repeat(256))
+        );
+        for (NtsMetafieldDTO metafield : metafields) {
+            assertThat(sorted(NtsValidationUtils.validateObjectAndGetErrors(metafield, "metafield.")))
+                .isEqualTo(beanValidationErrors(metafield, "metafield."));
+        }
+        NtsAttributeDTO attribute = NtsAttributeDTO.newBuilder().skipValidation(true).build();
+        assertThat(NtsValidationUtils.validateObjectAndGetErrors(attribute, null))
+            .isEqualTo(beanValidationErrors(attribute, null))
+            .containsOnlyKeys("key");
+    }
+
+    @Test
+    void testBuilderValidates() {
+        assertThatThrownBy(() -> NtsAttributeDTO.newBuilder().value("v").build())
+            .isInstanceOf(FormValidationException.class);
+        assertThat(NtsAttributeDTO.newBuilder().key("k").build().getKey()).isEqualTo("k");
+    }
+
+    @Test
+    void testIdsAreSerializedAsStrings() throws Exception {
+        NtsMetafieldDTO metafield = NtsMetafieldDTO.newBuilder()
+            .id(912345678901234567L)
+            .ownerResource("product")
+            .ownerId(912345678901234568L)
+            .namespace("custom")
+            .key("color")
+            .value("red")
+            .type("single_line_text_field")
+            .build();
+
+        ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+        JsonNode node = objectMapper.readTree(objectMapper.writeValueAsString(metafield));
+
+        assertThat(node.get("id").textValue()).isEqualTo("912345678901234567");
+        assertThat(node.get("ownerId").textValue()).isEqualTo("912345678901234568");
+    }
+
+    private static NtsMetafieldDTO metafield(String ownerResource, Long ownerId, String namespace, String key, String value, String type, String description) {
+        return NtsMetafieldDTO.newBuilder()
+            .ownerResource(ownerResource)
+            .ownerId(ownerId)
+            .namespace(namespace)
+            .key(key)
+            .value(value)
+            .type(type)
+            .description(description)
+            .skipValidation(true)
+            .build();
+    }
+
+    private static <T> Map<String, List<String>> beanValidationErrors(T object, String prefix) {
+        Map<String, List<String>> errors = new HashMap<>();
+        for (ConstraintViolation<T> violation : NtsValidationUtils.getValidator().validate(object)) {
+            String field = (prefix == null ? "" : prefix) + violation.getPropertyPath();
+            errors.computeIfAbsent(field, k -> new ArrayList<>()).add(violation.getMessage());
+        }
+        return sorted(errors);
+    }
+
+    private static Map<String, List<String>> sorted(Map<String, List<String>> errors) {
+        errors.values().forEach(Collections::sort);
+        return errors;
+    }
+}
@@ -0,0 +1,64 @@
+package org.nentangso.core.service.utils;
+
+import org.nentangso.core.service.dto.NtsMetafieldDTO;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validation;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Validation cost of a {@link NtsMetafieldDTO}: a validator factory built per call (the former behaviour),
+ * the shared Bean Validation validator, and the compiled validator used by {@link NtsValidationUtils}.
+ * <p>
+ * Run the main method from the IDE, or {@code org.openjdk.jmh.Main NtsValidationUtilsBenchmark} on the test classpath,
+ * with {@code -prof gc} to compare allocations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NtsValidationUtilsBenchmark {
+    private NtsMetafieldDTO metafield;
+
+    @Setup
+    public void setup() {
+        metafield = NtsMetafieldDTO.newBuilder()
+            .ownerResource("product")
+            .ownerId(1L)
+            .namespace("custom")
+            .key("color")
+            .value("red")
+            .type("single_line_text_field")
+            .description("Color")
+            .skipValidation(true)
+            .build();
+    }
+
+    @Benchmark
+    public Set<ConstraintViolation<NtsMetafieldDTO>> factoryPerCall() {
+        return Validation.buildDefaultValidatorFactory().getValidator().validate(metafield);
+    }
+
+    @Benchmark
+    public Set<ConstraintViolation<NtsMetafieldDTO>> sharedValidator() {
+        return NtsValidationUtils.getValidator().validate(metafield);
+    }
+
+    @Benchmark
+    public Object compiledValidator() {
+        return NtsValidationUtils.validateObjectAndGetErrors(metafield, null);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(NtsValidationUtilsBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+}